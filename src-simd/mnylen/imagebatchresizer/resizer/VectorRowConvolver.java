@@ -0,0 +1,55 @@
+package mnylen.imagebatchresizer.resizer;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The <code>RowConvolver</code> implementation using the SIMD instructions of
+ * the processor through the <code>jdk.incubator.vector</code> module. The class
+ * is not used directly, but loaded by {@link RowConvolver#vector()} when the
+ * module is present.
+ * 
+ * <p>Only the vertical pass, which does most of the work when scaling down, is
+ * vectorized: the rows are combined as many channels at a time as the widest
+ * vectors of the processor hold.</p>
+ */
+final class VectorRowConvolver extends RowConvolver {
+	private static final VectorSpecies<Float> LINE = FloatVector.SPECIES_PREFERRED;
+	
+	public String getName() {
+		return "vector (" + LINE.length() + " lanes)";
+	}
+	
+	void convolveHorizontally(float[] src, ResampleWeights weights, float[] dst) {
+		// Vectorizing the taps of a single pixel measured slower than the scalar
+		// loop, and this pass only runs once per destination row anyway
+		RowConvolver.scalar().convolveHorizontally(src, weights, dst);
+	}
+	
+	void convolveVertically(float[][] ring, int first, int count, float[] weights, int base,
+			float[] dst) {
+		int length = dst.length;
+		int bound  = LINE.loopBound(length);
+		int i      = 0;
+		
+		for (; i < bound; i += LINE.length()) {
+			FloatVector sum = FloatVector.zero(LINE);
+			
+			for (int k = 0; k < count; k++) {
+				sum = FloatVector.fromArray(LINE, ring[(first + k) % ring.length], i)
+						.fma(FloatVector.broadcast(LINE, weights[base + k]), sum);
+			}
+			
+			sum.intoArray(dst, i);
+		}
+		
+		for (; i < length; i++) {
+			float sum = 0;
+			
+			for (int k = 0; k < count; k++)
+				sum += weights[base + k] * ring[(first + k) % ring.length][i];
+			
+			dst[i] = sum;
+		}
+	}
+}
@@ -17,6 +17,11 @@ import java.awt.event.*;
 public class BatchProgressFrame extends JFrame implements ActionListener, BatchProgressListener, WindowListener {
 	private BatchResizer batchResizer;
 	
+	/**
+	 * Whether the window is to be closed once the batch has finished.
+	 */
+	private volatile boolean closeRequested;
+	
 	/**
 	 * Creates a new <code>BatchProgressFrame</code> with the given batch resizer.
 	 * 
@@ -25,6 +30,7 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 	public BatchProgressFrame(BatchResizer batchResizer) {
 		this.setTitle("Resizing images...");
 		this.setResizable(false);
+		this.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
 		addWindowListener(this);
 		initializeControls();
 		createLayout();
@@ -38,12 +44,23 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 	public void actionPerformed(ActionEvent evt) {
 		if (evt.getActionCommand().equals(BUTTON_EXIT)) {
 			dispose();
+		} else if (evt.getActionCommand().equals(BUTTON_PAUSE)) {
+			if (batchResizer.getState() == BatchState.Paused)
+				batchResizer.resume();
+			else
+				batchResizer.pause();
+		} else if (evt.getActionCommand().equals(BUTTON_CANCEL)) {
+			batchResizer.cancel();
 		}
 	}
 	
 	private final String BUTTON_EXIT = "exit";
+	private final String BUTTON_PAUSE = "pause";
+	private final String BUTTON_CANCEL = "cancel";
 	private JList resultList;
 	private JScrollPane scrollPane;
+	private JButton pauseButton;
+	private JButton cancelButton;
 	private JButton exitButton;
 	
 	/**
@@ -59,6 +76,12 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 		scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 		scrollPane.setPreferredSize(new Dimension(600, 300));
 		scrollPane.setBorder(new EtchedBorder());
+		pauseButton = new JButton("Pause");
+		pauseButton.setActionCommand(BUTTON_PAUSE);
+		pauseButton.addActionListener(this);
+		cancelButton = new JButton("Cancel");
+		cancelButton.setActionCommand(BUTTON_CANCEL);
+		cancelButton.addActionListener(this);
 		exitButton = new JButton("Exit");
 		exitButton.setActionCommand(BUTTON_EXIT);
 		exitButton.setEnabled(false);
@@ -77,11 +100,17 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 		
 		layout.setHorizontalGroup(layout.createParallelGroup(Alignment.TRAILING)
 				.addComponent(scrollPane)
-				.addComponent(exitButton));
+				.addGroup(layout.createSequentialGroup()
+						.addComponent(pauseButton)
+						.addComponent(cancelButton)
+						.addComponent(exitButton)));
 		
 		layout.setVerticalGroup(layout.createSequentialGroup()
 				.addComponent(scrollPane)
-				.addComponent(exitButton));
+				.addGroup(layout.createParallelGroup()
+						.addComponent(pauseButton)
+						.addComponent(cancelButton)
+						.addComponent(exitButton)));
 		
 		pack();
 	}
@@ -118,7 +147,10 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 	 */
 	@Override
 	public void fileSaved(BatchSaveEvent evt) {
-		addResultLine("OK - saved to '" + evt.getDestinationFile().getAbsolutePath() + "'");
+		if (evt.isSkipped())
+			addResultLine("OK - already saved to '" + evt.getDestinationFile().getAbsolutePath() + "'");
+		else
+			addResultLine("OK - saved to '" + evt.getDestinationFile().getAbsolutePath() + "'");
 		
 	}
 	
@@ -127,24 +159,57 @@ public class BatchProgressFrame extends JFrame implements ActionListener, BatchP
 	 */
 	@Override
 	public void stateChanged(BatchEvent evt) {
-		if (evt.getState() == BatchState.Finished) {
+		if (evt.getState() == BatchState.Paused) {
+			addResultLine("Paused, the images being resized are finished first...");
+			pauseButton.setText("Resume");
+		} else if (evt.getState() == BatchState.Processing) {
+			pauseButton.setText("Pause");
+		} else if (evt.getState() == BatchState.Cancelling) {
+			addResultLine("Cancelling, the images being resized are finished first...");
+			pauseButton.setEnabled(false);
+			cancelButton.setEnabled(false);
+		} else if (evt.getState() == BatchState.Finished) {
 			addResultLine("");
-			addResultLine("Finished!");
+			addResultLine(batchResizer.isCancelled() ? "Cancelled!" : "Finished!");
+			pauseButton.setEnabled(false);
+			cancelButton.setEnabled(false);
 			exitButton.setEnabled(true);
+			
+			if (closeRequested)
+				dispose();
 		}
 	}
 	
 
 	/**
 	 * Handles the case where user tries to close the window when the
-	 * batch is being processed.
+	 * batch is being processed by offering to cancel the batch. If the batch
+	 * is cancelled, the window is closed once the batch has finished.
 	 * 
 	 * @see WindowListener#windowClosing(WindowEvent)
 	 */
 	@Override
 	public void windowClosing(WindowEvent evt) {
-		if (batchResizer.getState() == BatchState.Processing) {
-			JOptionPane.showMessageDialog(this, "Please wait for the resize operation to finish...");
+		BatchState state = batchResizer.getState();
+		
+		if (state == BatchState.Processing || state == BatchState.Paused) {
+			int answer = JOptionPane.showConfirmDialog(this,
+					"Cancel resizing? The images being resized are finished first.",
+					"Cancel", JOptionPane.YES_NO_OPTION);
+			
+			if (answer == JOptionPane.YES_OPTION) {
+				closeRequested = true;
+				batchResizer.cancel();
+				
+				// Finished while the dialog was open
+				if (batchResizer.getState() == BatchState.Finished)
+					dispose();
+			}
+		} else if (state == BatchState.Cancelling) {
+			closeRequested = true;
+			JOptionPane.showMessageDialog(this, "The window is closed once the images being resized are finished...");
+		} else {
+			dispose();
 		}
 	}
 	
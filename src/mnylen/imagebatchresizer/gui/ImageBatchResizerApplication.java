@@ -46,6 +46,8 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 			browseButton_Click();
 		} else if (evt.getActionCommand() == BUTTON_START) {
 			startButton_Click();
+		} else if (evt.getActionCommand() == BOX_SAVEFORMAT) {
+			saveFormatBox_Changed();
 		}
 	}
 	
@@ -89,13 +91,44 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 		}
 		
 		
-		if (saveFormatBox.getSelectedItem().equals("PNG")) {
+		if (saveFormatBox.getSelectedItem().equals("Automatic")) {
+			AutoImageSaver saver = new AutoImageSaver(dstDirectory, prefixField.getText());
+			configureJPEGSaver(saver.getJPEGSaver());
+			saver.getIndexedPNGSaver().setDither(ditherBox.isSelected());
+			
+			return saver;
+		} else if (saveFormatBox.getSelectedItem().equals("PNG")) {
 			return new PNGImageSaver(dstDirectory, prefixField.getText());
+		} else if (saveFormatBox.getSelectedItem().equals("PNG (256 colors)")) {
+			IndexedPNGImageSaver saver = new IndexedPNGImageSaver(dstDirectory, prefixField.getText());
+			saver.setDither(ditherBox.isSelected());
+			
+			return saver;
+		} else if (saveFormatBox.getSelectedItem().equals("GIF")) {
+			GIFImageSaver saver = new GIFImageSaver(dstDirectory, prefixField.getText());
+			saver.setDither(ditherBox.isSelected());
+			
+			return saver;
 		} else {
-			return new JPEGImageSaver(dstDirectory, prefixField.getText());
+			JPEGImageSaver saver = new JPEGImageSaver(dstDirectory, prefixField.getText());
+			configureJPEGSaver(saver);
+			
+			return saver;
 		}
 	}
 	
+	/**
+	 * Sets the JPEG options the user has chosen to the given saver.
+	 * 
+	 * @param saver the saver
+	 */
+	private void configureJPEGSaver(JPEGImageSaver saver) {
+		saver.setQuality((Integer)qualityBox.getSelectedItem() / 100.0f);
+		saver.setChromaSubsampling(SUBSAMPLINGS[subsamplingBox.getSelectedIndex()]);
+		saver.setProgressive(progressiveBox.isSelected());
+		saver.setOptimizeHuffman(optimizeHuffmanBox.isSelected());
+	}
+	
 	/**
 	 * Creates the <code>ImageResizer</code> instance based on the information the
 	 * user has given to us.
@@ -125,7 +158,9 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 				return null;
 			}
 			
-			resizer = new DefaultImageResizer(width, height);
+			DefaultImageResizer defaultResizer = new DefaultImageResizer(width, height);
+			defaultResizer.setNeverUpscale(neverUpscaleBox.isSelected());
+			resizer = defaultResizer;
 		} else if (selectedMode.equals(BUTTON_LONGSIDEMODE)) {
 			int longSide;
 			
@@ -142,7 +177,9 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 				return null;
 			}
 			
-			resizer = new AspectKeepingImageResizer(longSide);
+			AspectKeepingImageResizer aspectResizer = new AspectKeepingImageResizer(longSide);
+			aspectResizer.setNeverUpscale(neverUpscaleBox.isSelected());
+			resizer = aspectResizer;
 		} else if (selectedMode.equals(BUTTON_FITTOBOXMODE)) {
 			int boxWidth, boxHeight;
 			
@@ -160,7 +197,9 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 				return null;
 			}
 			
-			resizer = new BoxFittingImageResizer(boxWidth, boxHeight);
+			BoxFittingImageResizer boxResizer = new BoxFittingImageResizer(boxWidth, boxHeight);
+			boxResizer.setNeverUpscale(neverUpscaleBox.isSelected());
+			resizer = boxResizer;
 		}
 		
 		return resizer;
@@ -179,6 +218,7 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 			return;
 
 		BatchResizer batchResizer = new BatchResizer(saver, resizer);
+		batchResizer.setPassThrough(passThroughBox.isSelected() ? PassThrough.Copy : PassThrough.Never);
 		for (int i = 0; i < sourceImagesList.getModel().getSize(); i++)
 			batchResizer.addFile(new File(sourceImagesList.getModel().getElementAt(i).toString()));
 		
@@ -186,6 +226,24 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 		dispose();
 	}
 	
+	/**
+	 * Invoked when the save format has been changed. The JPEG options are only
+	 * enabled when saving JPEG images, and dithering only when saving images
+	 * with a palette. Both are enabled when the format is chosen automatically.
+	 */
+	private void saveFormatBox_Changed() {
+		Object format   = saveFormatBox.getSelectedItem();
+		boolean auto    = format.equals("Automatic");
+		boolean jpeg    = auto || format.equals("JPEG");
+		boolean palette = auto || format.equals("PNG (256 colors)") || format.equals("GIF");
+		
+		qualityBox.setEnabled(jpeg);
+		subsamplingBox.setEnabled(jpeg);
+		progressiveBox.setEnabled(jpeg);
+		optimizeHuffmanBox.setEnabled(jpeg);
+		ditherBox.setEnabled(palette);
+	}
+	
 	/**
 	 * Invoked when the radio button for simple resize mode has been clicked.
 	 */
@@ -268,6 +326,11 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 	private final String BUTTON_REMOVE       = "remove";
 	private final String BUTTON_ADD          = "add";
 	private final String BUTTON_START        = "start";
+	private final String BOX_SAVEFORMAT      = "save-format";
+	private final Integer[] QUALITIES        = { 100, 95, 90, 85, 80, 75, 70, 60, 50, 40 };
+	private final String[] SUBSAMPLING_NAMES = { "4:2:0 (smallest)", "4:2:2", "4:4:4 (sharpest)" };
+	private final ChromaSubsampling[] SUBSAMPLINGS = {
+		ChromaSubsampling.YCbCr420, ChromaSubsampling.YCbCr422, ChromaSubsampling.YCbCr444 };
 	private JScrollPane  scrollPane;
 	private JRadioButton simpleModeButton;
 	private JRadioButton longSideModeButton;
@@ -285,6 +348,13 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 	private JButton      removeButton;
 	private JButton      startButton;
 	private JComboBox    saveFormatBox;
+	private JComboBox    qualityBox;
+	private JComboBox    subsamplingBox;
+	private JCheckBox    progressiveBox;
+	private JCheckBox    optimizeHuffmanBox;
+	private JCheckBox    ditherBox;
+	private JCheckBox    neverUpscaleBox;
+	private JCheckBox    passThroughBox;
 	private JList        sourceImagesList;
 	
 	/**
@@ -306,6 +376,8 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 		JLabel destinationDirectoryLabel = new JLabel("Destination directory:");
 		JLabel prefixLabel               = new JLabel("Prefix saved files with:");
 		JLabel saveFormatLabel           = new JLabel("Save resized images as:");
+		JLabel qualityLabel              = new JLabel("JPEG quality:");
+		JLabel subsamplingLabel          = new JLabel("Chroma subsampling:");
 		
 		JLabel selectFilesToResizeLabel  = new JLabel("Select files to resize:");
 		selectFilesToResizeLabel.setFont(selectFilesToResizeLabel.getFont().deriveFont(Font.BOLD));
@@ -394,6 +466,33 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 							.addComponent(saveFormatLabel)
 							.addComponent(saveFormatBox)
 							
+							//
+							// The JPEG options
+							//
+							
+							.addGroup(layout.createSequentialGroup()
+									.addGroup(layout.createParallelGroup()
+											.addComponent(qualityLabel)
+											.addComponent(subsamplingLabel))
+									.addGroup(layout.createParallelGroup()
+											.addComponent(qualityBox, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE)
+											.addComponent(subsamplingBox, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE)))
+							.addComponent(progressiveBox)
+							.addComponent(optimizeHuffmanBox)
+							
+							//
+							// The palette options
+							//
+							
+							.addComponent(ditherBox)
+							
+							//
+							// The size options
+							//
+							
+							.addComponent(neverUpscaleBox)
+							.addComponent(passThroughBox)
+							
 					)
 					
 					//
@@ -485,7 +584,35 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 						
 						.addPreferredGap(ComponentPlacement.RELATED)
 						.addComponent(saveFormatLabel)
-						.addComponent(saveFormatBox))
+						.addComponent(saveFormatBox)
+						
+						//
+						// JPEG options
+						//
+						
+						.addPreferredGap(ComponentPlacement.RELATED)
+						.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+								.addComponent(qualityLabel)
+								.addComponent(qualityBox))
+						.addGroup(layout.createParallelGroup(Alignment.BASELINE)
+								.addComponent(subsamplingLabel)
+								.addComponent(subsamplingBox))
+						.addComponent(progressiveBox)
+						.addComponent(optimizeHuffmanBox)
+						
+						//
+						// Palette options
+						//
+						
+						.addComponent(ditherBox)
+						
+						//
+						// Size options
+						//
+						
+						.addPreferredGap(ComponentPlacement.RELATED)
+						.addComponent(neverUpscaleBox)
+						.addComponent(passThroughBox))
 					
 					//
 					// The source images list
@@ -555,7 +682,28 @@ public class ImageBatchResizerApplication extends JFrame implements ActionListen
 		saveFormatBox = new JComboBox();
 		saveFormatBox.addItem("JPEG");
 		saveFormatBox.addItem("PNG");
+		saveFormatBox.addItem("PNG (256 colors)");
+		saveFormatBox.addItem("GIF");
+		saveFormatBox.addItem("Automatic");
 		saveFormatBox.setSelectedItem("JPEG");
+		saveFormatBox.setActionCommand(BOX_SAVEFORMAT);
+		saveFormatBox.addActionListener(this);
+		
+		qualityBox = new JComboBox(QUALITIES);
+		qualityBox.setSelectedItem(Math.round(JPEGImageSaver.DEFAULT_QUALITY * 100));
+		
+		subsamplingBox = new JComboBox(SUBSAMPLING_NAMES);
+		subsamplingBox.setSelectedIndex(0);
+		
+		progressiveBox     = new JCheckBox("Progressive");
+		optimizeHuffmanBox = new JCheckBox("Optimize Huffman tables");
+		optimizeHuffmanBox.setSelected(true);
+		
+		ditherBox = new JCheckBox("Dither colors");
+		ditherBox.setEnabled(false);
+		
+		neverUpscaleBox = new JCheckBox("Never upscale");
+		passThroughBox  = new JCheckBox("Copy images that already fit");
 		
 		// 
 		// Initialize controls for setting a list of source images
@@ -1,14 +1,14 @@
 package mnylen.imagebatchresizer.resizer;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 
 /**
  * An <code>ImageResizer</code> implementation that resizes images so that the
  * aspect ratio of the images will be kept in all circumstances.
  */
-public class AspectKeepingImageResizer implements ImageResizer {
+public class AspectKeepingImageResizer extends AbstractImageResizer {
     private int longSideLength;
-    private DefaultImageResizer resizer;
     
     /**
      * The default size for the long side of resized images.
@@ -35,7 +35,6 @@ public class AspectKeepingImageResizer implements ImageResizer {
     		throw new IllegalArgumentException("the value of longSideLength parameter must not be less than 1");
     	
     	this.longSideLength = longSideLength;
-    	this.resizer  = new DefaultImageResizer();
     }
     
     /**
@@ -55,20 +54,44 @@ public class AspectKeepingImageResizer implements ImageResizer {
      * Resizes the source image. The length of the long side of the resized image will be set
      * to the value set by {@link #setLongSideLength(int)} and the length of the short side will
      * be calculated automatically so that the aspect ratio is kept in the resized image.
+     * This method is thread-safe.
      */
     public BufferedImage resize(BufferedImage srcImage) {
+        return resize(srcImage, null);
+    }
+    
+    /**
+     * Calculates the dimensions the source image will be scaled to. The long
+     * side is set to the value set by {@link #setLongSideLength(int)} and the
+     * short side is calculated so that the aspect ratio is kept. If the images
+     * are never scaled up, an image with a long side no longer than that keeps
+     * its dimensions.
+     * 
+     * @param srcWidth the width of the source image
+     * @param srcHeight the height of the source image
+     * @return the dimensions of the scaled image
+     */
+    public Dimension getTargetSize(int srcWidth, int srcHeight) {
+        if (isNeverUpscale() && Math.max(srcWidth, srcHeight) <= longSideLength)
+            return new Dimension(srcWidth, srcHeight);
+        
         int width, height;
-        if (srcImage.getWidth() >= srcImage.getHeight()) {
+        if (srcWidth >= srcHeight) {
             width  = longSideLength;
-            height = Math.round(((float)width * srcImage.getHeight()) / srcImage.getWidth());
+            height = Math.round(((float)width * srcHeight) / srcWidth);
         } else {
             height = longSideLength;
-            width  = Math.round(((float)height * srcImage.getWidth()) / srcImage.getHeight());
+            width  = Math.round(((float)height * srcWidth) / srcHeight);
         }
         
-        resizer.setWidth(width);
-        resizer.setHeight(height);
-        
-        return resizer.resize(srcImage);
+        return new Dimension(Math.max(1, width), Math.max(1, height));
+    }
+    
+    /**
+     * Describes the target dimensions of this resizer.
+     * @return the description of the length of the long side
+     */
+    protected String describeTarget() {
+        return "longSideLength=" + longSideLength;
     }
 }
@@ -1,5 +1,7 @@
 package mnylen.imagebatchresizer.resizer;
 
+import java.io.File;
+
 /**
  * An instance of <code>BatchErrorEvent</code> class is used to provide event data in
  * situations when an error occurs during the batch progress.
@@ -21,6 +23,21 @@ public class BatchErrorEvent extends BatchEvent {
 		this.exception = ex;
 	}
 	
+	/**
+	 * Creates a new <code>BatchErrorEvent</code> with the specified source of the
+	 * event, the <code>BatchResizer</code> used when the error did occur, the file
+	 * that was being processed and the exception thrown.
+	 * 
+	 * @param source the source of the event
+	 * @param resizer the <code>BatchResizer</code> instance used when the error did occur
+	 * @param file the file that was being processed when the error did occur
+	 * @param ex the exception thrown
+	 */
+	public BatchErrorEvent(Object source, BatchResizer resizer, File file, Exception ex) {
+		super(source, resizer, file);
+		this.exception = ex;
+	}
+	
 	/**
 	 * Gets the exception thrown when the error did occur during the batch progress.
 	 * @return the exception thrown
@@ -21,11 +21,26 @@ public class BatchEvent extends EventObject {
      * @param resizer the <code>BatchResizer</code> instance used when the event did occur
      */
     public BatchEvent(Object source, BatchResizer batchResizer) {
+        this(source, batchResizer, batchResizer.getCurrentFile());
+    }
+    
+    /**
+     * Creates a new <code>BatchEvent</code> instance with the specified source of
+     * the event, the <code>BatchResizer</code> used when the event did occur and
+     * the file the event is about. When the batch is processed by several threads,
+     * many files are in progress at the same time, so the file has to be given
+     * explicitly instead of asking it from the <code>BatchResizer</code>.
+     * 
+     * @param source the source of the event
+     * @param resizer the <code>BatchResizer</code> instance used when the event did occur
+     * @param currentFile the file the event is about
+     */
+    public BatchEvent(Object source, BatchResizer batchResizer, File currentFile) {
         super(source);
         
         this.batchResizer = batchResizer;
         this.state        = batchResizer.getState();
-        this.currentFile  = batchResizer.getCurrentFile();
+        this.currentFile  = currentFile;
     }
     
     /**
@@ -45,8 +60,8 @@ public class BatchEvent extends EventObject {
     }
 
     /**
-     * Gets the current file being processed by the batch progress.
-     * @return the current file being processed
+     * Gets the file being processed by the batch progress when the event did occur.
+     * @return the file being processed
      */
     public File getCurrentFile() {
         return currentFile;
@@ -0,0 +1,249 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only journal of the files a batch has finished, so that a batch
+ * stopped before it finished, whether cancelled or killed, continues from
+ * where it stopped when started again with the same journal.
+ * 
+ * <p>Every file saved is appended to the journal as the path of the source and
+ * the path of the file written, in a single write right after the file has
+ * been written, so the journal survives the process being killed at any
+ * point; surviving a power failure as well is left to the file system. A
+ * record cut short by a crash is dropped when the journal is opened again.
+ * The savers write every file under another name and rename it in place when
+ * complete, so a file in the journal is never half written.</p>
+ * 
+ * <p>When a batch using the journal finishes without being cancelled, the
+ * journal is deleted, so the next batch starts from the beginning. The
+ * journal is thread-safe, but should be used by one batch at a time.</p>
+ */
+public class BatchJournal {
+	/**
+	 * The first four bytes of a journal file, "BRJN".
+	 */
+	private static final byte[] MAGIC = { 'B', 'R', 'J', 'N' };
+	
+	private final File file;
+	
+	/**
+	 * The files written by the absolute path of their source.
+	 */
+	private final HashMap<String, String> finished = new HashMap<String, String>();
+	private FileOutputStream out;
+	
+	private final AtomicLong resumed = new AtomicLong();
+	
+	/**
+	 * Opens the journal kept in the given file, reading the files already
+	 * finished from it if it exists.
+	 * 
+	 * @param file the journal file
+	 * @throws IOException if the file exists but could not be read as a journal
+	 */
+	public BatchJournal(File file) throws IOException {
+		this.file = file;
+		
+		long length = file.exists() ? load() : 0;
+		
+		// Drop the record a crash cut short, so new records are not appended
+		// after it
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+		
+		this.out = new FileOutputStream(file, true);
+		
+		if (length == 0)
+			out.write(MAGIC);
+	}
+	
+	/**
+	 * Gets the file the journal is kept in.
+	 * @return the journal file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Gets the number of files recorded as finished.
+	 * @return the number of files finished
+	 */
+	public int size() {
+		synchronized (finished) {
+			return finished.size();
+		}
+	}
+	
+	/**
+	 * Gets the number of files found finished by an earlier run.
+	 * @return the number of files not processed again
+	 */
+	public long getResumed() {
+		return resumed.get();
+	}
+	
+	/**
+	 * Finds the file written from the given source, if the source has been
+	 * finished and the file written still exists.
+	 * 
+	 * @param source the source file
+	 * @return the file written; <code>null</code> if the source has to be processed
+	 */
+	public File find(File source) {
+		String output;
+		
+		synchronized (finished) {
+			output = finished.get(source.getAbsolutePath());
+		}
+		
+		if (output == null || !new File(output).isFile())
+			return null;
+		
+		resumed.incrementAndGet();
+		return new File(output);
+	}
+	
+	/**
+	 * Records the given source as finished.
+	 * 
+	 * @param source the source file
+	 * @param output the file written from the source
+	 * @throws IOException if writing the journal fails
+	 */
+	public void record(File source, File output) throws IOException {
+		String path       = source.getAbsolutePath();
+		String outputPath = output.getAbsolutePath();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream record     = new DataOutputStream(bytes);
+		
+		record.writeUTF(path);
+		record.writeUTF(outputPath);
+		
+		synchronized (finished) {
+			if (outputPath.equals(finished.get(path)))
+				return;
+			
+			if (out == null)
+				throw new IOException("The batch journal has been closed: " + file);
+			
+			// One write, so a crash can only cut the last record short
+			out.write(bytes.toByteArray());
+			finished.put(path, outputPath);
+		}
+	}
+	
+	/**
+	 * Closes the journal, keeping the file for the batch to be continued.
+	 * 
+	 * @throws IOException if closing the file fails
+	 */
+	public void close() throws IOException {
+		synchronized (finished) {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+	}
+	
+	/**
+	 * Closes the journal and deletes the file, as the batch has been finished.
+	 * 
+	 * @throws IOException if closing or deleting the file fails
+	 */
+	public void delete() throws IOException {
+		close();
+		
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not delete the batch journal: " + file);
+	}
+	
+	/**
+	 * Reads the records from the journal file.
+	 * 
+	 * @return the length of the complete records in bytes
+	 * @throws IOException if the file could not be read as a journal
+	 */
+	private long load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		long length        = 0;
+		
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			
+			try {
+				in.readFully(magic);
+			} catch (EOFException e) {
+				// Killed before even the header was written
+				return 0;
+			}
+			
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("The file is not a batch journal: " + file);
+			
+			length = magic.length;
+			
+			while (true) {
+				String path;
+				String output;
+				
+				try {
+					path   = in.readUTF();
+					output = in.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+				
+				finished.put(path, output);
+				length += lengthOf(path) + lengthOf(output);
+			}
+		} finally {
+			in.close();
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Computes the number of bytes the given string takes when written with
+	 * <code>DataOutput.writeUTF</code>.
+	 * 
+	 * @param string the string
+	 * @return the number of bytes written
+	 */
+	private static int lengthOf(String string) {
+		int length = 2;
+		
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			
+			if (c >= 0x0001 && c <= 0x007f)
+				length += 1;
+			else if (c <= 0x07ff)
+				length += 2;
+			else
+				length += 3;
+		}
+		
+		return length;
+	}
+}
@@ -0,0 +1,555 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A record of the files a batch has written, so that running the batch again
+ * only processes the sources that are new or changed since, or whose output is
+ * missing or stale.
+ * 
+ * <p>For every source, the manifest records its size and modification time,
+ * optionally the SHA-1 hash of its content, the file written from it, the size
+ * and modification time of that file, and the hash of the parameters of the
+ * resizer and the saver, as given by {@link ImageResizer#describe()} and
+ * {@link ImageSaver#describe()}. A source is unchanged if all of these still
+ * match. With {@link #setHashSources(boolean)}, a source whose modification
+ * time changed but whose content did not, like one copied over again, is also
+ * taken to be unchanged.</p>
+ * 
+ * <p>The manifest is kept in a binary file of the entries sorted by the path
+ * of the source, every path stored as the length of the prefix it shares with
+ * the previous one and the rest, and every number in as few bytes as it
+ * takes, so a tree of millions of sources takes a few dozen bytes per source
+ * and loads in seconds. The file is replaced
+ * atomically when saved, so a crash leaves the previous manifest intact. With
+ * {@link #setPrune(boolean)}, the outputs of sources that have been deleted
+ * are deleted as well when the batch finishes.</p>
+ * 
+ * <p>The manifest is thread-safe, but should be used by one batch at a time.</p>
+ */
+public class BatchManifest {
+	/**
+	 * The first four bytes of a manifest file, "BRMF".
+	 */
+	private static final int MAGIC = 0x42524d46;
+	
+	/**
+	 * The version of the manifest file format.
+	 */
+	private static final int VERSION = 1;
+	
+	private final File file;
+	private volatile boolean hashSources;
+	private volatile boolean prune;
+	
+	/**
+	 * The entries by the absolute path of their source.
+	 */
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	
+	/**
+	 * The distinct parameter hashes of the entries, so every entry refers to a
+	 * shared string.
+	 */
+	private final HashMap<String, String> parameters = new HashMap<String, String>();
+	private boolean modified;
+	
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong pruned  = new AtomicLong();
+	
+	/**
+	 * A recorded source and the file written from it.
+	 */
+	private static final class Entry {
+		final long length;
+		final long lastModified;
+		final String hash;
+		final String output;
+		final long outputLength;
+		final long outputModified;
+		final String parameters;
+		
+		/**
+		 * Whether the source has been looked up or recorded since the manifest
+		 * was last saved.
+		 */
+		boolean seen;
+		
+		Entry(long length, long lastModified, String hash, String output, long outputLength, long outputModified, String parameters) {
+			this.length         = length;
+			this.lastModified   = lastModified;
+			this.hash           = hash;
+			this.output         = output;
+			this.outputLength   = outputLength;
+			this.outputModified = outputModified;
+			this.parameters     = parameters;
+		}
+	}
+	
+	/**
+	 * Creates a new <code>BatchManifest</code> kept in the given file, loading
+	 * the entries from the file if it exists.
+	 * 
+	 * @param file the manifest file
+	 * @throws IOException if the file exists but could not be read as a manifest
+	 */
+	public BatchManifest(File file) throws IOException {
+		this.file = file;
+		
+		if (file.exists())
+			load();
+	}
+	
+	/**
+	 * Gets the file the manifest is kept in.
+	 * @return the manifest file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Sets whether the content of the sources is hashed, so that sources whose
+	 * modification time changed but whose content did not are taken to be
+	 * unchanged. Recording a source then reads it once more, and a source
+	 * with a new modification time is read to be compared. Sources are not
+	 * hashed by default.
+	 * 
+	 * @param hashSources <code>true</code> to hash the sources
+	 */
+	public void setHashSources(boolean hashSources) {
+		this.hashSources = hashSources;
+	}
+	
+	/**
+	 * Tells whether the content of the sources is hashed.
+	 * @return <code>true</code> if the sources are hashed
+	 */
+	public boolean isHashSources() {
+		return hashSources;
+	}
+	
+	/**
+	 * Sets whether the outputs of deleted sources are deleted when a batch
+	 * using the manifest finishes, see {@link #prune()}. Outputs are kept by
+	 * default.
+	 * 
+	 * @param prune <code>true</code> to delete the outputs of deleted sources
+	 */
+	public void setPrune(boolean prune) {
+		this.prune = prune;
+	}
+	
+	/**
+	 * Tells whether the outputs of deleted sources are deleted.
+	 * @return <code>true</code> if the outputs of deleted sources are deleted
+	 */
+	public boolean isPrune() {
+		return prune;
+	}
+	
+	/**
+	 * Gets the number of sources recorded in the manifest.
+	 * @return the number of entries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	/**
+	 * Gets the number of sources found unchanged.
+	 * @return the number of sources skipped
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+	
+	/**
+	 * Gets the number of outputs deleted because their source was deleted.
+	 * @return the number of outputs pruned
+	 */
+	public long getPruned() {
+		return pruned.get();
+	}
+	
+	/**
+	 * Finds the file written from the given source with the given resizer and
+	 * saver, if neither the source nor the written file has changed since, and
+	 * the saver would still write the file to the same place.
+	 * 
+	 * @param source the source file
+	 * @param resizer the resizer the source would be resized with
+	 * @param saver the saver the source would be saved with
+	 * @return the file written; <code>null</code> if the source has to be processed
+	 * @throws IOException if hashing the source fails
+	 */
+	public File findUnchanged(File source, ImageResizer resizer, ImageSaver saver) throws IOException {
+		String path = source.getAbsolutePath();
+		Entry entry;
+		
+		synchronized (entries) {
+			entry = entries.get(path);
+			if (entry == null)
+				return null;
+			
+			entry.seen = true;
+		}
+		
+		if (!entry.parameters.equals(CacheDirectory.hash(resizer, saver)))
+			return null;
+		
+		// The parameters leave out where the file is written, which must not
+		// have changed either; the extension may depend on the image
+		File output   = new File(entry.output);
+		String name   = output.getName();
+		File expected = saver.determineDestinationFile(source, name.substring(name.lastIndexOf('.') + 1));
+		
+		if (!expected.getAbsolutePath().equals(entry.output))
+			return null;
+		
+		if (!output.isFile() || output.length() != entry.outputLength || output.lastModified() != entry.outputModified)
+			return null;
+		
+		long length       = source.length();
+		long lastModified = source.lastModified();
+		
+		if (length != entry.length)
+			return null;
+		
+		if (lastModified != entry.lastModified) {
+			if (!hashSources || entry.hash == null || !entry.hash.equals(CacheDirectory.hash(source)))
+				return null;
+			
+			// Touched, but not changed; the new time saves hashing it next time
+			put(path, new Entry(length, lastModified, entry.hash, entry.output,
+					entry.outputLength, entry.outputModified, entry.parameters));
+		}
+		
+		skipped.incrementAndGet();
+		return output;
+	}
+	
+	/**
+	 * Records that the given file was written from the given source with the
+	 * given resizer and saver.
+	 * 
+	 * @param source the source file
+	 * @param output the file written
+	 * @param resizer the resizer the source was resized with
+	 * @param saver the saver the source was saved with
+	 * @throws IOException if hashing the source fails
+	 */
+	public void record(File source, File output, ImageResizer resizer, ImageSaver saver) throws IOException {
+		String hash = hashSources ? CacheDirectory.hash(source) : null;
+		
+		put(source.getAbsolutePath(), new Entry(source.length(), source.lastModified(), hash,
+				output.getAbsolutePath(), output.length(), output.lastModified(), CacheDirectory.hash(resizer, saver)));
+	}
+	
+	/**
+	 * Deletes the outputs of the sources that have been deleted, and forgets
+	 * the sources. Only sources that have not been looked up or recorded since
+	 * the manifest was last saved are checked, so the sources processed by the
+	 * batch are not checked again. An output that another source is recorded
+	 * to have written, like a source of the same name in another format, is
+	 * not deleted.
+	 * 
+	 * @return the number of outputs deleted
+	 */
+	public int prune() {
+		List<String> paths = new ArrayList<String>();
+		
+		synchronized (entries) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				if (!entry.getValue().seen)
+					paths.add(entry.getKey());
+			}
+		}
+		
+		List<String> deleted = new ArrayList<String>();
+		for (String path : paths) {
+			if (!new File(path).exists())
+				deleted.add(path);
+		}
+		
+		List<String> outputs = new ArrayList<String>();
+		
+		synchronized (entries) {
+			for (String path : deleted) {
+				Entry entry = entries.remove(path);
+				if (entry != null)
+					outputs.add(entry.output);
+			}
+			
+			if (!deleted.isEmpty())
+				modified = true;
+			
+			HashSet<String> live = new HashSet<String>();
+			for (Entry entry : entries.values())
+				live.add(entry.output);
+			
+			outputs.removeAll(live);
+		}
+		
+		int count = 0;
+		for (String output : outputs) {
+			if (new File(output).delete())
+				count++;
+		}
+		
+		pruned.addAndGet(count);
+		return count;
+	}
+	
+	/**
+	 * Saves the manifest to its file, if anything has changed since it was
+	 * loaded or last saved. The file is written to a temporary file first,
+	 * which then replaces the file, so the manifest is never left half
+	 * written. Saving ends the run of a batch, so the sources seen are
+	 * forgotten for {@link #prune()}.
+	 * 
+	 * @throws IOException if writing the file fails
+	 */
+	public void save() throws IOException {
+		List<String> paths;
+		List<Entry> sorted;
+		
+		synchronized (entries) {
+			for (Entry entry : entries.values())
+				entry.seen = false;
+			
+			if (!modified)
+				return;
+			
+			paths = new ArrayList<String>(entries.keySet());
+			Collections.sort(paths);
+			
+			sorted = new ArrayList<Entry>(paths.size());
+			for (String path : paths)
+				sorted.add(entries.get(path));
+			
+			modified = false;
+		}
+		
+		List<String> table               = new ArrayList<String>();
+		HashMap<String, Integer> indices = new HashMap<String, Integer>();
+		
+		for (Entry entry : sorted) {
+			if (!indices.containsKey(entry.parameters)) {
+				indices.put(entry.parameters, table.size());
+				table.add(entry.parameters);
+			}
+		}
+		
+		File tempFile        = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+		
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			
+			out.writeInt(table.size());
+			for (String hash : table)
+				out.writeUTF(hash);
+			
+			out.writeInt(sorted.size());
+			
+			String lastPath   = "";
+			String lastOutput = "";
+			
+			for (int i = 0; i < sorted.size(); i++) {
+				Entry entry = sorted.get(i);
+				
+				writeFrontCoded(out, lastPath, paths.get(i));
+				writeNumber(out, entry.length);
+				writeNumber(out, entry.lastModified);
+				out.writeUTF(entry.hash != null ? entry.hash : "");
+				writeFrontCoded(out, lastOutput, entry.output);
+				writeNumber(out, entry.outputLength);
+				writeNumber(out, entry.outputModified);
+				writeNumber(out, indices.get(entry.parameters));
+				
+				lastPath   = paths.get(i);
+				lastOutput = entry.output;
+			}
+		} catch (IOException e) {
+			out.close();
+			tempFile.delete();
+			
+			synchronized (entries) {
+				modified = true;
+			}
+			
+			throw e;
+		}
+		
+		out.close();
+		
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Loads the entries from the manifest file.
+	 * 
+	 * @throws IOException if the file could not be read as a manifest
+	 */
+	private void load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("The file is not a batch manifest: " + file);
+			
+			String[] table = new String[in.readInt()];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = in.readUTF();
+				parameters.put(table[i], table[i]);
+			}
+			
+			int count         = in.readInt();
+			String lastPath   = "";
+			String lastOutput = "";
+			
+			for (int i = 0; i < count; i++) {
+				String path         = readFrontCoded(in, lastPath);
+				long length         = readNumber(in);
+				long lastModified   = readNumber(in);
+				String hash         = in.readUTF();
+				String output       = readFrontCoded(in, lastOutput);
+				long outputLength   = readNumber(in);
+				long outputModified = readNumber(in);
+				long index          = readNumber(in);
+				
+				if (index < 0 || index >= table.length)
+					throw new IOException("The batch manifest is corrupted: " + file);
+				
+				entries.put(path, new Entry(length, lastModified, hash.isEmpty() ? null : hash,
+						output, outputLength, outputModified, table[(int)index]));
+				
+				lastPath   = path;
+				lastOutput = output;
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Adds or replaces the entry of the given source, marking it seen.
+	 * 
+	 * @param path the absolute path of the source
+	 * @param entry the entry
+	 */
+	private void put(String path, Entry entry) {
+		synchronized (entries) {
+			String shared = parameters.get(entry.parameters);
+			if (shared == null)
+				parameters.put(entry.parameters, entry.parameters);
+			else if (shared != entry.parameters)
+				entry = new Entry(entry.length, entry.lastModified, entry.hash, entry.output,
+						entry.outputLength, entry.outputModified, shared);
+			
+			entry.seen = true;
+			entries.put(path, entry);
+			modified = true;
+		}
+	}
+	
+	/**
+	 * Writes the given string as the length of the prefix it shares with the
+	 * previous string and the rest of it.
+	 * 
+	 * @param out the stream to write to
+	 * @param previous the previous string written
+	 * @param string the string to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeFrontCoded(DataOutputStream out, String previous, String string) throws IOException {
+		int max    = Math.min(previous.length(), string.length());
+		int common = 0;
+		
+		while (common < max && previous.charAt(common) == string.charAt(common))
+			common++;
+		
+		writeNumber(out, common);
+		out.writeUTF(string.substring(common));
+	}
+	
+	/**
+	 * Reads a string written by {@link #writeFrontCoded(DataOutputStream, String, String)}.
+	 * 
+	 * @param in the stream to read from
+	 * @param previous the previous string read
+	 * @return the string
+	 * @throws IOException if an I/O error occurs or the string is corrupted
+	 */
+	private static String readFrontCoded(DataInputStream in, String previous) throws IOException {
+		long common = readNumber(in);
+		if (common > previous.length())
+			throw new IOException("The batch manifest is corrupted");
+		
+		return previous.substring(0, (int)common) + in.readUTF();
+	}
+	
+	/**
+	 * Writes the given non-negative number in as few bytes as it takes, seven
+	 * bits in every byte, the lowest bits first, and the highest bit of every
+	 * byte but the last one set.
+	 * 
+	 * @param out the stream to write to
+	 * @param value the number to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeNumber(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		
+		out.writeByte((int)value);
+	}
+	
+	/**
+	 * Reads a number written by {@link #writeNumber(DataOutputStream, long)}.
+	 * 
+	 * @param in the stream to read from
+	 * @return the number
+	 * @throws IOException if an I/O error occurs or the number is corrupted
+	 */
+	private static long readNumber(DataInputStream in) throws IOException {
+		long value = 0;
+		
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			
+			value |= (long)(b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		
+		throw new IOException("The batch manifest is corrupted");
+	}
+}
@@ -17,7 +17,8 @@ public interface BatchProgressListener {
     void fileChanged(BatchEvent evt);
     
     /**
-     * Invoked when the file processed by the batch progress is saved.
+     * Invoked when the file processed by the batch progress is saved, or
+     * skipped as saved by an earlier run, see {@link BatchSaveEvent#isSkipped()}.
      * @param evt the provided event data
      */
     void fileSaved(BatchSaveEvent evt);
@@ -1,9 +1,20 @@
 package mnylen.imagebatchresizer.resizer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.File;
+import java.io.IOException;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 
 /**
@@ -16,14 +27,53 @@ public class BatchResizer {
     private ImageSaver saver;
     private ImageResizer resizer;
     private HashSet<File> files;
+    private LinkedHashSet<File> filesInProgress;
     private BatchProgressListener progressListener;
     private Thread resizeThread;
+    private int threadCount;
+    private MemoryBudget memoryBudget;
+    private long streamingThreshold;
+    private long parallelResizeThreshold;
+    private PassThrough passThrough;
+    private PyramidCache pyramidCache;
+    private OutputCache outputCache;
+    private BatchManifest manifest;
+    private BatchJournal journal;
+    private boolean cancelled;
+    
+    /**
+     * The number of files of the running batch that have not been started yet.
+     */
+    private final AtomicInteger waitingFiles = new AtomicInteger();
+    
+    /**
+     * The default number of pixels from which a single image is resized on
+     * all the worker threads.
+     */
+    public static final long DEFAULT_PARALLEL_RESIZE_THRESHOLD = 8 * 1024 * 1024;
+    
+    /**
+     * The number of pixels in a strip when streaming huge images.
+     */
+    private static final int STRIP_PIXELS = 4 * 1024 * 1024;
+    
+    /**
+     * The minimum number of rows in a strip when streaming huge images.
+     */
+    private static final int MIN_STRIP_HEIGHT = 16;
     
     /**
      * The object used as a synchronization root.
      */
     protected final Object syncRoot = new Object();
     
+    /**
+     * The object used for serializing the calls to the progress listener, so
+     * that the listener sees one event at a time even when several worker
+     * threads are running.
+     */
+    private final Object listenerLock = new Object();
+    
     /**
      * Updates the state of the batch progress.
      * @param state the new state of the batch progress
@@ -31,10 +81,43 @@ public class BatchResizer {
     protected void updateState(BatchState state) {
     	synchronized (syncRoot) {
     		this.state = state;
+    		syncRoot.notifyAll();
     	}
     	
-    	if (progressListener != null)
-    		progressListener.stateChanged(new BatchEvent(this, this));
+    	fireStateChanged();
+    }
+    
+    /**
+     * Changes the state of the batch progress, if it is in the given state.
+     * 
+     * @param expected the state the batch progress must be in
+     * @param state the new state of the batch progress
+     * @return <code>true</code> if the state was changed
+     */
+    private boolean changeState(BatchState expected, BatchState state) {
+    	synchronized (syncRoot) {
+    		if (this.state != expected)
+    			return false;
+    		
+    		this.state = state;
+    		syncRoot.notifyAll();
+    	}
+    	
+    	fireStateChanged();
+    	return true;
+    }
+    
+    /**
+     * Notifies the progress listener that the state of the batch progress has
+     * changed.
+     */
+    private void fireStateChanged() {
+    	BatchProgressListener listener = getProgressListener();
+    	if (listener != null) {
+    		synchronized (listenerLock) {
+    			listener.stateChanged(new BatchEvent(this, this));
+    		}
+    	}
     }
     
     /**
@@ -44,10 +127,101 @@ public class BatchResizer {
     protected void updateCurrentFile(File currentFile) {
     	synchronized (syncRoot) {
     		this.currentFile = currentFile;
+    		
+    		if (currentFile != null)
+    			filesInProgress.add(currentFile);
     	}
     	
-    	if (progressListener != null)
-    		progressListener.fileChanged(new BatchEvent(this, this));
+    	BatchProgressListener listener = getProgressListener();
+    	if (listener != null) {
+    		synchronized (listenerLock) {
+    			listener.fileChanged(new BatchEvent(this, this, currentFile));
+    		}
+    	}
+    }
+    
+    /**
+     * Marks the given file as done. If the file was the current file, the
+     * current file is set to the most recently started file that is still in
+     * progress, or <code>null</code> if no file is in progress.
+     * 
+     * @param file the file that is no longer being processed
+     */
+    protected void fileDone(File file) {
+    	synchronized (syncRoot) {
+    		filesInProgress.remove(file);
+    		
+    		if (file.equals(currentFile)) {
+    			currentFile = null;
+    			for (File inProgress : filesInProgress)
+    				currentFile = inProgress;
+    		}
+    	}
+    }
+    
+    /**
+     * Records the given file as finished in the journal, if there is one, and
+     * notifies the progress listener that the image loaded from the file has
+     * been saved. Failing to write the journal does not fail the file; it is
+     * only processed again if the batch is continued.
+     * 
+     * @param srcFile the file the image was loaded from
+     * @param dstFile the file the resized image was written to
+     */
+    protected void fireFileSaved(File srcFile, File dstFile) {
+    	fireFileFinished(srcFile, dstFile, false);
+    }
+    
+    /**
+     * Records the given file as finished in the journal, if there is one, and
+     * notifies the progress listener that the file was skipped, as an earlier
+     * run of the batch already saved it.
+     * 
+     * @param srcFile the file the image was loaded from
+     * @param dstFile the file the earlier run wrote the resized image to
+     */
+    protected void fireFileSkipped(File srcFile, File dstFile) {
+    	fireFileFinished(srcFile, dstFile, true);
+    }
+    
+    /**
+     * Records the given file as finished and notifies the progress listener.
+     * 
+     * @param srcFile the file the image was loaded from
+     * @param dstFile the file holding the resized image
+     * @param skipped <code>true</code> if the file was skipped instead of saved
+     */
+    private void fireFileFinished(File srcFile, File dstFile, boolean skipped) {
+    	BatchJournal journal = getJournal();
+    	if (journal != null) {
+    		try {
+    			journal.record(srcFile, dstFile);
+    		} catch (IOException e) {
+    			// The file is saved; it is just not known to be if continued
+    		}
+    	}
+    	
+    	BatchProgressListener listener = getProgressListener();
+    	if (listener != null) {
+    		synchronized (listenerLock) {
+    			listener.fileSaved(new BatchSaveEvent(this, this, srcFile, dstFile, skipped));
+    		}
+    	}
+    }
+    
+    /**
+     * Notifies the progress listener that processing the given file failed.
+     * 
+     * @param file the file that was being processed
+     * @param ex the exception thrown
+     */
+    protected void fireErrorOccured(File file, Exception ex) {
+    	BatchProgressListener listener = getProgressListener();
+    	if (listener != null) {
+    		synchronized (listenerLock) {
+    			listener.errorOccured(new BatchErrorEvent(this, this, file, ex));
+    		}
+    	}
     }
     
     /**
@@ -71,8 +245,14 @@ public class BatchResizer {
         this.resizer = resizer;
         this.files   = new HashSet<File>();
         
-        state        = BatchState.Idle;
-        currentFile  = null;
+        state           = BatchState.Idle;
+        currentFile     = null;
+        filesInProgress = new LinkedHashSet<File>();
+        threadCount     = Runtime.getRuntime().availableProcessors();
+        memoryBudget    = new MemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+        
+        parallelResizeThreshold = DEFAULT_PARALLEL_RESIZE_THRESHOLD;
+        passThrough             = PassThrough.Never;
     }
     
     /**
@@ -85,6 +265,748 @@ public class BatchResizer {
         }
     }
     
+    /**
+     * Gets the progress listener. This method is thread-safe.
+     * @return the progress listener; <code>null</code> if no listener has been set
+     */
+    protected BatchProgressListener getProgressListener() {
+        synchronized (syncRoot) {
+            return progressListener;
+        }
+    }
+    
+    /**
+     * Sets the number of worker threads used for processing the batch. Each
+     * worker loads, resizes and saves one file at a time, so this is also the
+     * maximum number of files in progress at the same time. Workers left
+     * without files help resizing the large images still in progress, see
+     * {@link #setParallelResizeThreshold(long)}. The default is the
+     * number of processors available to the virtual machine. The value can not
+     * be changed once the batch has been started. This method is thread-safe.
+     * 
+     * @param threadCount the number of worker threads
+     * @throws IllegalArgumentException if the <code>threadCount</code> parameter is less than 1
+     */
+    public void setThreadCount(int threadCount) throws IllegalArgumentException {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("the value of threadCount parameter must not be less than 1");
+        
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.threadCount = threadCount;
+        }
+    }
+    
+    /**
+     * Gets the number of worker threads used for processing the batch. This
+     * method is thread-safe.
+     * 
+     * @return the number of worker threads
+     */
+    public int getThreadCount() {
+        synchronized (syncRoot) {
+            return threadCount;
+        }
+    }
+    
+    /**
+     * Sets the amount of memory the decoded images being processed at the same
+     * time may take. Before a file is decoded, its dimensions are read from the
+     * image header and the size of the decoded image is reserved from the
+     * budget; a file that does not fit waits until earlier files have been
+     * saved. The default is half of the maximum heap size. The value can not be
+     * changed once the batch has been started. This method is thread-safe.
+     * 
+     * @param bytes the memory budget in bytes
+     * @throws IllegalArgumentException if the <code>bytes</code> parameter is less than 1
+     * @see #setStreamingThreshold(long)
+     */
+    public void setMemoryBudget(long bytes) throws IllegalArgumentException {
+        if (bytes < 1)
+            throw new IllegalArgumentException("the value of bytes parameter must not be less than 1");
+        
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                memoryBudget = new MemoryBudget(bytes);
+        }
+    }
+    
+    /**
+     * Gets the amount of memory the decoded images being processed at the same
+     * time may take. This method is thread-safe.
+     * 
+     * @return the memory budget in bytes
+     */
+    public long getMemoryBudget() {
+        synchronized (syncRoot) {
+            return memoryBudget.getBudget();
+        }
+    }
+    
+    /**
+     * Sets the number of pixels from which a single image may be resized on all
+     * the worker threads at once. Such an image is split into bands of rows,
+     * and the bands are resized by the workers that have no files of their
+     * own. This only happens when fewer files are waiting than there are
+     * workers, so the workers would otherwise sit idle. The default is
+     * {@link #DEFAULT_PARALLEL_RESIZE_THRESHOLD}. The value can not be changed
+     * once the batch has been started. This method is thread-safe.
+     * 
+     * @param pixels the threshold in pixels of the decoded source image
+     * @throws IllegalArgumentException if the <code>pixels</code> parameter is less than 1
+     */
+    public void setParallelResizeThreshold(long pixels) throws IllegalArgumentException {
+        if (pixels < 1)
+            throw new IllegalArgumentException("the value of pixels parameter must not be less than 1");
+        
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                parallelResizeThreshold = pixels;
+        }
+    }
+    
+    /**
+     * Gets the number of pixels from which a single image may be resized on all
+     * the worker threads at once. This method is thread-safe.
+     * 
+     * @return the threshold in pixels
+     */
+    public long getParallelResizeThreshold() {
+        synchronized (syncRoot) {
+            return parallelResizeThreshold;
+        }
+    }
+    
+    /**
+     * Chooses the pool on which the given image is resized. Whether the workers
+     * are better used for resizing different files or for resizing this image
+     * together is decided from the size of the image and the number of files
+     * waiting: a large image is split into bands when some of the workers would
+     * otherwise have no files to process.
+     * 
+     * @param image the decoded source image
+     * @return the pool of the worker threads, if the image is split into bands;
+     *         <code>null</code> if the image is resized in the calling thread
+     */
+    protected ForkJoinPool getResizePool(BufferedImage image) {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        
+        if (pool == null || pool.getParallelism() < 2)
+            return null;
+        
+        if ((long)image.getWidth() * image.getHeight() < getParallelResizeThreshold())
+            return null;
+        
+        return (waitingFiles.get() < pool.getParallelism()) ? pool : null;
+    }
+    
+    /**
+     * Sets the decoded size above which images are not decoded as a whole but
+     * streamed: the image is decoded in horizontal strips, and the strips are
+     * resized and handed to the <code>ImageSaver</code> row by row, so only a
+     * strip of the source image is held in memory at a time. By default the
+     * threshold follows the memory budget, so any image that would not fit in
+     * the budget is streamed. The value can not be changed once the batch has
+     * been started. This method is thread-safe.
+     * 
+     * @param bytes the streaming threshold in bytes
+     * @throws IllegalArgumentException if the <code>bytes</code> parameter is less than 1
+     */
+    public void setStreamingThreshold(long bytes) throws IllegalArgumentException {
+        if (bytes < 1)
+            throw new IllegalArgumentException("the value of bytes parameter must not be less than 1");
+        
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                streamingThreshold = bytes;
+        }
+    }
+    
+    /**
+     * Gets the decoded size above which images are streamed. This method is
+     * thread-safe.
+     * 
+     * @return the streaming threshold in bytes
+     */
+    public long getStreamingThreshold() {
+        synchronized (syncRoot) {
+            return (streamingThreshold > 0) ? streamingThreshold : memoryBudget.getBudget();
+        }
+    }
+    
+    /**
+     * Sets how files already meeting the target are passed through. A file
+     * meets the target when the <code>ImageResizer</code> would leave the image
+     * as it is, see {@link ImageResizer#isUnchanged(int, int)}, and the
+     * <code>ImageSaver</code> can copy the file as it is, see
+     * {@link ImageSaver#canCopy(String, File)}. Such a file can be copied or
+     * hard linked to the destination directory instead of being decoded and
+     * encoded again, which takes a fraction of the time and leaves the image
+     * untouched by another lossy encoding. Only the image header is read to
+     * tell this. The default is <code>PassThrough.Never</code>. The value can
+     * not be changed once the batch has been started. This method is
+     * thread-safe.
+     * 
+     * <p>A hard linked destination file is the source file under another name,
+     * see {@link ImageSaver#copy(File, boolean)}.</p>
+     * 
+     * @param passThrough how to pass through files meeting the target
+     * @throws IllegalArgumentException if the <code>passThrough</code> parameter is <code>null</code>
+     */
+    public void setPassThrough(PassThrough passThrough) throws IllegalArgumentException {
+        if (passThrough == null)
+            throw new IllegalArgumentException("the passThrough parameter must not be null");
+        
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.passThrough = passThrough;
+        }
+    }
+    
+    /**
+     * Gets how files already meeting the target are passed through. This
+     * method is thread-safe.
+     * 
+     * @return how files meeting the target are passed through
+     */
+    public PassThrough getPassThrough() {
+        synchronized (syncRoot) {
+            return passThrough;
+        }
+    }
+    
+    /**
+     * Sets the cache of reduced versions of the source images the files are
+     * loaded through, so that resizing the same originals to new sizes reads a
+     * stored level instead of decoding the original in full; see
+     * {@link PyramidCache}. The cache may be shared by several batches. Files
+     * too large to be decoded as a whole are streamed from the file as usual.
+     * The default is <code>null</code>, meaning no cache. The value can not be
+     * changed once the batch has been started. This method is thread-safe.
+     * 
+     * @param cache the cache to load the files through, or <code>null</code> for none
+     */
+    public void setPyramidCache(PyramidCache cache) {
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.pyramidCache = cache;
+        }
+    }
+    
+    /**
+     * Gets the cache of reduced versions of the source images. This method is
+     * thread-safe.
+     * 
+     * @return the cache; <code>null</code> if the files are loaded without one
+     */
+    public PyramidCache getPyramidCache() {
+        synchronized (syncRoot) {
+            return pyramidCache;
+        }
+    }
+    
+    /**
+     * Sets the cache of the files written earlier, so that files resized and
+     * saved with the same parameters before are copied from the cache instead;
+     * see {@link OutputCache}. Every file saved is stored in the cache. The
+     * cache may be shared by several batches. The default is <code>null</code>,
+     * meaning no cache. The value can not be changed once the batch has been
+     * started. This method is thread-safe.
+     * 
+     * @param cache the cache of the written files, or <code>null</code> for none
+     */
+    public void setOutputCache(OutputCache cache) {
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.outputCache = cache;
+        }
+    }
+    
+    /**
+     * Gets the cache of the files written earlier. This method is thread-safe.
+     * @return the cache; <code>null</code> if there is none
+     */
+    public OutputCache getOutputCache() {
+        synchronized (syncRoot) {
+            return outputCache;
+        }
+    }
+    
+    /**
+     * Writes the result of processing the given file from the output cache, if
+     * the cache has it; see {@link #setOutputCache(OutputCache)}.
+     * 
+     * @param file the file about to be processed
+     * @return the destination file, if the result was in the cache;
+     *         <code>null</code> if the file has to be processed
+     * @throws IOException if reading the file or writing the result fails
+     */
+    protected File fetchCached(File file) throws IOException {
+        OutputCache cache = getOutputCache();
+        
+        return (cache != null) ? cache.fetch(file, resizer, saver) : null;
+    }
+    
+    /**
+     * Stores the result of processing the given file in the output cache, if
+     * there is one. Failing to store the result does not fail the file.
+     * 
+     * @param file the file processed
+     * @param dstFile the file the result was written to
+     */
+    protected void storeCached(File file, File dstFile) {
+        OutputCache cache = getOutputCache();
+        if (cache == null)
+            return;
+        
+        try {
+            cache.store(file, resizer, saver, dstFile);
+        } catch (IOException e) {
+            // The result only saves work later; the file itself is saved
+        }
+    }
+    
+    /**
+     * Sets the manifest of the files written by earlier runs of the batch, so
+     * that files unchanged since, whose outputs are unchanged as well, are
+     * skipped; see {@link BatchManifest}. Every file saved is recorded in the
+     * manifest, which is saved when the batch finishes. The default is
+     * <code>null</code>, meaning no manifest. The value can not be changed once
+     * the batch has been started. This method is thread-safe.
+     * 
+     * @param manifest the manifest of the batch, or <code>null</code> for none
+     */
+    public void setManifest(BatchManifest manifest) {
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.manifest = manifest;
+        }
+    }
+    
+    /**
+     * Gets the manifest of the files written by earlier runs of the batch.
+     * This method is thread-safe.
+     * 
+     * @return the manifest; <code>null</code> if there is none
+     */
+    public BatchManifest getManifest() {
+        synchronized (syncRoot) {
+            return manifest;
+        }
+    }
+    
+    /**
+     * Sets the journal of the files finished, so that the batch continues from
+     * where it stopped if it is cancelled or killed and then started again with
+     * the same journal; see {@link BatchJournal}. The journal is deleted when
+     * the batch finishes without being cancelled. The default is
+     * <code>null</code>, meaning no journal. The value can not be changed once
+     * the batch has been started. This method is thread-safe.
+     * 
+     * @param journal the journal of the batch, or <code>null</code> for none
+     */
+    public void setJournal(BatchJournal journal) {
+        synchronized (syncRoot) {
+            if (state == BatchState.Idle)
+                this.journal = journal;
+        }
+    }
+    
+    /**
+     * Gets the journal of the files finished. This method is thread-safe.
+     * @return the journal; <code>null</code> if there is none
+     */
+    public BatchJournal getJournal() {
+        synchronized (syncRoot) {
+            return journal;
+        }
+    }
+    
+    /**
+     * Closes the journal, if there is one, at the end of the batch. The
+     * journal is kept if the batch was cancelled and deleted otherwise. A
+     * failure is reported to the progress listener as an error of the journal
+     * file.
+     */
+    protected void closeJournal() {
+        BatchJournal journal = getJournal();
+        if (journal == null)
+            return;
+        
+        try {
+            if (isCancelled())
+                journal.close();
+            else
+                journal.delete();
+        } catch (IOException e) {
+            fireErrorOccured(journal.getFile(), e);
+        }
+    }
+    
+    /**
+     * Pauses the batch. The files in progress are finished, but no more files
+     * are started until {@link #resume()} is called. Does nothing unless the
+     * state is <code>BatchState.Processing</code>. This method is thread-safe.
+     */
+    public void pause() {
+        changeState(BatchState.Processing, BatchState.Paused);
+    }
+    
+    /**
+     * Resumes the batch paused by {@link #pause()}. Does nothing unless the
+     * state is <code>BatchState.Paused</code>. This method is thread-safe.
+     */
+    public void resume() {
+        changeState(BatchState.Paused, BatchState.Processing);
+    }
+    
+    /**
+     * Cancels the batch. The state changes to <code>BatchState.Cancelling</code>,
+     * the files in progress are finished, and no more files are started, after
+     * which the state changes to <code>BatchState.Finished</code>. A paused
+     * batch is cancelled as well. Does nothing unless the batch is being
+     * processed. This method is thread-safe.
+     */
+    public void cancel() {
+        synchronized (syncRoot) {
+            if (state != BatchState.Processing && state != BatchState.Paused)
+                return;
+            
+            cancelled = true;
+        }
+        
+        if (!changeState(BatchState.Processing, BatchState.Cancelling))
+            changeState(BatchState.Paused, BatchState.Cancelling);
+    }
+    
+    /**
+     * Tells whether the batch has been cancelled. This method is thread-safe.
+     * @return <code>true</code> if the batch has been cancelled
+     */
+    public boolean isCancelled() {
+        synchronized (syncRoot) {
+            return cancelled;
+        }
+    }
+    
+    /**
+     * Waits for the batch to be resumed if it is paused, and tells whether the
+     * next file should be started. This is called by the worker threads before
+     * every file.
+     * 
+     * @return <code>true</code> to start the next file; <code>false</code> if the
+     *         batch has been cancelled
+     */
+    protected boolean proceed() {
+        boolean interrupted = false;
+        
+        synchronized (syncRoot) {
+            while (state == BatchState.Paused) {
+                try {
+                    syncRoot.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            
+            return !cancelled;
+        }
+    }
+    
+    /**
+     * Finds the file written from the given file by an earlier run of the
+     * batch, so that the file can be skipped: if it was finished before the
+     * batch was stopped, see {@link #setJournal(BatchJournal)}, or if it is
+     * unchanged since the last run, see {@link #findUnchanged(File)}.
+     * 
+     * @param file the file about to be processed
+     * @return the destination file, if the file can be skipped;
+     *         <code>null</code> if the file has to be processed
+     * @throws IOException if reading the file fails
+     */
+    protected File findFinished(File file) throws IOException {
+        BatchJournal journal = getJournal();
+        
+        File dstFile = (journal != null) ? journal.find(file) : null;
+        if (dstFile != null)
+            return dstFile;
+        
+        return findUnchanged(file);
+    }
+    
+    /**
+     * Finishes the given file without decoding it, if possible: passes it
+     * through, see {@link #passThrough(File)}, or writes it from the output
+     * cache, see {@link #fetchCached(File)}.
+     * 
+     * @param file the file about to be processed
+     * @return the destination file, if the file was finished;
+     *         <code>null</code> if the file has to be processed
+     * @throws IOException if reading the file or writing the destination fails
+     */
+    protected File finishUndecoded(File file) throws IOException {
+        File dstFile = passThrough(file);
+        if (dstFile == null)
+            dstFile = fetchCached(file);
+        
+        if (dstFile != null)
+            recordSaved(file, dstFile);
+        
+        return dstFile;
+    }
+    
+    /**
+     * Finds the file written from the given file by the last run of the batch,
+     * if neither has changed since; see {@link #setManifest(BatchManifest)}.
+     * 
+     * @param file the file about to be processed
+     * @return the destination file, if the file is unchanged;
+     *         <code>null</code> if the file has to be processed
+     * @throws IOException if reading the file fails
+     */
+    protected File findUnchanged(File file) throws IOException {
+        BatchManifest manifest = getManifest();
+        
+        return (manifest != null) ? manifest.findUnchanged(file, resizer, saver) : null;
+    }
+    
+    /**
+     * Records the file written from the given file in the manifest, if there
+     * is one. Failing to record the file does not fail it; it is only
+     * processed again on the next run.
+     * 
+     * @param file the file processed
+     * @param dstFile the file the result was written to
+     */
+    protected void recordSaved(File file, File dstFile) {
+        BatchManifest manifest = getManifest();
+        if (manifest == null)
+            return;
+        
+        try {
+            manifest.record(file, dstFile, resizer, saver);
+        } catch (IOException e) {
+            // The file is saved; it is just not known to be next time
+        }
+    }
+    
+    /**
+     * Saves the manifest, if there is one, at the end of the batch, first
+     * deleting the outputs of deleted files if the manifest is set to prune
+     * them. A failure is reported to the progress listener as an error of the
+     * manifest file.
+     */
+    protected void saveManifest() {
+        BatchManifest manifest = getManifest();
+        if (manifest == null)
+            return;
+        
+        try {
+            if (manifest.isPrune())
+                manifest.prune();
+            
+            manifest.save();
+        } catch (IOException e) {
+            fireErrorOccured(manifest.getFile(), e);
+        }
+    }
+    
+    /**
+     * Passes the given file through to the destination directory if it already
+     * meets the target, see {@link #setPassThrough(PassThrough)}. Only the
+     * image header is read, and the file is copied without decoding it.
+     * 
+     * @param file the file about to be processed
+     * @return the destination file, if the file was passed through;
+     *         <code>null</code> if the file has to be processed
+     * @throws IOException if the image header could not be read or copying failed
+     */
+    protected File passThrough(File file) throws IOException {
+        PassThrough mode = getPassThrough();
+        if (mode == PassThrough.Never)
+            return null;
+        
+        String format = ImageUtil.readImageFormat(file);
+        if (format == null || !saver.canCopy(format, file))
+            return null;
+        
+        Dimension size = ImageUtil.readImageSize(file);
+        if (size == null || !resizer.isUnchanged(size.width, size.height))
+            return null;
+        
+        return saver.copy(file, mode == PassThrough.Link);
+    }
+    
+    /**
+     * Reserves memory for processing the given file, waiting until the
+     * estimated memory use fits in the memory budget. Only the image header is
+     * read. The estimate takes into account that large downscales are decoded at
+     * a reduced resolution, and that images above the streaming threshold only
+     * need a strip of the image in memory. A file that does not look like an
+     * image is admitted without a reservation, so that decoding it fails the
+     * usual way.
+     * 
+     * @param file the file about to be processed
+     * @return the admission, to be given to {@link #release(Admission)} when the
+     *         file has been processed
+     * @throws IOException if the image header could not be read
+     */
+    protected Admission admit(File file) throws IOException {
+        Dimension size  = ImageUtil.readImageSize(file);
+        Admission admission;
+        
+        if (size == null) {
+            admission = new Admission(0, 1, 0);
+        } else {
+            Dimension target = resizer.getTargetSize(size.width, size.height);
+            int factor       = ImageUtil.getSubsamplingFactor(size.width, size.height, target.width, target.height);
+            int width        = ImageUtil.subsampledLength(size.width, factor);
+            int height       = ImageUtil.subsampledLength(size.height, factor);
+            long decodedSize = ImageUtil.estimateDecodedSize(width, height);
+            
+            if (decodedSize > getStreamingThreshold()) {
+                int stripHeight = Math.max(MIN_STRIP_HEIGHT, STRIP_PIXELS / width);
+                long reserved   = StripImageRowSource.estimateStripSize(width, stripHeight) +
+                                  ImageUtil.estimateDecodedSize(target.width, target.height);
+                
+                admission = new Admission(reserved, factor, stripHeight);
+            } else {
+                admission = new Admission(decodedSize, factor, 0);
+            }
+        }
+        
+        MemoryBudget budget;
+        synchronized (syncRoot) {
+            budget = memoryBudget;
+        }
+        
+        budget.acquire(admission.reserved);
+        return admission;
+    }
+    
+    /**
+     * Returns memory reserved by {@link #admit(File)} to the memory budget.
+     * @param admission the admission returned by {@link #admit(File)}; may be <code>null</code>
+     */
+    protected void release(Admission admission) {
+        if (admission == null || admission.released)
+            return;
+        
+        MemoryBudget budget;
+        synchronized (syncRoot) {
+            budget = memoryBudget;
+        }
+        
+        admission.released = true;
+        budget.release(admission.reserved);
+    }
+    
+    /**
+     * Resizes and saves a file admitted for streaming, reading the source image
+     * in strips.
+     * 
+     * @param file the file to process
+     * @param admission the admission returned by {@link #admit(File)}
+     * @return the file the resized image was written to
+     * @throws IOException if an I/O error occurs
+     */
+    protected File processStreamed(File file, Admission admission) throws IOException {
+        StripImageRowSource source = new StripImageRowSource(file, admission.subsampling, admission.stripHeight);
+        
+        try {
+            return saver.save(resizer.resize(source), file);
+        } finally {
+            source.close();
+        }
+    }
+    
+    /**
+     * Resizes and saves an image decoded as a whole. The source image and the
+     * resized image are released to the {@link ImagePool} of the current
+     * thread once they have been saved.
+     * 
+     * @param file the file the image was loaded from
+     * @param srcImage the decoded source image
+     * @return the file the resized image was written to
+     * @throws IOException if an I/O error occurs
+     */
+    protected File processDecoded(File file, BufferedImage srcImage) throws IOException {
+        BufferedImage dstImage = resizer.resize(srcImage, getResizePool(srcImage));
+        ImagePool images       = ImagePool.current();
+        
+        // The images are handed back for the next file only once nothing
+        // uses them any more
+        if (srcImage != dstImage)
+            images.release(srcImage);
+        
+        srcImage     = null;
+        File dstFile = saver.save(dstImage, file);
+        images.release(dstImage);
+        
+        return dstFile;
+    }
+    
+    /**
+     * Describes how a file was admitted for processing by {@link #admit(File)}.
+     */
+    protected static final class Admission {
+        private final long reserved;
+        private final int subsampling;
+        private final int stripHeight;
+        private boolean released;
+        
+        /**
+         * Creates a new <code>Admission</code>.
+         * 
+         * @param reserved the amount of memory reserved
+         * @param subsampling the subsampling factor to decode the image with
+         * @param stripHeight the height of the strips to stream the image in;
+         *        <code>0</code> if the image is decoded as a whole
+         */
+        private Admission(long reserved, int subsampling, int stripHeight) {
+            this.reserved    = reserved;
+            this.subsampling = subsampling;
+            this.stripHeight = stripHeight;
+        }
+        
+        /**
+         * Tells whether the file should be streamed with
+         * {@link BatchResizer#processStreamed(File, Admission)}.
+         * 
+         * @return <code>true</code> if the file should be streamed; <code>false</code> otherwise
+         */
+        public boolean isStreamed() {
+            return stripHeight > 0;
+        }
+        
+        /**
+         * Gets the amount of memory reserved for the file.
+         * @return the amount of memory reserved in bytes
+         */
+        public long getReserved() {
+            return reserved;
+        }
+        
+        /**
+         * Gets the subsampling factor to decode the image with.
+         * @return the subsampling factor
+         */
+        public int getSubsampling() {
+            return subsampling;
+        }
+        
+        /**
+         * Gets the height of the strips to stream the image in.
+         * @return the strip height; <code>0</code> if the image is decoded as a whole
+         */
+        public int getStripHeight() {
+            return stripHeight;
+        }
+    }
+    
     /**
      * Adds a file to the batch. If the file is already in the batch, it will not
      * be added. If the current batch state is something else than
@@ -125,6 +1047,46 @@ public class BatchResizer {
         }
     }
     
+    /**
+     * Gets the files being processed at the moment, in the order the processing
+     * of them was started. When the batch is processed using several threads,
+     * {@link #getCurrentFile()} only tells the most recently started file. This
+     * method is thread-safe.
+     * 
+     * @return a copy of the list of files being processed
+     */
+    public List<File> getFilesInProgress() {
+        synchronized (syncRoot) {
+            return new ArrayList<File>(filesInProgress);
+        }
+    }
+    
+    /**
+     * Gets the <code>ImageSaver</code> instance used for saving resized images.
+     * @return the <code>ImageSaver</code> instance
+     */
+    protected ImageSaver getImageSaver() {
+        return saver;
+    }
+    
+    /**
+     * Gets the <code>ImageResizer</code> instance used for resizing images.
+     * @return the <code>ImageResizer</code> instance
+     */
+    protected ImageResizer getImageResizer() {
+        return resizer;
+    }
+    
+    /**
+     * Gets a copy of the files in the batch. This method is thread-safe.
+     * @return the files in the batch
+     */
+    protected List<File> getFiles() {
+        synchronized (syncRoot) {
+            return new ArrayList<File>(files);
+        }
+    }
+    
     /**
      * Starts the batch progress.
      */
@@ -142,31 +1104,144 @@ public class BatchResizer {
     }
     
     /**
-     * Runs the batch progress.
+     * Runs the batch progress. The files are distributed to a fork/join pool of
+     * {@link #getThreadCount()} worker threads, and workers left without files
+     * help resizing large images in bands, see {@link #getResizePool(BufferedImage)}.
+     * The state changes to <code>BatchState.Finished</code> only after every
+     * file has been either saved or reported as an error, or skipped because
+     * the batch was cancelled.
      */
     protected void doRun() {
     	updateState(BatchState.Processing);
     	
-    	for (File file : files) {
-    		updateCurrentFile(file);
+    	List<File> batch = getFiles();
+    	waitingFiles.set(batch.size());
+    	
+    	if (getThreadCount() == 1) {
+    		for (File file : batch)
+    			processFile(file);
+    	} else {
+    		// A single file still gets all the threads for resizing in bands
+    		ForkJoinPool executor   = new ForkJoinPool(getThreadCount(), new WorkerThreadFactory(), null, false);
+    		List<Future<?>> results = new ArrayList<Future<?>>(batch.size());
+    		
+    		for (final File file : batch) {
+    			results.add(executor.submit(new Runnable() {
+    				public void run() {
+    					processFile(file);
+    				}
+    			}));
+    		}
+    		
+    		executor.shutdown();
+    		awaitResults(batch, results);
+    	}
+    	
+    	saveManifest();
+    	closeJournal();
+    	updateState(BatchState.Finished);
+    }
+    
+    /**
+     * Waits for the given tasks to finish. A task only fails if processing its
+     * file threw an <code>Error</code>, in which case the failure is reported
+     * to the progress listener like any other error.
+     * 
+     * @param batch the files, in the order the tasks were submitted
+     * @param results the submitted tasks
+     */
+    private void awaitResults(List<File> batch, List<Future<?>> results) {
+    	for (int i = 0; i < results.size(); i++) {
+    		boolean interrupted = false;
+    		
+    		while (true) {
+    			try {
+    				results.get(i).get();
+    				break;
+    			} catch (InterruptedException e) {
+    				interrupted = true;
+    			} catch (ExecutionException e) {
+    				fileDone(batch.get(i));
+    				fireErrorOccured(batch.get(i), e);
+    				break;
+    			}
+    		}
+    		
+    		if (interrupted)
+    			Thread.currentThread().interrupt();
+    	}
+    }
+    
+    /**
+     * Loads, resizes and saves a single file and notifies the progress listener
+     * about the outcome. This method is called by the worker threads and must
+     * therefore be thread-safe.
+     * 
+     * @param file the file to process
+     */
+    protected void processFile(File file) {
+    	waitingFiles.decrementAndGet();
+    	if (!proceed())
+    		return;
+    	
+    	updateCurrentFile(file);
+    	
+    	try {
+    		File dstFile = findFinished(file);
+    		
+    		if (dstFile != null) {
+    			fileDone(file);
+    			fireFileSkipped(file, dstFile);
+    			return;
+    		}
+    		
+    		Admission admission = null;
     		
     		try {
-    			BufferedImage srcImage = ImageUtil.loadImage(file.getAbsolutePath());
-    			if (srcImage == null)
-    				throw new ImageLoadException("The file does not contain image data");
-    			
-    			BufferedImage dstImage = resizer.resize(srcImage);
-    			File dstFile = saver.save(dstImage, file);
+    			dstFile = finishUndecoded(file);
     			
-    			if (progressListener != null)
-    				progressListener.fileSaved(new BatchSaveEvent(this, this, dstFile));
-    			
-    		} catch (Exception e) {
-    			if (progressListener != null)
-    				progressListener.errorOccured(new BatchErrorEvent(this, this, e));
+    			if (dstFile == null) {
+    				admission = admit(file);
+    				
+    				if (admission.isStreamed()) {
+    					dstFile = processStreamed(file, admission);
+    				} else {
+    					BufferedImage srcImage = ImageUtil.loadImage(file, resizer, getPyramidCache());
+    					if (srcImage == null)
+    						throw new ImageLoadException("The file does not contain image data");
+    					
+    					dstFile = processDecoded(file, srcImage);
+    				}
+    				
+    				storeCached(file, dstFile);
+    				recordSaved(file, dstFile);
+    			}
+    		} finally {
+    			release(admission);
     		}
+    		
+    		fileDone(file);
+    		fireFileSaved(file, dstFile);
+    	} catch (Exception e) {
+    		fileDone(file);
+    		fireErrorOccured(file, e);
     	}
+    }
+    
+    /**
+     * Creates the worker threads used by {@link #doRun()}.
+     */
+    private static class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    	private static final AtomicInteger batchNumber = new AtomicInteger(1);
+    	private final AtomicInteger threadNumber = new AtomicInteger(1);
+    	private final String namePrefix = "BatchResizer-" + batchNumber.getAndIncrement() + "-worker-";
     	
-    	updateState(BatchState.Finished);
+    	public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+    		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    		thread.setName(namePrefix + threadNumber.getAndIncrement());
+    		thread.setDaemon(true);
+    		
+    		return thread;
+    	}
     }
 }
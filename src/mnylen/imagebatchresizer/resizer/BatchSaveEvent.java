@@ -8,6 +8,7 @@ import java.io.File;
  */
 public class BatchSaveEvent extends BatchEvent {
 	private File dstFile;
+	private boolean skipped;
 	
 	/**
 	 * Creates a new <code>BatchSaveEvent</code> with the specified source of the event,
@@ -23,6 +24,40 @@ public class BatchSaveEvent extends BatchEvent {
 		this.dstFile = dstFile;
 	}
 	
+	/**
+	 * Creates a new <code>BatchSaveEvent</code> with the specified source of the event,
+	 * the <code>BatchResizer</code> instance that saved the file, the file the image
+	 * was loaded from and the file that was written to.
+	 * 
+	 * @param source the source of the event
+	 * @param batchResizer the <code>BatchResizer</code> instance that saved the file
+	 * @param srcFile the file the image was loaded from
+	 * @param dstFile the file that was written to
+	 */
+	public BatchSaveEvent(Object source, BatchResizer batchResizer, File srcFile, File dstFile) {
+		this(source, batchResizer, srcFile, dstFile, false);
+	}
+	
+	/**
+	 * Creates a new <code>BatchSaveEvent</code> with the specified source of the event,
+	 * the <code>BatchResizer</code> instance that finished the file, the file the image
+	 * was loaded from, the file that holds the image and whether the file was skipped.
+	 * 
+	 * @param source the source of the event
+	 * @param batchResizer the <code>BatchResizer</code> instance that finished the file
+	 * @param srcFile the file the image was loaded from
+	 * @param dstFile the file that holds the image
+	 * @param skipped <code>true</code> if the file was not written, but found written
+	 *        by an earlier run
+	 */
+	public BatchSaveEvent(Object source, BatchResizer batchResizer, File srcFile, File dstFile,
+	  boolean skipped) {
+		
+		super(source, batchResizer, srcFile);
+		this.dstFile = dstFile;
+		this.skipped = skipped;
+	}
+	
 	/**
 	 * Gets the file that was written to by the batch progress.
 	 * @return the file that was written to by the batch progress
@@ -30,4 +65,16 @@ public class BatchSaveEvent extends BatchEvent {
 	public File getDestinationFile() {
 		return dstFile;
 	}
+	
+	/**
+	 * Tells whether the file was skipped instead of being written, because an
+	 * earlier run of the batch had already written it, see
+	 * {@link BatchResizer#setJournal(BatchJournal)} and
+	 * {@link BatchResizer#setManifest(BatchManifest)}.
+	 * 
+	 * @return <code>true</code> if the file was skipped; <code>false</code> if it was written
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
 }
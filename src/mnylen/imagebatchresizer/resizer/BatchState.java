@@ -14,6 +14,18 @@ public enum BatchState {
      */
     Idle,
     
+    /**
+     * The batch is paused. The files in progress are finished, but no more
+     * files are started until the batch is resumed.
+     */
+    Paused,
+    
+    /**
+     * The batch is being cancelled. The files in progress are finished, but
+     * no more files are started, after which the batch finishes.
+     */
+    Cancelling,
+    
     /**
      * The batch process has finished.
      */
@@ -1,19 +1,34 @@
 package mnylen.imagebatchresizer.resizer;
 
 import java.awt.Color;
-import java.awt.Graphics;
+import java.awt.Dimension;
+import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The <code>BoxFittingImageResizer</code> is an <code>ImageResizer</code>
  * implementation that fits the resized image inside a box of predefined
  * dimensions such that the aspect ratio is kept in all circumstances.
+ * 
+ * <p>The image is scaled to the largest size that fits the box on both axes,
+ * so it touches the box on one axis and is never clipped on the other.</p>
+ * 
+ * <p>The resized image is written straight into the box, so no intermediate
+ * image is allocated and only the parts of the box around the image are
+ * filled with the background color. The box is taken from the
+ * {@link ImagePool} of the current thread. By default the background is white and
+ * the image is centered in the box.</p>
  */
 public class BoxFittingImageResizer implements ImageResizer {
-	private AspectKeepingImageResizer resizer;
+	private FittingResizer resizer;
 	private int boxWidth;
 	private int boxHeight;
-	private int longSideLength;
+	private Color background = Color.WHITE;
+	private float horizontalAlignment = CENTER_ALIGNMENT;
+	private float verticalAlignment   = CENTER_ALIGNMENT;
 	
 	/**
 	 * The default width of the box.
@@ -25,6 +40,21 @@ public class BoxFittingImageResizer implements ImageResizer {
 	 */
 	public static final int DEFAULT_BOX_HEIGHT = 500;
 	
+	/**
+	 * The alignment placing the image at the left or top edge of the box.
+	 */
+	public static final float LEADING_ALIGNMENT  = 0.0f;
+	
+	/**
+	 * The alignment placing the image in the middle of the box.
+	 */
+	public static final float CENTER_ALIGNMENT   = 0.5f;
+	
+	/**
+	 * The alignment placing the image at the right or bottom edge of the box.
+	 */
+	public static final float TRAILING_ALIGNMENT = 1.0f;
+	
 	/**
 	 * Creates a new <code>BoxFittingImageResizer</code> using the default width and
 	 * height for the box.
@@ -48,42 +78,355 @@ public class BoxFittingImageResizer implements ImageResizer {
 		if (boxHeight < 1)
 			throw new IllegalArgumentException("the value of boxHeight parameter must be at least 1");
 		
-		this.longSideLength = (boxWidth >= boxHeight) ? boxWidth : boxHeight;
-		this.boxWidth       = boxWidth;
-		this.boxHeight      = boxHeight;
-		this.resizer        = new AspectKeepingImageResizer(longSideLength);
+		this.boxWidth  = boxWidth;
+		this.boxHeight = boxHeight;
+		this.resizer   = new FittingResizer(boxWidth, boxHeight);
+	}
+	
+	/**
+	 * Sets the color the box is filled with around the image. If the color is
+	 * not opaque, the boxes are of type <code>TYPE_INT_ARGB</code>; otherwise
+	 * they are of type <code>TYPE_INT_RGB</code> and images with an alpha channel
+	 * are composited over the background.
+	 * 
+	 * @param background the background color
+	 * @throws IllegalArgumentException if the <code>background</code> parameter is <code>null</code>
+	 */
+	public void setBackground(Color background) throws IllegalArgumentException {
+		if (background == null)
+			throw new IllegalArgumentException("the background parameter must not be null");
+		
+		this.background = background;
+	}
+	
+	/**
+	 * Gets the color the box is filled with around the image.
+	 * @return the background color
+	 */
+	public Color getBackground() {
+		return background;
+	}
+	
+	/**
+	 * Sets where the image is placed in the box when it does not fill the box.
+	 * An alignment of <code>0</code> places the image at the left or top edge of
+	 * the box, <code>1</code> at the right or bottom edge and <code>0.5</code>,
+	 * which is the default, in the middle.
+	 * 
+	 * @param horizontal the horizontal alignment
+	 * @param vertical the vertical alignment
+	 * @throws IllegalArgumentException if either alignment is less than 0 or greater than 1
+	 */
+	public void setAlignment(float horizontal, float vertical) throws IllegalArgumentException {
+		if (!(horizontal >= 0 && horizontal <= 1))
+			throw new IllegalArgumentException("the value of horizontal parameter must be between 0 and 1");
+		
+		if (!(vertical >= 0 && vertical <= 1))
+			throw new IllegalArgumentException("the value of vertical parameter must be between 0 and 1");
+		
+		this.horizontalAlignment = horizontal;
+		this.verticalAlignment   = vertical;
+	}
+	
+	/**
+	 * Gets the horizontal alignment of the image in the box.
+	 * @return the horizontal alignment
+	 */
+	public float getHorizontalAlignment() {
+		return horizontalAlignment;
+	}
+	
+	/**
+	 * Gets the vertical alignment of the image in the box.
+	 * @return the vertical alignment
+	 */
+	public float getVerticalAlignment() {
+		return verticalAlignment;
+	}
+	
+	/**
+	 * Sets the filter used for resampling the images before they are inserted in
+	 * the box. See {@link AbstractImageResizer#setResampleFilter(ResampleFilter)}.
+	 * 
+	 * @param filter the filter to use, or <code>null</code> for the default scaling
+	 */
+	public void setResampleFilter(ResampleFilter filter) {
+		resizer.setResampleFilter(filter);
+	}
+	
+	/**
+	 * Gets the filter used for resampling the images.
+	 * @return the filter, or <code>null</code> if the default scaling is used
+	 */
+	public ResampleFilter getResampleFilter() {
+		return resizer.getResampleFilter();
+	}
+	
+	/**
+	 * Sets the convolver doing the arithmetic when the images are resampled
+	 * with a filter. See {@link AbstractImageResizer#setRowConvolver(RowConvolver)}.
+	 * 
+	 * @param convolver the convolver to use
+	 * @throws IllegalArgumentException if the <code>convolver</code> parameter is <code>null</code>
+	 */
+	public void setRowConvolver(RowConvolver convolver) throws IllegalArgumentException {
+		resizer.setRowConvolver(convolver);
+	}
+	
+	/**
+	 * Gets the convolver doing the arithmetic when the images are resampled.
+	 * @return the convolver
+	 */
+	public RowConvolver getRowConvolver() {
+		return resizer.getRowConvolver();
+	}
+	
+	/**
+	 * Sets whether the images are scaled down progressively before they are
+	 * inserted in the box. See {@link AbstractImageResizer#setProgressive(boolean)}.
+	 * 
+	 * @param progressive <code>true</code> to scale down progressively; <code>false</code> otherwise
+	 */
+	public void setProgressive(boolean progressive) {
+		resizer.setProgressive(progressive);
+	}
+	
+	/**
+	 * Tells whether the images are scaled down progressively.
+	 * @return <code>true</code> if the images are scaled down progressively; <code>false</code> otherwise
+	 */
+	public boolean isProgressive() {
+		return resizer.isProgressive();
+	}
+	
+	/**
+	 * Sets whether images smaller than the box are inserted in the box at their
+	 * own size instead of being scaled up to fit it. See
+	 * {@link AbstractImageResizer#setNeverUpscale(boolean)}.
+	 * 
+	 * @param neverUpscale <code>true</code> to never scale images up; <code>false</code> otherwise
+	 */
+	public void setNeverUpscale(boolean neverUpscale) {
+		resizer.setNeverUpscale(neverUpscale);
+	}
+	
+	/**
+	 * Tells whether images smaller than the box are inserted at their own size.
+	 * @return <code>true</code> if images are never scaled up; <code>false</code> otherwise
+	 */
+	public boolean isNeverUpscale() {
+		return resizer.isNeverUpscale();
+	}
+	
+	/**
+	 * Calculates the dimensions the source image will be scaled to before it is
+	 * inserted in the box: the largest dimensions of the aspect ratio of the
+	 * source image that fit the box. The dimensions of the box itself do not
+	 * depend on the source image.
+	 * 
+	 * @param width the width of the source image
+	 * @param height the height of the source image
+	 * @return the dimensions of the scaled image
+	 */
+	@Override
+	public Dimension getTargetSize(int width, int height) {
+		return resizer.getTargetSize(width, height);
+	}
+	
+	/**
+	 * Tells whether resizing an image of the given dimensions would give back
+	 * the image as it is, which is the case when the image is already of the
+	 * dimensions of the box and fills it.
+	 * 
+	 * @param width the width of the source image
+	 * @param height the height of the source image
+	 * @return <code>true</code> if the box would be the source image unchanged
+	 */
+	@Override
+	public boolean isUnchanged(int width, int height) {
+		return width == boxWidth && height == boxHeight && resizer.isUnchanged(width, height);
+	}
+	
+	/**
+	 * Describes the parameters of this resizer: the box, the background, the
+	 * alignment and the parameters of scaling the image.
+	 * 
+	 * @return the description of the parameters
+	 */
+	@Override
+	public String describe() {
+		return getClass().getName() + "[boxWidth=" + boxWidth + ",boxHeight=" + boxHeight
+			+ ",background=" + Integer.toHexString(background.getRGB())
+			+ ",alignment=" + horizontalAlignment + "," + verticalAlignment
+			+ ",resizer=" + resizer.describe() + "]";
 	}
 	
 	/**
 	 * Resizes the given image so that it fits the predefined dimensions of the box and then
-	 * inserts the resized image in middle of the box. The empty area of the box will be filled
-	 * with a background color of white.
+	 * inserts the resized image in the box according to the alignment. The empty area of the
+	 * box will be filled with the background color.
 	 * 
 	 * @param image the image to resize and fit to box
+	 * @return the box
 	 */
 	@Override
 	public BufferedImage resize(BufferedImage image) {
-		BufferedImage resizedImage = resizer.resize(image);
-		BufferedImage boxImage      = new BufferedImage(boxWidth, boxHeight, BufferedImage.TYPE_INT_RGB);
-		Graphics graphics           = boxImage.createGraphics();
+		return resize(image, null);
+	}
+	
+	/**
+	 * Resizes the given image and inserts it in the box like {@link #resize(BufferedImage)},
+	 * splitting the resizing into bands of rows run in parallel on the given pool.
+	 * 
+	 * @param image the image to resize and fit to box
+	 * @param pool the pool to run the bands on, or <code>null</code> to resize in the calling thread
+	 * @return the box
+	 */
+	@Override
+	public BufferedImage resize(BufferedImage image, ForkJoinPool pool) {
+		Dimension size = resizer.getTargetSize(image.getWidth(), image.getHeight());
+		Point position = getPosition(size.width, size.height);
 		
+		boolean opaque    = background.getAlpha() == 0xff;
+		BufferedImage box = ImagePool.current().acquire(boxWidth, boxHeight,
+				opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
 		
-		graphics.setColor(Color.WHITE);
-		graphics.fillRect(0, 0, boxWidth, boxHeight);
+		// The image covers its part of the box unless it has to be composited
+		// over the background
+		if (opaque && image.getColorModel().hasAlpha())
+			fill(box, 0, 0, boxWidth, boxHeight);
+		else
+			fillAround(box, position.x, position.y, size.width, size.height);
 		
+		resizer.scale(image, size.width, size.height, box, position.x, position.y, pool);
+		return box;
+	}
+	
+	/**
+	 * Resizes the image read from the given row source so that it fits the box
+	 * and inserts it in the box, like {@link #resize(BufferedImage)} does. The
+	 * rows of the box above and below the image are produced without reading
+	 * the source. The produced box is always opaque, so the alpha of the
+	 * background color is ignored.
+	 * 
+	 * @param source the row source to read the image from
+	 * @return the row source producing the box
+	 */
+	@Override
+	public ImageRowSource resize(ImageRowSource source) {
+		ImageRowSource resized = resizer.resize(source);
+		Point position         = getPosition(resized.getWidth(), resized.getHeight());
+		
+		return new PaddedRowSource(resized, boxWidth, boxHeight, position.x, position.y,
+				background.getRGB());
+	}
+	
+	/**
+	 * Fills the parts of the box around the given area with the background color.
+	 * 
+	 * @param box the box to fill
+	 * @param x the horizontal position of the area
+	 * @param y the vertical position of the area
+	 * @param width the width of the area
+	 * @param height the height of the area
+	 */
+	private void fillAround(BufferedImage box, int x, int y, int width, int height) {
+		int top    = Math.min(boxHeight, Math.max(0, y));
+		int bottom = Math.min(boxHeight, Math.max(top, y + height));
+		int left   = Math.min(boxWidth, Math.max(0, x));
+		int right  = Math.min(boxWidth, Math.max(left, x + width));
 		
-		int xPos, yPos;
-		if (longSideLength == resizedImage.getWidth()) {
-			xPos = 0;
-			yPos = (boxHeight - resizedImage.getHeight()) / 2;
-		} else {
-			xPos = (boxWidth  - resizedImage.getWidth())  / 2;
-			yPos = 0;
+		fill(box, 0, 0, boxWidth, top);
+		fill(box, 0, bottom, boxWidth, boxHeight);
+		fill(box, 0, top, left, bottom);
+		fill(box, right, top, boxWidth, bottom);
+	}
+	
+	/**
+	 * Fills the given area of the box with the background color.
+	 * 
+	 * @param box the box to fill
+	 * @param left the first column of the area
+	 * @param top the first row of the area
+	 * @param right the column after the last column of the area
+	 * @param bottom the row after the last row of the area
+	 */
+	private void fill(BufferedImage box, int left, int top, int right, int bottom) {
+		if (left >= right)
+			return;
+		
+		int[] pixels = ((DataBufferInt)box.getRaster().getDataBuffer()).getData();
+		int rgb      = background.getRGB();
+		
+		for (int y = top; y < bottom; y++)
+			Arrays.fill(pixels, y * boxWidth + left, y * boxWidth + right, rgb);
+	}
+	
+	/**
+	 * Calculates the position of the resized image in the box.
+	 * 
+	 * @param width the width of the resized image
+	 * @param height the height of the resized image
+	 * @return the position of the upper left corner of the resized image
+	 */
+	private Point getPosition(int width, int height) {
+		return new Point((int)Math.floor((boxWidth - width) * horizontalAlignment),
+				(int)Math.floor((boxHeight - height) * verticalAlignment));
+	}
+	
+	/**
+	 * Scales images to the largest dimensions that fit the box while keeping
+	 * their aspect ratio. For a square box this is the same as scaling the
+	 * long side to the side of the box.
+	 */
+	private static final class FittingResizer extends AbstractImageResizer {
+		private final int boxWidth;
+		private final int boxHeight;
+		
+		/**
+		 * Creates a new <code>FittingResizer</code> for the given box.
+		 * 
+		 * @param boxWidth the width of the box
+		 * @param boxHeight the height of the box
+		 */
+		FittingResizer(int boxWidth, int boxHeight) {
+			this.boxWidth  = boxWidth;
+			this.boxHeight = boxHeight;
 		}
 		
-		graphics.drawImage(resizedImage, xPos, yPos, Color.WHITE, null);
-		graphics.dispose();
+		/**
+		 * Calculates the largest dimensions of the aspect ratio of the source
+		 * image that fit the box, or the dimensions of the source image if it
+		 * fits the box and images are never scaled up.
+		 * 
+		 * @param srcWidth the width of the source image
+		 * @param srcHeight the height of the source image
+		 * @return the dimensions of the scaled image
+		 */
+		@Override
+		public Dimension getTargetSize(int srcWidth, int srcHeight) {
+			if (isNeverUpscale() && srcWidth <= boxWidth && srcHeight <= boxHeight)
+				return new Dimension(srcWidth, srcHeight);
+			
+			int width, height;
+			if ((long)srcWidth * boxHeight >= (long)srcHeight * boxWidth) {
+				width  = boxWidth;
+				height = Math.round(((float)width * srcHeight) / srcWidth);
+			} else {
+				height = boxHeight;
+				width  = Math.round(((float)height * srcWidth) / srcHeight);
+			}
+			
+			return new Dimension(Math.max(1, width), Math.max(1, height));
+		}
 		
-		return boxImage;
+		/**
+		 * Describes the box the images are fitted in.
+		 * @return the description of the box
+		 */
+		@Override
+		protected String describeTarget() {
+			return "boxWidth=" + boxWidth + ",boxHeight=" + boxHeight;
+		}
 	}
 }
@@ -0,0 +1,237 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * An <code>ImageRowSource</code> reading the rows of a <code>BufferedImage</code>.
+ * The rows can be read in any order.
+ * 
+ * <p>Images with packed ARGB or RGB ints, images with interleaved RGB or ABGR
+ * bytes (which is what the JPEG and PNG readers usually produce), and 8-bit
+ * indexed and gray images are read straight from the arrays backing their
+ * rasters. The gray levels of gray images are copied to the three channels as
+ * they are, like Java2D draws them, instead of being converted from the linear
+ * gray color space like <code>BufferedImage.getRGB</code> does. Other images
+ * are read with <code>BufferedImage.getRGB</code>, which converts every pixel
+ * through the color model and is many times slower.</p>
+ */
+public class BufferedImageRowSource implements ImageRowSource {
+	private final BufferedImage image;
+	private final boolean alpha;
+	
+	private int[] intData;
+	private byte[] byteData;
+	private int offset;
+	private int scanlineStride;
+	private int pixelStride;
+	private int[] bandOffsets;
+	private int[] palette;
+	
+	/**
+	 * Creates a new <code>BufferedImageRowSource</code> for the given image.
+	 * 
+	 * @param image the image to read
+	 * @throws IllegalArgumentException if the <code>image</code> parameter is <code>null</code>
+	 */
+	public BufferedImageRowSource(BufferedImage image) throws IllegalArgumentException {
+		if (image == null)
+			throw new IllegalArgumentException("the image parameter must not be null");
+		
+		this.image = image;
+		this.alpha = image.getColorModel().hasAlpha();
+		
+		if (!initPackedAccess() && !initInterleavedAccess())
+			initLookupAccess();
+	}
+	
+	/**
+	 * Sets up reading the pixels straight from the raster if the image stores
+	 * non-premultiplied sRGB pixels packed in ints.
+	 * 
+	 * @return <code>true</code> if the pixels can be read straight from the raster
+	 */
+	private boolean initPackedAccess() {
+		ColorModel cm  = image.getColorModel();
+		Raster raster  = image.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db  = raster.getDataBuffer();
+		
+		if (!(cm instanceof DirectColorModel) || !(sm instanceof SinglePixelPackedSampleModel)
+				|| !(db instanceof DataBufferInt) || !cm.getColorSpace().isCS_sRGB()
+				|| cm.isAlphaPremultiplied())
+			return false;
+		
+		DirectColorModel dcm = (DirectColorModel)cm;
+		if (dcm.getRedMask() != 0xff0000 || dcm.getGreenMask() != 0xff00 || dcm.getBlueMask() != 0xff
+				|| (alpha && dcm.getAlphaMask() != 0xff000000))
+			return false;
+		
+		SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel)sm;
+		
+		intData        = ((DataBufferInt)db).getData();
+		scanlineStride = sppsm.getScanlineStride();
+		offset         = db.getOffset() + sppsm.getOffset(-raster.getSampleModelTranslateX(),
+				-raster.getSampleModelTranslateY());
+		
+		return true;
+	}
+	
+	/**
+	 * Sets up reading the pixels straight from the raster if the image stores
+	 * non-premultiplied sRGB pixels as interleaved bytes.
+	 * 
+	 * @return <code>true</code> if the pixels can be read straight from the raster
+	 */
+	private boolean initInterleavedAccess() {
+		ColorModel cm  = image.getColorModel();
+		Raster raster  = image.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db  = raster.getDataBuffer();
+		
+		if (!(cm instanceof ComponentColorModel) || !(sm instanceof ComponentSampleModel)
+				|| !(db instanceof DataBufferByte) || !cm.getColorSpace().isCS_sRGB()
+				|| cm.isAlphaPremultiplied() || db.getNumBanks() != 1
+				|| cm.getComponentSize(0) != 8)
+			return false;
+		
+		ComponentSampleModel csm = (ComponentSampleModel)sm;
+		int bands = csm.getNumBands();
+		
+		if (bands != (alpha ? 4 : 3) || cm.getColorSpace().getType() != ColorSpace.TYPE_RGB)
+			return false;
+		
+		initByteAccess(raster, csm);
+		return true;
+	}
+	
+	/**
+	 * Sets up reading the pixels straight from the raster through a lookup table
+	 * if the image stores 8-bit indexes to a palette or 8-bit gray levels.
+	 */
+	private void initLookupAccess() {
+		ColorModel cm  = image.getColorModel();
+		Raster raster  = image.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db  = raster.getDataBuffer();
+		
+		if (!(sm instanceof ComponentSampleModel) || !(db instanceof DataBufferByte)
+				|| db.getNumBanks() != 1 || sm.getNumBands() != 1 || sm.getSampleSize(0) != 8)
+			return;
+		
+		if (cm instanceof IndexColorModel) {
+			IndexColorModel icm = (IndexColorModel)cm;
+			palette = new int[256];
+			icm.getRGBs(palette);
+			
+			// Indexes past the end of the palette are black, like in getRGB
+			for (int i = icm.getMapSize(); i < palette.length; i++)
+				palette[i] = alpha ? 0 : 0xff000000;
+		} else if (cm instanceof ComponentColorModel && !alpha
+				&& cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+			palette = new int[256];
+			
+			for (int i = 0; i < palette.length; i++)
+				palette[i] = 0xff000000 | (i << 16) | (i << 8) | i;
+		} else {
+			return;
+		}
+		
+		initByteAccess(raster, (ComponentSampleModel)sm);
+	}
+	
+	/**
+	 * Sets up reading the bytes of the given raster.
+	 * 
+	 * @param raster the raster of the image
+	 * @param csm the sample model of the raster
+	 */
+	private void initByteAccess(Raster raster, ComponentSampleModel csm) {
+		byteData       = ((DataBufferByte)raster.getDataBuffer()).getData();
+		scanlineStride = csm.getScanlineStride();
+		pixelStride    = csm.getPixelStride();
+		bandOffsets    = csm.getBandOffsets();
+		offset         = raster.getDataBuffer().getOffset()
+				- raster.getSampleModelTranslateY() * scanlineStride
+				- raster.getSampleModelTranslateX() * pixelStride;
+	}
+	
+	/**
+	 * Gets the width of the image.
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return image.getWidth();
+	}
+	
+	/**
+	 * Gets the height of the image.
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return image.getHeight();
+	}
+	
+	/**
+	 * Tells whether the image has an alpha channel.
+	 * @return <code>true</code> if the image has an alpha channel; <code>false</code> otherwise
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * Reads a row of the image as packed ARGB pixels.
+	 * 
+	 * @param y the row to read
+	 * @param row the array to read the pixels to
+	 */
+	public void readRow(int y, int[] row) {
+		int width = image.getWidth();
+		
+		if (intData != null) {
+			int o = offset + y * scanlineStride;
+			
+			if (alpha) {
+				System.arraycopy(intData, o, row, 0, width);
+			} else {
+				for (int x = 0; x < width; x++)
+					row[x] = intData[o + x] | 0xff000000;
+			}
+		} else if (palette != null) {
+			int o = offset + y * scanlineStride + bandOffsets[0];
+			
+			for (int x = 0; x < width; x++, o += pixelStride)
+				row[x] = palette[byteData[o] & 0xff];
+		} else if (byteData != null) {
+			int o  = offset + y * scanlineStride;
+			int ro = bandOffsets[0], go = bandOffsets[1], bo = bandOffsets[2];
+			
+			if (alpha) {
+				int ao = bandOffsets[3];
+				for (int x = 0; x < width; x++, o += pixelStride) {
+					row[x] = ((byteData[o + ao] & 0xff) << 24) | ((byteData[o + ro] & 0xff) << 16)
+						| ((byteData[o + go] & 0xff) << 8) | (byteData[o + bo] & 0xff);
+				}
+			} else {
+				for (int x = 0; x < width; x++, o += pixelStride) {
+					row[x] = 0xff000000 | ((byteData[o + ro] & 0xff) << 16)
+						| ((byteData[o + go] & 0xff) << 8) | (byteData[o + bo] & 0xff);
+				}
+			}
+		} else {
+			image.getRGB(0, y, width, 1, row, 0, width);
+		}
+	}
+}
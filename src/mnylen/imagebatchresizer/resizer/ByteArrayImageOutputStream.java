@@ -0,0 +1,127 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * An image output stream writing to a growing byte array in memory. Unlike the
+ * <code>MemoryCacheImageOutputStream</code>, the stream can be {@link #clear()}ed
+ * and written again, keeping its array, so encoding many images into the same
+ * stream does not allocate a new buffer for every image.
+ */
+final class ByteArrayImageOutputStream extends ImageOutputStreamImpl {
+	private byte[] buffer;
+	private int length;
+	
+	/**
+	 * Creates a new, empty stream.
+	 * 
+	 * @param capacity the initial capacity of the stream in bytes
+	 */
+	ByteArrayImageOutputStream(int capacity) {
+		this.buffer = new byte[Math.max(16, capacity)];
+	}
+	
+	/**
+	 * Empties the stream for writing a new image. The array of the stream is
+	 * kept. The stream must not have been closed.
+	 */
+	void clear() {
+		length     = 0;
+		streamPos  = 0;
+		bitOffset  = 0;
+		flushedPos = 0;
+	}
+	
+	/**
+	 * Gets the number of bytes in the stream.
+	 * @return the length of the stream in bytes
+	 */
+	int size() {
+		return length;
+	}
+	
+	/**
+	 * Gets the capacity of the stream.
+	 * @return the length of the array of the stream in bytes
+	 */
+	int capacity() {
+		return buffer.length;
+	}
+	
+	/**
+	 * Writes the contents of the stream to the given output stream.
+	 * 
+	 * @param out the stream to write to
+	 * @throws IOException if writing fails
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+	
+	@Override
+	public long length() {
+		return length;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		
+		return (streamPos < length) ? (buffer[(int)streamPos++] & 0xff) : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		
+		if (streamPos >= length)
+			return (len == 0) ? 0 : -1;
+		
+		len = (int)Math.min(len, length - streamPos);
+		System.arraycopy(buffer, (int)streamPos, b, off, len);
+		streamPos += len;
+		
+		return len;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		flushBits();
+		ensureCapacity(streamPos + 1);
+		
+		buffer[(int)streamPos++] = (byte)b;
+		length = Math.max(length, (int)streamPos);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		flushBits();
+		ensureCapacity(streamPos + len);
+		
+		System.arraycopy(b, off, buffer, (int)streamPos, len);
+		streamPos += len;
+		length = Math.max(length, (int)streamPos);
+	}
+	
+	/**
+	 * Grows the array of the stream to hold at least the given number of bytes.
+	 * 
+	 * @param capacity the required capacity
+	 * @throws IOException if the capacity exceeds the maximum length of an array
+	 */
+	private void ensureCapacity(long capacity) throws IOException {
+		if (capacity <= buffer.length)
+			return;
+		
+		if (capacity > Integer.MAX_VALUE - 8)
+			throw new IOException("The encoded image is too large to be buffered in memory");
+		
+		buffer = Arrays.copyOf(buffer, (int)Math.max(capacity, Math.min(Integer.MAX_VALUE - 8, 2L * buffer.length)));
+	}
+}
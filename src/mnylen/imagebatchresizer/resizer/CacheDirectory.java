@@ -0,0 +1,378 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of cache entries kept within a maximum total size by deleting
+ * the least recently used entries. This is the storage of the
+ * {@link PyramidCache} and the {@link OutputCache}.
+ * 
+ * <p>Every file in the directory is an entry, named by its key. The use of an
+ * entry is recorded in the modification time of its file, so the order of use
+ * carries over to the next run. Entries are written to temporary files that
+ * are renamed in place when complete, so the directory only ever holds
+ * complete entries and the directory itself serves as the index: a crash
+ * leaves at most temporary files behind, which are deleted when the directory
+ * is opened again, as are the part files of the savers.</p>
+ * 
+ * <p>The class is thread-safe.</p>
+ */
+final class CacheDirectory {
+	/**
+	 * The extension of the entries being written.
+	 */
+	private static final String TEMP_EXTENSION = ".tmp";
+	
+	/**
+	 * The maximum number of content hashes remembered.
+	 */
+	private static final int MAX_HASHES = 16 * 1024;
+	
+	/**
+	 * The content hashes of the files hashed so far, by their path, length and
+	 * modification time, the least recently used first.
+	 */
+	private static final LinkedHashMap<String, String> hashes = new LinkedHashMap<String, String>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_HASHES;
+		}
+	};
+	
+	/**
+	 * The last parameters hashed and their hash.
+	 */
+	private static volatile String[] lastParameters;
+	
+	private final File directory;
+	private final long maxBytes;
+	
+	/**
+	 * The entries in the order they were last used, the least recently used
+	 * first, mapped to their sizes in bytes.
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+	private long size;
+	
+	/**
+	 * Opens the given directory, taking the entries already in it into use and
+	 * deleting the temporary files left behind by a crash.
+	 * 
+	 * @param directory the directory to keep the entries in
+	 * @param maxBytes the maximum total size of the entries in bytes
+	 * @throws NotADirectoryException if the <code>directory</code> is not a directory
+	 * @throws IllegalArgumentException if the <code>maxBytes</code> parameter is less than 1
+	 */
+	CacheDirectory(File directory, long maxBytes) throws NotADirectoryException, IllegalArgumentException {
+		if (directory == null || !directory.isDirectory())
+			throw new NotADirectoryException("the specified cache directory is not a directory");
+		
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("the value of maxBytes parameter must not be less than 1");
+		
+		this.directory = directory;
+		this.maxBytes  = maxBytes;
+		
+		File[] files = directory.listFiles();
+		
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long timeA = a.lastModified();
+				long timeB = b.lastModified();
+				
+				return (timeA < timeB) ? -1 : (timeA > timeB) ? 1 : 0;
+			}
+		});
+		
+		synchronized (entries) {
+			for (File file : files) {
+				if (file.getName().endsWith(TEMP_EXTENSION) || ImageCodecs.isPartFile(file.getName()))
+					file.delete();
+				else if (file.isFile())
+					add(file.getName(), file.length());
+			}
+			
+			evict();
+		}
+	}
+	
+	/**
+	 * Gets the directory the entries are kept in.
+	 * @return the directory
+	 */
+	File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Gets the maximum total size of the entries.
+	 * @return the maximum size in bytes
+	 */
+	long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * Gets the total size of the entries.
+	 * @return the size in bytes
+	 */
+	long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+	
+	/**
+	 * Gets the file of the given entry.
+	 * 
+	 * @param name the name of the entry
+	 * @return the file
+	 */
+	File getFile(String name) {
+		return new File(directory, name);
+	}
+	
+	/**
+	 * Finds the entries whose names start with the given prefix.
+	 * 
+	 * @param prefix the prefix
+	 * @return the names of the entries
+	 */
+	List<String> find(String prefix) {
+		List<String> found = new ArrayList<String>();
+		
+		synchronized (entries) {
+			for (String name : entries.keySet()) {
+				if (name.startsWith(prefix))
+					found.add(name);
+			}
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Tells whether the given entry is stored.
+	 * 
+	 * @param name the name of the entry
+	 * @return <code>true</code> if the entry is stored
+	 */
+	boolean contains(String name) {
+		synchronized (entries) {
+			return entries.containsKey(name);
+		}
+	}
+	
+	/**
+	 * Marks the given entry as the most recently used one.
+	 * @param name the name of the entry
+	 */
+	void touch(String name) {
+		synchronized (entries) {
+			entries.get(name);
+		}
+		
+		getFile(name).setLastModified(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Forgets an entry that could not be read, deleting whatever is left of it.
+	 * @param name the name of the entry
+	 */
+	void forget(String name) {
+		synchronized (entries) {
+			Long removed = entries.remove(name);
+			if (removed != null)
+				size -= removed;
+		}
+		
+		getFile(name).delete();
+	}
+	
+	/**
+	 * Creates a temporary file for writing the given entry. The file is
+	 * deleted when the directory is opened again unless it is committed.
+	 * 
+	 * @param name the name of the entry
+	 * @return the temporary file
+	 * @throws IOException if the file could not be created
+	 */
+	File createTempFile(String name) throws IOException {
+		return File.createTempFile(name, TEMP_EXTENSION, directory);
+	}
+	
+	/**
+	 * Renames a completely written temporary file to the given entry, which
+	 * becomes the most recently used one, and deletes the least recently used
+	 * entries until the entries fit in the maximum size. The temporary file is
+	 * deleted if renaming it fails.
+	 * 
+	 * @param tempFile the temporary file created by {@link #createTempFile(String)}
+	 * @param name the name of the entry
+	 * @throws IOException if renaming the file fails
+	 */
+	void commit(File tempFile, String name) throws IOException {
+		File file = getFile(name);
+		
+		try {
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tempFile.delete();
+		}
+		
+		synchronized (entries) {
+			add(name, file.length());
+			evict();
+		}
+	}
+	
+	/**
+	 * Adds an entry as the most recently used one. Must be called holding the
+	 * lock of the entries.
+	 * 
+	 * @param name the name of the entry
+	 * @param length the size of the entry in bytes
+	 */
+	private void add(String name, long length) {
+		Long replaced = entries.put(name, length);
+		if (replaced != null)
+			size -= replaced;
+		
+		size += length;
+	}
+	
+	/**
+	 * Deletes the least recently used entries until the entries fit in the
+	 * maximum size. Must be called holding the lock of the entries.
+	 */
+	private void evict() {
+		for (Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator(); size > maxBytes && i.hasNext(); ) {
+			Map.Entry<String, Long> entry = i.next();
+			
+			getFile(entry.getKey()).delete();
+			size -= entry.getValue();
+			i.remove();
+		}
+	}
+	
+	/**
+	 * Computes the SHA-1 hash of the content of the given file. The hash is
+	 * remembered as long as the path, length and modification time of the file
+	 * stay the same, so a file is read only once for any number of lookups.
+	 * 
+	 * @param file the file
+	 * @return the hash as a hexadecimal string
+	 * @throws IOException if reading the file fails
+	 */
+	static String hash(File file) throws IOException {
+		String id = file.getAbsolutePath() + '\0' + file.length() + '\0' + file.lastModified();
+		String hash;
+		
+		synchronized (hashes) {
+			hash = hashes.get(id);
+		}
+		
+		if (hash != null)
+			return hash;
+		
+		MessageDigest digest = createDigest();
+		InputStream in       = new FileInputStream(file);
+		byte[] buffer        = new byte[64 * 1024];
+		
+		try {
+			int count;
+			while ((count = in.read(buffer)) > 0)
+				digest.update(buffer, 0, count);
+		} finally {
+			in.close();
+		}
+		
+		hash = toHex(digest.digest());
+		
+		synchronized (hashes) {
+			hashes.put(id, hash);
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Computes the SHA-1 hash of the given text.
+	 * 
+	 * @param text the text
+	 * @return the hash as a hexadecimal string
+	 */
+	static String hash(String text) {
+		return toHex(createDigest().digest(text.getBytes(Charset.forName("UTF-8"))));
+	}
+	
+	/**
+	 * Computes the SHA-1 hash of the parameters of the given resizer and saver,
+	 * as given by {@link ImageResizer#describe()} and {@link ImageSaver#describe()}.
+	 * The hash of the last parameters is remembered, as a batch asks for the
+	 * same ones for every file.
+	 * 
+	 * @param resizer the resizer
+	 * @param saver the saver
+	 * @return the hash as a hexadecimal string
+	 */
+	static String hash(ImageResizer resizer, ImageSaver saver) {
+		String description = resizer.describe() + "\n" + saver.describe();
+		String[] last      = lastParameters;
+		
+		if (last != null && last[0].equals(description))
+			return last[1];
+		
+		String hash    = hash(description);
+		lastParameters = new String[] { description, hash };
+		
+		return hash;
+	}
+	
+	/**
+	 * Creates a SHA-1 digest, which every Java platform has.
+	 * @return the digest
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Formats the given bytes as a hexadecimal string.
+	 * 
+	 * @param bytes the bytes
+	 * @return the hexadecimal string
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		
+		return hex.toString();
+	}
+}
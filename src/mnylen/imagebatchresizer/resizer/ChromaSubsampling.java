@@ -0,0 +1,50 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * Enumerates the chroma subsampling modes available for saving JPEG images.
+ * Subsampling stores the colour (chroma) of the image at a lower resolution
+ * than its brightness (luma), which the eye is much less sensitive to, making
+ * the files smaller at the cost of blurring sharp colour edges.
+ */
+public enum ChromaSubsampling {
+    /**
+     * No subsampling; the colour is stored at full resolution. Best for images
+     * with sharp colour edges, such as text and graphics.
+     */
+    YCbCr444(1, 1),
+    
+    /**
+     * The colour is stored at half the horizontal resolution.
+     */
+    YCbCr422(2, 1),
+    
+    /**
+     * The colour is stored at half the horizontal and vertical resolution. The
+     * default of most encoders and the smallest files for photographs.
+     */
+    YCbCr420(2, 2);
+    
+    private final int horizontalFactor;
+    private final int verticalFactor;
+    
+    ChromaSubsampling(int horizontalFactor, int verticalFactor) {
+        this.horizontalFactor = horizontalFactor;
+        this.verticalFactor   = verticalFactor;
+    }
+    
+    /**
+     * Gets the horizontal sampling factor of the luma relative to the chroma.
+     * @return the horizontal sampling factor
+     */
+    int getHorizontalFactor() {
+        return horizontalFactor;
+    }
+    
+    /**
+     * Gets the vertical sampling factor of the luma relative to the chroma.
+     * @return the vertical sampling factor
+     */
+    int getVerticalFactor() {
+        return verticalFactor;
+    }
+}
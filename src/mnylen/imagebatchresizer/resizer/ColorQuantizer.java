@@ -0,0 +1,738 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reduces the colors of images to an adaptive palette of at most 256 colors.
+ * 
+ * <p>Images with few enough colors, such as most flat user interface graphics,
+ * get a palette of exactly their colors and lose nothing. The colors of other
+ * images are counted in a histogram of 5 bits per color channel and 3 bits of
+ * alpha, and the palette is built by median cut: the box of colors with the
+ * largest squared error is split at the weighted median of its widest channel
+ * until there are as many boxes as colors. Fully transparent pixels always get
+ * a palette entry of their own. The pixels are then mapped to the box of their
+ * histogram cell, or, with dithering, to the nearest color after Floyd-Steinberg
+ * error diffusion of the color channels.</p>
+ * 
+ * <p>The histogram takes a few megabytes and is kept by every thread for the
+ * next image, so quantizing an image costs three passes over its pixels and a
+ * pass over the distinct histogram cells.</p>
+ */
+final class ColorQuantizer {
+	/**
+	 * The maximum number of colors of a palette.
+	 */
+	static final int MAX_COLORS = 256;
+	
+	/**
+	 * The alpha channel counts this many times as much as a color channel when
+	 * splitting boxes and finding nearest colors, so that translucent and opaque
+	 * pixels are kept apart.
+	 */
+	private static final int ALPHA_WEIGHT = 4;
+	
+	private static final int HISTOGRAM_SIZE = 1 << 18;
+	
+	private static final ThreadLocal<Histogram> histograms = new ThreadLocal<Histogram>() {
+		@Override
+		protected Histogram initialValue() {
+			return new Histogram();
+		}
+	};
+	
+	private final int maxColors;
+	private final boolean dither;
+	private final boolean binaryAlpha;
+	
+	/**
+	 * Creates a new quantizer.
+	 * 
+	 * @param maxColors the maximum number of colors, from 2 to 256
+	 * @param dither whether to dither the colors
+	 * @param binaryAlpha whether the pixels are made either fully transparent
+	 *        or opaque, like GIF requires
+	 */
+	ColorQuantizer(int maxColors, boolean dither, boolean binaryAlpha) {
+		this.maxColors   = maxColors;
+		this.dither      = dither;
+		this.binaryAlpha = binaryAlpha;
+	}
+	
+	/**
+	 * Quantizes the given image.
+	 * 
+	 * @param image the image to quantize
+	 * @return an image of type <code>TYPE_BYTE_INDEXED</code> with the palette
+	 *         in its <code>IndexColorModel</code>; the translucent colors come
+	 *         first in the palette, and a fully transparent color, if any, is
+	 *         the first one
+	 */
+	BufferedImage quantize(BufferedImage image) {
+		BufferedImageRowSource source = new BufferedImageRowSource(image);
+		int[] palette                 = exactPalette(source);
+		
+		if (palette != null)
+			return mapExactly(source, palette);
+		
+		Histogram histogram = histograms.get();
+		try {
+			histogram.add(source, this);
+			palette = histogram.medianCut(maxColors);
+			
+			return histogram.map(source, palette, this);
+		} finally {
+			histogram.clear();
+		}
+	}
+	
+	/**
+	 * Adjusts the alpha of a pixel for the palette: fully transparent pixels are
+	 * made all zeros, and with binary alpha, the other pixels are made either
+	 * transparent or opaque.
+	 * 
+	 * @param argb the pixel
+	 * @return the adjusted pixel
+	 */
+	int adjustAlpha(int argb) {
+		int alpha = argb >>> 24;
+		
+		if (binaryAlpha)
+			alpha = (alpha < 128) ? 0 : 255;
+		
+		return (alpha == 0) ? 0 : (alpha << 24) | (argb & 0xffffff);
+	}
+	
+	/**
+	 * Collects the colors of the image if there are at most as many of them as
+	 * the palette may have.
+	 * 
+	 * @param source the image
+	 * @return the colors sorted by alpha, or <code>null</code> if there are too many
+	 */
+	private int[] exactPalette(BufferedImageRowSource source) {
+		int width        = source.getWidth();
+		int[] row        = new int[width];
+		ColorTable table = new ColorTable();
+		
+		for (int y = 0; y < source.getHeight(); y++) {
+			source.readRow(y, row);
+			
+			int last = ~row[0];
+			for (int x = 0; x < width; x++) {
+				int color = adjustAlpha(row[x]);
+				if (color == last)
+					continue;
+				
+				if (table.indexOf(color) < 0) {
+					if (table.size == maxColors)
+						return null;
+					
+					table.put(color, table.size);
+				}
+				
+				last = color;
+			}
+		}
+		
+		int[] palette = Arrays.copyOf(table.colors, table.size);
+		sortByAlpha(palette);
+		
+		return palette;
+	}
+	
+	/**
+	 * Maps the pixels of the image to a palette of exactly their colors.
+	 * 
+	 * @param source the image
+	 * @param palette the palette
+	 * @return the quantized image
+	 */
+	private BufferedImage mapExactly(BufferedImageRowSource source, int[] palette) {
+		ColorTable table = new ColorTable();
+		for (int i = 0; i < palette.length; i++)
+			table.put(palette[i], i);
+		
+		int width            = source.getWidth();
+		int[] row            = new int[width];
+		BufferedImage result = createIndexedImage(width, source.getHeight(), palette);
+		byte[] indexes       = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+		
+		for (int y = 0, o = 0; y < source.getHeight(); y++) {
+			source.readRow(y, row);
+			
+			int last = ~row[0], index = 0;
+			for (int x = 0; x < width; x++, o++) {
+				if (row[x] != last) {
+					last  = row[x];
+					index = table.indexOf(adjustAlpha(last));
+				}
+				
+				indexes[o] = (byte)index;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Creates an indexed image with the given palette.
+	 * 
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param palette the palette as ARGB colors
+	 * @return the image
+	 */
+	private BufferedImage createIndexedImage(int width, int height, int[] palette) {
+		int size        = palette.length;
+		byte[] r        = new byte[size];
+		byte[] g        = new byte[size];
+		byte[] b        = new byte[size];
+		byte[] a        = new byte[size];
+		int transparent = -1;
+		boolean opaque  = true;
+		
+		for (int i = 0; i < palette.length; i++) {
+			r[i] = (byte)(palette[i] >> 16);
+			g[i] = (byte)(palette[i] >> 8);
+			b[i] = (byte)palette[i];
+			a[i] = (byte)(palette[i] >>> 24);
+			
+			if (palette[i] >>> 24 != 255)
+				opaque = false;
+			if (palette[i] == 0 && transparent < 0)
+				transparent = i;
+		}
+		
+		IndexColorModel icm;
+		if (opaque)
+			icm = new IndexColorModel(8, size, r, g, b);
+		else if (binaryAlpha)
+			icm = new IndexColorModel(8, size, r, g, b, transparent);
+		else
+			icm = new IndexColorModel(8, size, r, g, b, a);
+		
+		return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+	}
+	
+	/**
+	 * Sorts the colors by ascending alpha, keeping the order of colors of the
+	 * same alpha.
+	 * 
+	 * @param palette the colors
+	 */
+	private static void sortByAlpha(int[] palette) {
+		for (int i = 1; i < palette.length; i++) {
+			int color = palette[i];
+			int j     = i;
+			
+			while (j > 0 && (palette[j - 1] >>> 24) > (color >>> 24)) {
+				palette[j] = palette[j - 1];
+				j--;
+			}
+			
+			palette[j] = color;
+		}
+	}
+	
+	/**
+	 * The squared distance of two colors.
+	 * 
+	 * @param c1 the first color
+	 * @param c2 the second color
+	 * @return the distance
+	 */
+	private static int distance(int c1, int c2) {
+		int da = (c1 >>> 24) - (c2 >>> 24);
+		int dr = ((c1 >> 16) & 0xff) - ((c2 >> 16) & 0xff);
+		int dg = ((c1 >> 8) & 0xff) - ((c2 >> 8) & 0xff);
+		int db = (c1 & 0xff) - (c2 & 0xff);
+		
+		return ALPHA_WEIGHT * da * da + dr * dr + dg * dg + db * db;
+	}
+	
+	/**
+	 * Finds the palette color nearest to the given color. The fully transparent
+	 * color is only nearest to itself.
+	 * 
+	 * @param palette the palette
+	 * @param color the color
+	 * @return the index of the nearest color
+	 */
+	private static int nearest(int[] palette, int color) {
+		int best         = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		
+		for (int i = 0; i < palette.length; i++) {
+			if ((palette[i] == 0) != (color == 0))
+				continue;
+			
+			int d = distance(palette[i], color);
+			if (d < bestDistance) {
+				best         = i;
+				bestDistance = d;
+			}
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * A small hash table from colors to palette indexes. The indexes are stored
+	 * plus one, so that zero marks an empty slot.
+	 */
+	private static final class ColorTable {
+		final int[] colors  = new int[MAX_COLORS];
+		final int[] keys    = new int[4 * MAX_COLORS];
+		final int[] indexes = new int[4 * MAX_COLORS];
+		int size;
+		
+		/**
+		 * Gets the palette index of the given color.
+		 * 
+		 * @param color the color
+		 * @return the index, or -1 if the color is not in the table
+		 */
+		int indexOf(int color) {
+			int mask = keys.length - 1;
+			
+			for (int slot = hash(color) & mask; indexes[slot] != 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == color)
+					return indexes[slot] - 1;
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Puts a color not yet in the table to the table.
+		 * 
+		 * @param color the color
+		 * @param index the palette index of the color
+		 */
+		void put(int color, int index) {
+			int mask = keys.length - 1;
+			int slot = hash(color) & mask;
+			
+			while (indexes[slot] != 0)
+				slot = (slot + 1) & mask;
+			
+			keys[slot]     = color;
+			indexes[slot]  = index + 1;
+			colors[size++] = color;
+		}
+		
+		private static int hash(int color) {
+			return (color * 0x9e3779b9) >>> 22;
+		}
+	}
+	
+	/**
+	 * A histogram of the colors of an image, kept by a thread for the next
+	 * image. Only the cells touched by an image are cleared afterwards.
+	 */
+	private static final class Histogram {
+		final int[] counts = new int[HISTOGRAM_SIZE];
+		final int[] sumA   = new int[HISTOGRAM_SIZE];
+		final int[] sumR   = new int[HISTOGRAM_SIZE];
+		final int[] sumG   = new int[HISTOGRAM_SIZE];
+		final int[] sumB   = new int[HISTOGRAM_SIZE];
+		final int[] map    = new int[HISTOGRAM_SIZE];
+		int[] cells        = new int[1024];
+		int cellCount;
+		
+		Histogram() {
+			Arrays.fill(map, -1);
+		}
+		
+		/**
+		 * Gets the cell of the given color: 5 bits of every color channel and
+		 * 3 bits of alpha, with fully transparent and opaque pixels in cells of
+		 * their own.
+		 * 
+		 * @param argb the color
+		 * @return the cell
+		 */
+		static int cellOf(int argb) {
+			int alpha = argb >>> 24;
+			int a     = (alpha == 0) ? 0 : (alpha == 255) ? 7 : 1 + (alpha - 1) * 6 / 254;
+			
+			return (a << 15) | ((argb >> 9) & 0x7c00) | ((argb >> 6) & 0x3e0) | ((argb >> 3) & 0x1f);
+		}
+		
+		/**
+		 * Adds a cell to the list of touched cells.
+		 * 
+		 * @param cell the cell
+		 */
+		void touch(int cell) {
+			if (cellCount == cells.length)
+				cells = Arrays.copyOf(cells, 2 * cells.length);
+			
+			cells[cellCount++] = cell;
+		}
+		
+		/**
+		 * Counts the colors of the image. The offsets of the colors within
+		 * their cells are summed up, so they do not overflow before the cells
+		 * have hundreds of millions of pixels.
+		 * 
+		 * @param source the image
+		 * @param quantizer the quantizer
+		 */
+		void add(BufferedImageRowSource source, ColorQuantizer quantizer) {
+			int width = source.getWidth();
+			int[] row = new int[width];
+			
+			for (int y = 0; y < source.getHeight(); y++) {
+				source.readRow(y, row);
+				
+				for (int x = 0; x < width; x++) {
+					int color = quantizer.adjustAlpha(row[x]);
+					int cell  = cellOf(color);
+					
+					if (counts[cell]++ == 0)
+						touch(cell);
+					
+					sumA[cell] += (color >>> 24) - base(cell >> 15);
+					sumR[cell] += (color >> 16) & 0x7;
+					sumG[cell] += (color >> 8) & 0x7;
+					sumB[cell] += color & 0x7;
+				}
+			}
+		}
+		
+		/**
+		 * The smallest alpha of a cell.
+		 * 
+		 * @param a the alpha bits of the cell
+		 * @return the smallest alpha
+		 */
+		static int base(int a) {
+			return (a == 0) ? 0 : (a == 7) ? 255 : 1 + ((a - 1) * 254 + 5) / 6;
+		}
+		
+		/**
+		 * Gets the mean color of a cell.
+		 * 
+		 * @param cell the cell
+		 * @param channel 0 for alpha, 1 for red, 2 for green and 3 for blue
+		 * @return the mean of the channel
+		 */
+		int mean(int cell, int channel) {
+			int count = counts[cell];
+			
+			switch (channel) {
+			case 0:  return base(cell >> 15) + (sumA[cell] + count / 2) / count;
+			case 1:  return ((cell >> 7) & 0xf8) + (sumR[cell] + count / 2) / count;
+			case 2:  return ((cell >> 2) & 0xf8) + (sumG[cell] + count / 2) / count;
+			default: return ((cell << 3) & 0xf8) + (sumB[cell] + count / 2) / count;
+			}
+		}
+		
+		/**
+		 * Builds the palette by median cut and maps every touched cell to its
+		 * palette index.
+		 * 
+		 * @param maxColors the maximum number of colors
+		 * @return the palette
+		 */
+		int[] medianCut(int maxColors) {
+			int n          = cellCount;
+			int[][] values = new int[4][n];
+			int[] weights  = new int[n];
+			int[] order    = new int[n];
+			int entries    = 0;
+			boolean transparent = false;
+			
+			// The fully transparent cell gets a palette entry of its own
+			for (int i = 0; i < n; i++) {
+				int cell = cells[i];
+				
+				if (cell == 0) {
+					transparent = true;
+					continue;
+				}
+				
+				for (int c = 0; c < 4; c++)
+					values[c][entries] = mean(cell, c);
+				
+				weights[entries] = counts[cell];
+				order[entries]   = i;
+				entries++;
+			}
+			
+			int colors     = maxColors - (transparent ? 1 : 0);
+			int[] starts   = new int[colors + 1];
+			double[] error = new double[colors];
+			int[] channels = new int[colors];
+			int boxes      = 0;
+			int[] position = new int[entries];
+			int[] scratch  = new int[entries];
+			
+			for (int i = 0; i < entries; i++)
+				position[i] = i;
+			
+			if (entries > 0) {
+				starts[1] = entries;
+				boxes     = 1;
+				measure(0, 0, entries, position, values, weights, error, channels);
+			}
+			
+			while (boxes < colors) {
+				int box = -1;
+				for (int i = 0; i < boxes; i++) {
+					if (error[i] > 0 && (box < 0 || error[i] > error[box]))
+						box = i;
+				}
+				
+				if (box < 0)
+					break;
+				
+				int start = starts[box], end = starts[box + 1];
+				int split = splitPoint(start, end, channels[box], position, values, weights, scratch);
+				
+				// Keep the boxes in order of their positions
+				System.arraycopy(starts, box + 1, starts, box + 2, boxes - box);
+				System.arraycopy(error, box + 1, error, box + 2, boxes - box - 1);
+				System.arraycopy(channels, box + 1, channels, box + 2, boxes - box - 1);
+				starts[box + 1] = split;
+				boxes++;
+				
+				measure(box, start, split, position, values, weights, error, channels);
+				measure(box + 1, split, end, position, values, weights, error, channels);
+			}
+			
+			int[] palette = new int[boxes + (transparent ? 1 : 0)];
+			int offset    = transparent ? 1 : 0;
+			
+			for (int box = 0; box < boxes; box++) {
+				long[] sums = new long[4];
+				long total  = 0;
+				
+				for (int i = starts[box]; i < starts[box + 1]; i++) {
+					int e = position[i];
+					for (int c = 0; c < 4; c++)
+						sums[c] += (long)values[c][e] * weights[e];
+					total += weights[e];
+				}
+				
+				int color = 0;
+				for (int c = 0; c < 4; c++)
+					color = (color << 8) | (int)((sums[c] + total / 2) / total);
+				
+				palette[offset + box] = color;
+			}
+			
+			// Order the palette by alpha and map the cells to the new order
+			Integer[] byAlpha = new Integer[boxes];
+			for (int i = 0; i < boxes; i++)
+				byAlpha[i] = i;
+			
+			final int[] unsorted = palette.clone();
+			final int first      = offset;
+			Arrays.sort(byAlpha, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return (unsorted[first + i1] >>> 24) - (unsorted[first + i2] >>> 24);
+				}
+			});
+			
+			int[] rank = new int[boxes];
+			for (int i = 0; i < boxes; i++) {
+				rank[byAlpha[i]]    = offset + i;
+				palette[offset + i] = unsorted[offset + byAlpha[i]];
+			}
+			
+			for (int box = 0; box < boxes; box++) {
+				for (int i = starts[box]; i < starts[box + 1]; i++)
+					map[cells[order[position[i]]]] = rank[box];
+			}
+			
+			if (transparent)
+				map[0] = 0;
+			
+			return palette;
+		}
+		
+		/**
+		 * Computes the squared error of a box and the channel with the largest
+		 * error, along which the box is split.
+		 */
+		private static void measure(int box, int start, int end, int[] position, int[][] values,
+				int[] weights, double[] error, int[] channels) {
+			
+			double total = 0, worst = -1;
+			
+			for (int c = 0; c < 4; c++) {
+				double sum = 0, squares = 0, weight = 0;
+				
+				for (int i = start; i < end; i++) {
+					int e = position[i];
+					double v = values[c][e];
+					
+					sum     += v * weights[e];
+					squares += v * v * weights[e];
+					weight  += weights[e];
+				}
+				
+				double channelError = (squares - sum * sum / weight) * ((c == 0) ? ALPHA_WEIGHT : 1);
+				total += channelError;
+				
+				if (channelError > worst) {
+					worst         = channelError;
+					channels[box] = c;
+				}
+			}
+			
+			// A box of a single cell can not be split
+			error[box] = (end - start > 1) ? Math.max(total, Double.MIN_VALUE) : 0;
+		}
+		
+		/**
+		 * Sorts the entries of a box by the given channel and finds the weighted
+		 * median, leaving at least one entry on both sides.
+		 * 
+		 * @return the position of the first entry of the second box
+		 */
+		private static int splitPoint(int start, int end, int channel, int[] position, int[][] values,
+				int[] weights, int[] scratch) {
+			
+			// Counting sort by the channel
+			int[] counts = new int[257];
+			int[] v      = values[channel];
+			long total   = 0;
+			
+			for (int i = start; i < end; i++) {
+				counts[v[position[i]] + 1]++;
+				total += weights[position[i]];
+			}
+			
+			for (int i = 1; i < counts.length; i++)
+				counts[i] += counts[i - 1];
+			
+			for (int i = start; i < end; i++)
+				scratch[start + counts[v[position[i]]]++] = position[i];
+			
+			System.arraycopy(scratch, start, position, start, end - start);
+			
+			long half = 0;
+			int split = start + 1;
+			
+			for (int i = start; i < end - 1; i++) {
+				half += weights[position[i]];
+				split = i + 1;
+				
+				if (2 * half >= total)
+					break;
+			}
+			
+			return split;
+		}
+		
+		/**
+		 * Maps the pixels of the image to the palette.
+		 * 
+		 * @param source the image
+		 * @param palette the palette
+		 * @param quantizer the quantizer
+		 * @return the quantized image
+		 */
+		BufferedImage map(BufferedImageRowSource source, int[] palette, ColorQuantizer quantizer) {
+			int width            = source.getWidth();
+			int height           = source.getHeight();
+			int[] row            = new int[width];
+			BufferedImage result = quantizer.createIndexedImage(width, height, palette);
+			byte[] indexes       = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+			
+			if (!quantizer.dither) {
+				for (int y = 0, o = 0; y < height; y++) {
+					source.readRow(y, row);
+					
+					for (int x = 0; x < width; x++, o++)
+						indexes[o] = (byte)map[cellOf(quantizer.adjustAlpha(row[x]))];
+				}
+				
+				return result;
+			}
+			
+			// Floyd-Steinberg dithering of the color channels, with the errors
+			// of the current and the next row in sixteenths
+			int[][] errors = new int[2][3 * (width + 2)];
+			
+			for (int y = 0, o = 0; y < height; y++) {
+				source.readRow(y, row);
+				
+				int[] cur  = errors[y & 1];
+				int[] next = errors[(y + 1) & 1];
+				Arrays.fill(next, 0);
+				
+				for (int x = 0; x < width; x++, o++) {
+					int color = quantizer.adjustAlpha(row[x]);
+					if (color == 0) {
+						indexes[o] = (byte)map[0];
+						continue;
+					}
+					
+					int e = 3 * (x + 1);
+					int r = clamp(((color >> 16) & 0xff) + (cur[e] + 8 >> 4));
+					int g = clamp(((color >> 8) & 0xff) + (cur[e + 1] + 8 >> 4));
+					int b = clamp((color & 0xff) + (cur[e + 2] + 8 >> 4));
+					
+					int adjusted = (color & 0xff000000) | (r << 16) | (g << 8) | b;
+					int cell     = cellOf(adjusted);
+					int index    = map[cell];
+					
+					if (index < 0) {
+						index     = nearest(palette, adjusted);
+						map[cell] = index;
+						touch(cell);
+					}
+					
+					indexes[o] = (byte)index;
+					
+					int p = palette[index];
+					diffuse(cur, next, e, 0, r - ((p >> 16) & 0xff));
+					diffuse(cur, next, e, 1, g - ((p >> 8) & 0xff));
+					diffuse(cur, next, e, 2, b - (p & 0xff));
+				}
+			}
+			
+			return result;
+		}
+		
+		/**
+		 * Spreads the error of a channel to the neighbouring pixels.
+		 */
+		private static void diffuse(int[] cur, int[] next, int e, int channel, int error) {
+			cur[e + 3 + channel]  += 7 * error;
+			next[e - 3 + channel] += 3 * error;
+			next[e + channel]     += 5 * error;
+			next[e + 3 + channel] += error;
+		}
+		
+		private static int clamp(int value) {
+			return (value < 0) ? 0 : (value > 255) ? 255 : value;
+		}
+		
+		/**
+		 * Clears the touched cells for the next image.
+		 */
+		void clear() {
+			for (int i = 0; i < cellCount; i++) {
+				int cell     = cells[i];
+				counts[cell] = 0;
+				sumA[cell]   = 0;
+				sumR[cell]   = 0;
+				sumG[cell]   = 0;
+				sumB[cell]   = 0;
+				map[cell]    = -1;
+			}
+			
+			cellCount = 0;
+		}
+	}
+}
@@ -1,14 +1,13 @@
 package mnylen.imagebatchresizer.resizer;
 
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 
 /**
  * An <code>ImageResizer</code> implementation for resizing images. The
  * implementation does not preserve the aspect ratio automatically.
  */
-public class DefaultImageResizer implements ImageResizer {
+public class DefaultImageResizer extends AbstractImageResizer {
     private int width;
     private int height;
     
@@ -83,13 +82,30 @@ public class DefaultImageResizer implements ImageResizer {
      * @return the resized image
      */
     public BufferedImage resize(BufferedImage image) {
-        double sx = ((double)width / image.getWidth());
-        double sy = ((double)height / image.getHeight());
-        
-        AffineTransform tx = new AffineTransform();
-        tx.scale(sx, sy);
+        return resize(image, null);
+    }
+    
+    /**
+     * Calculates the dimensions the source image will be scaled to. The
+     * dimensions are the ones set for this resizer, except that a side shorter
+     * than set is kept as it is if the images are never scaled up.
+     * 
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @return the dimensions of the scaled image
+     */
+    public Dimension getTargetSize(int width, int height) {
+        if (isNeverUpscale())
+            return new Dimension(Math.min(this.width, width), Math.min(this.height, height));
         
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-        return op.filter(image, op.createCompatibleDestImage(image, null));
+        return new Dimension(this.width, this.height);
+    }
+    
+    /**
+     * Describes the target dimensions of this resizer.
+     * @return the description of the width and height
+     */
+    protected String describeTarget() {
+        return "width=" + width + ",height=" + height;
     }
 }
@@ -0,0 +1,127 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.awt.image.BufferedImage;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * An specialized <code>ImageSaver</code> for saving GIF images. The colors of
+ * every image are reduced to a palette of at most 256 colors chosen by median
+ * cut, optionally with dithering, and pixels with less than half alpha are made
+ * fully transparent, as GIF has no translucency.
+ */
+public class GIFImageSaver extends ImageSaver {
+	/**
+	 * The default maximum number of colors.
+	 */
+	public static final int DEFAULT_MAX_COLORS = 256;
+	
+	private volatile ColorQuantizer quantizer = new ColorQuantizer(DEFAULT_MAX_COLORS, false, true);
+	private int maxColors                     = DEFAULT_MAX_COLORS;
+	private boolean dither;
+	
+	/**
+	 * Creates a new <code>GIFImageSaver</code> with the specified destination
+	 * directory and the desired prefix for the saved files.
+	 * 
+	 * @param dstDirectory the destination directory for the saved files
+	 * @param prefix the desired prefix for the saved files
+	 * @throws NotADirectoryException if the <code>dstDirectory</code> is not a directory
+	 */
+	public GIFImageSaver(File dstDirectory, String prefix) throws NotADirectoryException {
+		super(dstDirectory, prefix);
+	}
+	
+	/**
+	 * Sets the maximum number of colors of the palette.
+	 * 
+	 * @param maxColors the maximum number of colors, from 2 to 256
+	 * @throws IllegalArgumentException if the <code>maxColors</code> is not between 2 and 256
+	 */
+	public void setMaxColors(int maxColors) throws IllegalArgumentException {
+		if (maxColors < 2 || maxColors > ColorQuantizer.MAX_COLORS)
+			throw new IllegalArgumentException("the value of maxColors parameter must be between 2 and 256");
+		
+		this.maxColors = maxColors;
+		this.quantizer = new ColorQuantizer(maxColors, dither, true);
+	}
+	
+	/**
+	 * Gets the maximum number of colors of the palette.
+	 * @return the maximum number of colors
+	 */
+	public int getMaxColors() {
+		return maxColors;
+	}
+	
+	/**
+	 * Sets whether the colors are dithered.
+	 * @param dither <code>true</code> to dither the colors
+	 */
+	public void setDither(boolean dither) {
+		this.dither    = dither;
+		this.quantizer = new ColorQuantizer(maxColors, dither, true);
+	}
+	
+	/**
+	 * Tells whether the colors are dithered.
+	 * @return <code>true</code> if the colors are dithered
+	 */
+	public boolean isDither() {
+		return dither;
+	}
+	
+	/**
+	 * Saves the given image.
+	 * 
+	 * @param image the image to save
+	 * @param originalFile the original location of the image
+	 * @throws IOException if an I/O error occurs
+	 */
+	public File save(BufferedImage image, File originalFile) throws IOException {
+		File dstFile = determineDestinationFile(originalFile);
+		writeImage(quantizer.quantize(image), "gif", null, dstFile);
+		
+		return dstFile;
+	}
+	
+	/**
+	 * Encodes the given image as a GIF image to the given stream.
+	 * 
+	 * @param image the image to encode
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void encode(BufferedImage image, OutputStream out) throws IOException {
+		ImageOutputStream outStream = new MemoryCacheImageOutputStream(out);
+		try {
+			writeImage(quantizer.quantize(image), "gif", null, null, outStream);
+		} finally {
+			outStream.close();
+		}
+	}
+	
+	/**
+	 * Describes the encoder parameters of this saver.
+	 * @return the description of the parameters
+	 */
+	@Override
+	public String describe() {
+		return getClass().getName() + "[maxColors=" + maxColors + ",dither=" + dither + "]";
+	}
+	
+	/**
+     * Gets the file extension used for images saved using this <code>ImageSaver</code>
+     * instance.
+     * 
+     * @return the file extension used for saved images
+     */
+	@Override
+	public String getExtension() {
+		return "gif";
+	}
+}
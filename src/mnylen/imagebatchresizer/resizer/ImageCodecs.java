@@ -0,0 +1,393 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Keeps the image readers and writers used by the current thread for reuse.
+ * Looking up the plugins in the <code>IIORegistry</code> and setting up a
+ * reader or writer, which for JPEG means allocating the native codec, is a
+ * measurable share of the time spent on small images, so the readers and
+ * writers are <code>reset()</code> after every file and handed out again
+ * instead of being disposed.
+ * 
+ * <p>A reader or writer is owned by the caller from the moment it is taken
+ * until it is given back, so the same instance is never used by two threads
+ * at the same time. It may be given back on another thread than the one it
+ * was taken on. If reading or writing fails, the instance should be given
+ * back as not reusable, which disposes it, since its state is not known.</p>
+ */
+final class ImageCodecs {
+	/**
+	 * The maximum number of readers kept by a thread.
+	 */
+	private static final int MAX_READERS = 4;
+	
+	/**
+	 * The maximum number of in-memory output buffers kept by a thread.
+	 */
+	private static final int MAX_BUFFERS = 4;
+	
+	/**
+	 * The capacity of the largest in-memory output buffer kept for reuse.
+	 */
+	private static final int MAX_BUFFER_CAPACITY = 16 * 1024 * 1024;
+	
+	/**
+	 * The prefix of the files outputs are written to before being renamed.
+	 */
+	static final String PART_PREFIX = ".ibr-";
+	
+	/**
+	 * The extension of the files outputs are written to before being renamed.
+	 */
+	static final String PART_EXTENSION = ".part";
+	
+	/**
+	 * The time in milliseconds a part file must have been left untouched to be
+	 * deleted as left behind, so the part files of a batch writing to the same
+	 * directory in another process are left alone.
+	 */
+	private static final long STALE_PART_AGE = 60 * 1000;
+	
+	/**
+	 * The maximum number of directories remembered as cleared.
+	 */
+	private static final int MAX_CLEARED_DIRECTORIES = 256;
+	
+	/**
+	 * The directories cleared of part files left behind by killed runs, the
+	 * least recently written to first. A directory forgotten is just cleared
+	 * again.
+	 */
+	private static final LinkedHashMap<File, Boolean> clearedDirectories = new LinkedHashMap<File, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, Boolean> eldest) {
+			return size() > MAX_CLEARED_DIRECTORIES;
+		}
+	};
+	
+	private static final ThreadLocal<LinkedList<ImageReader>> readers = new ThreadLocal<LinkedList<ImageReader>>() {
+		@Override
+		protected LinkedList<ImageReader> initialValue() {
+			return new LinkedList<ImageReader>();
+		}
+	};
+	
+	private static final ThreadLocal<Map<String, ImageWriter>> writers = new ThreadLocal<Map<String, ImageWriter>>() {
+		@Override
+		protected Map<String, ImageWriter> initialValue() {
+			return new HashMap<String, ImageWriter>();
+		}
+	};
+	
+	private static final ThreadLocal<LinkedList<ByteArrayImageOutputStream>> buffers =
+		new ThreadLocal<LinkedList<ByteArrayImageOutputStream>>() {
+			@Override
+			protected LinkedList<ByteArrayImageOutputStream> initialValue() {
+				return new LinkedList<ByteArrayImageOutputStream>();
+			}
+		};
+	
+	/**
+	 * Prevents instantiation.
+	 */
+	private ImageCodecs() {
+	}
+	
+	/**
+	 * Opens the given file for reading. The stream is created directly instead
+	 * of looking up a stream provider from the registry.
+	 * 
+	 * @param file the file to open
+	 * @return the stream
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws IOException if opening the file fails
+	 */
+	static ImageInputStream openInput(File file) throws FileNotFoundException, IOException {
+		return new FileImageInputStream(file);
+	}
+	
+	/**
+	 * Opens the given file for writing. The file is written from the start but
+	 * not truncated, which is why outputs are written to a new, empty part
+	 * file, see {@link #partFile(File)}.
+	 * 
+	 * @param file the file to open
+	 * @return the stream
+	 * @throws FileNotFoundException if the file can not be opened for writing
+	 * @throws IOException if opening the file fails
+	 */
+	static ImageOutputStream openOutput(File file) throws FileNotFoundException, IOException {
+		return new FileImageOutputStream(file);
+	}
+	
+	/**
+	 * Gets the file the given output file is written to before it is renamed
+	 * in place by {@link #commitOutput(File, File)}. The savers write every
+	 * file this way, so a file is either missing, as it was before, or
+	 * complete, even if the process is killed while writing it. Renaming also
+	 * replaces the name of a file hard linked by {@link ImageSaver#copy(File, boolean)}
+	 * or the {@link OutputCache} instead of writing to the file under its
+	 * other names.
+	 * 
+	 * <p>The part file is created empty under a unique, hidden name, so two
+	 * threads writing the same output, such as two sources of the same name
+	 * in different formats, do not write the same part file. The first time a
+	 * directory is written to, the part files left behind in it by killed runs
+	 * are deleted; other files are never touched, see {@link #isPartFile(String)}.</p>
+	 * 
+	 * @param file the output file
+	 * @return the file to write instead, in the same directory
+	 * @throws IOException if creating the part file fails
+	 */
+	static File partFile(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		
+		boolean cleared;
+		synchronized (clearedDirectories) {
+			cleared = (clearedDirectories.put(directory, Boolean.TRUE) != null);
+		}
+		
+		if (!cleared)
+			deleteStaleParts(directory);
+		
+		return File.createTempFile(PART_PREFIX + file.getName() + ".", PART_EXTENSION, directory);
+	}
+	
+	/**
+	 * Tells whether the file of the given name is a part file created by
+	 * {@link #partFile(File)}.
+	 * 
+	 * @param name the name of the file
+	 * @return <code>true</code> if the file is a part file; <code>false</code> otherwise
+	 */
+	static boolean isPartFile(String name) {
+		return name.startsWith(PART_PREFIX) && name.endsWith(PART_EXTENSION);
+	}
+	
+	/**
+	 * Deletes the part files in the given directory that have not been written
+	 * to in {@link #STALE_PART_AGE} milliseconds.
+	 * 
+	 * @param directory the directory
+	 * @throws IOException if listing the directory fails
+	 */
+	private static void deleteStaleParts(File directory) throws IOException {
+		long before = System.currentTimeMillis() - STALE_PART_AGE;
+		
+		DirectoryStream<Path> parts = Files.newDirectoryStream(directory.toPath(), PART_PREFIX + "*" + PART_EXTENSION);
+		try {
+			for (Path part : parts) {
+				try {
+					if (isPartFile(part.getFileName().toString()) && Files.getLastModifiedTime(part).toMillis() < before)
+						Files.deleteIfExists(part);
+				} catch (IOException e) {
+					// Renamed in place or deleted by its writer meanwhile
+				}
+			}
+		} finally {
+			parts.close();
+		}
+	}
+	
+	/**
+	 * Renames the completely written part file of the given output file in
+	 * place, replacing an existing output file atomically where the file
+	 * system supports it.
+	 * 
+	 * @param partFile the part file, see {@link #partFile(File)}
+	 * @param file the output file
+	 * @throws IOException if renaming the file fails
+	 */
+	static void commitOutput(File partFile, File file) throws IOException {
+		try {
+			Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Takes a reader able to decode the given stream. The readers kept by the
+	 * current thread are tried first, most recently used first; the registry is
+	 * only searched if none of them can decode the stream.
+	 * 
+	 * @param stream the stream to decode
+	 * @return the reader; <code>null</code> if no reader can decode the stream
+	 * @throws IOException if reading the stream fails
+	 */
+	static ImageReader takeReader(ImageInputStream stream) throws IOException {
+		for (Iterator<ImageReader> i = readers.get().iterator(); i.hasNext(); ) {
+			ImageReader reader = i.next();
+			
+			if (canDecode(reader.getOriginatingProvider(), stream)) {
+				i.remove();
+				return reader;
+			}
+		}
+		
+		Iterator<ImageReader> found = ImageIO.getImageReaders(stream);
+		return found.hasNext() ? found.next() : null;
+	}
+	
+	/**
+	 * Gives back a reader taken with {@link #takeReader(ImageInputStream)}. A
+	 * reusable reader is reset and kept for the next file; the least recently
+	 * used readers beyond {@link #MAX_READERS} are disposed.
+	 * 
+	 * @param reader the reader to give back; may be <code>null</code>
+	 * @param reusable <code>false</code> if using the reader failed
+	 */
+	static void giveBack(ImageReader reader, boolean reusable) {
+		if (reader == null)
+			return;
+		
+		if (!reusable || reader.getOriginatingProvider() == null) {
+			reader.dispose();
+			return;
+		}
+		
+		reader.reset();
+		
+		LinkedList<ImageReader> kept = readers.get();
+		kept.addFirst(reader);
+		
+		while (kept.size() > MAX_READERS)
+			kept.removeLast().dispose();
+	}
+	
+	/**
+	 * Takes a writer for the given format.
+	 * 
+	 * @param format the informal name of the format, such as <code>"jpeg"</code>
+	 * @return the writer
+	 * @throws IOException if there is no writer for the format
+	 */
+	static ImageWriter takeWriter(String format) throws IOException {
+		ImageWriter writer = writers.get().remove(format);
+		if (writer != null)
+			return writer;
+		
+		Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(format);
+		if (!(found.hasNext()))
+			throw new IOException("No writer for format " + format);
+		
+		return found.next();
+	}
+	
+	/**
+	 * Gives back a writer taken with {@link #takeWriter(String)}. A reusable
+	 * writer is reset and kept for the next file, unless the thread already
+	 * keeps a writer for the format.
+	 * 
+	 * @param format the format the writer was taken for
+	 * @param writer the writer to give back; may be <code>null</code>
+	 * @param reusable <code>false</code> if using the writer failed
+	 */
+	static void giveBack(String format, ImageWriter writer, boolean reusable) {
+		if (writer == null)
+			return;
+		
+		if (!reusable) {
+			writer.dispose();
+			return;
+		}
+		
+		writer.reset();
+		
+		Map<String, ImageWriter> kept = writers.get();
+		if (kept.containsKey(format))
+			writer.dispose();
+		else
+			kept.put(format, writer);
+	}
+	
+	/**
+	 * Takes an empty in-memory output stream for encoding an image. The streams
+	 * kept by the current thread are handed out first, largest first, so their
+	 * arrays rarely need to grow.
+	 * 
+	 * @return the stream
+	 */
+	static ByteArrayImageOutputStream takeBuffer() {
+		ByteArrayImageOutputStream buffer = buffers.get().poll();
+		if (buffer == null)
+			return new ByteArrayImageOutputStream(64 * 1024);
+		
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Gives back a stream taken with {@link #takeBuffer()}. The stream must not
+	 * be closed. Streams that have grown larger than {@link #MAX_BUFFER_CAPACITY}
+	 * are dropped, as are the smallest streams beyond {@link #MAX_BUFFERS}.
+	 * 
+	 * @param buffer the stream to give back; may be <code>null</code>
+	 */
+	static void giveBack(ByteArrayImageOutputStream buffer) {
+		if (buffer == null || buffer.capacity() > MAX_BUFFER_CAPACITY)
+			return;
+		
+		LinkedList<ByteArrayImageOutputStream> kept = buffers.get();
+		if (kept.contains(buffer))
+			return;
+		
+		// Keep the largest buffers first
+		ListIterator<ByteArrayImageOutputStream> i = kept.listIterator();
+		while (i.hasNext()) {
+			if (i.next().capacity() < buffer.capacity()) {
+				i.previous();
+				break;
+			}
+		}
+		
+		i.add(buffer);
+		
+		while (kept.size() > MAX_BUFFERS)
+			kept.removeLast();
+	}
+	
+	/**
+	 * Tells whether the given reader provider can decode the given stream. The
+	 * position of the stream is left where it was.
+	 * 
+	 * @param provider the provider to ask
+	 * @param stream the stream to decode
+	 * @return <code>true</code> if the provider can decode the stream; <code>false</code> otherwise
+	 * @throws IOException if reading the stream fails
+	 */
+	private static boolean canDecode(ImageReaderSpi provider, ImageInputStream stream) throws IOException {
+		if (provider == null)
+			return false;
+		
+		stream.mark();
+		try {
+			return provider.canDecodeInput(stream);
+		} finally {
+			stream.reset();
+		}
+	}
+}
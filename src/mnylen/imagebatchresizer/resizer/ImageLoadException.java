@@ -13,4 +13,15 @@ public class ImageLoadException extends RuntimeException {
 	public ImageLoadException(String message) {
 		super(message);
 	}
+	
+	/**
+	 * Creates a new <code>ImageLoadException</code> using the specified message
+	 * and cause.
+	 * 
+	 * @param message the message
+	 * @param cause the exception that caused loading the image to fail
+	 */
+	public ImageLoadException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
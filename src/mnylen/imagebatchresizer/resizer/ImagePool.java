@@ -0,0 +1,228 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A pool of images and scratch buffers kept for reuse by a single thread. In a
+ * batch of images of the same size, every image is decoded, normalized and
+ * scaled into images of the same dimensions as the previous one, so handing
+ * the images back to the pool once they are no longer needed saves allocating
+ * and clearing them again for every file.
+ * 
+ * <p>Every thread has a pool of its own, returned by {@link #current()}, so
+ * the pools need no locking. An image may be released to the pool of another
+ * thread than the one that acquired it.</p>
+ * 
+ * <p>The ownership rules are simple: whoever acquires an image owns it, and
+ * the resizers hand the ownership of the images they return to the caller.
+ * An image may be released only by its owner, and only when nothing uses it
+ * any more; the <code>BatchResizer</code>, for example, releases the resized
+ * image after the <code>ImageSaver</code> has written it. The pixels of an
+ * acquired image are undefined, so it must be completely overwritten. Images
+ * that are never released are simply garbage collected.</p>
+ * 
+ * <p>Only images of type <code>TYPE_INT_RGB</code>, <code>TYPE_INT_ARGB</code>,
+ * <code>TYPE_BYTE_GRAY</code> and <code>TYPE_3BYTE_BGR</code> that are not
+ * subimages of another image are pooled. A pool keeps at most
+ * {@link #MAX_IMAGES} images and {@link #MAX_BYTES} bytes of images and
+ * buffers, dropping the least recently released ones first.</p>
+ */
+public final class ImagePool {
+	/**
+	 * The maximum number of images kept in a pool.
+	 */
+	public static final int MAX_IMAGES = 8;
+	
+	/**
+	 * The maximum number of bytes of images and scratch buffers kept in a pool.
+	 */
+	public static final long MAX_BYTES = 64L * 1024 * 1024;
+	
+	private static final ThreadLocal<ImagePool> pools = new ThreadLocal<ImagePool>() {
+		@Override
+		protected ImagePool initialValue() {
+			return new ImagePool();
+		}
+	};
+	
+	private final LinkedList<BufferedImage> images = new LinkedList<BufferedImage>();
+	private final LinkedList<float[]> buffers      = new LinkedList<float[]>();
+	private long bytes;
+	
+	/**
+	 * Creates a new, empty pool. Pools are only created by {@link #current()}.
+	 */
+	private ImagePool() {
+	}
+	
+	/**
+	 * Gets the pool of the current thread.
+	 * @return the pool of the current thread
+	 */
+	public static ImagePool current() {
+		return pools.get();
+	}
+	
+	/**
+	 * Acquires an image of the given dimensions and type. A pooled image is
+	 * returned if there is one; otherwise a new image is created. The pixels of
+	 * a pooled image are left as they were when it was released.
+	 * 
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param type the type of the image; <code>TYPE_INT_RGB</code>, <code>TYPE_INT_ARGB</code>,
+	 *        <code>TYPE_BYTE_GRAY</code> or <code>TYPE_3BYTE_BGR</code>
+	 * @return the image
+	 * @throws IllegalArgumentException if the <code>width</code> or <code>height</code>
+	 *         is less than 1 or the <code>type</code> is not one of the pooled types
+	 */
+	public BufferedImage acquire(int width, int height, int type) throws IllegalArgumentException {
+		if (!isPooledType(type))
+			throw new IllegalArgumentException(
+					"the value of type parameter must be TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_BYTE_GRAY or TYPE_3BYTE_BGR");
+		
+		for (Iterator<BufferedImage> i = images.iterator(); i.hasNext(); ) {
+			BufferedImage image = i.next();
+			
+			if (image.getWidth() == width && image.getHeight() == height && image.getType() == type) {
+				i.remove();
+				bytes -= sizeOf(image);
+				return image;
+			}
+		}
+		
+		return new BufferedImage(width, height, type);
+	}
+	
+	/**
+	 * Releases the given image to the pool. Images that can not be pooled are
+	 * ignored, so any image may be passed to this method.
+	 * 
+	 * @param image the image to release; may be <code>null</code>
+	 */
+	public void release(BufferedImage image) {
+		if (image == null || !isPoolable(image) || images.contains(image))
+			return;
+		
+		long size = sizeOf(image);
+		if (size > MAX_BYTES)
+			return;
+		
+		images.addFirst(image);
+		bytes += size;
+		trim();
+	}
+	
+	/**
+	 * Acquires a scratch buffer of the given length. The contents of a pooled
+	 * buffer are undefined.
+	 * 
+	 * @param length the length of the buffer
+	 * @return the buffer
+	 */
+	float[] acquireBuffer(int length) {
+		for (Iterator<float[]> i = buffers.iterator(); i.hasNext(); ) {
+			float[] buffer = i.next();
+			
+			if (buffer.length == length) {
+				i.remove();
+				bytes -= 4L * length;
+				return buffer;
+			}
+		}
+		
+		return new float[length];
+	}
+	
+	/**
+	 * Releases the given scratch buffer to the pool.
+	 * 
+	 * @param buffer the buffer to release
+	 */
+	void releaseBuffer(float[] buffer) {
+		buffers.addFirst(buffer);
+		bytes += 4L * buffer.length;
+		trim();
+	}
+	
+	/**
+	 * Drops all images and buffers in the pool.
+	 */
+	public void clear() {
+		images.clear();
+		buffers.clear();
+		bytes = 0;
+	}
+	
+	/**
+	 * Drops the least recently released images and buffers until the pool is
+	 * within its limits.
+	 */
+	private void trim() {
+		while (images.size() > MAX_IMAGES)
+			bytes -= sizeOf(images.removeLast());
+		
+		while (bytes > MAX_BYTES) {
+			// Scratch buffers are cheaper to allocate, so they go first
+			if (!buffers.isEmpty())
+				bytes -= 4L * buffers.removeLast().length;
+			else
+				bytes -= sizeOf(images.removeLast());
+		}
+	}
+	
+	/**
+	 * Tells whether the given image can be pooled, that is, whether it is of a
+	 * pooled type and owns its whole raster.
+	 * 
+	 * @param image the image to check
+	 * @return <code>true</code> if the image can be pooled; <code>false</code> otherwise
+	 */
+	private static boolean isPoolable(BufferedImage image) {
+		if (!isPooledType(image.getType()))
+			return false;
+		
+		WritableRaster raster = image.getRaster();
+		DataBuffer db         = raster.getDataBuffer();
+		
+		return raster.getParent() == null && raster.getMinX() == 0 && raster.getMinY() == 0
+				&& db.getOffset() == 0 && db.getSize() == elementsPerPixel(image.getType()) * image.getWidth() * image.getHeight();
+	}
+	
+	/**
+	 * Tells whether images of the given type are pooled.
+	 * 
+	 * @param type the image type
+	 * @return <code>true</code> if the type is pooled; <code>false</code> otherwise
+	 */
+	private static boolean isPooledType(int type) {
+		return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+				|| type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_3BYTE_BGR;
+	}
+	
+	/**
+	 * Gets the number of data buffer elements per pixel of the given pooled type.
+	 * 
+	 * @param type the image type
+	 * @return the number of elements per pixel
+	 */
+	private static int elementsPerPixel(int type) {
+		return (type == BufferedImage.TYPE_3BYTE_BGR) ? 3 : 1;
+	}
+	
+	/**
+	 * Calculates the size of the pixels of the given image.
+	 * 
+	 * @param image the image
+	 * @return the size in bytes
+	 */
+	private static long sizeOf(BufferedImage image) {
+		int type          = image.getType();
+		int bytesPerPixel = (type == BufferedImage.TYPE_BYTE_GRAY) ? 1 : (type == BufferedImage.TYPE_3BYTE_BGR) ? 3 : 4;
+		return (long)bytesPerPixel * image.getWidth() * image.getHeight();
+	}
+}
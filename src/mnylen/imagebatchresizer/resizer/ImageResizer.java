@@ -1,6 +1,8 @@
 package mnylen.imagebatchresizer.resizer;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An interface that defines methods for resizing images.
@@ -12,4 +14,62 @@ public interface ImageResizer {
      * @return the resized image
      */
     public BufferedImage resize(BufferedImage image);
+    
+    /**
+     * Resizes the source image, splitting the work into bands of rows run in
+     * parallel on the given pool. The result is the same as the result of
+     * {@link #resize(BufferedImage)}. This is how a single huge image is
+     * resized when there are idle threads but no other images to resize.
+     * 
+     * @param image the image to resize
+     * @param pool the pool to run the bands on, or <code>null</code> to resize in the calling thread
+     * @return the resized image
+     */
+    public BufferedImage resize(BufferedImage image, ForkJoinPool pool);
+    
+    /**
+     * Resizes the image read from the given row source. The returned row source
+     * produces the resized image one row at a time while reading the source one
+     * row at a time, so the whole image never has to be held in memory. This is
+     * how images too large to be decoded at once are resized.
+     * 
+     * @param source the row source to read the image from
+     * @return the row source producing the resized image
+     */
+    public ImageRowSource resize(ImageRowSource source);
+    
+    /**
+     * Calculates the dimensions the source image will be scaled to when resized,
+     * without touching any pixel data. This lets the caller prepare for the
+     * resize, e.g. decode the source image at a reduced resolution, before the
+     * source image has been loaded.
+     * 
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @return the dimensions of the scaled image
+     */
+    public Dimension getTargetSize(int width, int height);
+    
+    /**
+     * Tells whether resizing an image of the given dimensions would give back
+     * the image as it is, in which case the file the image is loaded from can
+     * be copied instead of being decoded, resized and encoded again. Only the
+     * dimensions of the source image are needed.
+     * 
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @return <code>true</code> if the resized image would be the source image unchanged
+     */
+    public boolean isUnchanged(int width, int height);
+    
+    /**
+     * Describes the parameters of this resizer in a stable form, so that
+     * resizers giving the same output from the same image can be told apart
+     * from those that do not, like the {@link OutputCache} does. The
+     * description is the same from run to run, and resizers with equal
+     * descriptions give equal images.
+     * 
+     * @return the description of the parameters
+     */
+    public String describe();
 }
@@ -0,0 +1,44 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.IOException;
+
+/**
+ * An interface for reading an image one row at a time. Row sources let huge
+ * images be resized and saved without ever holding the whole image in memory:
+ * a source decoding the image in strips can be wrapped by a source scaling it,
+ * and the scaled rows can be handed to the encoder as they are produced.
+ * 
+ * <p>Unless stated otherwise by the implementation, the rows must be read in
+ * ascending order. Rows may be skipped, but a row above the previously read
+ * one can not be read again.</p>
+ */
+public interface ImageRowSource {
+    /**
+     * Gets the width of the image.
+     * @return the width of the image
+     */
+    public int getWidth();
+    
+    /**
+     * Gets the height of the image.
+     * @return the height of the image
+     */
+    public int getHeight();
+    
+    /**
+     * Tells whether the image has an alpha channel.
+     * @return <code>true</code> if the image has an alpha channel; <code>false</code> otherwise
+     */
+    public boolean hasAlpha();
+    
+    /**
+     * Reads a row of the image as packed ARGB pixels. If the image does not have
+     * an alpha channel, the alpha component of the pixels is <code>0xff</code>.
+     * 
+     * @param y the row to read
+     * @param row the array to read the pixels to; must hold at least {@link #getWidth()} pixels
+     * @throws IOException if reading the underlying image fails
+     * @throws IllegalStateException if the row can not be read any more
+     */
+    public void readRow(int y, int[] row) throws IOException, IllegalStateException;
+}
@@ -2,7 +2,19 @@ package mnylen.imagebatchresizer.resizer;
 
 import java.io.IOException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * An instance of the <code>ImageSaver</code> class can be used for saving images to
@@ -43,6 +55,169 @@ public abstract class ImageSaver {
      */
     public abstract File save(BufferedImage image, File originalFile) throws IOException;
     
+    /**
+     * Saves the image read from the given row source. The default implementation
+     * reads the whole image to memory and saves it with
+     * {@link #save(BufferedImage, File)}; savers able to encode the image as it is
+     * being read override this.
+     * 
+     * @param source the row source to read the image from
+     * @param originalFile the original location of the image
+     * @return the file the image was written to
+     * @throws IOException if an I/O error occurs
+     */
+    public File save(ImageRowSource source, File originalFile) throws IOException {
+        return save(ImageUtil.toBufferedImage(source), originalFile);
+    }
+    
+    /**
+     * Encodes the given image in the format of this saver to the given stream,
+     * without writing any file, so that the encodings of an image in different
+     * formats can be compared before one of them is written. The stream is left
+     * open.
+     * 
+     * @param image the image to encode
+     * @param out the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract void encode(BufferedImage image, OutputStream out) throws IOException;
+    
+    /**
+     * Tells whether the given file, of the given format, can be copied to the
+     * destination directory as it is instead of being saved, when the image
+     * does not have to be resized. The file must already be in the format of
+     * this saver and meet its other constraints. The default implementation
+     * returns <code>false</code>, so images are always saved.
+     * 
+     * @param formatName the informal name of the format of the file, such as <code>"jpeg"</code>
+     * @param file the file
+     * @return <code>true</code> if the file can be copied; <code>false</code> otherwise
+     */
+    public boolean canCopy(String formatName, File file) {
+        return false;
+    }
+    
+    /**
+     * Copies the given file to the destination file it would be saved to. The
+     * bytes are moved with <code>FileChannel.transferTo</code>, which lets the
+     * operating system copy them without passing them through the Java heap.
+     * 
+     * <p>If a hard link is requested, the destination file is linked to the
+     * original file instead, so nothing is copied at all. This only works
+     * within one file system; elsewhere the file is copied. Both names then
+     * refer to the same file, so the savers replace a linked destination file
+     * instead of writing to it in place, and so does this method. If the
+     * destination file already is the original file, nothing is done.</p>
+     * 
+     * <p>Like the images saved, the destination file is written under another
+     * name and renamed in place when complete, so it is never left half
+     * written.</p>
+     * 
+     * @param originalFile the file to copy
+     * @param link <code>true</code> to hard link the destination file when possible
+     * @return the destination file
+     * @throws IOException if an I/O error occurs
+     */
+    public File copy(File originalFile, boolean link) throws IOException {
+        File dstFile = determineDestinationFile(originalFile);
+        
+        transfer(originalFile, dstFile, link);
+        return dstFile;
+    }
+    
+    /**
+     * Copies or hard links the given file to the given destination file, as
+     * described in {@link #copy(File, boolean)}.
+     * 
+     * @param srcFile the file to copy
+     * @param dstFile the destination file; an existing file is replaced
+     * @param link <code>true</code> to hard link the destination file when possible
+     * @throws IOException if an I/O error occurs
+     */
+    static void transfer(File srcFile, File dstFile, boolean link) throws IOException {
+        Path src = srcFile.toPath();
+        Path dst = dstFile.toPath();
+        
+        if (Files.exists(dst) && Files.isSameFile(src, dst))
+            return;
+        
+        File partFile = ImageCodecs.partFile(dstFile);
+        
+        try {
+            // The link takes the unique name of the part file
+            if (!link || !partFile.delete() || !createLink(partFile, srcFile))
+                copyContents(srcFile, partFile);
+            
+            ImageCodecs.commitOutput(partFile, dstFile);
+        } finally {
+            partFile.delete();
+        }
+    }
+    
+    /**
+     * Hard links the given file to the given new name.
+     * 
+     * @param linkFile the new name, which must not exist
+     * @param srcFile the file to link
+     * @return <code>true</code> if the file was linked; <code>false</code> if the
+     *         file system does not support it
+     */
+    private static boolean createLink(File linkFile, File srcFile) {
+        try {
+            Files.createLink(linkFile.toPath(), srcFile.toPath());
+            return true;
+        } catch (IOException e) {
+            // Another file system, or one without hard links; copy instead
+        } catch (UnsupportedOperationException e) {
+            // Likewise
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Copies the contents of the given file to the given file.
+     * 
+     * @param srcFile the file to copy
+     * @param dstFile the file to write; an existing file is overwritten
+     * @throws IOException if an I/O error occurs
+     */
+    private static void copyContents(File srcFile, File dstFile) throws IOException {
+        FileChannel in = new FileInputStream(srcFile).getChannel();
+        
+        try {
+            FileChannel out = new FileOutputStream(dstFile).getChannel();
+            
+            try {
+                long size     = in.size();
+                long position = 0;
+                
+                while (position < size)
+                    position += in.transferTo(position, size - position, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Describes the encoder parameters of this saver in a stable form, so that
+     * savers writing the same files from the same images can be told apart
+     * from those that do not, like the {@link OutputCache} does. The
+     * description is the same from run to run, and savers with equal
+     * descriptions write equal images. The destination directory and the
+     * prefix only affect where the files are written and are left out. The
+     * default implementation describes the class and the file extension;
+     * savers with parameters of their own override it.
+     * 
+     * @return the description of the parameters
+     */
+    public String describe() {
+        return getClass().getName() + "[extension=" + getExtension() + "]";
+    }
+    
     /**
      * Gets the file extension used for images saved using this <code>ImageSaver</code>
      * instance.
@@ -51,16 +226,103 @@ public abstract class ImageSaver {
      */
     public abstract String getExtension();
     
+    /**
+     * Writes the given image to the given file in the given format. The writer
+     * is taken from the writers kept by the current thread and reset for the
+     * next file afterwards, so the writer plugin is looked up and set up only
+     * once per thread instead of once per file.
+     * 
+     * @param image the image to write
+     * @param format the informal name of the format, such as <code>"jpeg"</code>
+     * @param param the parameters to write the image with, or <code>null</code> for the defaults
+     * @param dstFile the file to write to; an existing file is overwritten
+     * @throws IOException if there is no writer for the format or an I/O error occurs
+     */
+    protected void writeImage(RenderedImage image, String format, ImageWriteParam param, File dstFile)
+      throws IOException {
+        
+        writeImage(image, format, null, param, dstFile);
+    }
+    
+    /**
+     * Writes the given image to the given file in the given format with the
+     * given image metadata. See {@link #writeImage(RenderedImage, String, ImageWriteParam, File)}.
+     * 
+     * @param image the image to write
+     * @param format the informal name of the format, such as <code>"jpeg"</code>
+     * @param metadata the metadata to write the image with, or <code>null</code> for the defaults
+     * @param param the parameters to write the image with, or <code>null</code> for the defaults
+     * @param dstFile the file to write to; an existing file is overwritten
+     * @throws IOException if there is no writer for the format or an I/O error occurs
+     */
+    protected void writeImage(RenderedImage image, String format, IIOMetadata metadata,
+      ImageWriteParam param, File dstFile) throws IOException {
+        
+        File partFile = ImageCodecs.partFile(dstFile);
+        
+        try {
+            ImageOutputStream outStream = ImageCodecs.openOutput(partFile);
+            try {
+                writeImage(image, format, metadata, param, outStream);
+            } finally {
+                outStream.close();
+            }
+            
+            ImageCodecs.commitOutput(partFile, dstFile);
+        } finally {
+            partFile.delete();
+        }
+    }
+    
+    /**
+     * Writes the given image to the given stream in the given format with the
+     * given image metadata. The stream is left open.
+     * 
+     * @param image the image to write
+     * @param format the informal name of the format, such as <code>"jpeg"</code>
+     * @param metadata the metadata to write the image with, or <code>null</code> for the defaults
+     * @param param the parameters to write the image with, or <code>null</code> for the defaults
+     * @param outStream the stream to write to
+     * @throws IOException if there is no writer for the format or an I/O error occurs
+     */
+    protected void writeImage(RenderedImage image, String format, IIOMetadata metadata,
+      ImageWriteParam param, ImageOutputStream outStream) throws IOException {
+        
+        ImageWriter writer = ImageCodecs.takeWriter(format);
+        boolean reusable   = false;
+        
+        try {
+            writer.setOutput(outStream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+            reusable = true;
+        } finally {
+            ImageCodecs.giveBack(format, writer, reusable);
+        }
+    }
+    
     /**
      * Determines the destination file for files loaded from the specified file.
      * @param file the file that the image was originally loaded from
      * @return the destination file
      */
     protected File determineDestinationFile(File file) {
+        return determineDestinationFile(file, getExtension());
+    }
+    
+    /**
+     * Determines the destination file with the given extension for files loaded
+     * from the specified file. Savers choosing the format of every image
+     * separately use this to give every file the extension of its format.
+     * 
+     * @param file the file that the image was originally loaded from
+     * @param extension the file extension
+     * @return the destination file
+     */
+    protected File determineDestinationFile(File file, String extension) {
         String dstFileName = file.getName();
         int dotPos         = file.getName().lastIndexOf('.');
         if (dotPos != -1)    dstFileName = dstFileName.substring(0, dotPos);
-        dstFileName       += "." + getExtension();
+        dstFileName       += "." + extension;
         dstFileName        = prefix + dstFileName;
         
         return new File(dstDirectory, dstFileName);
@@ -3,14 +3,39 @@ package mnylen.imagebatchresizer.resizer;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.File;
+import java.util.Iterator;
+import java.util.Locale;
 
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * Contains utility methods that help working with images.
  */
 public class ImageUtil {
+    /**
+     * The largest difference between the color channels of a pixel that is
+     * still taken to be gray by {@link #toGray(BufferedImage)}. Scanners and
+     * JPEG decoders leave a little noise in the channels of gray images.
+     */
+    public static final int GRAY_TOLERANCE = 2;
+    
+    /**
+     * The number of rows checked for color by {@link #toGray(BufferedImage)}
+     * before an image is converted.
+     */
+    private static final int GRAY_SAMPLE_ROWS = 32;
+    
     /**
      * Loads an image from the file system. If the file contains valid image
      * data, it is placed into the returned <code>Image</code> instance.
@@ -33,6 +58,471 @@ public class ImageUtil {
         if (!(file.exists()))
             throw new FileNotFoundException(filename);
         
-        return ImageIO.read(file);
+        return read(file, null);
+    }
+    
+    /**
+     * Loads an image from the file system at the lowest resolution that is still
+     * good enough for resizing it with the given <code>ImageResizer</code>. The
+     * dimensions of the image are read from the image header first, and if the
+     * image is going to be scaled down to less than half of its size, only every
+     * n:th pixel on every n:th row is decoded (see
+     * {@link #getSubsamplingFactor(int, int, int, int)}). The loaded image should
+     * then be resized as usual.
+     * 
+     * <p>Gray images are decoded to <code>TYPE_BYTE_GRAY</code> images, which
+     * take a quarter of the memory and the work of the same image in color.
+     * If the reader can decode other images straight to packed RGB or ARGB
+     * ints, it is asked to do so. Otherwise the decoded image is converted with
+     * {@link #normalize(BufferedImage)}. Color images with only gray pixels,
+     * such as scanned documents, are then converted with
+     * {@link #toGray(BufferedImage)}, so the returned image is always of type
+     * <code>TYPE_BYTE_GRAY</code>, <code>TYPE_INT_RGB</code> or
+     * <code>TYPE_INT_ARGB</code>.</p>
+     * 
+     * <p>If for some reason the file contents can not be determined as image data,
+     * <code>null</code> is going to be returned.</p>
+     * 
+     * @param file the file to load
+     * @param resizer the <code>ImageResizer</code> the image is going to be resized with
+     * @return the loaded image
+     * @throws FileNotFoundException if the file was not found
+     * @throws IOException if the file could not be readed
+     * @throws IllegalArgumentException if the <code>file</code> or <code>resizer</code>
+     *         parameter is <code>null</code>
+     */
+    public static BufferedImage loadImage(File file, ImageResizer resizer)
+      throws FileNotFoundException, IOException, IllegalArgumentException {
+        
+        if (file == null)
+            throw new IllegalArgumentException("the file parameter must not be null");
+        
+        if (resizer == null)
+            throw new IllegalArgumentException("the resizer parameter must not be null");
+        
+        if (!(file.exists()))
+            throw new FileNotFoundException(file.getPath());
+        
+        return read(file, resizer);
+    }
+    
+    /**
+     * Loads the image from the given file for resizing with the given resizer,
+     * like {@link #loadImage(File, ImageResizer)}, through the given pyramid
+     * cache. If the cache has a reduced version of the image at least as large
+     * as the target, that is read instead of the file; see {@link PyramidCache}.
+     * 
+     * @param file the file to load
+     * @param resizer the <code>ImageResizer</code> the image is going to be resized with
+     * @param cache the cache to load the image through, or <code>null</code> to
+     *        load the image from the file
+     * @return the loaded image
+     * @throws FileNotFoundException if the file was not found
+     * @throws IOException if the file could not be readed
+     * @throws IllegalArgumentException if the <code>file</code> or <code>resizer</code>
+     *         parameter is <code>null</code>
+     */
+    public static BufferedImage loadImage(File file, ImageResizer resizer, PyramidCache cache)
+      throws FileNotFoundException, IOException, IllegalArgumentException {
+        
+        if (cache == null)
+            return loadImage(file, resizer);
+        
+        if (file == null)
+            throw new IllegalArgumentException("the file parameter must not be null");
+        
+        if (resizer == null)
+            throw new IllegalArgumentException("the resizer parameter must not be null");
+        
+        if (!(file.exists()))
+            throw new FileNotFoundException(file.getPath());
+        
+        return cache.load(file, resizer);
+    }
+    
+    /**
+     * Reads the first image in the given file with a reader taken from
+     * {@link ImageCodecs}, so the reader is reused for the next file.
+     * 
+     * @param file the file to read
+     * @param resizer the <code>ImageResizer</code> the image is going to be resized
+     *        with, or <code>null</code> to read the image as it is
+     * @return the image; <code>null</code> if the file contents can not be
+     *         determined as image data
+     * @throws IOException if the file could not be readed
+     */
+    private static BufferedImage read(File file, ImageResizer resizer) throws IOException {
+        ImageInputStream stream = ImageCodecs.openInput(file);
+        
+        try {
+            ImageReader reader = ImageCodecs.takeReader(stream);
+            if (reader == null)
+                return null;
+            
+            boolean reusable = false;
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                
+                if (resizer == null) {
+                    BufferedImage image = reader.read(0, param);
+                    reusable = true;
+                    return image;
+                }
+                
+                int width       = reader.getWidth(0);
+                int height      = reader.getHeight(0);
+                Dimension size  = resizer.getTargetSize(width, height);
+                int subsampling = getSubsamplingFactor(width, height, size.width, size.height);
+                
+                if (subsampling > 1)
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                
+                // Reading into a pooled image would not help: the readers
+                // decode into buffers of their own and convert from those
+                ImageTypeSpecifier type = getPackedImageType(reader);
+                if (type != null)
+                    param.setDestinationType(type);
+                
+                BufferedImage image = reader.read(0, param);
+                reusable = true;
+                
+                if (image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+                    return image;
+                
+                BufferedImage normalized = normalize(image);
+                BufferedImage gray       = toGray(normalized);
+                
+                if (gray != normalized)
+                    ImagePool.current().release(normalized);
+                
+                return gray;
+            } finally {
+                ImageCodecs.giveBack(reader, reusable);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Finds the packed RGB or ARGB image type among the types the given reader
+     * can decode the first image to. The image type with an alpha channel is
+     * looked for only if the default type of the reader has one. If the
+     * default type is <code>TYPE_BYTE_GRAY</code>, it is returned instead.
+     * 
+     * @param reader the reader to query
+     * @return the image type; <code>null</code> if the reader does not offer it
+     * @throws IOException if reading the image header fails
+     */
+    private static ImageTypeSpecifier getPackedImageType(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (types == null || !(types.hasNext()))
+            return null;
+        
+        ImageTypeSpecifier type = types.next();
+        if (type.getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY)
+            return type;
+        
+        int wanted = type.getColorModel().hasAlpha()
+            ? BufferedImage.TYPE_INT_ARGB
+            : BufferedImage.TYPE_INT_RGB;
+        
+        while (true) {
+            if (type.getBufferedImageType() == wanted)
+                return type;
+            
+            if (!(types.hasNext()))
+                return null;
+            
+            type = types.next();
+        }
+    }
+    
+    /**
+     * Converts the given image to <code>TYPE_INT_ARGB</code> if it has an alpha
+     * channel and to <code>TYPE_INT_RGB</code> otherwise. Images that already are
+     * of either type are returned as they are. The converted image is taken from
+     * the {@link ImagePool} of the current thread.
+     * 
+     * <p>The resizers read and write packed ints straight from the arrays backing
+     * the rasters, and the Java2D loops for them are the fastest ones too, so
+     * converting indexed, gray and custom images once up front is cheaper than
+     * going through their color models on every pass.</p>
+     * 
+     * <p>Images of the predefined types are converted with the Java2D blit
+     * loops, which copy gray levels to the three channels as they are. Custom
+     * images, such as the ones with 16-bit samples, have no loops of their own,
+     * so they are read row by row with a {@link BufferedImageRowSource}
+     * instead, which is faster than the generic loop.</p>
+     * 
+     * @param image the image to convert; may be <code>null</code>
+     * @return the converted image; <code>null</code> if <code>image</code> is <code>null</code>
+     */
+    public static BufferedImage normalize(BufferedImage image) {
+        if (image == null)
+            return null;
+        
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+            return image;
+        
+        if (type != BufferedImage.TYPE_CUSTOM) {
+            BufferedImage normalized = ImagePool.current().acquire(image.getWidth(), image.getHeight(),
+                    image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            
+            Graphics2D g = normalized.createGraphics();
+            try {
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(image, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+            
+            return normalized;
+        }
+        
+        BufferedImageRowSource source = new BufferedImageRowSource(image);
+        int width  = source.getWidth();
+        int height = source.getHeight();
+        
+        BufferedImage normalized = ImagePool.current().acquire(width, height,
+                source.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt)normalized.getRaster().getDataBuffer()).getData();
+        int[] row  = new int[width];
+        
+        for (int y = 0; y < height; y++) {
+            source.readRow(y, row);
+            System.arraycopy(row, 0, data, y * width, width);
+        }
+        
+        return normalized;
+    }
+    
+    /**
+     * Converts the given image to <code>TYPE_BYTE_GRAY</code> if all its pixels
+     * are gray, that is, if no two color channels of any pixel differ by more
+     * than {@link #GRAY_TOLERANCE}. The gray level of a pixel is its luma. Only
+     * images of type <code>TYPE_INT_RGB</code> are converted; other images, and
+     * images with color, are returned as they are. The converted image is
+     * taken from the {@link ImagePool} of the current thread.
+     * 
+     * <p>A few rows spread over the image are checked first, so images with
+     * color are usually turned down after looking at a small part of their
+     * pixels. The rest of the pixels are checked while converting them, and
+     * the conversion is given up at the first pixel with color.</p>
+     * 
+     * @param image the image to convert; may be <code>null</code>
+     * @return the converted image, or <code>image</code> if it is not converted
+     */
+    public static BufferedImage toGray(BufferedImage image) {
+        if (image == null || image.getType() != BufferedImage.TYPE_INT_RGB)
+            return image;
+        
+        int width   = image.getWidth();
+        int height  = image.getHeight();
+        Raster src  = image.getRaster();
+        int[] row   = new int[width];
+        int samples = Math.min(GRAY_SAMPLE_ROWS, height);
+        
+        for (int i = 0; i < samples; i++) {
+            src.getDataElements(0, (int)((2L * i + 1) * height / (2 * samples)), width, 1, row);
+            
+            for (int x = 0; x < width; x++) {
+                if (!(isGray(row[x])))
+                    return image;
+            }
+        }
+        
+        BufferedImage gray = ImagePool.current().acquire(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] dst         = ((DataBufferByte)gray.getRaster().getDataBuffer()).getData();
+        
+        for (int y = 0, i = 0; y < height; y++) {
+            src.getDataElements(0, y, width, 1, row);
+            
+            for (int x = 0; x < width; x++, i++) {
+                int rgb = row[x];
+                
+                if (!(isGray(rgb))) {
+                    ImagePool.current().release(gray);
+                    return image;
+                }
+                
+                // The weights add up to 256, so pure grays are kept as they are
+                dst[i] = (byte)((77 * ((rgb >> 16) & 0xff) + 150 * ((rgb >> 8) & 0xff) + 29 * (rgb & 0xff)
+                        + 128) >> 8);
+            }
+        }
+        
+        return gray;
+    }
+    
+    /**
+     * Tells whether the given pixel is gray within {@link #GRAY_TOLERANCE}.
+     * 
+     * @param rgb the pixel
+     * @return <code>true</code> if the pixel is gray; <code>false</code> otherwise
+     */
+    private static boolean isGray(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        
+        return Math.abs(r - g) <= GRAY_TOLERANCE && Math.abs(g - b) <= GRAY_TOLERANCE
+            && Math.abs(r - b) <= GRAY_TOLERANCE;
+    }
+    
+    /**
+     * Calculates the subsampling factor to use when decoding an image that is
+     * going to be scaled to the given dimensions. The factor is the largest power
+     * of two that keeps the decoded image at least twice as large as the target
+     * in both directions, so the final resize still has enough pixels to produce
+     * a smooth result.
+     * 
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @param targetWidth the width the image is going to be scaled to
+     * @param targetHeight the height the image is going to be scaled to
+     * @return the subsampling factor; <code>1</code> if the image should be decoded
+     *         at full resolution
+     */
+    public static int getSubsamplingFactor(int width, int height, int targetWidth, int targetHeight) {
+        int factor = 1;
+        
+        while (subsampledLength(width, factor * 2) >= 2L * targetWidth &&
+               subsampledLength(height, factor * 2) >= 2L * targetHeight)
+            factor *= 2;
+        
+        return factor;
+    }
+    
+    /**
+     * Calculates the length of a side of an image decoded with the given
+     * subsampling factor.
+     * 
+     * @param length the length of the side at full resolution
+     * @param factor the subsampling factor
+     * @return the length of the side when subsampled
+     */
+    public static int subsampledLength(int length, int factor) {
+        return (length + factor - 1) / factor;
+    }
+    
+    /**
+     * Reads the dimensions of the image in the given file without decoding the
+     * pixel data. Only the header of the image is read.
+     * 
+     * @param file the file to read
+     * @return the dimensions of the image; <code>null</code> if the file contents
+     *         can not be determined as image data
+     * @throws FileNotFoundException if the file was not found
+     * @throws IOException if the file could not be readed
+     * @throws IllegalArgumentException if the <code>file</code> parameter is <code>null</code>
+     */
+    public static Dimension readImageSize(File file)
+      throws FileNotFoundException, IOException, IllegalArgumentException {
+        
+        if (file == null)
+            throw new IllegalArgumentException("the file parameter must not be null");
+        
+        if (!(file.exists()))
+            throw new FileNotFoundException(file.getPath());
+        
+        ImageInputStream stream = ImageCodecs.openInput(file);
+        
+        try {
+            ImageReader reader = ImageCodecs.takeReader(stream);
+            if (reader == null)
+                return null;
+            
+            boolean reusable = false;
+            try {
+                reader.setInput(stream, true, true);
+                Dimension size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+                reusable = true;
+                return size;
+            } finally {
+                ImageCodecs.giveBack(reader, reusable);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Reads the format of the image in the given file, such as <code>"jpeg"</code>
+     * or <code>"png"</code>, without decoding the pixel data. The format is told
+     * by the reader able to decode the file, not by the file extension.
+     * 
+     * @param file the file to read
+     * @return the informal name of the format in lower case; <code>null</code>
+     *         if the file contents can not be determined as image data
+     * @throws FileNotFoundException if the file was not found
+     * @throws IOException if the file could not be readed
+     * @throws IllegalArgumentException if the <code>file</code> parameter is <code>null</code>
+     */
+    public static String readImageFormat(File file)
+      throws FileNotFoundException, IOException, IllegalArgumentException {
+        
+        if (file == null)
+            throw new IllegalArgumentException("the file parameter must not be null");
+        
+        if (!(file.exists()))
+            throw new FileNotFoundException(file.getPath());
+        
+        ImageInputStream stream = ImageCodecs.openInput(file);
+        
+        try {
+            ImageReader reader = ImageCodecs.takeReader(stream);
+            if (reader == null)
+                return null;
+            
+            try {
+                return reader.getFormatName().toLowerCase(Locale.ENGLISH);
+            } finally {
+                ImageCodecs.giveBack(reader, true);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Estimates the amount of memory needed for holding a decoded image of the
+     * given dimensions. The estimate assumes four bytes per pixel, which is what
+     * the packed RGB and ARGB images used while resizing take.
+     * 
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the estimated size in bytes
+     */
+    public static long estimateDecodedSize(int width, int height) {
+        return 4L * width * height;
+    }
+    
+    /**
+     * Reads all rows of the given row source to a new <code>BufferedImage</code>.
+     * The image is of type <code>TYPE_INT_ARGB</code> if the source has an alpha
+     * channel and <code>TYPE_INT_RGB</code> otherwise.
+     * 
+     * @param source the row source to read
+     * @return the image
+     * @throws IOException if reading the row source fails
+     */
+    public static BufferedImage toBufferedImage(ImageRowSource source) throws IOException {
+        int width  = source.getWidth();
+        int height = source.getHeight();
+        int type   = source.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        
+        BufferedImage image = new BufferedImage(width, height, type);
+        WritableRaster raster = image.getRaster();
+        int[] row = new int[width];
+        
+        for (int y = 0; y < height; y++) {
+            source.readRow(y, row);
+            raster.setDataElements(0, y, width, 1, row);
+        }
+        
+        return image;
     }
 }
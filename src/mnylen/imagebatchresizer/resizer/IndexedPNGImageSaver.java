@@ -0,0 +1,129 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.awt.image.BufferedImage;
+
+/**
+ * An specialized <code>ImageSaver</code> for saving PNG images with a palette
+ * of at most 256 colors. Flat graphics, such as icons, screenshots and charts,
+ * take a fraction of the space of true color PNG files this way, and those with
+ * no more colors than the palette may have are saved without any loss.
+ * 
+ * <p>The palette is chosen for every image separately by median cut, and the
+ * colors can optionally be dithered. Translucent pixels keep their alpha. The
+ * compression level and strategy can be set like for the <code>PNGImageSaver</code>;
+ * the rows of palette indexes are not filtered.</p>
+ */
+public class IndexedPNGImageSaver extends PNGImageSaver {
+	/**
+	 * The default maximum number of colors.
+	 */
+	public static final int DEFAULT_MAX_COLORS = 256;
+	
+	private volatile ColorQuantizer quantizer = new ColorQuantizer(DEFAULT_MAX_COLORS, false, false);
+	private int maxColors                     = DEFAULT_MAX_COLORS;
+	private boolean dither;
+	
+	/**
+	 * Creates a new <code>IndexedPNGImageSaver</code> with the specified
+	 * destination directory and the desired prefix for the saved files.
+	 * 
+	 * @param dstDirectory the destination directory for the saved files
+	 * @param prefix the desired prefix for the saved files
+	 * @throws NotADirectoryException if the <code>dstDirectory</code> is not a directory
+	 */
+	public IndexedPNGImageSaver(File dstDirectory, String prefix) throws NotADirectoryException {
+		super(dstDirectory, prefix);
+	}
+	
+	/**
+	 * Sets the maximum number of colors of the palette.
+	 * 
+	 * @param maxColors the maximum number of colors, from 2 to 256
+	 * @throws IllegalArgumentException if the <code>maxColors</code> is not between 2 and 256
+	 */
+	public void setMaxColors(int maxColors) throws IllegalArgumentException {
+		if (maxColors < 2 || maxColors > ColorQuantizer.MAX_COLORS)
+			throw new IllegalArgumentException("the value of maxColors parameter must be between 2 and 256");
+		
+		this.maxColors = maxColors;
+		this.quantizer = new ColorQuantizer(maxColors, dither, false);
+	}
+	
+	/**
+	 * Gets the maximum number of colors of the palette.
+	 * @return the maximum number of colors
+	 */
+	public int getMaxColors() {
+		return maxColors;
+	}
+	
+	/**
+	 * Sets whether the colors are dithered. Dithering makes gradients of images
+	 * with more colors than the palette smooth, but makes the files larger.
+	 * 
+	 * @param dither <code>true</code> to dither the colors
+	 */
+	public void setDither(boolean dither) {
+		this.dither    = dither;
+		this.quantizer = new ColorQuantizer(maxColors, dither, false);
+	}
+	
+	/**
+	 * Tells whether the colors are dithered.
+	 * @return <code>true</code> if the colors are dithered
+	 */
+	public boolean isDither() {
+		return dither;
+	}
+	
+	/**
+	 * Saves the given image.
+	 * 
+	 * @param image the image to save
+	 * @param originalFile the original location of the image
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public File save(BufferedImage image, File originalFile) throws IOException {
+		return super.save(quantizer.quantize(image), originalFile);
+	}
+	
+	/**
+	 * Encodes the given image as a PNG image with a palette to the given stream.
+	 * 
+	 * @param image the image to encode
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void encode(BufferedImage image, OutputStream out) throws IOException {
+		super.encode(quantizer.quantize(image), out);
+	}
+	
+	/**
+	 * Saves the image read from the given row source. The image is read to
+	 * memory as a whole, as choosing the palette takes a pass over all pixels.
+	 * 
+	 * @param source the row source to read the image from
+	 * @param originalFile the original location of the image
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public File save(ImageRowSource source, File originalFile) throws IOException {
+		return save(ImageUtil.toBufferedImage(source), originalFile);
+	}
+	
+	/**
+	 * Describes the encoder parameters of this saver, including those of the
+	 * palette.
+	 * 
+	 * @return the description of the parameters
+	 */
+	@Override
+	public String describe() {
+		return super.describe() + "[maxColors=" + maxColors + ",dither=" + dither + "]";
+	}
+}
@@ -1,23 +1,105 @@
 package mnylen.imagebatchresizer.resizer;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * An specialized <code>ImageSaver</code> for saving JPEG images.
+ * 
+ * <p>The compression quality, the chroma subsampling, progressive encoding
+ * and the optimization of the Huffman tables can be set with the setters of
+ * the saver. The defaults are those of the JPEG writer: quality of 0.75,
+ * 4:2:0 subsampling, baseline encoding and the standard Huffman tables.</p>
+ * 
+ * <p>Images of type <code>TYPE_BYTE_GRAY</code> are saved as JPEGs with a
+ * single gray component, which are about a third smaller than the same image
+ * saved in color. The chroma subsampling does not apply to them.</p>
+ * 
+ * <p>The saver can also be given a maximum file size with
+ * {@link #setMaxFileSize(long)}. The image is then encoded in memory at
+ * different qualities, binary searching for the highest quality, in steps of
+ * 0.01, whose file fits in the size, and only that encoding is written to the
+ * file. The set quality is the highest quality tried, and the search never
+ * goes below the minimum quality; if even that does not fit, the file is
+ * written at the minimum quality.</p>
  */
 public class JPEGImageSaver extends ImageSaver {
+	/**
+	 * The default compression quality.
+	 */
+	public static final float DEFAULT_QUALITY = 0.75f;
+	
+	/**
+	 * The default minimum quality when encoding to a maximum file size.
+	 */
+	public static final float DEFAULT_MIN_QUALITY = 0.3f;
+	
+	/**
+	 * The name of the native metadata format of the JPEG writer.
+	 */
+	private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+	
+	/**
+	 * The bands written to the file; the alpha band of ARGB images is left out.
+	 */
+	private static final int[] RGB_BANDS = { 0, 1, 2 };
+	
+	/**
+	 * The bands written to the file for gray images.
+	 */
+	private static final int[] GRAY_BANDS = { 0 };
+	
+	/**
+	 * The types of the written images. The types are immutable, so they are
+	 * built once and shared between all saves.
+	 */
+	private static final ImageTypeSpecifier RGB_TYPE  = createRGBType();
+	private static final ImageTypeSpecifier GRAY_TYPE =
+		ImageTypeSpecifier.createGrayscale(8, DataBuffer.TYPE_BYTE, false);
+	
+	private float quality                 = DEFAULT_QUALITY;
+	private ChromaSubsampling subsampling = ChromaSubsampling.YCbCr420;
+	private boolean progressive           = false;
+	private boolean optimizeHuffman       = false;
+	private long maxFileSize              = 0;
+	private float minQuality              = DEFAULT_MIN_QUALITY;
+	
+	/**
+	 * The parameters and metadata every image is written with. The writers only
+	 * read them, so they are built on the first save and shared between all
+	 * saves until the settings are changed. Gray images have parameters and
+	 * metadata of their own.
+	 */
+	private volatile ImageWriteParam param;
+	private volatile IIOMetadata metadata;
+	private volatile ImageWriteParam grayParam;
+	private volatile IIOMetadata grayMetadata;
+	
 	/**
 	 * Creates a new <code>JPEGImageSaver</code> with the specified destination
 	 * directory and the desired prefix for the saved files.
@@ -30,6 +112,135 @@ public class JPEGImageSaver extends ImageSaver {
 		super(dstDirectory, prefix);
 	}
 	
+	/**
+	 * Sets the compression quality. Lower qualities give smaller files with more
+	 * compression artifacts.
+	 * 
+	 * @param quality the quality, from 0 (smallest files) to 1 (best quality)
+	 * @throws IllegalArgumentException if the <code>quality</code> is not between 0 and 1
+	 */
+	public void setQuality(float quality) throws IllegalArgumentException {
+		if (!(quality >= 0 && quality <= 1))
+			throw new IllegalArgumentException("the value of quality parameter must be between 0 and 1");
+		
+		this.quality = quality;
+		invalidate();
+	}
+	
+	/**
+	 * Gets the compression quality.
+	 * @return the quality, from 0 to 1
+	 */
+	public float getQuality() {
+		return quality;
+	}
+	
+	/**
+	 * Sets the chroma subsampling of the saved images.
+	 * 
+	 * @param subsampling the subsampling
+	 * @throws IllegalArgumentException if the <code>subsampling</code> is <code>null</code>
+	 */
+	public void setChromaSubsampling(ChromaSubsampling subsampling) throws IllegalArgumentException {
+		if (subsampling == null)
+			throw new IllegalArgumentException("the value of subsampling parameter must not be null");
+		
+		this.subsampling = subsampling;
+		invalidate();
+	}
+	
+	/**
+	 * Gets the chroma subsampling of the saved images.
+	 * @return the subsampling
+	 */
+	public ChromaSubsampling getChromaSubsampling() {
+		return subsampling;
+	}
+	
+	/**
+	 * Sets whether the images are saved as progressive JPEGs, which are usually
+	 * a little smaller and are displayed in increasing detail while loading.
+	 * 
+	 * @param progressive <code>true</code> for progressive, <code>false</code> for baseline encoding
+	 */
+	public void setProgressive(boolean progressive) {
+		this.progressive = progressive;
+		invalidate();
+	}
+	
+	/**
+	 * Tells whether the images are saved as progressive JPEGs.
+	 * @return <code>true</code> for progressive, <code>false</code> for baseline encoding
+	 */
+	public boolean isProgressive() {
+		return progressive;
+	}
+	
+	/**
+	 * Sets whether Huffman tables optimized for every image are used instead of
+	 * the standard tables. Optimized tables make the files smaller without any
+	 * loss in quality, but the image has to be encoded twice.
+	 * 
+	 * @param optimizeHuffman <code>true</code> to optimize the tables
+	 */
+	public void setOptimizeHuffman(boolean optimizeHuffman) {
+		this.optimizeHuffman = optimizeHuffman;
+		invalidate();
+	}
+	
+	/**
+	 * Tells whether optimized Huffman tables are used.
+	 * @return <code>true</code> if the tables are optimized
+	 */
+	public boolean isOptimizeHuffman() {
+		return optimizeHuffman;
+	}
+	
+	/**
+	 * Sets the maximum size of the saved files. The quality is lowered as much
+	 * as needed, but not below the minimum quality, to make the files fit.
+	 * 
+	 * @param bytes the maximum file size in bytes, or 0 for no maximum
+	 * @throws IllegalArgumentException if the <code>bytes</code> parameter is negative
+	 * @see #setMinQuality(float)
+	 */
+	public void setMaxFileSize(long bytes) throws IllegalArgumentException {
+		if (bytes < 0)
+			throw new IllegalArgumentException("the value of bytes parameter must not be negative");
+		
+		this.maxFileSize = bytes;
+	}
+	
+	/**
+	 * Gets the maximum size of the saved files.
+	 * @return the maximum file size in bytes, or 0 for no maximum
+	 */
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+	
+	/**
+	 * Sets the lowest quality tried when encoding to a maximum file size. If
+	 * the minimum quality is higher than the quality, the quality is used.
+	 * 
+	 * @param quality the minimum quality, from 0 to 1
+	 * @throws IllegalArgumentException if the <code>quality</code> is not between 0 and 1
+	 */
+	public void setMinQuality(float quality) throws IllegalArgumentException {
+		if (!(quality >= 0 && quality <= 1))
+			throw new IllegalArgumentException("the value of quality parameter must be between 0 and 1");
+		
+		this.minQuality = quality;
+	}
+	
+	/**
+	 * Gets the lowest quality tried when encoding to a maximum file size.
+	 * @return the minimum quality, from 0 to 1
+	 */
+	public float getMinQuality() {
+		return minQuality;
+	}
+	
 	/**
 	 * Saves the given image.
 	 * 
@@ -39,27 +250,474 @@ public class JPEGImageSaver extends ImageSaver {
 	 */
 	@Override
 	public File save(BufferedImage image, File originalFile) throws IOException {
-		File dstFile          = determineDestinationFile(originalFile);
-		ImageWriter writer    = ImageIO.getImageWritersByFormatName("jpeg").next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setSourceBands(new int[] { 0, 1, 2 });
-        
-        ColorModel cm = new DirectColorModel(24,
-        		0x00ff0000, // red
-        		0x0000ff00, // green
-        		0x000000ff, // blue
-        		0x0);       // alpha
-        
-        param.setDestinationType(new ImageTypeSpecifier(
-        		cm, cm.createCompatibleSampleModel(1, 1)));
-        
-        ImageOutputStream outStream = ImageIO.createImageOutputStream(dstFile);
-        writer.setOutput(outStream);
-        writer.write(null, new IIOImage(image, null, null), param);
-        writer.dispose();
-        outStream.close();
-        
-        return dstFile;
+		boolean gray         = isGray(image);
+		IIOMetadata metadata = getMetadata(gray);
+		File dstFile         = determineDestinationFile(originalFile);
+		
+		BufferedImage interleaved = toInterleaved(image);
+		try {
+			if (maxFileSize > 0) {
+				File partFile = ImageCodecs.partFile(dstFile);
+				
+				try {
+					OutputStream out = new FileOutputStream(partFile);
+					try {
+						writeWithinSize(interleaved, metadata, out);
+					} finally {
+						out.close();
+					}
+					
+					ImageCodecs.commitOutput(partFile, dstFile);
+				} finally {
+					partFile.delete();
+				}
+			} else {
+				writeImage(interleaved, "jpeg", metadata, gray ? grayParam : param, dstFile);
+			}
+		} finally {
+			releaseInterleaved(interleaved, image);
+		}
+		
+		return dstFile;
+	}
+	
+	/**
+	 * Encodes the given image as a JPEG image to the given stream. The image is
+	 * encoded in memory and then copied to the stream.
+	 * 
+	 * @param image the image to encode
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void encode(BufferedImage image, OutputStream out) throws IOException {
+		boolean gray         = isGray(image);
+		IIOMetadata metadata      = getMetadata(gray);
+		BufferedImage interleaved = toInterleaved(image);
+		
+		try {
+			if (maxFileSize > 0) {
+				writeWithinSize(interleaved, metadata, out);
+				return;
+			}
+			
+			ByteArrayImageOutputStream buffer = ImageCodecs.takeBuffer();
+			try {
+				writeImage(interleaved, "jpeg", metadata, gray ? grayParam : param, buffer);
+				buffer.writeTo(out);
+			} finally {
+				ImageCodecs.giveBack(buffer);
+			}
+		} finally {
+			releaseInterleaved(interleaved, image);
+		}
+	}
+	
+	/**
+	 * Chooses the pool on which the encodings of an image at different qualities
+	 * are run in parallel when saving to a maximum file size. By default the
+	 * pool of the calling worker thread is used if no other tasks, such as the
+	 * files of a <code>BatchResizer</code>, are waiting for the workers.
+	 * 
+	 * @return the pool, or <code>null</code> to encode in the calling thread
+	 */
+	protected ForkJoinPool getProbePool() {
+		ForkJoinPool pool = ForkJoinTask.getPool();
+		
+		if (pool == null || pool.getParallelism() < 2)
+			return null;
+		
+		return pool.hasQueuedSubmissions() ? null : pool;
+	}
+	
+	/**
+	 * Writes the given image at the highest quality whose encoding fits in the
+	 * maximum file size. The qualities are binary searched; on a pool, the two
+	 * possible next qualities of the search are encoded at the same time as
+	 * the current one, so every round of three parallel encodings takes the
+	 * search two steps further and the result is the same as without a pool.
+	 * 
+	 * @param image the image to write
+	 * @param metadata the metadata to write the image with
+	 * @param out the stream to write to
+	 * @throws IOException if encoding the image or writing the stream fails
+	 */
+	private void writeWithinSize(BufferedImage image, IIOMetadata metadata, OutputStream out) throws IOException {
+		int high = Math.round(quality * 100);
+		int low  = Math.min(Math.round(minQuality * 100), high);
+		
+		ForkJoinPool pool = getProbePool();
+		Probe best        = null;
+		Probe next        = null;
+		List<Probe> round = new ArrayList<Probe>(3);
+		
+		try {
+			// Most images fit at the full quality, which needs a single encoding
+			Probe probe = new Probe(image, metadata, high);
+			probe.encode();
+			
+			if (probe.fits() || high == low) {
+				best = probe;
+				low  = high + 1;
+			} else {
+				ImageCodecs.giveBack(probe.output);
+				high--;
+			}
+			
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				Probe lower = null, higher = null;
+				
+				if (next != null) {
+					probe = next;
+					next  = null;
+				} else {
+					probe = new Probe(image, metadata, middle);
+					round.add(probe);
+					
+					if (pool != null) {
+						if (low < middle)
+							round.add(lower = new Probe(image, metadata, (low + middle - 1) >>> 1));
+						if (middle < high)
+							round.add(higher = new Probe(image, metadata, (middle + 1 + high) >>> 1));
+					}
+					
+					encodeAll(round, pool);
+					round.clear();
+				}
+				
+				if (probe.fits()) {
+					ImageCodecs.giveBack((best != null) ? best.output : null);
+					ImageCodecs.giveBack((lower != null) ? lower.output : null);
+					
+					best = probe;
+					next = higher;
+					low  = middle + 1;
+				} else {
+					// If nothing fits, the encoding at the minimum quality is written
+					if (best == null && middle == low)
+						best = probe;
+					else
+						ImageCodecs.giveBack(probe.output);
+					
+					ImageCodecs.giveBack((higher != null) ? higher.output : null);
+					
+					next = lower;
+					high = middle - 1;
+				}
+			}
+			
+			best.output.writeTo(out);
+		} finally {
+			for (Probe probe : round)
+				ImageCodecs.giveBack(probe.output);
+			
+			if (next != null)
+				ImageCodecs.giveBack(next.output);
+			if (best != null)
+				ImageCodecs.giveBack(best.output);
+		}
+	}
+	
+	/**
+	 * Encodes the given probes, in parallel if a pool is given.
+	 * 
+	 * @param probes the probes to encode
+	 * @param pool the pool of the calling thread, or <code>null</code> to encode in the calling thread
+	 * @throws IOException if encoding any of the probes fails
+	 */
+	private void encodeAll(List<Probe> probes, ForkJoinPool pool) throws IOException {
+		if (pool == null || probes.size() == 1) {
+			for (Probe probe : probes)
+				probe.encode();
+			
+			return;
+		}
+		
+		ForkJoinTask.invokeAll(probes);
+		
+		for (Probe probe : probes) {
+			if (probe.error != null)
+				throw probe.error;
+		}
+	}
+	
+	/**
+	 * Gets the metadata every color or gray image is written with, creating
+	 * the parameters and the metadata for the current settings if they have
+	 * been changed.
+	 * 
+	 * @param gray <code>true</code> for the metadata of gray images
+	 * @return the metadata
+	 * @throws IOException if there is no JPEG writer or the metadata can not be set
+	 */
+	private IIOMetadata getMetadata(boolean gray) throws IOException {
+		if (gray) {
+			IIOMetadata metadata = this.grayMetadata;
+			
+			if (grayParam == null || metadata == null) {
+				ImageWriteParam param = createParam(quality, true);
+				metadata              = createMetadata(param, true);
+				
+				this.grayMetadata = metadata;
+				this.grayParam    = param;
+			}
+			
+			return metadata;
+		}
+		
+		IIOMetadata metadata = this.metadata;
+		
+		if (param == null || metadata == null) {
+			ImageWriteParam param = createParam(quality, false);
+			metadata              = createMetadata(param, false);
+			
+			this.metadata = metadata;
+			this.param    = param;
+		}
+		
+		return metadata;
+	}
+	
+	/**
+	 * Drops the parameters and metadata built for the previous settings.
+	 */
+	private void invalidate() {
+		param        = null;
+		metadata     = null;
+		grayParam    = null;
+		grayMetadata = null;
+	}
+	
+	/**
+	 * Creates the parameters for writing the images with the current settings
+	 * at the given quality.
+	 * 
+	 * @param quality the quality, from 0 to 1
+	 * @param gray <code>true</code> for the parameters of gray images
+	 * @return the parameters
+	 */
+	private ImageWriteParam createParam(float quality, boolean gray) {
+		JPEGImageWriteParam param = new JPEGImageWriteParam(null);
+		param.setSourceBands(gray ? GRAY_BANDS : RGB_BANDS);
+		param.setDestinationType(gray ? GRAY_TYPE : RGB_TYPE);
+		
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(quality);
+		param.setOptimizeHuffmanTables(optimizeHuffman);
+		param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+		
+		return param;
+	}
+	
+	/**
+	 * Creates the metadata for writing the images with the current settings.
+	 * The chroma subsampling can only be set through the native metadata tree,
+	 * where it is given by the sampling factors of the components in the start
+	 * of frame marker. Gray images have a single component, so their default
+	 * metadata is used as it is.
+	 * 
+	 * @param param the parameters the images are written with
+	 * @param gray <code>true</code> for the metadata of gray images
+	 * @return the metadata
+	 * @throws IOException if there is no JPEG writer or the metadata can not be set
+	 */
+	private IIOMetadata createMetadata(ImageWriteParam param, boolean gray) throws IOException {
+		ImageWriter writer = ImageCodecs.takeWriter("jpeg");
+		IIOMetadata metadata;
+		
+		try {
+			metadata = writer.getDefaultImageMetadata(gray ? GRAY_TYPE : RGB_TYPE, param);
+		} finally {
+			ImageCodecs.giveBack("jpeg", writer, true);
+		}
+		
+		if (gray)
+			return metadata;
+		
+		Node tree      = metadata.getAsTree(METADATA_FORMAT);
+		NodeList sofs  = ((Element)tree).getElementsByTagName("sof");
+		NodeList specs = (sofs.getLength() > 0) ? sofs.item(0).getChildNodes() : null;
+		
+		if (specs == null || specs.getLength() != 3)
+			throw new IOException("The JPEG writer did not create the expected metadata");
+		
+		for (int i = 0; i < specs.getLength(); i++) {
+			Element spec = (Element)specs.item(i);
+			boolean luma = (i == 0);
+			
+			spec.setAttribute("HsamplingFactor", String.valueOf(luma ? subsampling.getHorizontalFactor() : 1));
+			spec.setAttribute("VsamplingFactor", String.valueOf(luma ? subsampling.getVerticalFactor() : 1));
+		}
+		
+		metadata.setFromTree(METADATA_FORMAT, tree);
+		return metadata;
+	}
+	
+	/**
+	 * Copies an image of packed ints to an image of interleaved bytes, leaving
+	 * out the alpha. The JPEG writer converts packed pixels through an
+	 * intermediate copy of the whole image on every write, which takes more
+	 * time and memory than this copy, but it encodes interleaved bytes as they
+	 * are. Images of other types are returned as they are. The copy is taken
+	 * from the {@link ImagePool} of the current thread, see
+	 * {@link #releaseInterleaved(BufferedImage, BufferedImage)}.
+	 * 
+	 * @param image the image to copy
+	 * @return the copy, or the <code>image</code> if it is not of packed ints
+	 */
+	private static BufferedImage toInterleaved(BufferedImage image) {
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB)
+			return image;
+		
+		int width         = image.getWidth();
+		int height        = image.getHeight();
+		BufferedImage bgr = ImagePool.current().acquire(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		
+		Raster src = image.getRaster();
+		byte[] dst = ((DataBufferByte)bgr.getRaster().getDataBuffer()).getData();
+		int[] row  = new int[width];
+		
+		for (int y = 0, i = 0; y < height; y++) {
+			src.getDataElements(0, y, width, 1, row);
+			
+			for (int x = 0; x < width; x++) {
+				int rgb  = row[x];
+				dst[i++] = (byte)rgb;
+				dst[i++] = (byte)(rgb >> 8);
+				dst[i++] = (byte)(rgb >> 16);
+			}
+		}
+		
+		return bgr;
+	}
+	
+	/**
+	 * Releases the copy made by {@link #toInterleaved(BufferedImage)} to the
+	 * {@link ImagePool} of the current thread, once it has been written.
+	 * 
+	 * @param interleaved the image returned by <code>toInterleaved</code>
+	 * @param image the image given to <code>toInterleaved</code>, which is not released
+	 */
+	private static void releaseInterleaved(BufferedImage interleaved, BufferedImage image) {
+		if (interleaved != image)
+			ImagePool.current().release(interleaved);
+	}
+	
+	/**
+	 * Tells whether the given image is written as a gray JPEG.
+	 * 
+	 * @param image the image
+	 * @return <code>true</code> if the image is of type <code>TYPE_BYTE_GRAY</code>
+	 */
+	private static boolean isGray(BufferedImage image) {
+		return image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+	}
+	
+	/**
+	 * Creates the type of the written color images: packed RGB without alpha.
+	 * 
+	 * @return the image type
+	 */
+	private static ImageTypeSpecifier createRGBType() {
+		ColorModel cm = new DirectColorModel(24,
+				0x00ff0000, // red
+				0x0000ff00, // green
+				0x000000ff, // blue
+				0x0);       // alpha
+		
+		return new ImageTypeSpecifier(cm, cm.createCompatibleSampleModel(1, 1));
+	}
+	
+	/**
+	 * An encoding of an image at one quality into memory.
+	 */
+	private final class Probe extends RecursiveAction {
+		final RenderedImage image;
+		final boolean gray;
+		final IIOMetadata metadata;
+		final int quality;
+		ByteArrayImageOutputStream output;
+		IOException error;
+		
+		/**
+		 * Creates a new probe.
+		 * 
+		 * @param image the image to encode
+		 * @param metadata the metadata to encode the image with
+		 * @param quality the quality in percents
+		 */
+		Probe(BufferedImage image, IIOMetadata metadata, int quality) {
+			this.image    = image;
+			this.gray     = isGray(image);
+			this.metadata = metadata;
+			this.quality  = quality;
+		}
+		
+		/**
+		 * Tells whether the encoding fits in the maximum file size.
+		 * @return <code>true</code> if the encoding fits
+		 */
+		boolean fits() {
+			return output.size() <= maxFileSize;
+		}
+		
+		/**
+		 * Encodes the image in the calling thread.
+		 * @throws IOException if encoding the image fails
+		 */
+		void encode() throws IOException {
+			compute();
+			
+			if (error != null)
+				throw error;
+		}
+		
+		@Override
+		protected void compute() {
+			ByteArrayImageOutputStream buffer = ImageCodecs.takeBuffer();
+			
+			try {
+				writeImage(image, "jpeg", metadata, createParam(quality / 100.0f, gray), buffer);
+				output = buffer;
+			} catch (IOException e) {
+				ImageCodecs.giveBack(buffer);
+				error = e;
+			}
+		}
+	}
+	
+	/**
+	 * Tells whether the given file can be copied instead of being saved. Any
+	 * JPEG file can, as long as it is within the maximum file size, if one has
+	 * been set. The quality and other options of this saver are not applied
+	 * to copied files.
+	 * 
+	 * @param formatName the informal name of the format of the file
+	 * @param file the file
+	 * @return <code>true</code> if the file is a JPEG file small enough to copy
+	 */
+	@Override
+	public boolean canCopy(String formatName, File file) {
+		if (!"jpeg".equalsIgnoreCase(formatName))
+			return false;
+		
+		return maxFileSize == 0 || file.length() <= maxFileSize;
+	}
+	
+	/**
+	 * Describes the encoder parameters of this saver.
+	 * @return the description of the parameters
+	 */
+	@Override
+	public String describe() {
+		return getClass().getName() + "[quality=" + quality
+			+ ",subsampling=" + subsampling
+			+ ",progressive=" + progressive
+			+ ",optimizeHuffman=" + optimizeHuffman
+			+ ",maxFileSize=" + maxFileSize
+			+ ",minQuality=" + minQuality + "]";
 	}
 	
 	/**
@@ -0,0 +1,83 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * A <code>MemoryBudget</code> limits the amount of memory used by images that
+ * are being processed at the same time. Before an image is decoded, its
+ * estimated size is reserved from the budget, and the reservation is returned
+ * once the image is no longer needed.
+ * 
+ * <p>Reservations are granted in the order they were requested, so a large
+ * image can not be starved by a steady stream of small ones. An image larger
+ * than the whole budget is admitted only when nothing else is in flight, so it
+ * is processed alone instead of running the virtual machine out of memory.</p>
+ */
+public class MemoryBudget {
+	private final long budget;
+	private long inUse;
+	private long nextTicket;
+	private long servingTicket;
+	
+	/**
+	 * Creates a new <code>MemoryBudget</code> of the given size.
+	 * 
+	 * @param budget the size of the budget in bytes
+	 * @throws IllegalArgumentException if the <code>budget</code> parameter is less than 1
+	 */
+	public MemoryBudget(long budget) throws IllegalArgumentException {
+		if (budget < 1)
+			throw new IllegalArgumentException("the value of budget parameter must not be less than 1");
+		
+		this.budget = budget;
+	}
+	
+	/**
+	 * Gets the size of the budget.
+	 * @return the size of the budget in bytes
+	 */
+	public long getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Gets the amount of memory currently reserved. This method is thread-safe.
+	 * @return the reserved amount in bytes
+	 */
+	public synchronized long getInUse() {
+		return inUse;
+	}
+	
+	/**
+	 * Reserves the given amount of memory, waiting until it fits in the budget
+	 * and all earlier reservations have been granted. This method is thread-safe.
+	 * 
+	 * @param bytes the amount of memory to reserve
+	 */
+	public synchronized void acquire(long bytes) {
+		long ticket = nextTicket++;
+		boolean interrupted = false;
+		
+		while (ticket != servingTicket || !(inUse == 0 || inUse + bytes <= budget)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		
+		inUse += bytes;
+		servingTicket++;
+		notifyAll();
+		
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Returns an earlier reservation to the budget. This method is thread-safe.
+	 * @param bytes the amount of memory reserved earlier
+	 */
+	public synchronized void release(long bytes) {
+		inUse -= bytes;
+		notifyAll();
+	}
+}
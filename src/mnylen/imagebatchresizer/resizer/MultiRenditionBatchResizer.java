@@ -0,0 +1,357 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+/**
+ * A <code>BatchResizer</code> producing several renditions of every image,
+ * such as a thumbnail, a small and a large image, from a single decode. This
+ * takes a fraction of the work of running a batch for every rendition, which
+ * would decode every file once per rendition.
+ * 
+ * <p>The renditions of an image are made from the largest down. A rendition is
+ * resized from the smallest rendition already made that is at least as large
+ * and that gives it the same dimensions as the source image would, and from
+ * the source image if there is none. Renditions with anything around the
+ * scaled image, like the box of a {@link BoxFittingImageResizer}, are not
+ * resized further. Every step of the cascade is then a small reduction of a
+ * small image. The file is decoded at the reduced resolution the largest
+ * rendition allows.</p>
+ * 
+ * <p>The progress listener is told once per file, with the file the first
+ * rendition was written to. Images too large to be decoded as a whole are
+ * streamed from the file once per rendition. Files are never passed through,
+ * see {@link #setPassThrough(PassThrough)}, served from the output cache,
+ * see {@link #setOutputCache(OutputCache)}, nor skipped as unchanged, see
+ * {@link #setManifest(BatchManifest)}.</p>
+ */
+public class MultiRenditionBatchResizer extends BatchResizer {
+	private final List<Rendition> renditions;
+	
+	/**
+	 * Creates a new <code>MultiRenditionBatchResizer</code> producing the given
+	 * renditions of every image.
+	 * 
+	 * @param renditions the renditions to produce
+	 * @throws IllegalArgumentException if the <code>renditions</code> parameter is
+	 *         <code>null</code>, empty or contains <code>null</code>
+	 */
+	public MultiRenditionBatchResizer(List<Rendition> renditions) throws IllegalArgumentException {
+		super(firstSaver(renditions), new Envelope(renditions));
+		
+		this.renditions = Collections.unmodifiableList(new ArrayList<Rendition>(renditions));
+	}
+	
+	/**
+	 * Checks the renditions given to the constructor and gets the saver of the
+	 * first one.
+	 * 
+	 * @param renditions the renditions
+	 * @return the saver of the first rendition
+	 * @throws IllegalArgumentException if the renditions are not valid
+	 */
+	private static ImageSaver firstSaver(List<Rendition> renditions) throws IllegalArgumentException {
+		if (renditions == null || renditions.isEmpty())
+			throw new IllegalArgumentException("the renditions parameter must not be null or empty");
+		
+		if (renditions.contains(null))
+			throw new IllegalArgumentException("the renditions parameter must not contain null");
+		
+		return renditions.get(0).getSaver();
+	}
+	
+	/**
+	 * Gets the renditions produced of every image.
+	 * @return an unmodifiable list of the renditions
+	 */
+	public List<Rendition> getRenditions() {
+		return renditions;
+	}
+	
+	/**
+	 * Resizes the image to every rendition and saves the renditions, cascading
+	 * from the largest rendition down. The source image and the renditions are
+	 * released to the {@link ImagePool} of the current thread once every
+	 * rendition has been saved.
+	 * 
+	 * @param file the file the image was loaded from
+	 * @param srcImage the decoded source image
+	 * @return the file the first rendition was written to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	protected File processDecoded(File file, BufferedImage srcImage) throws IOException {
+		final Dimension[] targets = new Dimension[renditions.size()];
+		Integer[] order           = new Integer[renditions.size()];
+		
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = renditions.get(i).getResizer().getTargetSize(srcImage.getWidth(), srcImage.getHeight());
+			order[i]   = i;
+		}
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long areaA = (long)targets[a].width * targets[a].height;
+				long areaB = (long)targets[b].width * targets[b].height;
+				
+				return (areaA > areaB) ? -1 : (areaA < areaB) ? 1 : 0;
+			}
+		});
+		
+		BufferedImage[] resized = new BufferedImage[targets.length];
+		File[] dstFiles         = new File[targets.length];
+		
+		try {
+			for (int i : order) {
+				ImageResizer resizer = renditions.get(i).getResizer();
+				BufferedImage from   = srcImage;
+				
+				// The renditions already made are in descending order of size,
+				// so the last one that fits is the smallest
+				for (int j : order) {
+					if (resized[j] == null)
+						break;
+					
+					if (canCascade(resized[j], targets[j], resizer, targets[i]))
+						from = resized[j];
+				}
+				
+				ForkJoinPool pool = getResizePool(from);
+				resized[i]        = resizer.resize(from, pool);
+				dstFiles[i]       = renditions.get(i).getSaver().save(resized[i], file);
+			}
+		} finally {
+			release(srcImage, resized);
+		}
+		
+		return dstFiles[0];
+	}
+	
+	/**
+	 * Tells whether a rendition can be resized from a larger rendition instead
+	 * of the source image.
+	 * 
+	 * @param larger the larger rendition
+	 * @param largerTarget the dimensions the larger rendition was scaled to
+	 * @param resizer the resizer of the rendition to make
+	 * @param target the dimensions of the rendition to make, from the source image
+	 * @return <code>true</code> if resizing the larger rendition gives the same dimensions
+	 */
+	private static boolean canCascade(BufferedImage larger, Dimension largerTarget, ImageResizer resizer,
+			Dimension target) {
+		
+		// A rendition with anything around the scaled image, like a box, is no
+		// longer the source image scaled
+		if (larger.getWidth() != largerTarget.width || larger.getHeight() != largerTarget.height)
+			return false;
+		
+		if (larger.getWidth() < target.width || larger.getHeight() < target.height)
+			return false;
+		
+		return target.equals(resizer.getTargetSize(larger.getWidth(), larger.getHeight()));
+	}
+	
+	/**
+	 * Releases the source image and the renditions made of it to the
+	 * {@link ImagePool} of the current thread, each image once.
+	 * 
+	 * @param srcImage the source image
+	 * @param resized the renditions; <code>null</code> for renditions not made
+	 */
+	private static void release(BufferedImage srcImage, BufferedImage[] resized) {
+		ImagePool images = ImagePool.current();
+		List<BufferedImage> released = new ArrayList<BufferedImage>();
+		
+		released.add(srcImage);
+		images.release(srcImage);
+		
+		for (BufferedImage image : resized) {
+			if (image == null || containsSame(released, image))
+				continue;
+			
+			released.add(image);
+			images.release(image);
+		}
+	}
+	
+	/**
+	 * Tells whether the given list contains the given image itself.
+	 * 
+	 * @param images the list
+	 * @param image the image
+	 * @return <code>true</code> if the image is in the list
+	 */
+	private static boolean containsSame(List<BufferedImage> images, BufferedImage image) {
+		for (BufferedImage other : images) {
+			if (other == image)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Resizes and saves every rendition of a file admitted for streaming,
+	 * reading the source image in strips once per rendition.
+	 * 
+	 * @param file the file to process
+	 * @param admission the admission returned by {@link #admit(File)}
+	 * @return the file the first rendition was written to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	protected File processStreamed(File file, Admission admission) throws IOException {
+		File first = null;
+		
+		for (Rendition rendition : renditions) {
+			StripImageRowSource source = new StripImageRowSource(file, admission.getSubsampling(),
+					admission.getStripHeight());
+			
+			try {
+				File dstFile = rendition.getSaver().save(rendition.getResizer().resize(source), file);
+				if (first == null)
+					first = dstFile;
+			} finally {
+				source.close();
+			}
+		}
+		
+		return first;
+	}
+	
+	/**
+	 * Never passes files through, as every rendition would have to meet the
+	 * target for the file to be left undecoded.
+	 * 
+	 * @param file the file about to be processed
+	 * @return <code>null</code>
+	 */
+	@Override
+	protected File passThrough(File file) {
+		return null;
+	}
+	
+	/**
+	 * Never serves files from the output cache, as every rendition would have
+	 * to be in the cache for the file to be left undecoded.
+	 * 
+	 * @param file the file about to be processed
+	 * @return <code>null</code>
+	 */
+	@Override
+	protected File fetchCached(File file) {
+		return null;
+	}
+	
+	/**
+	 * Does not store anything in the output cache; see {@link #fetchCached(File)}.
+	 * 
+	 * @param file the file processed
+	 * @param dstFile the file the first rendition was written to
+	 */
+	@Override
+	protected void storeCached(File file, File dstFile) {
+	}
+	
+	/**
+	 * Never skips files as unchanged, as the manifest only records one file
+	 * written from every source.
+	 * 
+	 * @param file the file about to be processed
+	 * @return <code>null</code>
+	 */
+	@Override
+	protected File findUnchanged(File file) {
+		return null;
+	}
+	
+	/**
+	 * Does not record anything in the manifest; see {@link #findUnchanged(File)}.
+	 * 
+	 * @param file the file processed
+	 * @param dstFile the file the first rendition was written to
+	 */
+	@Override
+	protected void recordSaved(File file, File dstFile) {
+	}
+	
+	/**
+	 * The resizer the batch is admitted and decoded with: it resizes every
+	 * image to the rendition that needs the most of its resolution, so the
+	 * file is decoded at the resolution the largest rendition needs. The
+	 * renditions themselves are resized by {@link #processDecoded(File, BufferedImage)}
+	 * and {@link #processStreamed(File, Admission)}.
+	 */
+	private static final class Envelope implements ImageResizer {
+		private final List<Rendition> renditions;
+		
+		Envelope(List<Rendition> renditions) {
+			this.renditions = new ArrayList<Rendition>(renditions);
+		}
+		
+		/**
+		 * Gets the resizer of the rendition that needs the most resolution of
+		 * an image of the given size, in either dimension.
+		 * 
+		 * @param width the width of the image
+		 * @param height the height of the image
+		 * @return the resizer of the largest rendition
+		 */
+		private ImageResizer largest(int width, int height) {
+			ImageResizer largest = null;
+			long largestScale    = 0;
+			
+			for (Rendition rendition : renditions) {
+				Dimension target = rendition.getResizer().getTargetSize(width, height);
+				
+				// The larger of target / size in either dimension, over width * height
+				long scale = Math.max((long)target.width * height, (long)target.height * width);
+				
+				if (largest == null || scale > largestScale) {
+					largest      = rendition.getResizer();
+					largestScale = scale;
+				}
+			}
+			
+			return largest;
+		}
+		
+		public Dimension getTargetSize(int width, int height) {
+			return largest(width, height).getTargetSize(width, height);
+		}
+		
+		public boolean isUnchanged(int width, int height) {
+			return largest(width, height).isUnchanged(width, height);
+		}
+		
+		public String describe() {
+			StringBuilder description = new StringBuilder(getClass().getName()).append('[');
+			
+			for (Rendition rendition : renditions)
+				description.append(rendition.getResizer().describe()).append(',');
+			
+			return description.append(']').toString();
+		}
+		
+		public BufferedImage resize(BufferedImage image) {
+			return largest(image.getWidth(), image.getHeight()).resize(image);
+		}
+		
+		public BufferedImage resize(BufferedImage image, ForkJoinPool pool) {
+			return largest(image.getWidth(), image.getHeight()).resize(image, pool);
+		}
+		
+		public ImageRowSource resize(ImageRowSource source) {
+			return largest(source.getWidth(), source.getHeight()).resize(source);
+		}
+	}
+}
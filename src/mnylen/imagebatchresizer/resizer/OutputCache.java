@@ -0,0 +1,199 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache of the files written by batches, so that running the same
+ * batch again, or batches sharing sources, copies the earlier results instead
+ * of resizing and encoding the images again.
+ * 
+ * <p>Every result is keyed by the SHA-1 hash of the content of the source file
+ * and the SHA-1 hash of the parameters of the resizer and the saver, as given
+ * by {@link ImageResizer#describe()} and {@link ImageSaver#describe()}. Renamed
+ * and copied sources therefore share their results, and changing any
+ * parameter that affects the written image gives new ones. A hit is served by
+ * copying the stored file to the destination, or by hard linking it when
+ * {@link #setLinkHits(boolean)} is set.</p>
+ * 
+ * <p>The total size of the stored files is kept within the given limit by
+ * deleting the least recently used ones. The cache directory is its own
+ * index: files are stored through temporary files renamed in place when
+ * complete, so a crash never leaves a partial result behind; see
+ * {@link CacheDirectory}. The cache is thread-safe and can be shared by any
+ * number of batches.</p>
+ */
+public class OutputCache {
+	private final CacheDirectory results;
+	private volatile boolean linkHits;
+	
+	private final AtomicLong hits   = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Creates a new <code>OutputCache</code> keeping the results in the given
+	 * directory. The results already in the directory are taken into use, and
+	 * temporary files left behind by a crash are deleted.
+	 * 
+	 * @param directory the directory to keep the results in
+	 * @param maxBytes the maximum total size of the results in bytes
+	 * @throws NotADirectoryException if the <code>directory</code> is not a directory
+	 * @throws IllegalArgumentException if the <code>maxBytes</code> parameter is less than 1
+	 */
+	public OutputCache(File directory, long maxBytes) throws NotADirectoryException, IllegalArgumentException {
+		this.results = new CacheDirectory(directory, maxBytes);
+	}
+	
+	/**
+	 * Sets whether hits are served by hard linking the stored file to the
+	 * destination instead of copying it. Linking takes no time or space at all,
+	 * but only works within one file system; elsewhere the file is copied. The
+	 * savers replace a linked destination file instead of writing to it in
+	 * place, so saving over it later does not change the stored file. Hits are
+	 * copied by default.
+	 * 
+	 * @param linkHits <code>true</code> to hard link hits; <code>false</code> to copy them
+	 */
+	public void setLinkHits(boolean linkHits) {
+		this.linkHits = linkHits;
+	}
+	
+	/**
+	 * Tells whether hits are served by hard linking the stored file.
+	 * @return <code>true</code> if hits are hard linked; <code>false</code> if they are copied
+	 */
+	public boolean isLinkHits() {
+		return linkHits;
+	}
+	
+	/**
+	 * Gets the directory the results are kept in.
+	 * @return the cache directory
+	 */
+	public File getDirectory() {
+		return results.getDirectory();
+	}
+	
+	/**
+	 * Gets the maximum total size of the results.
+	 * @return the maximum size in bytes
+	 */
+	public long getMaxBytes() {
+		return results.getMaxBytes();
+	}
+	
+	/**
+	 * Gets the total size of the results in the cache.
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		return results.getSize();
+	}
+	
+	/**
+	 * Gets the number of files served from the cache.
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of files that were not found in the cache.
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Writes the stored result of resizing the given file with the given
+	 * resizer and saver to the destination the saver would write it to, if
+	 * there is one.
+	 * 
+	 * @param file the source file
+	 * @param resizer the resizer the file would be resized with
+	 * @param saver the saver the file would be saved with
+	 * @return the destination file; <code>null</code> if there is no stored result
+	 * @throws IOException if reading the source or writing the destination fails
+	 */
+	public File fetch(File file, ImageResizer resizer, ImageSaver saver) throws IOException {
+		String key = getKey(file, resizer, saver);
+		
+		for (String name : results.find(key + ".")) {
+			String extension = name.substring(key.length() + 1);
+			File stored      = results.getFile(name);
+			
+			// Not a result, but some other file in the cache directory
+			if (extension.isEmpty() || extension.indexOf('.') >= 0)
+				continue;
+			
+			// Deleted by another cache on the directory
+			if (!stored.isFile()) {
+				results.forget(name);
+				continue;
+			}
+			
+			// Used first, so storing other results does not evict it meanwhile
+			results.touch(name);
+			
+			File dstFile = saver.determineDestinationFile(file, extension);
+			ImageSaver.transfer(stored, dstFile, linkHits);
+			
+			hits.incrementAndGet();
+			return dstFile;
+		}
+		
+		misses.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Stores the file written from the given source with the given resizer and
+	 * saver. The file is copied to the cache, so writing over it later does not
+	 * change the stored result.
+	 * 
+	 * @param file the source file
+	 * @param resizer the resizer the file was resized with
+	 * @param saver the saver the file was saved with
+	 * @param dstFile the file written
+	 * @throws IOException if reading the files or writing the result fails
+	 */
+	public void store(File file, ImageResizer resizer, ImageSaver saver, File dstFile) throws IOException {
+		String name      = dstFile.getName();
+		String extension = name.substring(name.lastIndexOf('.') + 1);
+		String key       = getKey(file, resizer, saver) + "." + extension;
+		
+		if (results.contains(key))
+			return;
+		
+		// Copied straight to the temporary file, which is already renamed in
+		// place when complete
+		File tempFile = results.createTempFile(key);
+		try {
+			Files.copy(dstFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+		
+		results.commit(tempFile, key);
+	}
+	
+	/**
+	 * Gets the key of the result of resizing the given file with the given
+	 * resizer and saver.
+	 * 
+	 * @param file the source file
+	 * @param resizer the resizer
+	 * @param saver the saver
+	 * @return the key
+	 * @throws IOException if reading the source fails
+	 */
+	private static String getKey(File file, ImageResizer resizer, ImageSaver saver) throws IOException {
+		return CacheDirectory.hash(file) + "-" + CacheDirectory.hash(resizer, saver);
+	}
+}
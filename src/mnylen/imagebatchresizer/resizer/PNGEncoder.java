@@ -0,0 +1,707 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes images as 8-bit RGB, RGBA, gray or palette PNG files. The filter of
+ * every row of RGB, RGBA and gray images is chosen separately, picking the filter with the
+ * smallest sum of absolute differences like libpng does, and the filtered rows
+ * are compressed in blocks of {@link #BLOCK_SIZE} bytes that can be compressed
+ * in parallel.
+ * 
+ * <p>The blocks are compressed the way pigz does it: every block is a raw
+ * deflate stream ending with a sync flush, so the blocks can be simply joined
+ * one after another, and the last 32 KB of the previous block are used as the
+ * dictionary of the next one, so hardly anything is lost in compression. The
+ * blocks are the same whether they are compressed in parallel or not, so the
+ * file does not depend on the number of threads. Every block is written as an
+ * <code>IDAT</code> chunk of its own.</p>
+ * 
+ * <p>The rows are read from an <code>ImageRowSource</code> in ascending order,
+ * and only the blocks being compressed are held in memory.</p>
+ */
+final class PNGEncoder {
+	/**
+	 * The number of filtered bytes compressed as one block.
+	 */
+	static final int BLOCK_SIZE = 128 * 1024;
+	
+	/**
+	 * The size of the deflate window, and of the dictionary given to a block.
+	 */
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	
+	/**
+	 * The number of blocks per thread of the pool compressed or waiting to be
+	 * written at the same time.
+	 */
+	private static final int BLOCKS_PER_THREAD = 2;
+	
+	private static final byte[] SIGNATURE = { (byte)137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+	private static final byte[] IHDR      = { 'I', 'H', 'D', 'R' };
+	private static final byte[] PLTE      = { 'P', 'L', 'T', 'E' };
+	private static final byte[] TRNS      = { 't', 'R', 'N', 'S' };
+	private static final byte[] IDAT      = { 'I', 'D', 'A', 'T' };
+	private static final byte[] IEND      = { 'I', 'E', 'N', 'D' };
+	
+	private static final int COLOR_TYPE_GRAY    = 0;
+	private static final int COLOR_TYPE_RGB     = 2;
+	private static final int COLOR_TYPE_PALETTE = 3;
+	private static final int COLOR_TYPE_RGBA    = 6;
+	
+	private static final int FILTER_NONE    = 0;
+	private static final int FILTER_SUB     = 1;
+	private static final int FILTER_UP      = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH   = 4;
+	
+	/**
+	 * The absolute values of the bytes as signed, for summing up the filtered
+	 * rows without converting every byte.
+	 */
+	private static final int[] ABS = new int[256];
+	
+	static {
+		for (int i = 0; i < ABS.length; i++)
+			ABS[i] = Math.abs((byte)i);
+	}
+	
+	private static final ThreadLocal<CachedDeflater> deflaters = new ThreadLocal<CachedDeflater>();
+	
+	private final int level;
+	private final int strategy;
+	
+	/**
+	 * Creates a new encoder.
+	 * 
+	 * @param level the compression level; 0 to 9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @param strategy the compression strategy; one of the strategies of the <code>Deflater</code>
+	 */
+	PNGEncoder(int level, int strategy) {
+		this.level    = level;
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Encodes the image read from the given row source to the given stream. The
+	 * stream is left open.
+	 * 
+	 * @param source the row source to read the image from
+	 * @param out the stream to write to
+	 * @param pool the pool to compress the blocks on, or <code>null</code> to
+	 *        compress them in the calling thread; must be the pool of the calling
+	 *        thread, if it is a worker thread
+	 * @throws IOException if reading the image or writing the stream fails
+	 */
+	void encode(final ImageRowSource source, OutputStream out, ForkJoinPool pool) throws IOException {
+		final int width = source.getWidth();
+		final int bpp   = source.hasAlpha() ? 4 : 3;
+		
+		Scanlines scanlines = new Scanlines(width * bpp) {
+			final int[] pixels = new int[width];
+			byte[] prev        = new byte[length];
+			byte[] cur         = new byte[length];
+			
+			void filter(int y, byte[] out, int offset) throws IOException {
+				source.readRow(y, pixels);
+				toBytes(pixels, cur, width, bpp);
+				filterRow(cur, prev, bpp, out, offset);
+				
+				byte[] swap = prev;
+				prev        = cur;
+				cur         = swap;
+			}
+		};
+		
+		int colorType = source.hasAlpha() ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB;
+		encode(width, source.getHeight(), colorType, null, null, scanlines, out, pool);
+	}
+	
+	/**
+	 * Encodes the given image of 8-bit palette indexes or gray levels to the
+	 * given stream. The palette of an indexed image is written as it is, with
+	 * the alpha of its entries up to the last translucent one, and its rows are
+	 * not filtered, which is what compresses indexes best. The filters of the
+	 * rows of a gray image are chosen like for RGB images. The stream is left
+	 * open.
+	 * 
+	 * @param image the image to encode; must be of type <code>TYPE_BYTE_GRAY</code>,
+	 *        or have an <code>IndexColorModel</code> and one 8-bit sample per pixel,
+	 *        like <code>TYPE_BYTE_INDEXED</code> images
+	 * @param out the stream to write to
+	 * @param pool the pool to compress the blocks on, or <code>null</code> to
+	 *        compress them in the calling thread; must be the pool of the calling
+	 *        thread, if it is a worker thread
+	 * @throws IOException if writing the stream fails
+	 * @throws IllegalArgumentException if the image does not have 8-bit palette indexes
+	 *         or gray levels
+	 */
+	void encode(BufferedImage image, OutputStream out, ForkJoinPool pool)
+			throws IOException, IllegalArgumentException {
+		
+		if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+			encodeGray(image, out, pool);
+			return;
+		}
+		
+		if (!(image.getColorModel() instanceof IndexColorModel)
+				|| image.getRaster().getTransferType() != DataBuffer.TYPE_BYTE
+				|| image.getRaster().getNumBands() != 1 || image.getColorModel().getPixelSize() != 8)
+			throw new IllegalArgumentException("the image parameter must have 8-bit palette indexes or gray levels");
+		
+		IndexColorModel icm = (IndexColorModel)image.getColorModel();
+		int size            = icm.getMapSize();
+		byte[] palette      = new byte[3 * size];
+		byte[] alphas       = new byte[size];
+		int translucent     = 0;
+		
+		for (int i = 0; i < size; i++) {
+			int argb           = icm.getRGB(i);
+			palette[3 * i]     = (byte)(argb >> 16);
+			palette[3 * i + 1] = (byte)(argb >> 8);
+			palette[3 * i + 2] = (byte)argb;
+			alphas[i]          = (byte)(argb >>> 24);
+			
+			if (argb >>> 24 != 255)
+				translucent = i + 1;
+		}
+		
+		final Raster raster = image.getRaster();
+		final int width     = image.getWidth();
+		
+		Scanlines scanlines = new Scanlines(width) {
+			final byte[] row = new byte[width];
+			
+			void filter(int y, byte[] out, int offset) {
+				out[offset] = FILTER_NONE;
+				raster.getDataElements(0, y, width, 1, row);
+				System.arraycopy(row, 0, out, offset + 1, width);
+			}
+		};
+		
+		encode(width, image.getHeight(), COLOR_TYPE_PALETTE, palette,
+				Arrays.copyOf(alphas, translucent), scanlines, out, pool);
+	}
+	
+	/**
+	 * Encodes the given image of type <code>TYPE_BYTE_GRAY</code> to the given
+	 * stream.
+	 * 
+	 * @param image the image to encode
+	 * @param out the stream to write to
+	 * @param pool the pool to compress the blocks on, or <code>null</code>
+	 * @throws IOException if writing the stream fails
+	 */
+	private void encodeGray(BufferedImage image, OutputStream out, ForkJoinPool pool) throws IOException {
+		final Raster raster = image.getRaster();
+		final int width     = image.getWidth();
+		
+		Scanlines scanlines = new Scanlines(width) {
+			byte[] prev = new byte[length];
+			byte[] cur  = new byte[length];
+			
+			void filter(int y, byte[] out, int offset) {
+				raster.getDataElements(0, y, width, 1, cur);
+				filterRow(cur, prev, 1, out, offset);
+				
+				byte[] swap = prev;
+				prev        = cur;
+				cur         = swap;
+			}
+		};
+		
+		encode(width, image.getHeight(), COLOR_TYPE_GRAY, null, null, scanlines, out, pool);
+	}
+	
+	/**
+	 * Encodes an image to the given stream.
+	 * 
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param colorType the PNG color type
+	 * @param palette the palette, or <code>null</code> if the image has none
+	 * @param alphas the alphas of the palette entries up to the last translucent
+	 *        one, or <code>null</code> if the image has no palette
+	 * @param scanlines the filtered rows of the image
+	 * @param out the stream to write to
+	 * @param pool the pool to compress the blocks on, or <code>null</code>
+	 * @throws IOException if reading the image or writing the stream fails
+	 */
+	private void encode(int width, int height, int colorType, byte[] palette, byte[] alphas,
+			Scanlines scanlines, OutputStream out, ForkJoinPool pool) throws IOException {
+		
+		int stride     = scanlines.length + 1;
+		int blockRows  = Math.max(1, BLOCK_SIZE / stride);
+		int maxPending = (pool == null) ? 1 : pool.getParallelism() * BLOCKS_PER_THREAD;
+		
+		DataOutputStream data = new DataOutputStream(out);
+		CRC32 crc             = new CRC32();
+		Adler32 adler         = new Adler32();
+		
+		data.write(SIGNATURE);
+		
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;
+		header[9] = (byte)colorType;
+		writeChunk(data, IHDR, header, header.length, crc);
+		
+		if (palette != null) {
+			writeChunk(data, PLTE, palette, palette.length, crc);
+			
+			if (alphas.length > 0)
+				writeChunk(data, TRNS, alphas, alphas.length, crc);
+		}
+		
+		ArrayDeque<Block> pending = new ArrayDeque<Block>();
+		ArrayDeque<Block> free    = new ArrayDeque<Block>();
+		
+		Block block = new Block(blockRows * stride);
+		writeZlibHeader(block);
+		
+		try {
+			for (int y = 0; y < height; y++) {
+				scanlines.filter(y, block.input, block.inputLength);
+				adler.update(block.input, block.inputLength, stride);
+				block.inputLength += stride;
+				
+				if (block.inputLength + stride <= block.input.length && y < height - 1)
+					continue;
+				
+				block.last = (y == height - 1);
+				pending.add(block);
+				
+				if (pool == null)
+					block.invoke();
+				else
+					block.fork();
+				
+				Block next = free.isEmpty() ? new Block(blockRows * stride) : free.poll();
+				next.reset(block);
+				
+				while (pending.size() > maxPending || (!pending.isEmpty() && pending.peek().isDone()))
+					free.add(writeBlock(pending.poll(), data, adler, crc));
+				
+				block = next;
+			}
+			
+			while (!pending.isEmpty())
+				writeBlock(pending.poll(), data, adler, crc);
+		} finally {
+			// Let the blocks still being compressed finish before the caller
+			// closes the stream
+			for (Block unfinished : pending)
+				unfinished.quietlyJoin();
+		}
+		
+		writeChunk(data, IEND, header, 0, crc);
+		data.flush();
+	}
+	
+	/**
+	 * Waits for the given block to be compressed and writes it as an
+	 * <code>IDAT</code> chunk. The checksum of the zlib stream is appended to
+	 * the last block.
+	 * 
+	 * @param block the block to write
+	 * @param out the stream to write to
+	 * @param adler the checksum of all filtered bytes
+	 * @param crc the checksum used for the chunk
+	 * @return the block
+	 * @throws IOException if writing the stream fails
+	 */
+	private static Block writeBlock(Block block, DataOutputStream out, Adler32 adler, CRC32 crc) throws IOException {
+		block.join();
+		
+		if (block.last) {
+			block.ensureCapacity(4);
+			putInt(block.output, block.outputLength, (int)adler.getValue());
+			block.outputLength += 4;
+		}
+		
+		writeChunk(out, IDAT, block.output, block.outputLength, crc);
+		return block;
+	}
+	
+	/**
+	 * Writes the header of the zlib stream at the start of the output of the
+	 * first block.
+	 * 
+	 * @param block the first block
+	 */
+	private void writeZlibHeader(Block block) {
+		int compressionLevel;
+		if (level == Deflater.DEFAULT_COMPRESSION || level == 6)
+			compressionLevel = 2;
+		else if (level < 2)
+			compressionLevel = 0;
+		else if (level < 6)
+			compressionLevel = 1;
+		else
+			compressionLevel = 3;
+		
+		int cmf = 0x78; // deflate with a 32 KB window
+		int flg = compressionLevel << 6;
+		flg    += (31 - (cmf * 256 + flg) % 31) % 31;
+		
+		block.output[0]    = (byte)cmf;
+		block.output[1]    = (byte)flg;
+		block.outputLength = 2;
+	}
+	
+	/**
+	 * Writes a chunk.
+	 * 
+	 * @param out the stream to write to
+	 * @param type the type of the chunk
+	 * @param data the data of the chunk
+	 * @param length the length of the data
+	 * @param crc the checksum used for the chunk
+	 * @throws IOException if writing the stream fails
+	 */
+	private static void writeChunk(DataOutputStream out, byte[] type, byte[] data, int length, CRC32 crc)
+			throws IOException {
+		
+		crc.reset();
+		crc.update(type, 0, type.length);
+		crc.update(data, 0, length);
+		
+		out.writeInt(length);
+		out.write(type);
+		out.write(data, 0, length);
+		out.writeInt((int)crc.getValue());
+	}
+	
+	/**
+	 * Converts a row of packed ARGB pixels to RGB or RGBA bytes.
+	 * 
+	 * @param pixels the pixels
+	 * @param bytes the array to write the bytes to
+	 * @param width the number of pixels
+	 * @param bpp the number of bytes per pixel; 3 for RGB, 4 for RGBA
+	 */
+	private static void toBytes(int[] pixels, byte[] bytes, int width, int bpp) {
+		for (int x = 0, i = 0; x < width; x++, i += bpp) {
+			int argb     = pixels[x];
+			bytes[i]     = (byte)(argb >> 16);
+			bytes[i + 1] = (byte)(argb >> 8);
+			bytes[i + 2] = (byte)argb;
+			
+			if (bpp == 4)
+				bytes[i + 3] = (byte)(argb >>> 24);
+		}
+	}
+	
+	/**
+	 * Filters a row with the filter giving the smallest sum of absolute
+	 * differences, and writes the filter type and the filtered row to the given
+	 * array.
+	 * 
+	 * @param cur the row to filter
+	 * @param prev the previous row; all zeros for the first row
+	 * @param bpp the number of bytes per pixel
+	 * @param out the array to write to
+	 * @param offset the position to write to
+	 */
+	static void filterRow(byte[] cur, byte[] prev, int bpp, byte[] out, int offset) {
+		int length = cur.length;
+		int none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+		
+		// The first pixel has no left neighbour
+		for (int i = 0; i < bpp; i++) {
+			int x = cur[i] & 0xff;
+			int b = prev[i] & 0xff;
+			
+			none    += ABS[x];
+			sub     += ABS[x];
+			up      += ABS[(x - b) & 0xff];
+			average += ABS[(x - (b >> 1)) & 0xff];
+			paeth   += ABS[(x - b) & 0xff];
+		}
+		
+		for (int i = bpp; i < length; i++) {
+			int x = cur[i] & 0xff;
+			int a = cur[i - bpp] & 0xff;
+			int b = prev[i] & 0xff;
+			int c = prev[i - bpp] & 0xff;
+			
+			none    += ABS[x];
+			sub     += ABS[(x - a) & 0xff];
+			up      += ABS[(x - b) & 0xff];
+			average += ABS[(x - ((a + b) >> 1)) & 0xff];
+			paeth   += ABS[(x - paethPredictor(a, b, c)) & 0xff];
+		}
+		
+		int filter = FILTER_NONE;
+		int best   = none;
+		
+		if (sub < best) {
+			filter = FILTER_SUB;
+			best   = sub;
+		}
+		
+		if (up < best) {
+			filter = FILTER_UP;
+			best   = up;
+		}
+		
+		if (average < best) {
+			filter = FILTER_AVERAGE;
+			best   = average;
+		}
+		
+		if (paeth < best)
+			filter = FILTER_PAETH;
+		
+		writeFiltered(cur, prev, bpp, filter, out, offset);
+	}
+	
+	/**
+	 * Writes the filter type and the row filtered with the given filter.
+	 * 
+	 * @param cur the row to filter
+	 * @param prev the previous row; all zeros for the first row
+	 * @param bpp the number of bytes per pixel
+	 * @param filter the filter type
+	 * @param out the array to write to
+	 * @param offset the position to write to
+	 */
+	private static void writeFiltered(byte[] cur, byte[] prev, int bpp, int filter, byte[] out, int offset) {
+		int length    = cur.length;
+		out[offset++] = (byte)filter;
+		
+		switch (filter) {
+		case FILTER_NONE:
+			System.arraycopy(cur, 0, out, offset, length);
+			break;
+		
+		case FILTER_SUB:
+			System.arraycopy(cur, 0, out, offset, bpp);
+			for (int i = bpp; i < length; i++)
+				out[offset + i] = (byte)(cur[i] - cur[i - bpp]);
+			break;
+		
+		case FILTER_UP:
+			for (int i = 0; i < length; i++)
+				out[offset + i] = (byte)(cur[i] - prev[i]);
+			break;
+		
+		case FILTER_AVERAGE:
+			for (int i = 0; i < bpp; i++)
+				out[offset + i] = (byte)(cur[i] - ((prev[i] & 0xff) >> 1));
+			for (int i = bpp; i < length; i++)
+				out[offset + i] = (byte)(cur[i] - (((cur[i - bpp] & 0xff) + (prev[i] & 0xff)) >> 1));
+			break;
+		
+		default:
+			for (int i = 0; i < bpp; i++)
+				out[offset + i] = (byte)(cur[i] - prev[i]);
+			for (int i = bpp; i < length; i++)
+				out[offset + i] = (byte)(cur[i] - paethPredictor(cur[i - bpp] & 0xff, prev[i] & 0xff, prev[i - bpp] & 0xff));
+			break;
+		}
+	}
+	
+	/**
+	 * The Paeth predictor of the PNG specification.
+	 * 
+	 * @param a the left neighbour
+	 * @param b the upper neighbour
+	 * @param c the upper left neighbour
+	 * @return the neighbour closest to <code>a + b - c</code>
+	 */
+	private static int paethPredictor(int a, int b, int c) {
+		int pa = Math.abs(b - c);
+		int pb = Math.abs(a - c);
+		int pc = Math.abs(a + b - 2 * c);
+		
+		// Selected with masks instead of branches, which are mispredicted
+		// about half of the time in photographs
+		int bc  = c ^ ((b ^ c) & ~((pc - pb) >> 31));
+		int min = pb + ((pc - pb) & ((pc - pb) >> 31));
+		
+		return a ^ ((a ^ bc) & ((min - pa) >> 31));
+	}
+	
+	/**
+	 * Writes a big-endian integer to the given array.
+	 * 
+	 * @param array the array to write to
+	 * @param offset the position to write to
+	 * @param value the integer
+	 */
+	private static void putInt(byte[] array, int offset, int value) {
+		array[offset]     = (byte)(value >>> 24);
+		array[offset + 1] = (byte)(value >>> 16);
+		array[offset + 2] = (byte)(value >>> 8);
+		array[offset + 3] = (byte)value;
+	}
+	
+	/**
+	 * The rows of an image to encode, filtered one at a time in ascending order.
+	 */
+	private static abstract class Scanlines {
+		/**
+		 * The number of bytes of a row, without the filter type.
+		 */
+		final int length;
+		
+		Scanlines(int length) {
+			this.length = length;
+		}
+		
+		/**
+		 * Filters the next row and writes the filter type and the filtered row to
+		 * the given array.
+		 * 
+		 * @param y the row
+		 * @param out the array to write to
+		 * @param offset the position to write to
+		 * @throws IOException if reading the row fails
+		 */
+		abstract void filter(int y, byte[] out, int offset) throws IOException;
+	}
+	
+	/**
+	 * A block of filtered rows compressed into a raw deflate stream.
+	 */
+	private final class Block extends RecursiveAction {
+		final byte[] input;
+		final byte[] dictionary = new byte[DICTIONARY_SIZE];
+		int inputLength;
+		int dictionaryLength;
+		byte[] output;
+		int outputLength;
+		boolean last;
+		
+		/**
+		 * Creates a new block.
+		 * 
+		 * @param capacity the maximum number of filtered bytes in the block
+		 */
+		Block(int capacity) {
+			this.input  = new byte[capacity];
+			this.output = new byte[capacity / 2 + 1024];
+		}
+		
+		/**
+		 * Empties the block for the rows following the given block.
+		 * 
+		 * @param previous the previous block
+		 */
+		void reset(Block previous) {
+			reinitialize();
+			
+			dictionaryLength = Math.min(DICTIONARY_SIZE, previous.inputLength);
+			System.arraycopy(previous.input, previous.inputLength - dictionaryLength,
+					dictionary, 0, dictionaryLength);
+			
+			inputLength  = 0;
+			outputLength = 0;
+			last         = false;
+		}
+		
+		/**
+		 * Makes room for the given number of bytes after the output.
+		 * 
+		 * @param length the number of bytes
+		 */
+		void ensureCapacity(int length) {
+			if (outputLength + length > output.length)
+				output = Arrays.copyOf(output, Math.max(outputLength + length, 2 * output.length));
+		}
+		
+		@Override
+		protected void compute() {
+			Deflater deflater = CachedDeflater.get(level, strategy);
+			
+			try {
+				if (dictionaryLength > 0)
+					deflater.setDictionary(dictionary, 0, dictionaryLength);
+				
+				deflater.setInput(input, 0, inputLength);
+				
+				if (last) {
+					deflater.finish();
+					
+					while (!deflater.finished()) {
+						ensureCapacity(1024);
+						outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+					}
+				} else {
+					// The output is complete once the deflater leaves room in the buffer
+					while (true) {
+						ensureCapacity(1024);
+						
+						int room = output.length - outputLength;
+						int n    = deflater.deflate(output, outputLength, room, Deflater.SYNC_FLUSH);
+						
+						outputLength += n;
+						if (n < room)
+							break;
+					}
+				}
+			} finally {
+				deflater.reset();
+			}
+		}
+	}
+	
+	/**
+	 * A deflater kept by a thread for compressing the blocks of the images it
+	 * encodes, along with the settings it was created with.
+	 */
+	private static final class CachedDeflater {
+		final Deflater deflater;
+		final int level;
+		final int strategy;
+		
+		CachedDeflater(int level, int strategy) {
+			this.deflater = new Deflater(level, true);
+			this.level    = level;
+			this.strategy = strategy;
+			
+			// The strategy takes effect on the next call to deflate, which would
+			// also throw away a dictionary set before it, so it is applied now
+			deflater.setStrategy(strategy);
+			deflater.deflate(new byte[16]);
+			deflater.reset();
+		}
+		
+		/**
+		 * Gets the deflater of the current thread for the given settings. The
+		 * deflater of a thread is replaced when the settings change.
+		 * 
+		 * @param level the compression level
+		 * @param strategy the compression strategy
+		 * @return the deflater
+		 */
+		static Deflater get(int level, int strategy) {
+			CachedDeflater cached = deflaters.get();
+			
+			if (cached == null || cached.level != level || cached.strategy != strategy) {
+				if (cached != null)
+					cached.deflater.end();
+				
+				cached = new CachedDeflater(level, strategy);
+				deflaters.set(cached);
+			}
+			
+			return cached.deflater;
+		}
+	}
+}
@@ -1,14 +1,44 @@
 package mnylen.imagebatchresizer.resizer;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Deflater;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 /**
  * An specialized <code>ImageSaver</code> for saving PNG images.
+ * 
+ * <p>Images of packed RGB or ARGB ints and 8-bit gray images, which is what
+ * the resizers return, images of 8-bit palette indexes, and images read from
+ * row sources are encoded with an encoder of our own, which chooses the filter of every row separately
+ * and can compress the image in parallel blocks, see {@link #getCompressionPool()}.
+ * The compression level and strategy of the encoder can be set. Images of other
+ * types are written with the PNG writer of ImageIO, which keeps their color
+ * type.</p>
  */
 public class PNGImageSaver extends ImageSaver {
+	/**
+	 * The default compression level. The faster levels of zlib compress
+	 * filtered photographs about as well as level 6 in a fraction of the time.
+	 */
+	public static final int DEFAULT_COMPRESSION_LEVEL = 3;
+	
+	/**
+	 * The default compression strategy.
+	 */
+	public static final int DEFAULT_COMPRESSION_STRATEGY = Deflater.DEFAULT_STRATEGY;
+	
+	private volatile PNGEncoder encoder = new PNGEncoder(DEFAULT_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_STRATEGY);
+	private int compressionLevel        = DEFAULT_COMPRESSION_LEVEL;
+	private int compressionStrategy     = DEFAULT_COMPRESSION_STRATEGY;
+	
 	/**
 	 * Creates a new <code>JPEGImageSaver</code> with the specified destination
 	 * directory and the desired prefix for the saved files.
@@ -21,6 +51,53 @@ public class PNGImageSaver extends ImageSaver {
 		super(dstDirectory, prefix);
 	}
 	
+	/**
+	 * Sets the compression level. Higher levels give smaller files, but take
+	 * longer to compress.
+	 * 
+	 * @param level the compression level, from 0 (no compression) to 9 (best compression)
+	 * @throws IllegalArgumentException if the <code>level</code> is not between 0 and 9
+	 */
+	public void setCompressionLevel(int level) throws IllegalArgumentException {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("the value of level parameter must be between 0 and 9");
+		
+		this.compressionLevel = level;
+		this.encoder          = new PNGEncoder(compressionLevel, compressionStrategy);
+	}
+	
+	/**
+	 * Gets the compression level.
+	 * @return the compression level, from 0 to 9
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	
+	/**
+	 * Sets the compression strategy.
+	 * 
+	 * @param strategy <code>Deflater.DEFAULT_STRATEGY</code>, <code>Deflater.FILTERED</code>
+	 *        or <code>Deflater.HUFFMAN_ONLY</code>
+	 * @throws IllegalArgumentException if the <code>strategy</code> is not one of the above
+	 */
+	public void setCompressionStrategy(int strategy) throws IllegalArgumentException {
+		if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+				&& strategy != Deflater.HUFFMAN_ONLY)
+			throw new IllegalArgumentException("the value of strategy parameter must be a Deflater strategy");
+		
+		this.compressionStrategy = strategy;
+		this.encoder             = new PNGEncoder(compressionLevel, compressionStrategy);
+	}
+	
+	/**
+	 * Gets the compression strategy.
+	 * @return the compression strategy
+	 */
+	public int getCompressionStrategy() {
+		return compressionStrategy;
+	}
+	
 	/**
 	 * Saves the given image.
 	 * 
@@ -29,10 +106,140 @@ public class PNGImageSaver extends ImageSaver {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public File save(BufferedImage image, File originalFile) throws IOException {
+		int type = image.getType();
+		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+			return save(new BufferedImageRowSource(image), originalFile);
+		
 		File dstFile = determineDestinationFile(originalFile);
-		ImageIO.write(image, "png", dstFile);
 		
-        return dstFile;
+		if (isEncodedAsIs(image)) {
+			File partFile = ImageCodecs.partFile(dstFile);
+			
+			try {
+				OutputStream out = openOutput(partFile);
+				try {
+					encoder.encode(image, out, getCompressionPool());
+				} finally {
+					out.close();
+				}
+				
+				ImageCodecs.commitOutput(partFile, dstFile);
+			} finally {
+				partFile.delete();
+			}
+		} else {
+			writeImage(image, "png", null, dstFile);
+		}
+		
+		return dstFile;
+	}
+	
+	/**
+	 * Encodes the given image as a PNG image to the given stream.
+	 * 
+	 * @param image the image to encode
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void encode(BufferedImage image, OutputStream out) throws IOException {
+		int type = image.getType();
+		
+		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+			encoder.encode(new BufferedImageRowSource(image), out, getCompressionPool());
+		} else if (isEncodedAsIs(image)) {
+			encoder.encode(image, out, getCompressionPool());
+		} else {
+			ImageOutputStream outStream = new MemoryCacheImageOutputStream(out);
+			try {
+				writeImage(image, "png", null, null, outStream);
+			} finally {
+				outStream.close();
+			}
+		}
+	}
+	
+	/**
+	 * Tells whether the given image is of 8-bit palette indexes or gray levels,
+	 * which the encoder writes as they are.
+	 * 
+	 * @param image the image
+	 * @return <code>true</code> if the image is of 8-bit palette indexes or gray levels
+	 */
+	private static boolean isEncodedAsIs(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			return true;
+		
+		return image.getType() == BufferedImage.TYPE_BYTE_INDEXED && image.getColorModel().getPixelSize() == 8;
+	}
+	
+	/**
+	 * Saves the image read from the given row source. The rows are encoded as
+	 * they are read, so the image is never held in memory as a whole.
+	 * 
+	 * @param source the row source to read the image from
+	 * @param originalFile the original location of the image
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public File save(ImageRowSource source, File originalFile) throws IOException {
+		File dstFile  = determineDestinationFile(originalFile);
+		File partFile = ImageCodecs.partFile(dstFile);
+		
+		try {
+			OutputStream out = openOutput(partFile);
+			try {
+				encoder.encode(source, out, getCompressionPool());
+			} finally {
+				out.close();
+			}
+			
+			ImageCodecs.commitOutput(partFile, dstFile);
+		} finally {
+			partFile.delete();
+		}
+		
+		return dstFile;
+	}
+	
+	/**
+	 * Opens a buffered stream for writing the given file.
+	 * 
+	 * @param dstFile the file to write
+	 * @return the stream
+	 * @throws IOException if the file can not be opened
+	 */
+	private static OutputStream openOutput(File dstFile) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(dstFile), 64 * 1024);
+	}
+	
+	/**
+	 * Chooses the pool on which the blocks of an image are compressed in
+	 * parallel. By default the pool of the calling worker thread is used if no
+	 * other tasks, such as the files of a <code>BatchResizer</code>, are waiting
+	 * for the workers.
+	 * 
+	 * @return the pool, or <code>null</code> to compress in the calling thread
+	 */
+	protected ForkJoinPool getCompressionPool() {
+		ForkJoinPool pool = ForkJoinTask.getPool();
+		
+		if (pool == null || pool.getParallelism() < 2)
+			return null;
+		
+		return pool.hasQueuedSubmissions() ? null : pool;
+	}
+	
+	/**
+	 * Describes the encoder parameters of this saver. The compression pool is
+	 * left out, as it changes how the image is compressed but not the image.
+	 * 
+	 * @return the description of the parameters
+	 */
+	@Override
+	public String describe() {
+		return getClass().getName() + "[compressionLevel=" + compressionLevel
+			+ ",compressionStrategy=" + compressionStrategy + "]";
 	}
 	
 	/**
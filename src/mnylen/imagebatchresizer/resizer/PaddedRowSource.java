@@ -0,0 +1,122 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An <code>ImageRowSource</code> that places another row source on a canvas
+ * filled with a background color. Rows of the canvas above and below the
+ * content are plain background, so they are produced without reading the
+ * content at all. Parts of the content falling outside the canvas are clipped.
+ */
+public class PaddedRowSource implements ImageRowSource {
+	private final ImageRowSource content;
+	private final int width;
+	private final int height;
+	private final int x;
+	private final int y;
+	private final int background;
+	private final int[] contentRow;
+	
+	/**
+	 * Creates a new <code>PaddedRowSource</code>.
+	 * 
+	 * @param content the row source placed on the canvas
+	 * @param width the width of the canvas
+	 * @param height the height of the canvas
+	 * @param x the horizontal position of the content on the canvas
+	 * @param y the vertical position of the content on the canvas
+	 * @param background the background color as an opaque RGB value
+	 * @throws IllegalArgumentException if the <code>content</code> parameter is <code>null</code>
+	 *         or the <code>width</code> or <code>height</code> is less than 1
+	 */
+	public PaddedRowSource(ImageRowSource content, int width, int height, int x, int y, int background)
+	  throws IllegalArgumentException {
+		
+		if (content == null)
+			throw new IllegalArgumentException("the content parameter must not be null");
+		
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("the width and height must not be less than 1");
+		
+		this.content    = content;
+		this.width      = width;
+		this.height     = height;
+		this.x          = x;
+		this.y          = y;
+		this.background = 0xff000000 | background;
+		this.contentRow = new int[content.getWidth()];
+	}
+	
+	/**
+	 * Gets the width of the canvas.
+	 * @return the width of the canvas
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Gets the height of the canvas.
+	 * @return the height of the canvas
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Tells whether the canvas has an alpha channel. The canvas is always opaque.
+	 * @return <code>false</code>
+	 */
+	public boolean hasAlpha() {
+		return false;
+	}
+	
+	/**
+	 * Reads a row of the canvas. The rows must be read in ascending order.
+	 * 
+	 * @param row the row to read
+	 * @param dst the array to read the pixels to
+	 * @throws IOException if reading the content fails
+	 */
+	public void readRow(int row, int[] dst) throws IOException {
+		if (row < y || row >= y + content.getHeight()) {
+			Arrays.fill(dst, 0, width, background);
+			return;
+		}
+		
+		content.readRow(row - y, contentRow);
+		
+		int left  = Math.max(0, x);
+		int right = Math.min(width, x + contentRow.length);
+		
+		Arrays.fill(dst, 0, Math.min(width, left), background);
+		Arrays.fill(dst, Math.max(left, right), width, background);
+		
+		if (content.hasAlpha()) {
+			for (int i = left; i < right; i++)
+				dst[i] = blend(contentRow[i - x], background);
+		} else if (left < right) {
+			System.arraycopy(contentRow, left - x, dst, left, right - left);
+		}
+	}
+	
+	/**
+	 * Blends a translucent pixel over the opaque background.
+	 * 
+	 * @param argb the pixel
+	 * @param background the background color
+	 * @return the blended, opaque pixel
+	 */
+	static int blend(int argb, int background) {
+		int a = argb >>> 24;
+		if (a == 0xff)
+			return argb;
+		
+		int r = (((argb >> 16) & 0xff) * a + ((background >> 16) & 0xff) * (255 - a) + 127) / 255;
+		int g = (((argb >> 8) & 0xff) * a + ((background >> 8) & 0xff) * (255 - a) + 127) / 255;
+		int b = ((argb & 0xff) * a + (background & 0xff) * (255 - a) + 127) / 255;
+		
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+}
@@ -0,0 +1,25 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * Enumerate the ways a <code>BatchResizer</code> can pass through files that
+ * would not be changed by resizing and saving them.
+ * 
+ * @see BatchResizer#setPassThrough(PassThrough)
+ */
+public enum PassThrough {
+    /**
+     * Every file is decoded, resized and saved.
+     */
+    Never,
+    
+    /**
+     * Files that would not be changed are copied to the destination directory.
+     */
+    Copy,
+    
+    /**
+     * Files that would not be changed are hard linked to the destination
+     * directory, or copied where hard links can not be made.
+     */
+    Link,
+}
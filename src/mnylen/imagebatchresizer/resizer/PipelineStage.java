@@ -0,0 +1,21 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * Enumerates the stages of the pipeline used by <code>PipelinedBatchResizer</code>.
+ */
+public enum PipelineStage {
+    /**
+     * Loading and decoding the source image.
+     */
+    Decode,
+    
+    /**
+     * Resizing the decoded image.
+     */
+    Resize,
+    
+    /**
+     * Encoding and saving the resized image.
+     */
+    Encode,
+}
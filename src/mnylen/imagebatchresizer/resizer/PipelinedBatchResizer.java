@@ -0,0 +1,497 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A <code>BatchResizer</code> that processes the batch in a pipeline of three
+ * stages: decoding, resizing and encoding. Every stage has its own threads and
+ * the stages are joined by bounded queues, so reading files, scaling images and
+ * writing the results overlap with each other.
+ *
+ * <p>The number of decoded images alive at the same time is limited by
+ * {@link #setMaxImagesInFlight(int)}: a decoder thread waits before loading a
+ * new file until an earlier image has been saved. The decoder threads also
+ * honour the memory budget set by {@link #setMemoryBudget(long)}, so the limit
+ * on images in flight can be generous without risking large images running
+ * the virtual machine out of memory.</p>
+ *
+ * <p>The utilization of each stage can be queried with
+ * {@link #getStatistics(PipelineStage)}.</p>
+ */
+public class PipelinedBatchResizer extends BatchResizer {
+	private final EnumMap<PipelineStage, Integer> stageThreadCounts;
+	private final EnumMap<PipelineStage, StageStatistics> statistics;
+	private int maxImagesInFlight;
+
+	/**
+	 * The item passed between the stages.
+	 */
+	private static class WorkItem {
+		final File file;
+		final BufferedImage image;
+		final Admission admission;
+
+		WorkItem(File file, BufferedImage image, Admission admission) {
+			this.file      = file;
+			this.image     = image;
+			this.admission = admission;
+		}
+	}
+
+	/**
+	 * The item used for telling the threads of the next stage that there is no
+	 * more work.
+	 */
+	private static final WorkItem END_OF_INPUT = new WorkItem(null, null, null);
+
+	/**
+	 * Creates a new <code>PipelinedBatchResizer</code> instance using the
+	 * specified <code>ImageSaver</code> and <code>ImageResizer</code> instances.
+	 * By default the resize stage gets a thread per available processor and the
+	 * decode and encode stages get half of that each.
+	 *
+	 * @param saver the <code>ImageSaver</code> instance used for saving resized images
+	 * @param resizer the <code>ImageResizer</code> instance used for resizing images
+	 *
+	 * @throws IllegalArgumentException if the <code>saver</code> and/or <code>resizer</code>
+	 *         parameters are <code>null</code>
+	 */
+	public PipelinedBatchResizer(ImageSaver saver, ImageResizer resizer) throws IllegalArgumentException {
+		super(saver, resizer);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		stageThreadCounts = new EnumMap<PipelineStage, Integer>(PipelineStage.class);
+		stageThreadCounts.put(PipelineStage.Decode, Math.max(1, processors / 2));
+		stageThreadCounts.put(PipelineStage.Resize, processors);
+		stageThreadCounts.put(PipelineStage.Encode, Math.max(1, processors / 2));
+
+		statistics = new EnumMap<PipelineStage, StageStatistics>(PipelineStage.class);
+		for (PipelineStage stage : PipelineStage.values())
+			statistics.put(stage, new StageStatistics(stage, stageThreadCounts.get(stage)));
+
+		maxImagesInFlight = 2 * (processors + 2 * Math.max(1, processors / 2));
+	}
+
+	/**
+	 * Sets the number of threads used in the given stage. The value can not be
+	 * changed once the batch has been started. This method is thread-safe.
+	 *
+	 * @param stage the stage
+	 * @param threadCount the number of threads
+	 * @throws IllegalArgumentException if the <code>threadCount</code> parameter is less than 1
+	 */
+	public void setStageThreadCount(PipelineStage stage, int threadCount) throws IllegalArgumentException {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("the value of threadCount parameter must not be less than 1");
+
+		synchronized (syncRoot) {
+			if (getState() != BatchState.Idle)
+				return;
+
+			stageThreadCounts.put(stage, threadCount);
+			statistics.put(stage, new StageStatistics(stage, threadCount));
+		}
+	}
+
+	/**
+	 * Gets the number of threads used in the given stage. This method is thread-safe.
+	 *
+	 * @param stage the stage
+	 * @return the number of threads
+	 */
+	public int getStageThreadCount(PipelineStage stage) {
+		synchronized (syncRoot) {
+			return stageThreadCounts.get(stage);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of images alive at the same time, counting both
+	 * the decoded source images and the resized images waiting to be saved.
+	 * The value can not be changed once the batch has been started. This method
+	 * is thread-safe.
+	 *
+	 * @param maxImagesInFlight the maximum number of images in flight
+	 * @throws IllegalArgumentException if the <code>maxImagesInFlight</code> parameter is less than 1
+	 */
+	public void setMaxImagesInFlight(int maxImagesInFlight) throws IllegalArgumentException {
+		if (maxImagesInFlight < 1)
+			throw new IllegalArgumentException("the value of maxImagesInFlight parameter must not be less than 1");
+
+		synchronized (syncRoot) {
+			if (getState() == BatchState.Idle)
+				this.maxImagesInFlight = maxImagesInFlight;
+		}
+	}
+
+	/**
+	 * Gets the maximum number of images alive at the same time. This method is
+	 * thread-safe.
+	 *
+	 * @return the maximum number of images in flight
+	 */
+	public int getMaxImagesInFlight() {
+		synchronized (syncRoot) {
+			return maxImagesInFlight;
+		}
+	}
+
+	/**
+	 * Gets the statistics of the given stage. The statistics are updated while
+	 * the batch is being processed. This method is thread-safe.
+	 *
+	 * @param stage the stage
+	 * @return the statistics of the stage
+	 */
+	public StageStatistics getStatistics(PipelineStage stage) {
+		synchronized (syncRoot) {
+			return statistics.get(stage);
+		}
+	}
+
+	/**
+	 * Runs the batch progress through the pipeline. The state changes to
+	 * <code>BatchState.Finished</code> only after every stage has drained. A
+	 * paused or cancelled batch stops decoding new files, but the images
+	 * already decoded are resized and saved.
+	 */
+	@Override
+	protected void doRun() {
+		updateState(BatchState.Processing);
+
+		final int decoders, resizers, encoders, capacity;
+		synchronized (syncRoot) {
+			decoders = stageThreadCounts.get(PipelineStage.Decode);
+			resizers = stageThreadCounts.get(PipelineStage.Resize);
+			encoders = stageThreadCounts.get(PipelineStage.Encode);
+			capacity = maxImagesInFlight;
+		}
+
+		List<File> batch = getFiles();
+
+		final ConcurrentLinkedQueue<File> input = new ConcurrentLinkedQueue<File>(batch);
+		final BlockingQueue<WorkItem> decoded   = new ArrayBlockingQueue<WorkItem>(capacity + resizers);
+		final BlockingQueue<WorkItem> resized   = new ArrayBlockingQueue<WorkItem>(capacity + encoders);
+		final Semaphore permits                 = new Semaphore(capacity);
+
+		for (StageStatistics stats : statistics.values())
+			stats.start();
+
+		final AtomicInteger decodersLeft = new AtomicInteger(decoders);
+		final AtomicInteger resizersLeft = new AtomicInteger(resizers);
+
+		Thread[] threads = new Thread[decoders + resizers + encoders];
+		int next = 0;
+
+		for (int i = 0; i < decoders; i++) {
+			threads[next++] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						runDecoder(input, decoded, permits);
+					} finally {
+						endStage(PipelineStage.Decode, decodersLeft, decoded, resizers);
+					}
+				}
+			}, "PipelinedBatchResizer-decode-" + (i + 1));
+		}
+
+		for (int i = 0; i < resizers; i++) {
+			threads[next++] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						runResizer(decoded, resized, permits);
+					} finally {
+						endStage(PipelineStage.Resize, resizersLeft, resized, encoders);
+					}
+				}
+			}, "PipelinedBatchResizer-resize-" + (i + 1));
+		}
+
+		for (int i = 0; i < encoders; i++) {
+			threads[next++] = new Thread(new Runnable() {
+				public void run() {
+					runEncoder(resized, permits);
+				}
+			}, "PipelinedBatchResizer-encode-" + (i + 1));
+		}
+
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		joinAll(threads);
+		statistics.get(PipelineStage.Encode).stop();
+
+		saveManifest();
+		closeJournal();
+		updateState(BatchState.Finished);
+	}
+
+	/**
+	 * Called when a thread of the given stage finishes. When the last thread of
+	 * the stage finishes, the threads of the next stage are told to stop once
+	 * they have drained their input.
+	 *
+	 * @param stage the stage the thread belongs to
+	 * @param threadsLeft the number of threads still running in the stage
+	 * @param output the queue to the next stage
+	 * @param nextThreads the number of threads in the next stage
+	 */
+	private void endStage(PipelineStage stage, AtomicInteger threadsLeft, BlockingQueue<WorkItem> output, int nextThreads) {
+		if (threadsLeft.decrementAndGet() != 0)
+			return;
+
+		statistics.get(stage).stop();
+
+		for (int i = 0; i < nextThreads; i++)
+			putUninterruptibly(output, END_OF_INPUT);
+	}
+
+	/**
+	 * Runs a thread of the decode stage.
+	 *
+	 * @param input the files waiting to be decoded
+	 * @param output the queue to the resize stage
+	 * @param permits the permits limiting the number of images in flight
+	 */
+	private void runDecoder(ConcurrentLinkedQueue<File> input, BlockingQueue<WorkItem> output, Semaphore permits) {
+		StageStatistics stats = statistics.get(PipelineStage.Decode);
+		File file;
+
+		while (proceed() && (file = input.poll()) != null) {
+			permits.acquireUninterruptibly();
+			updateCurrentFile(file);
+
+			File skipped, finished = null;
+			Admission admission = null;
+
+			try {
+				skipped = findFinished(file);
+				if (skipped == null)
+					finished = finishUndecoded(file);
+				if (skipped == null && finished == null)
+					admission = admit(file);
+			} catch (Exception e) {
+				fail(file, e, permits, null);
+				continue;
+			} catch (Error e) {
+				fail(file, new ExecutionException(e), permits, null);
+				continue;
+			}
+
+			if (skipped != null) {
+				fileDone(file);
+				permits.release();
+				fireFileSkipped(file, skipped);
+				continue;
+			}
+
+			if (finished != null) {
+				fileDone(file);
+				permits.release();
+				fireFileSaved(file, finished);
+				continue;
+			}
+
+			long start = System.nanoTime();
+			BufferedImage image = null;
+			File saved = null;
+
+			try {
+				if (admission.isStreamed()) {
+					// Streamed files go through all stages at once, as the rows
+					// are decoded, resized and encoded in lockstep
+					File dstFile = processStreamed(file, admission);
+					stats.record(System.nanoTime() - start);
+					storeCached(file, dstFile);
+					recordSaved(file, dstFile);
+					saved = dstFile;
+				} else {
+					image = ImageUtil.loadImage(file, getImageResizer(), getPyramidCache());
+					if (image == null)
+						throw new ImageLoadException("The file does not contain image data");
+
+					stats.record(System.nanoTime() - start);
+				}
+			} catch (Exception e) {
+				stats.record(System.nanoTime() - start);
+				fail(file, e, permits, admission);
+			} catch (Error e) {
+				stats.record(System.nanoTime() - start);
+				fail(file, new ExecutionException(e), permits, admission);
+			}
+
+			// Outside the try, so a listener throwing does not fail the file
+			if (saved != null) {
+				fileDone(file);
+				release(admission);
+				permits.release();
+				fireFileSaved(file, saved);
+			}
+
+			if (image != null)
+				putUninterruptibly(output, new WorkItem(file, image, admission));
+		}
+	}
+
+	/**
+	 * Runs a thread of the resize stage.
+	 *
+	 * @param input the queue from the decode stage
+	 * @param output the queue to the encode stage
+	 * @param permits the permits limiting the number of images in flight
+	 */
+	private void runResizer(BlockingQueue<WorkItem> input, BlockingQueue<WorkItem> output, Semaphore permits) {
+		StageStatistics stats = statistics.get(PipelineStage.Resize);
+		WorkItem item;
+
+		while ((item = takeUninterruptibly(input)) != END_OF_INPUT) {
+			long start = System.nanoTime();
+			BufferedImage image = null;
+
+			try {
+				image = getImageResizer().resize(item.image);
+			} catch (Exception e) {
+				fail(item.file, e, permits, item.admission);
+			} catch (Error e) {
+				fail(item.file, new ExecutionException(e), permits, item.admission);
+			} finally {
+				stats.record(System.nanoTime() - start);
+			}
+
+			if (image != null)
+				putUninterruptibly(output, new WorkItem(item.file, image, item.admission));
+		}
+	}
+
+	/**
+	 * Runs a thread of the encode stage.
+	 *
+	 * @param input the queue from the resize stage
+	 * @param permits the permits limiting the number of images in flight
+	 */
+	private void runEncoder(BlockingQueue<WorkItem> input, Semaphore permits) {
+		StageStatistics stats = statistics.get(PipelineStage.Encode);
+		WorkItem item;
+
+		while ((item = takeUninterruptibly(input)) != END_OF_INPUT) {
+			long start = System.nanoTime();
+			File saved = null;
+
+			try {
+				File dstFile = getImageSaver().save(item.image, item.file);
+				stats.record(System.nanoTime() - start);
+				storeCached(item.file, dstFile);
+				recordSaved(item.file, dstFile);
+				saved = dstFile;
+			} catch (Exception e) {
+				stats.record(System.nanoTime() - start);
+				fail(item.file, e, permits, item.admission);
+			} catch (Error e) {
+				stats.record(System.nanoTime() - start);
+				fail(item.file, new ExecutionException(e), permits, item.admission);
+			}
+
+			// Outside the try, so a listener throwing does not fail the file
+			if (saved != null) {
+				fileDone(item.file);
+				release(item.admission);
+				permits.release();
+				fireFileSaved(item.file, saved);
+			}
+		}
+	}
+
+	/**
+	 * Drops the given file from the pipeline and reports the error.
+	 *
+	 * @param file the file that failed
+	 * @param ex the exception thrown
+	 * @param permits the permits limiting the number of images in flight
+	 * @param admission the admission of the file; <code>null</code> if it was not admitted
+	 */
+	private void fail(File file, Exception ex, Semaphore permits, Admission admission) {
+		fileDone(file);
+		release(admission);
+		permits.release();
+		fireErrorOccured(file, ex);
+	}
+
+	/**
+	 * Puts an item to the given queue, waiting for room if necessary.
+	 *
+	 * @param queue the queue
+	 * @param item the item
+	 */
+	private static void putUninterruptibly(BlockingQueue<WorkItem> queue, WorkItem item) {
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				queue.put(item);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Takes an item from the given queue, waiting for one if necessary.
+	 *
+	 * @param queue the queue
+	 * @return the item
+	 */
+	private static WorkItem takeUninterruptibly(BlockingQueue<WorkItem> queue) {
+		boolean interrupted = false;
+
+		try {
+			while (true) {
+				try {
+					return queue.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the given threads to finish.
+	 * @param threads the threads
+	 */
+	private static void joinAll(Thread[] threads) {
+		boolean interrupted = false;
+
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
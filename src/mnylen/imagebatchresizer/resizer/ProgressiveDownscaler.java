@@ -0,0 +1,226 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reduces images by halving them repeatedly with a 2x2 box filter. Every pixel
+ * of a halved image is the average of four source pixels, so the reduction
+ * takes every source pixel into account without the cost of a wide filter.
+ * Colors are averaged premultiplied by the alpha, so that transparent pixels do
+ * not bleed their color to the result.
+ * 
+ * <p>The first halving reads the source image through a
+ * {@link BufferedImageRowSource}; the later ones work on the int arrays of the
+ * <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code> images produced by
+ * the earlier ones. The halved images are taken from the {@link ImagePool} of
+ * the current thread, and the intermediate ones are released back to it.</p>
+ * 
+ * <p>Images of type <code>TYPE_BYTE_GRAY</code> are halved into gray images,
+ * averaging the gray levels straight from the byte arrays.</p>
+ */
+final class ProgressiveDownscaler {
+	/**
+	 * Prevents instantiation.
+	 */
+	private ProgressiveDownscaler() {
+	}
+	
+	/**
+	 * Halves the given image until it is less than twice the given dimensions
+	 * in either direction. The image is returned as it is if it already is.
+	 * 
+	 * @param image the image to reduce
+	 * @param width the width the image will finally be scaled to
+	 * @param height the height the image will finally be scaled to
+	 * @param pool the pool to run the halving on in bands, or <code>null</code> to
+	 *        run it in the calling thread
+	 * @return the reduced image
+	 */
+	static BufferedImage reduce(BufferedImage image, int width, int height, ForkJoinPool pool) {
+		BufferedImage reduced = image;
+		
+		while (reduced.getWidth() >= 2 * width && reduced.getHeight() >= 2 * height) {
+			BufferedImage halved = halve(reduced, pool);
+			
+			// The intermediate images are not seen by anyone else
+			if (reduced != image)
+				ImagePool.current().release(reduced);
+			
+			reduced = halved;
+		}
+		
+		return reduced;
+	}
+	
+	/**
+	 * Halves the given image. If a dimension of the image is odd, the last
+	 * column or row of the image is left out.
+	 * 
+	 * @param image the image to halve
+	 * @param pool the pool to run the halving on in bands, or <code>null</code> to
+	 *        run it in the calling thread
+	 * @return the halved image
+	 */
+	static BufferedImage halve(BufferedImage image, ForkJoinPool pool) {
+		if (image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			return halveGray(image, pool);
+		
+		BufferedImageRowSource source = new BufferedImageRowSource(image);
+		int width  = image.getWidth() / 2;
+		int height = image.getHeight() / 2;
+		int type   = source.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		
+		BufferedImage result = ImagePool.current().acquire(width, height, type);
+		int[] pixels         = ((DataBufferInt)result.getRaster().getDataBuffer()).getData();
+		
+		RowBandTask.run(new Band(source, pixels, width, 0, height, RowBandTask.getBandHeight(height, pool)), pool);
+		return result;
+	}
+	
+	/**
+	 * Halves the given gray image. See {@link #halve(BufferedImage, ForkJoinPool)}.
+	 * 
+	 * @param image the image to halve; of type <code>TYPE_BYTE_GRAY</code>
+	 * @param pool the pool to run the halving on in bands, or <code>null</code> to
+	 *        run it in the calling thread
+	 * @return the halved image
+	 */
+	private static BufferedImage halveGray(BufferedImage image, ForkJoinPool pool) {
+		int width  = image.getWidth() / 2;
+		int height = image.getHeight() / 2;
+		
+		BufferedImage result = ImagePool.current().acquire(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels        = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+		
+		RowBandTask.run(new GrayBand(image.getRaster(), pixels, width, 0, height,
+				RowBandTask.getBandHeight(height, pool)), pool);
+		return result;
+	}
+	
+	/**
+	 * Halves a band of rows.
+	 */
+	private static final class Band extends RowBandTask {
+		private final BufferedImageRowSource source;
+		private final int[] pixels;
+		private final int width;
+		
+		Band(BufferedImageRowSource source, int[] pixels, int width, int first, int last, int bandHeight) {
+			super(first, last, bandHeight);
+			
+			this.source = source;
+			this.pixels = pixels;
+			this.width  = width;
+		}
+		
+		RowBandTask createSubtask(int first, int last, int bandHeight) {
+			return new Band(source, pixels, width, first, last, bandHeight);
+		}
+		
+		void computeBand(int first, int last) {
+			int[] upper   = new int[source.getWidth()];
+			int[] lower   = new int[source.getWidth()];
+			boolean alpha = source.hasAlpha();
+			
+			for (int y = first; y < last; y++) {
+				source.readRow(2 * y, upper);
+				source.readRow(2 * y + 1, lower);
+				
+				int o = y * width;
+				if (alpha) {
+					for (int x = 0; x < width; x++)
+						pixels[o + x] = averageTranslucent(upper[2 * x], upper[2 * x + 1], lower[2 * x], lower[2 * x + 1]);
+				} else {
+					for (int x = 0; x < width; x++)
+						pixels[o + x] = averageOpaque(upper[2 * x], upper[2 * x + 1], lower[2 * x], lower[2 * x + 1]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Averages four opaque pixels.
+	 * 
+	 * @param p the first pixel
+	 * @param q the second pixel
+	 * @param r the third pixel
+	 * @param s the fourth pixel
+	 * @return the average of the pixels
+	 */
+	static int averageOpaque(int p, int q, int r, int s) {
+		// Sum the red and blue channels and the green channel in parallel; the
+		// sums of four 8-bit values fit in the 8 bits left between them
+		int rb = (p & 0xff00ff) + (q & 0xff00ff) + (r & 0xff00ff) + (s & 0xff00ff) + 0x20002;
+		int g  = (p & 0xff00) + (q & 0xff00) + (r & 0xff00) + (s & 0xff00) + 0x200;
+		
+		return 0xff000000 | ((rb >> 2) & 0xff00ff) | ((g >> 2) & 0xff00);
+	}
+	
+	/**
+	 * Averages four pixels with alpha, premultiplying the colors by the alpha.
+	 * 
+	 * @param p the first pixel
+	 * @param q the second pixel
+	 * @param r the third pixel
+	 * @param s the fourth pixel
+	 * @return the average of the pixels
+	 */
+	static int averageTranslucent(int p, int q, int r, int s) {
+		int pa = p >>> 24, qa = q >>> 24, ra = r >>> 24, sa = s >>> 24;
+		int alpha = pa + qa + ra + sa;
+		
+		if (alpha == 0)
+			return 0;
+		
+		int red   = ((p >> 16) & 0xff) * pa + ((q >> 16) & 0xff) * qa + ((r >> 16) & 0xff) * ra + ((s >> 16) & 0xff) * sa;
+		int green = ((p >> 8) & 0xff) * pa + ((q >> 8) & 0xff) * qa + ((r >> 8) & 0xff) * ra + ((s >> 8) & 0xff) * sa;
+		int blue  = (p & 0xff) * pa + (q & 0xff) * qa + (r & 0xff) * ra + (s & 0xff) * sa;
+		int half  = alpha / 2;
+		
+		return (((alpha + 2) >> 2) << 24) | (((red + half) / alpha) << 16) | (((green + half) / alpha) << 8)
+				| ((blue + half) / alpha);
+	}
+	
+	/**
+	 * Halves a band of rows of a gray image.
+	 */
+	private static final class GrayBand extends RowBandTask {
+		private final Raster source;
+		private final byte[] pixels;
+		private final int width;
+		
+		GrayBand(Raster source, byte[] pixels, int width, int first, int last, int bandHeight) {
+			super(first, last, bandHeight);
+			
+			this.source = source;
+			this.pixels = pixels;
+			this.width  = width;
+		}
+		
+		RowBandTask createSubtask(int first, int last, int bandHeight) {
+			return new GrayBand(source, pixels, width, first, last, bandHeight);
+		}
+		
+		void computeBand(int first, int last) {
+			byte[] upper = new byte[2 * width];
+			byte[] lower = new byte[2 * width];
+			
+			for (int y = first; y < last; y++) {
+				source.getDataElements(0, 2 * y, upper.length, 1, upper);
+				source.getDataElements(0, 2 * y + 1, lower.length, 1, lower);
+				
+				int o = y * width;
+				for (int x = 0; x < width; x++) {
+					int sum = (upper[2 * x] & 0xff) + (upper[2 * x + 1] & 0xff) + (lower[2 * x] & 0xff)
+							+ (lower[2 * x + 1] & 0xff);
+					
+					pixels[o + x] = (byte)((sum + 2) >> 2);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+/**
+ * An on-disk cache of reduced versions of source images, so that resizing the
+ * same originals to new sizes does not have to decode them in full again.
+ * 
+ * <p>When an image is loaded through the cache for the first time, it is
+ * decoded the usual way, at the reduced resolution the target allows, and the
+ * decoded image and its halvings down to {@link #MIN_LEVEL_SIZE} are stored in
+ * the cache directory as the levels of a pyramid. Later loads of the same
+ * source for any target read the smallest stored level that is still at
+ * least as large as the target instead of the source file, which takes a
+ * fraction of the work. Targets larger than every stored level decode the
+ * source again and add the levels they make to the pyramid.</p>
+ * 
+ * <p>The levels of a source are keyed by the SHA-1 hash of its content and
+ * its modification time, so renamed and copied files share their levels and
+ * edited files do not get stale ones. The hash of a file is remembered as long
+ * as its path, length and modification time stay the same. Opaque levels are
+ * stored as JPEG images of quality 0.95 without chroma subsampling, and
+ * levels with alpha as PNG images.</p>
+ * 
+ * <p>The total size of the levels is kept within the given limit by deleting
+ * the least recently used levels, see {@link CacheDirectory}, which also
+ * makes sure a crash never leaves a partial level behind. The cache is
+ * thread-safe and can be shared by any number of batches.</p>
+ */
+public class PyramidCache {
+	/**
+	 * The length of the long side below which levels are not stored.
+	 */
+	public static final int MIN_LEVEL_SIZE = 64;
+	
+	/**
+	 * The quality of the levels stored as JPEG images.
+	 */
+	private static final float LEVEL_QUALITY = 0.95f;
+	
+	private final CacheDirectory levels;
+	private final JPEGImageSaver opaqueSaver;
+	private final PNGImageSaver alphaSaver;
+	
+	private final AtomicLong hits   = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Creates a new <code>PyramidCache</code> keeping the levels in the given
+	 * directory. The levels already in the directory are taken into use, and
+	 * temporary files left behind by a crash are deleted.
+	 * 
+	 * @param directory the directory to keep the levels in
+	 * @param maxBytes the maximum total size of the levels in bytes
+	 * @throws NotADirectoryException if the <code>directory</code> is not a directory
+	 * @throws IllegalArgumentException if the <code>maxBytes</code> parameter is less than 1
+	 */
+	public PyramidCache(File directory, long maxBytes) throws NotADirectoryException, IllegalArgumentException {
+		this.levels      = new CacheDirectory(directory, maxBytes);
+		this.opaqueSaver = new JPEGImageSaver(directory, null);
+		this.alphaSaver  = new PNGImageSaver(directory, null);
+		
+		opaqueSaver.setQuality(LEVEL_QUALITY);
+		opaqueSaver.setChromaSubsampling(ChromaSubsampling.YCbCr444);
+		alphaSaver.setCompressionLevel(1);
+	}
+	
+	/**
+	 * Gets the directory the levels are kept in.
+	 * @return the cache directory
+	 */
+	public File getDirectory() {
+		return levels.getDirectory();
+	}
+	
+	/**
+	 * Gets the maximum total size of the levels.
+	 * @return the maximum size in bytes
+	 */
+	public long getMaxBytes() {
+		return levels.getMaxBytes();
+	}
+	
+	/**
+	 * Gets the total size of the levels in the cache.
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		return levels.getSize();
+	}
+	
+	/**
+	 * Gets the number of loads served from a stored level.
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of loads that had to decode the source file.
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Loads the image from the given file for resizing with the given resizer,
+	 * like {@link ImageUtil#loadImage(File, ImageResizer)}, reading the smallest
+	 * stored level that is at least as large as the target instead of the file
+	 * if there is one. The image is returned at the dimensions of the level, so
+	 * it is usually smaller than the source image.
+	 * 
+	 * @param file the file to load
+	 * @param resizer the <code>ImageResizer</code> the image is going to be resized with
+	 * @return the loaded image; <code>null</code> if the file contents can not be
+	 *         determined as image data
+	 * @throws IOException if the file could not be readed
+	 */
+	public BufferedImage load(File file, ImageResizer resizer) throws IOException {
+		Dimension size = ImageUtil.readImageSize(file);
+		if (size == null)
+			return null;
+		
+		Dimension target = resizer.getTargetSize(size.width, size.height);
+		String key       = CacheDirectory.hash(file) + "-" + Long.toHexString(file.lastModified());
+		String level;
+		
+		while ((level = findLevel(key, target)) != null) {
+			try {
+				BufferedImage image = ImageUtil.loadImage(levels.getFile(level), resizer);
+				
+				if (image != null) {
+					levels.touch(level);
+					hits.incrementAndGet();
+					return image;
+				}
+			} catch (IOException e) {
+				// Deleted by another cache on the directory or damaged; the
+				// source is still there
+			}
+			
+			levels.forget(level);
+		}
+		
+		misses.incrementAndGet();
+		
+		BufferedImage image = ImageUtil.loadImage(file, resizer);
+		if (image == null)
+			return null;
+		
+		try {
+			store(key, image, size);
+		} catch (IOException e) {
+			// The levels only save work later; the image itself is fine
+		}
+		
+		return image;
+	}
+	
+	/**
+	 * Stores the given decoded image and its halvings as levels of the given
+	 * key. Levels already stored are not written again.
+	 * 
+	 * @param key the key of the source
+	 * @param image the decoded image
+	 * @param size the dimensions of the source image
+	 * @throws IOException if writing a level fails
+	 */
+	private void store(String key, BufferedImage image, Dimension size) throws IOException {
+		ImagePool images    = ImagePool.current();
+		BufferedImage level = image;
+		
+		// The source itself is not worth storing again
+		if (image.getWidth() == size.width && image.getHeight() == size.height)
+			level = halve(image);
+		
+		try {
+			while (level != null) {
+				String name = getLevelName(key, level);
+				
+				if (!levels.contains(name))
+					write(name, level);
+				
+				BufferedImage halved = halve(level);
+				if (level != image)
+					images.release(level);
+				
+				level = halved;
+			}
+		} finally {
+			if (level != null && level != image)
+				images.release(level);
+		}
+	}
+	
+	/**
+	 * Halves the given level, unless the halved level would be too small to
+	 * store.
+	 * 
+	 * @param level the level
+	 * @return the halved level; <code>null</code> if it would be too small
+	 */
+	private static BufferedImage halve(BufferedImage level) {
+		if (Math.max(level.getWidth(), level.getHeight()) / 2 < MIN_LEVEL_SIZE)
+			return null;
+		
+		return ProgressiveDownscaler.halve(level, null);
+	}
+	
+	/**
+	 * Writes the given level to the cache directory, first to a temporary
+	 * file that is then renamed in place.
+	 * 
+	 * @param name the name of the level
+	 * @param level the level
+	 * @throws IOException if writing the level fails
+	 */
+	private void write(String name, BufferedImage level) throws IOException {
+		File tempFile    = levels.createTempFile(name);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+		
+		try {
+			if (level.getColorModel().hasAlpha())
+				alphaSaver.encode(level, out);
+			else
+				opaqueSaver.encode(level, out);
+		} catch (IOException e) {
+			out.close();
+			tempFile.delete();
+			throw e;
+		}
+		
+		out.close();
+		levels.commit(tempFile, name);
+	}
+	
+	/**
+	 * Finds the smallest stored level of the given key that is at least as
+	 * large as the given target.
+	 * 
+	 * @param key the key of the source
+	 * @param target the dimensions the image is going to be scaled to
+	 * @return the name of the level; <code>null</code> if there is none
+	 */
+	private String findLevel(String key, Dimension target) {
+		String best     = null;
+		long bestPixels = Long.MAX_VALUE;
+		
+		for (String name : levels.find(key)) {
+			Dimension level = parseLevel(name);
+			if (level == null)
+				continue;
+			
+			long pixels = (long)level.width * level.height;
+			
+			if (level.width >= target.width && level.height >= target.height && pixels < bestPixels) {
+				best       = name;
+				bestPixels = pixels;
+			}
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Gets the name of the file of the given level.
+	 * 
+	 * @param key the key of the source
+	 * @param level the level
+	 * @return the file name
+	 */
+	private static String getLevelName(String key, BufferedImage level) {
+		return key + "-" + level.getWidth() + "x" + level.getHeight()
+			+ (level.getColorModel().hasAlpha() ? ".png" : ".jpg");
+	}
+	
+	/**
+	 * Parses the dimensions of a level from the name of its file.
+	 * 
+	 * @param name the file name
+	 * @return the dimensions of the level; <code>null</code> if the file is not a level
+	 */
+	private static Dimension parseLevel(String name) {
+		int dash = name.lastIndexOf('-');
+		int x    = name.lastIndexOf('x');
+		int dot  = name.lastIndexOf('.');
+		
+		if (dash < 0 || x < dash || dot < x)
+			return null;
+		
+		try {
+			return new Dimension(Integer.parseInt(name.substring(dash + 1, x)),
+					Integer.parseInt(name.substring(x + 1, dot)));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
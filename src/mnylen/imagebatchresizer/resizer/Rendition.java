@@ -0,0 +1,49 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * A rendition of every image in a batch: the <code>ImageResizer</code> giving
+ * the image its size and the <code>ImageSaver</code> writing it. A
+ * {@link MultiRenditionBatchResizer} produces several renditions of every image
+ * from a single decode.
+ */
+public final class Rendition {
+	private final ImageResizer resizer;
+	private final ImageSaver saver;
+	
+	/**
+	 * Creates a new <code>Rendition</code>. The savers of the renditions of a
+	 * batch should write to different directories or use different prefixes,
+	 * so the renditions do not overwrite each other.
+	 * 
+	 * @param resizer the <code>ImageResizer</code> instance used for resizing the images
+	 * @param saver the <code>ImageSaver</code> instance used for saving the resized images
+	 * @throws IllegalArgumentException if the <code>resizer</code> and/or <code>saver</code>
+	 *         parameters are <code>null</code>
+	 */
+	public Rendition(ImageResizer resizer, ImageSaver saver) throws IllegalArgumentException {
+		if (resizer == null)
+			throw new IllegalArgumentException("the resizer parameter must not be null");
+		
+		if (saver == null)
+			throw new IllegalArgumentException("the saver parameter must not be null");
+		
+		this.resizer = resizer;
+		this.saver   = saver;
+	}
+	
+	/**
+	 * Gets the <code>ImageResizer</code> instance used for resizing the images.
+	 * @return the <code>ImageResizer</code> instance
+	 */
+	public ImageResizer getResizer() {
+		return resizer;
+	}
+	
+	/**
+	 * Gets the <code>ImageSaver</code> instance used for saving the resized images.
+	 * @return the <code>ImageSaver</code> instance
+	 */
+	public ImageSaver getSaver() {
+		return saver;
+	}
+}
@@ -0,0 +1,94 @@
+package mnylen.imagebatchresizer.resizer;
+
+/**
+ * Enumerates the filters (kernels) available for resampling images with the
+ * <code>SeparableResampler</code>. The filters are listed from the fastest and
+ * softest to the slowest and sharpest.
+ */
+public enum ResampleFilter {
+    /**
+     * The box filter. Averages the source pixels covered by the destination
+     * pixel; the same as nearest neighbour when scaling up.
+     */
+    Box(0.5) {
+        double weight(double x) {
+            return (x >= -0.5 && x < 0.5) ? 1.0 : 0.0;
+        }
+    },
+    
+    /**
+     * The triangle (tent) filter. Bilinear interpolation when scaling up.
+     */
+    Triangle(1.0) {
+        double weight(double x) {
+            x = Math.abs(x);
+            return (x < 1.0) ? 1.0 - x : 0.0;
+        }
+    },
+    
+    /**
+     * The Mitchell-Netravali cubic filter with B = C = 1/3. A good compromise
+     * between sharpness and ringing.
+     */
+    Mitchell(2.0) {
+        double weight(double x) {
+            final double b = 1.0 / 3.0, c = 1.0 / 3.0;
+            x = Math.abs(x);
+            
+            if (x < 1.0)
+                return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c) * x * x + (6 - 2 * b)) / 6;
+            
+            if (x < 2.0)
+                return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6;
+            
+            return 0.0;
+        }
+    },
+    
+    /**
+     * The Lanczos filter with three lobes. The sharpest of the filters, with
+     * slight ringing next to hard edges.
+     */
+    Lanczos3(3.0) {
+        double weight(double x) {
+            x = Math.abs(x);
+            
+            if (x < 1e-9)
+                return 1.0;
+            
+            if (x >= 3.0)
+                return 0.0;
+            
+            double px = Math.PI * x;
+            return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+        }
+    };
+    
+    private final double support;
+    
+    /**
+     * Creates a new filter.
+     * @param support the radius of the filter when not scaled
+     */
+    private ResampleFilter(double support) {
+        this.support = support;
+    }
+    
+    /**
+     * Gets the radius of the filter when not scaled. When scaling down, the
+     * filter is widened by the scale factor.
+     * 
+     * @return the radius of the filter
+     */
+    public double getSupport() {
+        return support;
+    }
+    
+    /**
+     * Evaluates the filter.
+     * 
+     * @param x the distance from the center of the filter
+     * @return the weight at the distance
+     */
+    abstract double weight(double x);
+}
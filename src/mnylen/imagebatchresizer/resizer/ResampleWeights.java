@@ -0,0 +1,154 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed weights for resampling one dimension of an image from one length
+ * to another. Every destination pixel is a weighted sum of a contiguous run of
+ * source pixels; the run of destination pixel <code>i</code> starts at
+ * <code>start[i]</code>, is <code>count[i]</code> pixels long, and its weights
+ * are stored at <code>weights[i * maxCount]</code> onwards.
+ * 
+ * <p>When scaling down, the filter is widened by the scale factor so every
+ * source pixel contributes to the result and no aliasing is introduced. The
+ * runs start at non-decreasing positions, which is what allows the rows of an
+ * image to be resampled as a stream.</p>
+ * 
+ * <p>Computing the weights involves evaluating the filter for every tap, so the
+ * weights are cached by {@link #get(int, int, ResampleFilter)} and shared
+ * between all images of the same dimensions.</p>
+ */
+final class ResampleWeights {
+	private static final int MAX_CACHED = 256;
+	private static final ConcurrentHashMap<Key, ResampleWeights> cache =
+		new ConcurrentHashMap<Key, ResampleWeights>();
+	
+	final ResampleFilter filter;
+	final int srcLength;
+	final int dstLength;
+	final int[] start;
+	final int[] count;
+	final float[] weights;
+	final int maxCount;
+	
+	/**
+	 * Gets the weights for resampling from the given source length to the given
+	 * destination length, computing them if they are not in the cache.
+	 * 
+	 * @param srcLength the length of the source
+	 * @param dstLength the length of the destination
+	 * @param filter the filter to use
+	 * @return the weights
+	 */
+	static ResampleWeights get(int srcLength, int dstLength, ResampleFilter filter) {
+		Key key = new Key(srcLength, dstLength, filter);
+		ResampleWeights weights = cache.get(key);
+		
+		if (weights == null) {
+			weights = new ResampleWeights(srcLength, dstLength, filter);
+			
+			if (cache.size() >= MAX_CACHED)
+				cache.clear();
+			
+			cache.put(key, weights);
+		}
+		
+		return weights;
+	}
+	
+	/**
+	 * Computes the weights for resampling from the given source length to the
+	 * given destination length.
+	 * 
+	 * @param srcLength the length of the source
+	 * @param dstLength the length of the destination
+	 * @param filter the filter to use
+	 */
+	ResampleWeights(int srcLength, int dstLength, ResampleFilter filter) {
+		if (srcLength < 1 || dstLength < 1)
+			throw new IllegalArgumentException("the lengths must not be less than 1");
+		
+		this.filter    = filter;
+		this.srcLength = srcLength;
+		this.dstLength = dstLength;
+		
+		double scale       = (double)dstLength / srcLength;
+		double filterScale = Math.max(1.0, 1.0 / scale);
+		double support     = filter.getSupport() * filterScale;
+		
+		this.maxCount = Math.min(srcLength, (int)Math.ceil(2 * support) + 2);
+		this.start    = new int[dstLength];
+		this.count    = new int[dstLength];
+		this.weights  = new float[dstLength * maxCount];
+		
+		double[] w = new double[maxCount];
+		
+		for (int i = 0; i < dstLength; i++) {
+			double center = (i + 0.5) / scale;
+			int left      = Math.max(0, (int)Math.floor(center - support));
+			int right     = Math.min(srcLength, (int)Math.ceil(center + support));
+			
+			double total = 0;
+			int n        = 0;
+			for (int j = left; j < right && n < maxCount; j++, n++) {
+				w[n]   = filter.weight((j + 0.5 - center) / filterScale);
+				total += w[n];
+			}
+			
+			// Drop the zero weights at both ends of the run
+			int first = 0;
+			while (first < n - 1 && w[first] == 0)
+				first++;
+			
+			while (n - 1 > first && w[n - 1] == 0)
+				n--;
+			
+			if (total == 0) {
+				// Can only happen when the run is a single pixel on the border
+				w[first] = 1;
+				total    = 1;
+			}
+			
+			start[i] = left + first;
+			count[i] = n - first;
+			
+			for (int k = 0; k < count[i]; k++)
+				weights[i * maxCount + k] = (float)(w[first + k] / total);
+		}
+		
+		// The streaming resampler relies on the runs never going backwards
+		for (int i = 1; i < dstLength; i++) {
+			if (start[i] < start[i - 1])
+				throw new IllegalStateException("resampling runs must not go backwards");
+		}
+	}
+	
+	/**
+	 * The key of the weight cache.
+	 */
+	private static final class Key {
+		private final int srcLength;
+		private final int dstLength;
+		private final ResampleFilter filter;
+		
+		Key(int srcLength, int dstLength, ResampleFilter filter) {
+			this.srcLength = srcLength;
+			this.dstLength = dstLength;
+			this.filter    = filter;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			
+			Key other = (Key)obj;
+			return srcLength == other.srcLength && dstLength == other.dstLength && filter == other.filter;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (srcLength * 31 + dstLength) * 31 + filter.ordinal();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A task producing a range of the rows of a resized image. The range is split
+ * in halves until it is no higher than the band height, and the bands are
+ * produced in parallel on a <code>ForkJoinPool</code>. Every row of the result
+ * is computed from the whole source image, so the bands line up without seams.
+ */
+abstract class RowBandTask extends RecursiveAction {
+	/**
+	 * The minimum number of rows in a band. Lower bands would spend more time
+	 * on setting up the filters than on resampling.
+	 */
+	static final int MIN_BAND_HEIGHT = 32;
+	
+	/**
+	 * The number of bands per thread of the pool. More than one band per thread
+	 * evens out the differences in the speeds of the threads.
+	 */
+	private static final int BANDS_PER_THREAD = 4;
+	
+	private final int first;
+	private final int last;
+	private final int bandHeight;
+	
+	/**
+	 * Creates a new task producing the given range of rows.
+	 * 
+	 * @param first the first row to produce
+	 * @param last the row after the last row to produce
+	 * @param bandHeight the maximum number of rows to produce without splitting the task
+	 */
+	RowBandTask(int first, int last, int bandHeight) {
+		this.first      = first;
+		this.last       = last;
+		this.bandHeight = bandHeight;
+	}
+	
+	/**
+	 * Creates a task producing a part of the range of this task.
+	 * 
+	 * @param first the first row to produce
+	 * @param last the row after the last row to produce
+	 * @param bandHeight the maximum number of rows to produce without splitting the task
+	 * @return the task
+	 */
+	abstract RowBandTask createSubtask(int first, int last, int bandHeight);
+	
+	/**
+	 * Produces a band of rows.
+	 * 
+	 * @param first the first row to produce
+	 * @param last the row after the last row to produce
+	 */
+	abstract void computeBand(int first, int last);
+	
+	@Override
+	protected void compute() {
+		if (last - first <= bandHeight) {
+			computeBand(first, last);
+			return;
+		}
+		
+		int middle = (first + last) >>> 1;
+		invokeAll(createSubtask(first, middle, bandHeight), createSubtask(middle, last, bandHeight));
+	}
+	
+	/**
+	 * Calculates the band height for producing the given number of rows on the
+	 * given pool.
+	 * 
+	 * @param height the number of rows to produce
+	 * @param pool the pool, or <code>null</code> if the rows are produced in the calling thread
+	 * @return the band height
+	 */
+	static int getBandHeight(int height, ForkJoinPool pool) {
+		if (pool == null || pool.getParallelism() < 2)
+			return Math.max(1, height);
+		
+		int bands = pool.getParallelism() * BANDS_PER_THREAD;
+		return Math.max(MIN_BAND_HEIGHT, (height + bands - 1) / bands);
+	}
+	
+	/**
+	 * Runs the given task on the given pool. If the task is a single band, or
+	 * no pool is given, the task is run in the calling thread.
+	 * 
+	 * @param task the task to run
+	 * @param pool the pool, or <code>null</code> to run the task in the calling thread
+	 */
+	static void run(RowBandTask task, ForkJoinPool pool) {
+		if (pool == null || task.last - task.first <= task.bandHeight)
+			task.computeBand(task.first, task.last);
+		else if (ForkJoinTask.getPool() == pool)
+			task.invoke();
+		else
+			pool.invoke(task);
+	}
+}
@@ -0,0 +1,178 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.util.Arrays;
+
+/**
+ * Performs the multiply-add loops of the separable resampling done by
+ * {@link ScaledRowSource}. The loops are the hottest code of a resize, so they
+ * come in two implementations: a portable scalar one, and one using the SIMD
+ * instructions of the processor through the <code>jdk.incubator.vector</code>
+ * module.
+ * 
+ * <p>The vector implementation is compiled separately from the rest of the
+ * application and is only available when it has been compiled and the JVM has
+ * been started with <code>--add-modules jdk.incubator.vector</code>. When it
+ * is not available, {@link #vector()} falls back to the scalar implementation.
+ * The implementations are stateless and may be shared between threads.</p>
+ * 
+ * <p>The results of the implementations differ by at most one in any channel,
+ * as the vector implementation uses fused multiply-adds, which round
+ * differently.</p>
+ */
+public abstract class RowConvolver {
+	private static final String VECTOR_CLASS = "mnylen.imagebatchresizer.resizer.VectorRowConvolver";
+	
+	private static final RowConvolver scalar = new ScalarRowConvolver();
+	private static final RowConvolver vector = loadVector();
+	
+	/**
+	 * Gets the scalar implementation.
+	 * @return the scalar implementation
+	 */
+	public static RowConvolver scalar() {
+		return scalar;
+	}
+	
+	/**
+	 * Gets the vector implementation, or the scalar implementation if the
+	 * vector implementation is not available.
+	 * 
+	 * @return the vector implementation, if available; the scalar implementation otherwise
+	 */
+	public static RowConvolver vector() {
+		return (vector != null) ? vector : scalar;
+	}
+	
+	/**
+	 * Tells whether the vector implementation is available.
+	 * @return <code>true</code> if the vector implementation is available; <code>false</code> otherwise
+	 */
+	public static boolean isVectorAvailable() {
+		return vector != null;
+	}
+	
+	/**
+	 * Loads the vector implementation.
+	 * @return the vector implementation, or <code>null</code> if it is not available
+	 */
+	private static RowConvolver loadVector() {
+		try {
+			return (RowConvolver)Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+		} catch (Exception ex) {
+			// Not compiled
+			return null;
+		} catch (LinkageError err) {
+			// The jdk.incubator.vector module is not present
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the name of the implementation.
+	 * @return the name of the implementation
+	 */
+	public abstract String getName();
+	
+	/**
+	 * Resamples a row horizontally. The pixels of the rows are stored as four
+	 * consecutive channels.
+	 * 
+	 * @param src the channels of the row
+	 * @param weights the weights to resample with
+	 * @param dst the array to write the channels of the resampled row to
+	 */
+	abstract void convolveHorizontally(float[] src, ResampleWeights weights, float[] dst);
+	
+	/**
+	 * Resamples a row of gray levels horizontally. The horizontal pass runs
+	 * only once per destination row, so the implementations share this scalar
+	 * loop.
+	 * 
+	 * @param src the gray levels of the row
+	 * @param weights the weights to resample with
+	 * @param dst the array to write the gray levels of the resampled row to
+	 */
+	void convolveGrayHorizontally(float[] src, ResampleWeights weights, float[] dst) {
+		float[] w    = weights.weights;
+		int maxCount = weights.maxCount;
+		
+		for (int x = 0, base = 0; x < weights.dstLength; x++, base += maxCount) {
+			int first = weights.start[x];
+			int count = weights.count[x];
+			
+			float v = 0;
+			for (int k = 0; k < count; k++)
+				v += w[base + k] * src[first + k];
+			
+			dst[x] = v;
+		}
+	}
+	
+	/**
+	 * Combines source rows into a vertically resampled row. The rows are
+	 * combined element by element, so they may hold any number of channels.
+	 * The rows are taken from a ring buffer: the weight <code>weights[base + k]</code>
+	 * is applied to the row <code>ring[(first + k) % ring.length]</code>.
+	 * 
+	 * @param ring the ring buffer of rows
+	 * @param first the index of the first row to combine
+	 * @param count the number of rows to combine
+	 * @param weights the weights of the rows
+	 * @param base the index of the weight of the first row
+	 * @param dst the array to write the combined row to
+	 */
+	abstract void convolveVertically(float[][] ring, int first, int count, float[] weights, int base,
+			float[] dst);
+	
+	@Override
+	public String toString() {
+		return getName();
+	}
+	
+	/**
+	 * The scalar implementation.
+	 */
+	private static final class ScalarRowConvolver extends RowConvolver {
+		public String getName() {
+			return "scalar";
+		}
+		
+		void convolveHorizontally(float[] src, ResampleWeights weights, float[] dst) {
+			float[] w    = weights.weights;
+			int maxCount = weights.maxCount;
+			
+			for (int x = 0, base = 0; x < weights.dstLength; x++, base += maxCount) {
+				int first = weights.start[x];
+				int count = weights.count[x];
+				
+				float a = 0, r = 0, g = 0, b = 0;
+				for (int k = 0, p = 4 * first; k < count; k++, p += 4) {
+					float wk = w[base + k];
+					
+					a += wk * src[p];
+					r += wk * src[p + 1];
+					g += wk * src[p + 2];
+					b += wk * src[p + 3];
+				}
+				
+				dst[4 * x]     = a;
+				dst[4 * x + 1] = r;
+				dst[4 * x + 2] = g;
+				dst[4 * x + 3] = b;
+			}
+		}
+		
+		void convolveVertically(float[][] ring, int first, int count, float[] weights, int base,
+				float[] dst) {
+			Arrays.fill(dst, 0f);
+			
+			for (int k = 0; k < count; k++) {
+				float w      = weights[base + k];
+				float[] line = ring[(first + k) % ring.length];
+				
+				for (int i = 0; i < dst.length; i++)
+					dst[i] += w * line[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A <code>RenderedImage</code> view of an <code>ImageRowSource</code>. The rows
+ * are read from the source only when an image writer asks for them, so writers
+ * that pull the image row by row in ascending order, like the PNG and BMP
+ * writers of ImageIO, encode the image without it ever being held in memory.
+ * 
+ * <p>Writers asking for the whole image at once get a raster of the whole
+ * image, so they work as well, just without the memory savings. Asking for a
+ * row above a row already passed fails with an <code>IllegalStateException</code>.</p>
+ */
+public class RowSourceRenderedImage implements RenderedImage {
+	private static final int[] RGB_MASKS  = { 0x00ff0000, 0x0000ff00, 0x000000ff };
+	private static final int[] ARGB_MASKS = { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 };
+	
+	private final ImageRowSource source;
+	private final ColorModel colorModel;
+	private final int[] masks;
+	
+	/**
+	 * Creates a new <code>RowSourceRenderedImage</code> for the given row source.
+	 * 
+	 * @param source the row source
+	 * @throws IllegalArgumentException if the <code>source</code> parameter is <code>null</code>
+	 */
+	public RowSourceRenderedImage(ImageRowSource source) throws IllegalArgumentException {
+		if (source == null)
+			throw new IllegalArgumentException("the source parameter must not be null");
+		
+		this.source = source;
+		
+		if (source.hasAlpha()) {
+			masks      = ARGB_MASKS;
+			colorModel = new DirectColorModel(32, masks[0], masks[1], masks[2], masks[3]);
+		} else {
+			masks      = RGB_MASKS;
+			colorModel = new DirectColorModel(24, masks[0], masks[1], masks[2], 0);
+		}
+	}
+	
+	/**
+	 * Reads the given rows of the source to a raster.
+	 * 
+	 * @param rect the area to read
+	 * @return the raster
+	 */
+	private WritableRaster readRaster(Rectangle rect) {
+		int width     = source.getWidth();
+		int[] data    = new int[width * rect.height];
+		int[] row     = new int[width];
+		
+		try {
+			for (int i = 0; i < rect.height; i++) {
+				source.readRow(rect.y + i, row);
+				System.arraycopy(row, 0, data, i * width, width);
+			}
+		} catch (IOException e) {
+			throw new ImageLoadException("Reading the image failed", e);
+		}
+		
+		WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, data.length),
+				width, rect.height, width, masks, new Point(0, rect.y));
+		
+		if (rect.x == 0 && rect.width == width)
+			return raster;
+		
+		return raster.createWritableChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+	}
+	
+	//
+	// The RenderedImage interface. The image is described as a single tile, so
+	// writers do not try to fetch it tile by tile in some other order than rows.
+	//
+	
+	public Raster getData(Rectangle rect) {
+		return readRaster(rect.intersection(new Rectangle(0, 0, getWidth(), getHeight())));
+	}
+	
+	public Raster getData() {
+		return readRaster(new Rectangle(0, 0, getWidth(), getHeight()));
+	}
+	
+	public Raster getTile(int tileX, int tileY) {
+		return getData();
+	}
+	
+	public WritableRaster copyData(WritableRaster raster) {
+		if (raster == null)
+			return readRaster(new Rectangle(0, 0, getWidth(), getHeight()));
+		
+		raster.setRect(getData(raster.getBounds()));
+		return raster;
+	}
+	
+	public ColorModel getColorModel() {
+		return colorModel;
+	}
+	
+	public SampleModel getSampleModel() {
+		return new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, getWidth(), getHeight(), masks);
+	}
+	
+	public int getWidth() {
+		return source.getWidth();
+	}
+	
+	public int getHeight() {
+		return source.getHeight();
+	}
+	
+	public int getMinX() {
+		return 0;
+	}
+	
+	public int getMinY() {
+		return 0;
+	}
+	
+	public int getNumXTiles() {
+		return 1;
+	}
+	
+	public int getNumYTiles() {
+		return 1;
+	}
+	
+	public int getMinTileX() {
+		return 0;
+	}
+	
+	public int getMinTileY() {
+		return 0;
+	}
+	
+	public int getTileWidth() {
+		return getWidth();
+	}
+	
+	public int getTileHeight() {
+		return getHeight();
+	}
+	
+	public int getTileGridXOffset() {
+		return 0;
+	}
+	
+	public int getTileGridYOffset() {
+		return 0;
+	}
+	
+	public Vector<RenderedImage> getSources() {
+		return null;
+	}
+	
+	public Object getProperty(String name) {
+		return Image.UndefinedProperty;
+	}
+	
+	public String[] getPropertyNames() {
+		return null;
+	}
+}
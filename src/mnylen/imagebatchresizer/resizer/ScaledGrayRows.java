@@ -0,0 +1,107 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+
+/**
+ * Scales the rows of a <code>TYPE_BYTE_GRAY</code> image to the given
+ * dimensions. This is the single channel counterpart of {@link ScaledRowSource}:
+ * the scaling is done in the same two separable passes with the same weights,
+ * but every pixel is one gray level instead of four channels, so a gray image
+ * takes a quarter of the arithmetic and memory of the same image in color.
+ * 
+ * <p>The rows must be read in ascending order. Only the source rows the current
+ * row depends on are kept in a ring buffer, and the source rows only skipped
+ * rows depend on are not read at all.</p>
+ */
+final class ScaledGrayRows {
+	private final Raster source;
+	private final int width;
+	private final ResampleWeights horizontal;
+	private final ResampleWeights vertical;
+	private final RowConvolver convolver;
+	
+	private final byte[] srcRow;
+	private final float[][] ring;
+	private final float[] column;
+	private final float[] sum;
+	private int nextSrcRow;
+	private int nextRow;
+	
+	/**
+	 * Creates a new <code>ScaledGrayRows</code> scaling the given image.
+	 * 
+	 * @param image the image to scale; of type <code>TYPE_BYTE_GRAY</code>
+	 * @param width the width of the scaled image
+	 * @param height the height of the scaled image
+	 * @param filter the filter to use for resampling
+	 * @param convolver the convolver to do the arithmetic with
+	 */
+	ScaledGrayRows(BufferedImage image, int width, int height, ResampleFilter filter, RowConvolver convolver) {
+		this.source     = image.getRaster();
+		this.width      = width;
+		this.horizontal = ResampleWeights.get(image.getWidth(), width, filter);
+		this.vertical   = ResampleWeights.get(image.getHeight(), height, filter);
+		this.convolver  = convolver;
+		
+		ImagePool buffers = ImagePool.current();
+		
+		this.srcRow = new byte[image.getWidth()];
+		this.ring   = new float[vertical.maxCount][];
+		this.column = buffers.acquireBuffer(image.getWidth());
+		this.sum    = new float[width];
+		
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = buffers.acquireBuffer(image.getWidth());
+	}
+	
+	/**
+	 * Releases the row buffers to the {@link ImagePool} of the current thread.
+	 * The rows must not be read after they have been disposed.
+	 */
+	void dispose() {
+		ImagePool buffers = ImagePool.current();
+		
+		for (int i = 0; i < ring.length; i++)
+			buffers.releaseBuffer(ring[i]);
+		
+		buffers.releaseBuffer(column);
+	}
+	
+	/**
+	 * Reads a row of the scaled image.
+	 * 
+	 * @param y the row to read
+	 * @param row the array to read the gray levels to
+	 * @throws IllegalStateException if the row is above a previously read row
+	 */
+	void readRow(int y, byte[] row) throws IllegalStateException {
+		if (y < nextRow)
+			throw new IllegalStateException("row " + y + " has already been passed");
+		
+		int first = vertical.start[y];
+		int count = vertical.count[y];
+		
+		// Skipped rows do not have to be read from the source either
+		if (nextSrcRow < first)
+			nextSrcRow = first;
+		
+		while (nextSrcRow < first + count) {
+			source.getDataElements(0, nextSrcRow, srcRow.length, 1, srcRow);
+			
+			float[] line = ring[nextSrcRow % ring.length];
+			for (int x = 0; x < srcRow.length; x++)
+				line[x] = srcRow[x] & 0xff;
+			
+			nextSrcRow++;
+		}
+		
+		convolver.convolveVertically(ring, first, count, vertical.weights, y * vertical.maxCount, column);
+		convolver.convolveGrayHorizontally(column, horizontal, sum);
+		
+		for (int x = 0; x < width; x++)
+			row[x] = (byte)ScaledRowSource.clamp(sum[x]);
+		
+		nextRow = y + 1;
+	}
+}
@@ -0,0 +1,254 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.IOException;
+
+/**
+ * An <code>ImageRowSource</code> that scales another row source to the given
+ * dimensions. The scaling is done in two separable passes: the source rows a
+ * destination row depends on are first combined vertically into one row, which
+ * is then resampled horizontally. The vertical pass, which does most of the
+ * work when scaling down, runs over contiguous arrays and lends itself to
+ * vectorization; the horizontal pass only runs once per destination row.
+ * 
+ * <p>The source rows are read once, in ascending order, and only the rows the
+ * current destination row depends on are kept in a ring buffer. The memory
+ * used is therefore proportional to the image width times the height of the
+ * filter, not to the size of the image. When destination rows are skipped, the
+ * source rows only they depend on are skipped as well, so a band of rows in the
+ * middle of the image can be produced without reading the rows above it.</p>
+ * 
+ * <p>The filter used for resampling is selected with a {@link ResampleFilter};
+ * the triangle filter is used unless another one is given. The arithmetic is
+ * done by a {@link RowConvolver}, the scalar one unless another one is
+ * given.</p>
+ */
+public class ScaledRowSource implements ImageRowSource {
+	private final ImageRowSource source;
+	private final int width;
+	private final int height;
+	private final boolean alpha;
+	private final ResampleWeights horizontal;
+	private final ResampleWeights vertical;
+	private final RowConvolver convolver;
+	
+	private final int[] srcRow;
+	private final float[][] ring;
+	private final float[] column;
+	private final float[] sum;
+	private int nextSrcRow;
+	private int nextRow;
+	
+	/**
+	 * Creates a new <code>ScaledRowSource</code> scaling the given source to the
+	 * given dimensions with the triangle filter.
+	 * 
+	 * @param source the row source to scale
+	 * @param width the width of the scaled image
+	 * @param height the height of the scaled image
+	 * @throws IllegalArgumentException if the <code>source</code> parameter is <code>null</code>
+	 *         or the <code>width</code> or <code>height</code> is less than 1
+	 */
+	public ScaledRowSource(ImageRowSource source, int width, int height) throws IllegalArgumentException {
+		this(source, width, height, ResampleFilter.Triangle);
+	}
+	
+	/**
+	 * Creates a new <code>ScaledRowSource</code> scaling the given source to the
+	 * given dimensions with the given filter.
+	 * 
+	 * @param source the row source to scale
+	 * @param width the width of the scaled image
+	 * @param height the height of the scaled image
+	 * @param filter the filter to use for resampling
+	 * @throws IllegalArgumentException if the <code>source</code> or <code>filter</code> parameter
+	 *         is <code>null</code> or the <code>width</code> or <code>height</code> is less than 1
+	 */
+	public ScaledRowSource(ImageRowSource source, int width, int height, ResampleFilter filter)
+			throws IllegalArgumentException {
+		this(source, width, height, filter, RowConvolver.scalar());
+	}
+	
+	/**
+	 * Creates a new <code>ScaledRowSource</code> scaling the given source to the
+	 * given dimensions with the given filter and convolver.
+	 * 
+	 * @param source the row source to scale
+	 * @param width the width of the scaled image
+	 * @param height the height of the scaled image
+	 * @param filter the filter to use for resampling
+	 * @param convolver the convolver to do the arithmetic with
+	 * @throws IllegalArgumentException if the <code>source</code>, <code>filter</code> or
+	 *         <code>convolver</code> parameter is <code>null</code> or the <code>width</code>
+	 *         or <code>height</code> is less than 1
+	 */
+	public ScaledRowSource(ImageRowSource source, int width, int height, ResampleFilter filter,
+			RowConvolver convolver) throws IllegalArgumentException {
+		if (source == null)
+			throw new IllegalArgumentException("the source parameter must not be null");
+		
+		if (filter == null)
+			throw new IllegalArgumentException("the filter parameter must not be null");
+		
+		if (convolver == null)
+			throw new IllegalArgumentException("the convolver parameter must not be null");
+		
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("the width and height must not be less than 1");
+		
+		this.source     = source;
+		this.width      = width;
+		this.height     = height;
+		this.alpha      = source.hasAlpha();
+		this.horizontal = ResampleWeights.get(source.getWidth(), width, filter);
+		this.vertical   = ResampleWeights.get(source.getHeight(), height, filter);
+		this.convolver  = convolver;
+		
+		ImagePool buffers = ImagePool.current();
+		
+		this.srcRow = new int[source.getWidth()];
+		this.ring   = new float[vertical.maxCount][];
+		this.column = buffers.acquireBuffer(4 * source.getWidth());
+		this.sum    = new float[4 * width];
+		
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = buffers.acquireBuffer(4 * source.getWidth());
+	}
+	
+	/**
+	 * Releases the row buffers of this source to the {@link ImagePool} of the
+	 * current thread. The source must not be read after it has been disposed.
+	 */
+	void dispose() {
+		ImagePool buffers = ImagePool.current();
+		
+		for (int i = 0; i < ring.length; i++)
+			buffers.releaseBuffer(ring[i]);
+		
+		buffers.releaseBuffer(column);
+	}
+	
+	/**
+	 * Gets the width of the scaled image.
+	 * @return the width of the scaled image
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Gets the height of the scaled image.
+	 * @return the height of the scaled image
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Tells whether the scaled image has an alpha channel.
+	 * @return <code>true</code> if the source has an alpha channel; <code>false</code> otherwise
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * Reads a row of the scaled image. The rows must be read in ascending order.
+	 * 
+	 * @param y the row to read
+	 * @param row the array to read the pixels to
+	 * @throws IOException if reading the source fails
+	 * @throws IllegalStateException if the row is above a previously read row
+	 */
+	public void readRow(int y, int[] row) throws IOException, IllegalStateException {
+		if (y < nextRow)
+			throw new IllegalStateException("row " + y + " has already been passed");
+		
+		int first = vertical.start[y];
+		int count = vertical.count[y];
+		
+		// Skipped rows do not have to be read from the source either
+		if (nextSrcRow < first)
+			nextSrcRow = first;
+		
+		while (nextSrcRow < first + count) {
+			source.readRow(nextSrcRow, srcRow);
+			unpack(srcRow, ring[nextSrcRow % ring.length], srcRow.length, alpha);
+			nextSrcRow++;
+		}
+		
+		convolver.convolveVertically(ring, first, count, vertical.weights, y * vertical.maxCount, column);
+		convolver.convolveHorizontally(column, horizontal, sum);
+		pack(sum, row, width, alpha);
+		nextRow = y + 1;
+	}
+	
+	/**
+	 * Unpacks ARGB pixels to separate channels. Colors are premultiplied by the
+	 * alpha so that transparent pixels do not bleed their color to the
+	 * neighbouring pixels.
+	 * 
+	 * @param src the packed pixels
+	 * @param dst the array to write the channels to
+	 * @param length the number of pixels
+	 * @param alpha whether the pixels have an alpha channel
+	 */
+	static void unpack(int[] src, float[] dst, int length, boolean alpha) {
+		for (int i = 0, j = 0; i < length; i++, j += 4) {
+			int p = src[i];
+			int a = alpha ? (p >>> 24) : 0xff;
+			
+			if (a == 0xff) {
+				dst[j]     = 0xff;
+				dst[j + 1] = (p >> 16) & 0xff;
+				dst[j + 2] = (p >> 8) & 0xff;
+				dst[j + 3] = p & 0xff;
+			} else {
+				float f    = a / 255f;
+				dst[j]     = a;
+				dst[j + 1] = ((p >> 16) & 0xff) * f;
+				dst[j + 2] = ((p >> 8) & 0xff) * f;
+				dst[j + 3] = (p & 0xff) * f;
+			}
+		}
+	}
+	
+	/**
+	 * Packs separate channels back to ARGB pixels, undoing the premultiplication
+	 * done by {@link #unpack(int[], float[], int, boolean)}.
+	 * 
+	 * @param src the channels
+	 * @param dst the array to write the packed pixels to
+	 * @param length the number of pixels
+	 * @param alpha whether the pixels have an alpha channel
+	 */
+	static void pack(float[] src, int[] dst, int length, boolean alpha) {
+		for (int i = 0, j = 0; i < length; i++, j += 4) {
+			int a = alpha ? clamp(src[j]) : 0xff;
+			float r = src[j + 1], g = src[j + 2], b = src[j + 3];
+			
+			if (a != 0xff) {
+				float f = (a == 0) ? 0f : 255f / a;
+				r *= f;
+				g *= f;
+				b *= f;
+			}
+			
+			dst[i] = (a << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+		}
+	}
+	
+	/**
+	 * Rounds a channel value and clamps it to the range 0-255.
+	 * @param v the channel value
+	 * @return the clamped value
+	 */
+	static int clamp(float v) {
+		if (v <= 0f)
+			return 0;
+		
+		if (v >= 255f)
+			return 255;
+		
+		return (int)(v + 0.5f);
+	}
+}
@@ -0,0 +1,353 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Resamples whole <code>BufferedImage</code>s with a selectable
+ * {@link ResampleFilter}. The image is scaled in two separable passes, first
+ * vertically and then horizontally, using weight tables that are computed once
+ * per source and destination size and shared between images.
+ * 
+ * <p>The pixels are read from and written to the arrays backing the rasters
+ * whenever the layout of the images allows it, and only a few rows of
+ * intermediate data are kept in memory at a time. The resampled image and the
+ * rows of intermediate data are taken from the {@link ImagePool} of the
+ * current thread. Unlike the <code>AffineTransformOp</code> the resizers use
+ * by default, the filters are widened when scaling down, so large reductions
+ * do not alias.</p>
+ * 
+ * <p>Images of type <code>TYPE_BYTE_GRAY</code> are resampled into gray images
+ * one channel at a time, which takes a quarter of the work of resampling them
+ * in color.</p>
+ * 
+ * <p>The class has no state, so it is safe to use from multiple threads at the
+ * same time.</p>
+ */
+public final class SeparableResampler {
+	/**
+	 * Prevents instantiation.
+	 */
+	private SeparableResampler() {
+	}
+	
+	/**
+	 * Resamples the given image to the given dimensions. The resampled image is
+	 * of type <code>TYPE_BYTE_GRAY</code> if the source image is, of type
+	 * <code>TYPE_INT_ARGB</code> if the source image has an alpha channel, and
+	 * of type <code>TYPE_INT_RGB</code> otherwise.
+	 * 
+	 * @param image the image to resample
+	 * @param width the width of the resampled image
+	 * @param height the height of the resampled image
+	 * @param filter the filter to use
+	 * @return the resampled image
+	 * @throws IllegalArgumentException if the <code>image</code> or <code>filter</code> parameter
+	 *         is <code>null</code> or the <code>width</code> or <code>height</code> is less than 1
+	 */
+	public static BufferedImage resample(BufferedImage image, int width, int height, ResampleFilter filter)
+			throws IllegalArgumentException {
+		return resample(image, width, height, filter, RowConvolver.scalar());
+	}
+	
+	/**
+	 * Resamples the given image to the given dimensions, doing the arithmetic
+	 * with the given convolver. See {@link #resample(BufferedImage, int, int, ResampleFilter)}.
+	 * 
+	 * @param image the image to resample
+	 * @param width the width of the resampled image
+	 * @param height the height of the resampled image
+	 * @param filter the filter to use
+	 * @param convolver the convolver to use
+	 * @return the resampled image
+	 * @throws IllegalArgumentException if the <code>image</code>, <code>filter</code> or
+	 *         <code>convolver</code> parameter is <code>null</code> or the <code>width</code>
+	 *         or <code>height</code> is less than 1
+	 */
+	public static BufferedImage resample(BufferedImage image, int width, int height, ResampleFilter filter,
+			RowConvolver convolver) throws IllegalArgumentException {
+		return resample(image, width, height, filter, convolver, null);
+	}
+	
+	/**
+	 * Resamples the given image to the given dimensions, splitting the work into
+	 * bands of rows run in parallel on the given pool. The result is identical
+	 * to resampling the image in a single thread: every band reads the source
+	 * rows its filter overlaps, including the ones shared with the neighbouring
+	 * bands.
+	 * 
+	 * @param image the image to resample
+	 * @param width the width of the resampled image
+	 * @param height the height of the resampled image
+	 * @param filter the filter to use
+	 * @param convolver the convolver to use
+	 * @param pool the pool to run the bands on, or <code>null</code> to resample in the calling thread
+	 * @return the resampled image
+	 * @throws IllegalArgumentException if the <code>image</code>, <code>filter</code> or
+	 *         <code>convolver</code> parameter is <code>null</code> or the <code>width</code>
+	 *         or <code>height</code> is less than 1
+	 */
+	public static BufferedImage resample(BufferedImage image, int width, int height, ResampleFilter filter,
+			RowConvolver convolver, ForkJoinPool pool) throws IllegalArgumentException {
+		if (image == null)
+			throw new IllegalArgumentException("the image parameter must not be null");
+		
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("the width and height must not be less than 1");
+		
+		int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		if (image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		
+		BufferedImage result = ImagePool.current().acquire(width, height, type);
+		
+		resample(image, width, height, filter, convolver, result, 0, 0, pool);
+		return result;
+	}
+	
+	/**
+	 * Resamples the given image to the given dimensions and writes the result
+	 * straight into the given destination image with its upper left corner at
+	 * the given position. Parts of the result falling outside the destination
+	 * image are clipped and never computed, and the pixels of the destination
+	 * image outside the result are not touched.
+	 * 
+	 * <p>If the source image has an alpha channel and the destination image does
+	 * not, the result is composited over the pixels already in the destination
+	 * image. Otherwise the pixels of the destination image are replaced.</p>
+	 * 
+	 * @param image the image to resample
+	 * @param width the width of the resampled image
+	 * @param height the height of the resampled image
+	 * @param filter the filter to use
+	 * @param convolver the convolver to use
+	 * @param dest the image to write the result to; must be of type
+	 *        <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code>, or of type
+	 *        <code>TYPE_BYTE_GRAY</code> if the source image is
+	 * @param x the horizontal position of the result in the destination image
+	 * @param y the vertical position of the result in the destination image
+	 * @param pool the pool to run the bands on, or <code>null</code> to resample in the calling thread
+	 * @throws IllegalArgumentException if the <code>image</code>, <code>filter</code>,
+	 *         <code>convolver</code> or <code>dest</code> parameter is <code>null</code>,
+	 *         the <code>width</code> or <code>height</code> is less than 1, or the
+	 *         destination image is of an other type
+	 */
+	public static void resample(BufferedImage image, int width, int height, ResampleFilter filter,
+			RowConvolver convolver, BufferedImage dest, int x, int y, ForkJoinPool pool)
+			throws IllegalArgumentException {
+		if (image == null)
+			throw new IllegalArgumentException("the image parameter must not be null");
+		
+		if (filter == null)
+			throw new IllegalArgumentException("the filter parameter must not be null");
+		
+		if (convolver == null)
+			throw new IllegalArgumentException("the convolver parameter must not be null");
+		
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("the width and height must not be less than 1");
+		
+		if (dest == null)
+			throw new IllegalArgumentException("the dest parameter must not be null");
+		
+		boolean gray = dest.getType() == BufferedImage.TYPE_BYTE_GRAY;
+		
+		if (gray && image.getType() != BufferedImage.TYPE_BYTE_GRAY)
+			throw new IllegalArgumentException("the dest parameter must not be of type TYPE_BYTE_GRAY unless the image is");
+		
+		if (!gray && dest.getType() != BufferedImage.TYPE_INT_RGB && dest.getType() != BufferedImage.TYPE_INT_ARGB)
+			throw new IllegalArgumentException("the dest parameter must be of type TYPE_INT_RGB or TYPE_INT_ARGB");
+		
+		// Only the rows and columns inside the destination image are computed
+		int first = Math.max(0, -y);
+		int last  = Math.min(height, dest.getHeight() - y);
+		int left  = Math.max(0, -x);
+		int right = Math.min(width, dest.getWidth() - x);
+		
+		if (first >= last || left >= right)
+			return;
+		
+		WritableRaster raster = dest.getRaster();
+		
+		if (gray) {
+			ComponentSampleModel csm = (ComponentSampleModel)raster.getSampleModel();
+			
+			GrayTarget target = new GrayTarget();
+			target.pixels     = ((DataBufferByte)raster.getDataBuffer()).getData();
+			target.stride     = csm.getScanlineStride();
+			target.offset     = raster.getDataBuffer().getOffset()
+					+ csm.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+			target.left       = left;
+			target.right      = right;
+			
+			RowBandTask.run(new GrayBand(image, target, width, height, filter, convolver, first, last,
+					RowBandTask.getBandHeight(last - first, pool)), pool);
+			return;
+		}
+		
+		BufferedImageRowSource source      = new BufferedImageRowSource(image);
+		SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel)raster.getSampleModel();
+		
+		Target target    = new Target();
+		target.pixels    = ((DataBufferInt)raster.getDataBuffer()).getData();
+		target.stride    = sppsm.getScanlineStride();
+		target.offset    = raster.getDataBuffer().getOffset()
+				+ sppsm.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+		target.left      = left;
+		target.right     = right;
+		target.composite = source.hasAlpha() && !dest.getColorModel().hasAlpha();
+		
+		RowBandTask.run(new Band(source, target, width, height, filter, convolver, first, last,
+				RowBandTask.getBandHeight(last - first, pool)), pool);
+	}
+	
+	/**
+	 * Composites a non-premultiplied ARGB pixel over an opaque RGB pixel.
+	 * 
+	 * @param src the pixel to composite
+	 * @param dst the pixel to composite over
+	 * @return the composited pixel
+	 */
+	static int compositeOver(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0xff)
+			return src;
+		
+		if (a == 0)
+			return dst;
+		
+		int na = 0xff - a;
+		int r  = (((src >> 16) & 0xff) * a + ((dst >> 16) & 0xff) * na + 127) / 255;
+		int g  = (((src >> 8) & 0xff) * a + ((dst >> 8) & 0xff) * na + 127) / 255;
+		int b  = ((src & 0xff) * a + (dst & 0xff) * na + 127) / 255;
+		
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+	
+	/**
+	 * The part of the destination image the resampled rows are written to.
+	 */
+	private static final class Target {
+		int[] pixels;
+		int offset;
+		int stride;
+		int left;
+		int right;
+		boolean composite;
+	}
+	
+	/**
+	 * The part of the gray destination image the resampled rows are written to.
+	 */
+	private static final class GrayTarget {
+		byte[] pixels;
+		int offset;
+		int stride;
+		int left;
+		int right;
+	}
+	
+	/**
+	 * Resamples a band of rows.
+	 */
+	private static final class Band extends RowBandTask {
+		private final BufferedImageRowSource source;
+		private final Target target;
+		private final int width;
+		private final int height;
+		private final ResampleFilter filter;
+		private final RowConvolver convolver;
+		
+		Band(BufferedImageRowSource source, Target target, int width, int height, ResampleFilter filter,
+				RowConvolver convolver, int first, int last, int bandHeight) {
+			super(first, last, bandHeight);
+			
+			this.source    = source;
+			this.target    = target;
+			this.width     = width;
+			this.height    = height;
+			this.filter    = filter;
+			this.convolver = convolver;
+		}
+		
+		RowBandTask createSubtask(int first, int last, int bandHeight) {
+			return new Band(source, target, width, height, filter, convolver, first, last, bandHeight);
+		}
+		
+		void computeBand(int first, int last) {
+			ScaledRowSource scaled = new ScaledRowSource(source, width, height, filter, convolver);
+			int[] row              = new int[width];
+			int[] pixels           = target.pixels;
+			int left               = target.left;
+			int right              = target.right;
+			
+			try {
+				for (int y = first; y < last; y++) {
+					scaled.readRow(y, row);
+					int o = target.offset + y * target.stride;
+					
+					if (target.composite) {
+						for (int x = left; x < right; x++)
+							pixels[o + x] = compositeOver(row[x], pixels[o + x]);
+					} else {
+						System.arraycopy(row, left, pixels, o + left, right - left);
+					}
+				}
+			} catch (IOException ex) {
+				// Reading a BufferedImage never fails
+				throw new IllegalStateException(ex);
+			} finally {
+				scaled.dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Resamples a band of rows of a gray image.
+	 */
+	private static final class GrayBand extends RowBandTask {
+		private final BufferedImage image;
+		private final GrayTarget target;
+		private final int width;
+		private final int height;
+		private final ResampleFilter filter;
+		private final RowConvolver convolver;
+		
+		GrayBand(BufferedImage image, GrayTarget target, int width, int height, ResampleFilter filter,
+				RowConvolver convolver, int first, int last, int bandHeight) {
+			super(first, last, bandHeight);
+			
+			this.image     = image;
+			this.target    = target;
+			this.width     = width;
+			this.height    = height;
+			this.filter    = filter;
+			this.convolver = convolver;
+		}
+		
+		RowBandTask createSubtask(int first, int last, int bandHeight) {
+			return new GrayBand(image, target, width, height, filter, convolver, first, last, bandHeight);
+		}
+		
+		void computeBand(int first, int last) {
+			ScaledGrayRows scaled = new ScaledGrayRows(image, width, height, filter, convolver);
+			byte[] row            = new byte[width];
+			
+			try {
+				for (int y = first; y < last; y++) {
+					scaled.readRow(y, row);
+					System.arraycopy(row, target.left, target.pixels, target.offset + y * target.stride + target.left,
+							target.right - target.left);
+				}
+			} finally {
+				scaled.dispose();
+			}
+		}
+	}
+}
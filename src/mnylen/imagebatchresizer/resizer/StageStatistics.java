@@ -0,0 +1,124 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects statistics about a single stage of a <code>PipelinedBatchResizer</code>.
+ * The utilization of a stage tells how big part of the time its threads were
+ * busy working instead of waiting for input or for room in the next stage, so
+ * the stage with the highest utilization is the bottleneck of the batch.
+ */
+public class StageStatistics {
+	private final PipelineStage stage;
+	private final int threadCount;
+	private final AtomicLong busyNanos;
+	private final AtomicInteger itemCount;
+	private volatile long startNanos;
+	private volatile long endNanos;
+	
+	/**
+	 * Creates a new <code>StageStatistics</code> instance for the given stage.
+	 * 
+	 * @param stage the stage the statistics are collected for
+	 * @param threadCount the number of threads working in the stage
+	 */
+	StageStatistics(PipelineStage stage, int threadCount) {
+		this.stage       = stage;
+		this.threadCount = threadCount;
+		this.busyNanos   = new AtomicLong();
+		this.itemCount   = new AtomicInteger();
+	}
+	
+	/**
+	 * Marks the beginning of the measurement.
+	 */
+	void start() {
+		startNanos = System.nanoTime();
+		endNanos   = 0;
+	}
+	
+	/**
+	 * Marks the end of the measurement.
+	 */
+	void stop() {
+		endNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Records an item processed by the stage.
+	 * @param nanos the time spent on processing the item, in nanoseconds
+	 */
+	void record(long nanos) {
+		busyNanos.addAndGet(nanos);
+		itemCount.incrementAndGet();
+	}
+	
+	/**
+	 * Gets the stage the statistics are collected for.
+	 * @return the stage
+	 */
+	public PipelineStage getStage() {
+		return stage;
+	}
+	
+	/**
+	 * Gets the number of threads working in the stage.
+	 * @return the number of threads
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+	
+	/**
+	 * Gets the number of items processed by the stage so far.
+	 * @return the number of items processed
+	 */
+	public int getItemCount() {
+		return itemCount.get();
+	}
+	
+	/**
+	 * Gets the total time the threads of the stage have been busy.
+	 * @return the busy time in nanoseconds
+	 */
+	public long getBusyTime() {
+		return busyNanos.get();
+	}
+	
+	/**
+	 * Gets the time elapsed since the batch was started, or the duration of the
+	 * whole batch if it has finished.
+	 * 
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getElapsedTime() {
+		if (startNanos == 0)
+			return 0;
+		
+		return ((endNanos != 0) ? endNanos : System.nanoTime()) - startNanos;
+	}
+	
+	/**
+	 * Gets the utilization of the stage, that is, the busy time divided by the
+	 * total time available to the threads of the stage.
+	 * 
+	 * @return the utilization between <code>0.0</code> and <code>1.0</code>
+	 */
+	public double getUtilization() {
+		long available = getElapsedTime() * threadCount;
+		if (available <= 0)
+			return 0.0;
+		
+		return Math.min(1.0, (double)getBusyTime() / available);
+	}
+	
+	/**
+	 * Returns a short human readable summary of the statistics.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: %d threads, %d items, %.1f %% utilization",
+				stage, threadCount, getItemCount(), getUtilization() * 100);
+	}
+}
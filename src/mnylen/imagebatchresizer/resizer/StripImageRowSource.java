@@ -0,0 +1,206 @@
+package mnylen.imagebatchresizer.resizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An <code>ImageRowSource</code> that decodes an image file in horizontal strips
+ * using <code>ImageReadParam.setSourceRegion</code>. Only one strip is held in
+ * memory at a time, so images far larger than the heap can be read.
+ * 
+ * <p>Formats with random access to the pixel data, like tiled or stripped TIFF,
+ * decode only the requested strip. Sequential formats like PNG and JPEG have to
+ * be decoded from the beginning for every strip, so tall strips should be used
+ * for them to keep the number of passes low.</p>
+ */
+public class StripImageRowSource implements ImageRowSource, Closeable {
+	private final ImageInputStream stream;
+	private final ImageReader reader;
+	private final int srcWidth;
+	private final int srcHeight;
+	private final int subsampling;
+	private final int width;
+	private final int height;
+	private final int stripHeight;
+	private final boolean alpha;
+	
+	private BufferedImage strip;
+	private int stripStart;
+	private boolean failed;
+	private boolean closed;
+	
+	/**
+	 * Opens the given file for reading in strips.
+	 * 
+	 * @param file the file to read
+	 * @param subsampling the subsampling factor to decode the image with (see
+	 *        {@link ImageUtil#getSubsamplingFactor(int, int, int, int)})
+	 * @param stripHeight the number of rows in a strip, after subsampling
+	 * @throws FileNotFoundException if the file was not found
+	 * @throws IOException if the file could not be readed
+	 * @throws ImageLoadException if the file does not contain image data
+	 * @throws IllegalArgumentException if the <code>subsampling</code> or
+	 *         <code>stripHeight</code> parameter is less than 1
+	 */
+	public StripImageRowSource(File file, int subsampling, int stripHeight)
+	  throws FileNotFoundException, IOException, ImageLoadException, IllegalArgumentException {
+		
+		if (subsampling < 1)
+			throw new IllegalArgumentException("the value of subsampling parameter must not be less than 1");
+		
+		if (stripHeight < 1)
+			throw new IllegalArgumentException("the value of stripHeight parameter must not be less than 1");
+		
+		if (!(file.exists()))
+			throw new FileNotFoundException(file.getPath());
+		
+		stream = ImageCodecs.openInput(file);
+		
+		try {
+			reader = ImageCodecs.takeReader(stream);
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+		
+		if (reader == null) {
+			stream.close();
+			throw new ImageLoadException("The file does not contain image data");
+		}
+		
+		reader.setInput(stream, false, true);
+		
+		try {
+			this.srcWidth    = reader.getWidth(0);
+			this.srcHeight   = reader.getHeight(0);
+			
+			ImageTypeSpecifier type = reader.getRawImageType(0);
+			if (type == null)
+				type = reader.getImageTypes(0).next();
+			
+			this.alpha       = type.getColorModel().hasAlpha();
+		} catch (IOException e) {
+			failed = true;
+			close();
+			throw e;
+		}
+		
+		this.subsampling = subsampling;
+		this.width       = ImageUtil.subsampledLength(srcWidth, subsampling);
+		this.height      = ImageUtil.subsampledLength(srcHeight, subsampling);
+		this.stripHeight = Math.min(stripHeight, height);
+		this.stripStart  = -1;
+	}
+	
+	/**
+	 * Gets the width of the image, after subsampling.
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Gets the height of the image, after subsampling.
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Tells whether the image has an alpha channel.
+	 * @return <code>true</code> if the image has an alpha channel; <code>false</code> otherwise
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * Reads a row of the image, decoding the strip containing the row if it is
+	 * not the current strip. The rows must be read in ascending order.
+	 * 
+	 * @param y the row to read
+	 * @param row the array to read the pixels to
+	 * @throws IOException if decoding the strip fails
+	 * @throws IllegalStateException if the row is above the current strip
+	 */
+	public void readRow(int y, int[] row) throws IOException, IllegalStateException {
+		if (strip == null || y >= stripStart + strip.getHeight()) {
+			if (y < stripStart)
+				throw new IllegalStateException("row " + y + " has already been passed");
+			
+			readStrip(y);
+		} else if (y < stripStart) {
+			throw new IllegalStateException("row " + y + " has already been passed");
+		}
+		
+		strip.getRGB(0, y - stripStart, width, 1, row, 0, width);
+	}
+	
+	/**
+	 * Decodes the strip starting at the given row.
+	 * 
+	 * @param y the first row of the strip, after subsampling
+	 * @throws IOException if decoding the strip fails
+	 */
+	private void readStrip(int y) throws IOException {
+		int rows   = Math.min(stripHeight, height - y);
+		int srcTop = y * subsampling;
+		int srcRows = Math.min(srcHeight - srcTop, (rows - 1) * subsampling + 1);
+		
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(new Rectangle(0, srcTop, srcWidth, srcRows));
+		
+		if (subsampling > 1)
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		
+		// Let the previous strip be collected before the next one is decoded
+		strip = null;
+		
+		try {
+			strip = reader.read(0, param);
+		} catch (IOException e) {
+			failed = true;
+			throw e;
+		}
+		
+		stripStart = y;
+	}
+	
+	/**
+	 * Gets the estimated amount of memory a strip of the given image takes.
+	 * 
+	 * @param width the width of the image, after subsampling
+	 * @param stripHeight the number of rows in a strip
+	 * @return the estimated size in bytes
+	 */
+	public static long estimateStripSize(int width, int stripHeight) {
+		return ImageUtil.estimateDecodedSize(width, stripHeight);
+	}
+	
+	/**
+	 * Gives the reader back for reuse and closes the file. A reader that failed
+	 * to decode the image is disposed instead. Closing the source again has no
+	 * effect.
+	 * @throws IOException if closing the file fails
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		
+		closed = true;
+		strip  = null;
+		ImageCodecs.giveBack(reader, !failed);
+		stream.close();
+	}
+}
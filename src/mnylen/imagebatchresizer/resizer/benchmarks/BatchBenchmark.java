@@ -0,0 +1,248 @@
+package mnylen.imagebatchresizer.resizer.benchmarks;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of <code>BatchResizer</code> with different numbers
+ * of worker threads. The corpus is built by copying the images in
+ * <em>testimages</em> to a temporary directory as many times as requested.
+ * 
+ * <p>Usage: <code>BatchBenchmark [copies] [maxThreads] [pool|pipeline] [images]</code></p>
+ * 
+ * <p>The images to copy can be given as a comma separated list of file names
+ * in <em>testimages</em>; by default all the test images are used.</p>
+ * 
+ * <p>In <code>pipeline</code> mode a <code>PipelinedBatchResizer</code> is used
+ * with the given number of threads in every stage, and the utilization of the
+ * stages is printed after each run.</p>
+ * 
+ * <p>The number of garbage collections and the time spent in them is printed
+ * for every run. With a single thread the batch is processed in the thread
+ * running it, so the bytes allocated for processing the batch are printed as
+ * well.</p>
+ */
+public class BatchBenchmark {
+	private static final String[] CORPUS = {
+		"example1.jpg", "example2.png", "example3.jpg", "example4.bmp", "example5.gif"
+	};
+	
+	/**
+	 * The results of running a batch.
+	 */
+	static final class Measurement {
+		long elapsed;
+		long allocated = -1;
+		long gcCount;
+		long gcTime;
+	}
+	
+	/**
+	 * Creates the benchmark corpus.
+	 * 
+	 * @param srcDirectory the directory to copy the images to
+	 * @param copies how many times each image is copied
+	 * @param images the names of the images to copy
+	 * @return the number of files in the corpus
+	 * @throws IOException if copying the images fails
+	 */
+	static int createCorpus(File srcDirectory, int copies, String[] images) throws IOException {
+		int count = 0;
+		
+		for (int i = 0; i < copies; i++) {
+			for (String name : images) {
+				File dst = new File(srcDirectory, i + "_" + name);
+				Files.copy(new File("testimages", name).toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Runs the given batch to completion.
+	 * 
+	 * @param batch the batch to run
+	 * @return the results of the run
+	 * @throws InterruptedException if interrupted while waiting for the batch
+	 */
+	static Measurement runBatch(BatchResizer batch) throws InterruptedException {
+		final CountDownLatch finished = new CountDownLatch(1);
+		final int[] errors = new int[1];
+		final long[] allocated = new long[2];
+		
+		batch.setProgressListener(new BatchProgressListener() {
+			public void stateChanged(BatchEvent evt) {
+				// The state changes are fired by the thread running the batch
+				if (evt.getState() == BatchState.Processing)
+					allocated[0] = allocatedBytes();
+				
+				if (evt.getState() == BatchState.Finished) {
+					allocated[1] = allocatedBytes();
+					finished.countDown();
+				}
+			}
+			
+			public void fileChanged(BatchEvent evt) { }
+			public void fileSaved(BatchSaveEvent evt) { }
+			
+			public void errorOccured(BatchErrorEvent evt) {
+				errors[0]++;
+			}
+		});
+		
+		Measurement result = new Measurement();
+		result.gcCount     = -gcCount();
+		result.gcTime      = -gcTime();
+		
+		long start = System.nanoTime();
+		batch.start();
+		finished.await();
+		
+		result.elapsed  = System.nanoTime() - start;
+		result.gcCount += gcCount();
+		result.gcTime  += gcTime();
+		
+		if (allocated[0] >= 0 && allocated[1] >= 0)
+			result.allocated = allocated[1] - allocated[0];
+		
+		if (errors[0] > 0)
+			System.err.println(errors[0] + " files failed");
+		
+		return result;
+	}
+	
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 * @return the number of bytes; <code>-1</code> if the JVM does not track it
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		
+		return ((com.sun.management.ThreadMXBean)bean).getCurrentThreadAllocatedBytes();
+	}
+	
+	/**
+	 * Gets the total number of garbage collections so far.
+	 * @return the number of collections
+	 */
+	static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, bean.getCollectionCount());
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the total time spent in garbage collections so far.
+	 * @return the time in milliseconds
+	 */
+	static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, bean.getCollectionTime());
+		
+		return time;
+	}
+	
+	/**
+	 * Deletes the files in the given directory and the directory itself.
+	 * @param directory the directory to delete
+	 */
+	static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		
+		directory.delete();
+	}
+	
+	/**
+	 * Doubles the thread count, but makes sure the maximum is measured as well.
+	 * 
+	 * @param threads the current thread count
+	 * @param maxThreads the maximum thread count
+	 * @return the next thread count to measure
+	 */
+	static int nextThreadCount(int threads, int maxThreads) {
+		if (threads == maxThreads)
+			return maxThreads + 1;
+		
+		return Math.min(threads * 2, maxThreads);
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the number of copies of the corpus, the maximum number of threads,
+	 *        the mode and the images of the corpus
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int copies     = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		boolean pipelined = (args.length > 2) && args[2].equals("pipeline");
+		String[] images   = (args.length > 3) ? args[3].split(",") : CORPUS;
+		
+		File srcDirectory = Files.createTempDirectory("batchbenchmark-src").toFile();
+		File dstDirectory = Files.createTempDirectory("batchbenchmark-dst").toFile();
+		
+		try {
+			int fileCount = createCorpus(srcDirectory, copies, images);
+			System.out.println(fileCount + " files, " + Runtime.getRuntime().availableProcessors() + " processors");
+			
+			for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+				ImageSaver saver     = new JPEGImageSaver(dstDirectory, null);
+				ImageResizer resizer = new AspectKeepingImageResizer();
+				BatchResizer batch;
+				
+				if (pipelined) {
+					PipelinedBatchResizer pipeline = new PipelinedBatchResizer(saver, resizer);
+					for (PipelineStage stage : PipelineStage.values())
+						pipeline.setStageThreadCount(stage, threads);
+					
+					batch = pipeline;
+				} else {
+					batch = new BatchResizer(saver, resizer);
+					batch.setThreadCount(threads);
+				}
+				
+				for (File file : srcDirectory.listFiles())
+					batch.addFile(file);
+				
+				Measurement run = runBatch(batch);
+				double seconds  = run.elapsed / 1e9;
+				
+				System.out.printf("threads=%-3d %8.1f files/s   gc %4d times %6d ms", threads,
+						fileCount / seconds, run.gcCount, run.gcTime);
+				
+				if (threads == 1 && !pipelined && run.allocated >= 0)
+					System.out.printf("   allocated %8.1f MB/s %6.1f MB/file", run.allocated / 1e6 / seconds,
+							run.allocated / 1e6 / fileCount);
+				
+				System.out.println();
+				
+				if (pipelined) {
+					for (PipelineStage stage : PipelineStage.values())
+						System.out.println("    " + ((PipelinedBatchResizer)batch).getStatistics(stage));
+				}
+			}
+		} finally {
+			delete(srcDirectory);
+			delete(dstDirectory);
+		}
+	}
+}
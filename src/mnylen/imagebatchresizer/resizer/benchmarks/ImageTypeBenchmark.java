@@ -0,0 +1,176 @@
+package mnylen.imagebatchresizer.resizer.benchmarks;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+
+/**
+ * Compares the throughput of scaling images of different types. For every type
+ * the time of scaling the image as it is with the bilinear
+ * <code>AffineTransformOp</code> and with the triangle filter of the
+ * <code>SeparableResampler</code> is measured, as well as the time of
+ * converting the image to packed ints with <code>ImageUtil.normalize</code>
+ * and of scaling it with a <code>DefaultImageResizer</code>, which normalizes
+ * the image before scaling it.
+ * 
+ * <p>Usage: <code>ImageTypeBenchmark [srcWidth] [srcHeight] [dstWidth] [rounds]</code></p>
+ */
+public class ImageTypeBenchmark {
+	/**
+	 * A method of scaling images.
+	 */
+	static abstract class Method {
+		abstract BufferedImage scale(BufferedImage image, int width, int height);
+	}
+	
+	/**
+	 * Converts the given image to the given type.
+	 * 
+	 * @param image the image to convert
+	 * @param type the type to convert to
+	 * @return the converted image
+	 */
+	static BufferedImage convert(BufferedImage image, int type) {
+		return draw(image, new BufferedImage(image.getWidth(), image.getHeight(), type));
+	}
+	
+	/**
+	 * Converts the given image to a custom image with 16-bit RGB samples, like
+	 * the PNG reader produces for 48-bit images.
+	 * 
+	 * @param image the image to convert
+	 * @return the converted image
+	 */
+	static BufferedImage convertCustom(BufferedImage image) {
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+				false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+		
+		return draw(image, new BufferedImage(cm, raster, false, null));
+	}
+	
+	/**
+	 * Draws the given image on the given destination image.
+	 * 
+	 * @param image the image to draw
+	 * @param dest the image to draw on
+	 * @return the destination image
+	 */
+	static BufferedImage draw(BufferedImage image, BufferedImage dest) {
+		Graphics2D g = dest.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		
+		return dest;
+	}
+	
+	/**
+	 * Measures the average time of scaling the given image with the given method.
+	 * 
+	 * @param method the method to measure
+	 * @param image the image to scale
+	 * @param width the width of the scaled image
+	 * @param height the height of the scaled image
+	 * @param rounds the number of rounds to time
+	 * @return the average time in milliseconds
+	 */
+	static double measure(Method method, BufferedImage image, int width, int height, int rounds) {
+		// Warm up
+		method.scale(image, width, height);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			method.scale(image, width, height);
+		
+		return (System.nanoTime() - start) / 1e6 / rounds;
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the dimensions of the source image, the width of the scaled image
+	 *        and the number of rounds to time
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int srcWidth  = (args.length > 0) ? Integer.parseInt(args[0]) : 3000;
+		int srcHeight = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int dstWidth  = (args.length > 2) ? Integer.parseInt(args[2]) : 800;
+		int rounds    = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+		int dstHeight = Math.max(1, (int)Math.round((double)dstWidth * srcHeight / srcWidth));
+		
+		BufferedImage photo = ResizeBenchmark.photograph(srcWidth, srcHeight);
+		
+		String[] names = { "INT_RGB", "INT_ARGB", "3BYTE_BGR", "4BYTE_ABGR", "BYTE_INDEXED",
+		                   "BYTE_GRAY", "USHORT_565_RGB", "CUSTOM (16-bit RGB)" };
+		BufferedImage[] images = {
+			convert(photo, BufferedImage.TYPE_INT_RGB),
+			convert(photo, BufferedImage.TYPE_INT_ARGB),
+			photo,
+			convert(photo, BufferedImage.TYPE_4BYTE_ABGR),
+			convert(photo, BufferedImage.TYPE_BYTE_INDEXED),
+			convert(photo, BufferedImage.TYPE_BYTE_GRAY),
+			convert(photo, BufferedImage.TYPE_USHORT_565_RGB),
+			convertCustom(photo)
+		};
+		
+		Method affine = new Method() {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				AffineTransform tx = AffineTransform.getScaleInstance(
+						(double)width / image.getWidth(), (double)height / image.getHeight());
+				AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
+				
+				return op.filter(image, op.createCompatibleDestImage(image, null));
+			}
+		};
+		
+		Method resampler = new Method() {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				return SeparableResampler.resample(image, width, height, ResampleFilter.Triangle);
+			}
+		};
+		
+		Method normalize = new Method() {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				return ImageUtil.normalize(image);
+			}
+		};
+		
+		Method resizer = new Method() {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				return new DefaultImageResizer(width, height).resize(image);
+			}
+		};
+		
+		Method triangleResizer = new Method() {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				DefaultImageResizer resizer = new DefaultImageResizer(width, height);
+				resizer.setResampleFilter(ResampleFilter.Triangle);
+				
+				return resizer.resize(image);
+			}
+		};
+		
+		System.out.printf("%dx%d -> %dx%d, %d rounds, times in ms%n", srcWidth, srcHeight, dstWidth, dstHeight, rounds);
+		System.out.printf("%-20s %10s %10s %10s %10s %10s%n", "type", "normalize",
+				"ATO", "resizer", "Triangle", "resizer");
+		
+		for (int i = 0; i < images.length; i++) {
+			System.out.printf("%-20s %10.1f %10.1f %10.1f %10.1f %10.1f%n", names[i],
+					measure(normalize, images[i], dstWidth, dstHeight, rounds),
+					measure(affine, images[i], dstWidth, dstHeight, rounds),
+					measure(resizer, images[i], dstWidth, dstHeight, rounds),
+					measure(resampler, images[i], dstWidth, dstHeight, rounds),
+					measure(triangleResizer, images[i], dstWidth, dstHeight, rounds));
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package mnylen.imagebatchresizer.resizer.benchmarks;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the PNG encoder of the <code>PNGImageSaver</code> with the PNG
+ * writer of ImageIO. The time of saving and the size of the file are measured
+ * for a photograph and for a drawing with flat colors and text, with the writer
+ * of ImageIO, with the encoder at different compression levels and strategies,
+ * with the encoder compressing the blocks on a pool of threads, and with the
+ * colors reduced to a palette for indexed PNG and GIF files.
+ * 
+ * <p>Usage: <code>PNGBenchmark [width] [height] [rounds] [threads]</code></p>
+ */
+public class PNGBenchmark {
+	/**
+	 * A method of saving images.
+	 */
+	static abstract class Method {
+		final String name;
+		
+		Method(String name) {
+			this.name = name;
+		}
+		
+		abstract File save(BufferedImage image) throws Exception;
+	}
+	
+	/**
+	 * Creates a drawing with flat colors, lines and text, like a screenshot or
+	 * a chart.
+	 * 
+	 * @param width the width of the drawing
+	 * @param height the height of the drawing
+	 * @return the drawing
+	 */
+	static BufferedImage drawing(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g        = image.createGraphics();
+		
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+		
+		for (int i = 0; i < 40; i++) {
+			g.setColor(new Color(Color.HSBtoRGB(i / 40f, 0.6f, 0.9f)));
+			g.fillRect((i * 97) % width, (i * 61) % height, width / 6, height / 8);
+			g.setColor(Color.DARK_GRAY);
+			g.drawLine(0, (i * 37) % height, width, (i * 53) % height);
+		}
+		
+		g.setColor(Color.BLACK);
+		for (int y = 20; y < height; y += 20)
+			g.drawString("The quick brown fox jumps over the lazy dog " + y, 10, y);
+		
+		g.dispose();
+		return image;
+	}
+	
+	/**
+	 * Creates a method saving images with the encoder of the <code>PNGImageSaver</code>.
+	 * 
+	 * @param dir the directory to save to
+	 * @param level the compression level
+	 * @param strategy the compression strategy
+	 * @param name the name of the strategy
+	 * @param pool the pool to save on, or <code>null</code> to save in the calling thread
+	 * @return the method
+	 * @throws Exception if creating the saver fails
+	 */
+	static Method encoder(File dir, int level, int strategy, String name, final ForkJoinPool pool)
+			throws Exception {
+		
+		final PNGImageSaver saver = new PNGImageSaver(dir, "encoder");
+		saver.setCompressionLevel(level);
+		saver.setCompressionStrategy(strategy);
+		
+		String threads = (pool == null) ? "" : ", " + pool.getParallelism() + " threads";
+		return new Method("encoder " + level + ", " + name + threads) {
+			File save(final BufferedImage image) throws Exception {
+				if (pool == null)
+					return saver.save(image, new File("image.png"));
+				
+				return pool.submit(new Callable<File>() {
+					public File call() throws Exception {
+						return saver.save(image, new File("image.png"));
+					}
+				}).get();
+			}
+		};
+	}
+	
+	/**
+	 * Creates a method saving images with the given saver.
+	 * 
+	 * @param name the name of the method
+	 * @param saver the saver
+	 * @return the method
+	 */
+	static Method saver(String name, final ImageSaver saver) {
+		return new Method(name) {
+			File save(BufferedImage image) throws Exception {
+				return saver.save(image, new File("image.png"));
+			}
+		};
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the dimensions of the images, the number of rounds to time and
+	 *        the number of threads of the pool
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int width   = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int height  = (args.length > 1) ? Integer.parseInt(args[1]) : 1500;
+		int rounds  = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "png-benchmark");
+		dir.mkdirs();
+		
+		BufferedImage photo = ImageUtil.normalize(ResizeBenchmark.photograph(width, height));
+		BufferedImage chart = drawing(width, height);
+		ForkJoinPool pool   = new ForkJoinPool(Math.max(2, threads));
+		
+		Method[] methods = {
+			new Method("ImageIO") {
+				File save(BufferedImage image) throws Exception {
+					File file = new File(dir, "imageio.png");
+					ImageIO.write(image, "png", file);
+					
+					return file;
+				}
+			},
+			encoder(dir, 1, Deflater.DEFAULT_STRATEGY, "default", null),
+			encoder(dir, 3, Deflater.DEFAULT_STRATEGY, "default", null),
+			encoder(dir, 6, Deflater.DEFAULT_STRATEGY, "default", null),
+			encoder(dir, 6, Deflater.FILTERED, "filtered", null),
+			encoder(dir, 9, Deflater.DEFAULT_STRATEGY, "default", null),
+			encoder(dir, 3, Deflater.HUFFMAN_ONLY, "Huffman only", null),
+			encoder(dir, 3, Deflater.DEFAULT_STRATEGY, "default", pool),
+			saver("256 colors", new IndexedPNGImageSaver(dir, "indexed")),
+			saver("GIF", new GIFImageSaver(dir, "gif"))
+		};
+		
+		System.out.printf("%dx%d, %d rounds, %d processors%n", width, height, rounds,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-36s %10s %10s %10s %10s%n", "method", "photo ms", "bytes", "chart ms", "bytes");
+		
+		for (Method method : methods) {
+			System.out.printf("%-36s", method.name);
+			
+			for (BufferedImage image : new BufferedImage[] { photo, chart }) {
+				// Warm up
+				File file = method.save(image);
+				
+				long start = System.nanoTime();
+				for (int i = 0; i < rounds; i++)
+					method.save(image);
+				
+				System.out.printf(" %10.1f %10d", (System.nanoTime() - start) / 1e6 / rounds, file.length());
+			}
+			
+			System.out.println();
+		}
+		
+		pool.shutdown();
+	}
+}
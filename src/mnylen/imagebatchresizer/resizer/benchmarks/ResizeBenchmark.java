@@ -0,0 +1,216 @@
+package mnylen.imagebatchresizer.resizer.benchmarks;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the <code>SeparableResampler</code> filters with the
+ * <code>AffineTransformOp</code> the resizers use by default. For every method
+ * the time of scaling a photograph is measured, as well as the aliasing left in
+ * a scaled zone plate: the rings of the zone plate that are too fine for the
+ * scaled image should turn to flat gray, so any deviation from gray there is
+ * aliasing. The filters are measured with the vector convolver as well, if it
+ * is available, and progressive mode is measured with the bilinear
+ * <code>AffineTransformOp</code> and the triangle filter.
+ * 
+ * <p>Usage: <code>ResizeBenchmark [srcWidth] [srcHeight] [dstWidth] [rounds]</code></p>
+ */
+public class ResizeBenchmark {
+	/**
+	 * A method of scaling images.
+	 */
+	static abstract class Method {
+		final String name;
+		
+		Method(String name) {
+			this.name = name;
+		}
+		
+		abstract BufferedImage scale(BufferedImage image, int width, int height);
+	}
+	
+	/**
+	 * Creates a method scaling images with an <code>AffineTransformOp</code>.
+	 * 
+	 * @param name the name of the method
+	 * @param type the interpolation type of the operation
+	 * @return the method
+	 */
+	static Method affine(String name, final int type) {
+		return new Method(name) {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				AffineTransform tx = AffineTransform.getScaleInstance(
+						(double)width / image.getWidth(), (double)height / image.getHeight());
+				AffineTransformOp op = new AffineTransformOp(tx, type);
+				
+				return op.filter(image, op.createCompatibleDestImage(image, null));
+			}
+		};
+	}
+	
+	/**
+	 * Creates a method scaling images with the <code>SeparableResampler</code>.
+	 * 
+	 * @param filter the filter to use
+	 * @param convolver the convolver to use
+	 * @return the method
+	 */
+	static Method resampler(final ResampleFilter filter, final RowConvolver convolver) {
+		return new Method(filter + ", " + convolver) {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				return SeparableResampler.resample(image, width, height, filter, convolver);
+			}
+		};
+	}
+	
+	/**
+	 * Creates a method scaling images with a <code>DefaultImageResizer</code>
+	 * in progressive mode.
+	 * 
+	 * @param filter the filter of the final pass, or <code>null</code> for the
+	 *        bilinear <code>AffineTransformOp</code>
+	 * @return the method
+	 */
+	static Method progressive(final ResampleFilter filter) {
+		return new Method(((filter != null) ? filter.toString() : "AffineTransformOp bilinear") + ", progressive") {
+			BufferedImage scale(BufferedImage image, int width, int height) {
+				DefaultImageResizer resizer = new DefaultImageResizer(width, height);
+				resizer.setResampleFilter(filter);
+				resizer.setProgressive(true);
+				
+				return resizer.resize(image);
+			}
+		};
+	}
+	
+	/**
+	 * Creates a zone plate, an image of concentric rings whose frequency grows
+	 * linearly from the center and reaches the Nyquist frequency of the image at
+	 * the edges.
+	 * 
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @return the zone plate
+	 */
+	static BufferedImage zonePlate(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		double k = Math.PI / Math.max(width, height);
+		
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double dx = x - width / 2.0, dy = y - height / 2.0;
+				int v = (int)Math.round(127.5 + 127.5 * Math.cos(k * (dx * dx + dy * dy)));
+				image.setRGB(x, y, (v << 16) | (v << 8) | v);
+			}
+		}
+		
+		return image;
+	}
+	
+	/**
+	 * Measures the aliasing in a scaled zone plate. Only the pixels whose rings
+	 * are finer than the scaled image can show are included.
+	 * 
+	 * @param image the scaled zone plate
+	 * @param scale the scale factor
+	 * @return the mean deviation from gray
+	 */
+	static double aliasing(BufferedImage image, double scale) {
+		int width = image.getWidth(), height = image.getHeight();
+		
+		// The rings at distance r are r / (size * scale) cycles per pixel, so they
+		// pass the Nyquist frequency at half of that; a margin is left for the
+		// transition band of the filters
+		double limit = 0.6 * Math.max(width, height) * scale;
+		
+		long total = 0, count = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double dx = x - width / 2.0, dy = y - height / 2.0;
+				
+				if (Math.sqrt(dx * dx + dy * dy) < limit)
+					continue;
+				
+				total += Math.abs((image.getRGB(x, y) & 0xff) - 128);
+				count++;
+			}
+		}
+		
+		return (count == 0) ? 0.0 : (double)total / count;
+	}
+	
+	/**
+	 * Creates the test photograph by scaling up <em>testimages/example1.jpg</em>.
+	 * 
+	 * @param width the width of the photograph
+	 * @param height the height of the photograph
+	 * @return the photograph
+	 * @throws Exception if loading the image fails
+	 */
+	static BufferedImage photograph(int width, int height) throws Exception {
+		BufferedImage example = ImageUtil.loadImage("testimages/example1.jpg");
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g.drawImage(example, 0, 0, width, height, null);
+		g.dispose();
+		
+		return image;
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the dimensions of the source image, the width of the scaled image
+	 *        and the number of rounds to time
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int srcWidth  = (args.length > 0) ? Integer.parseInt(args[0]) : 4000;
+		int srcHeight = (args.length > 1) ? Integer.parseInt(args[1]) : 3000;
+		int dstWidth  = (args.length > 2) ? Integer.parseInt(args[2]) : 800;
+		int rounds    = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+		int dstHeight = Math.max(1, (int)Math.round((double)dstWidth * srcHeight / srcWidth));
+		double scale  = (double)dstWidth / srcWidth;
+		
+		BufferedImage photo = photograph(srcWidth, srcHeight);
+		BufferedImage plate = zonePlate(srcWidth, srcHeight);
+		
+		List<Method> methods = new ArrayList<Method>();
+		methods.add(affine("AffineTransformOp bilinear", AffineTransformOp.TYPE_BILINEAR));
+		methods.add(affine("AffineTransformOp bicubic", AffineTransformOp.TYPE_BICUBIC));
+		methods.add(progressive(null));
+		methods.add(progressive(ResampleFilter.Triangle));
+		for (ResampleFilter filter : ResampleFilter.values()) {
+			methods.add(resampler(filter, RowConvolver.scalar()));
+			
+			if (RowConvolver.isVectorAvailable())
+				methods.add(resampler(filter, RowConvolver.vector()));
+		}
+		
+		System.out.printf("%dx%d -> %dx%d, %d rounds%n", srcWidth, srcHeight, dstWidth, dstHeight, rounds);
+		
+		for (Method method : methods) {
+			// Warm up
+			method.scale(photo, dstWidth, dstHeight);
+			
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				method.scale(photo, dstWidth, dstHeight);
+			
+			double ms = (System.nanoTime() - start) / 1e6 / rounds;
+			double aliasing = aliasing(method.scale(plate, dstWidth, dstHeight), scale);
+			
+			System.out.printf("%-44s %8.1f ms %8.1f MP/s   aliasing %5.1f%n", method.name, ms,
+					(double)srcWidth * srcHeight / ms / 1e3, aliasing);
+		}
+	}
+}
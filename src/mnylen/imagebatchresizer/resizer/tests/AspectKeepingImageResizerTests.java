@@ -1,6 +1,7 @@
 package mnylen.imagebatchresizer.resizer.tests;
 
 import mnylen.imagebatchresizer.resizer.*;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -79,4 +80,58 @@ public class AspectKeepingImageResizerTests {
     public void testResizeWithIllegalLength() throws IllegalArgumentException {
     	resizer.setLongSideLength(-1);
     }
+    
+    /**
+     * Tests resizing an image progressively.
+     * 
+     * <p>The test image <em>testimages/example1.jpg</em> is reduced to a tenth
+     * of its size with the bilinear <c>AffineTransformOp</c>, first directly and
+     * then progressively. Expected is that the progressive result is closer to
+     * the image resampled with the Lanczos filter than the direct one.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testProgressive() throws FileNotFoundException, IOException {
+        BufferedImage srcImage = ImageUtil.loadImage("testimages/example1.jpg");
+        resizer.setLongSideLength(Math.max(srcImage.getWidth(), srcImage.getHeight()) / 10);
+        
+        BufferedImage direct = resizer.resize(srcImage);
+        
+        resizer.setProgressive(true);
+        BufferedImage progressive = resizer.resize(srcImage);
+        assertTrue(resizer.isProgressive());
+        
+        resizer.setProgressive(false);
+        resizer.setResampleFilter(ResampleFilter.Lanczos3);
+        BufferedImage lanczos = resizer.resize(srcImage);
+        
+        assertEquals(direct.getWidth(), progressive.getWidth());
+        assertEquals(direct.getHeight(), progressive.getHeight());
+        assertTrue(ImageRowSourceTests.meanDifference(lanczos, progressive)
+                < ImageRowSourceTests.meanDifference(lanczos, direct));
+    }
+    
+    /**
+     * Tests that images are not scaled up when scaling up is turned off.
+     * 
+     * <p>The long side is set to 800. Expected is that a 400x300 image keeps
+     * its dimensions and is reported unchanged, and that a 1600x1200 image is
+     * still scaled down to 800x600.</p>
+     */
+    @Test
+    public void testNeverUpscale() {
+        resizer.setLongSideLength(800);
+        resizer.setNeverUpscale(true);
+        
+        assertEquals(new Dimension(400, 300), resizer.getTargetSize(400, 300));
+        assertTrue(resizer.isUnchanged(400, 300));
+        
+        assertEquals(new Dimension(800, 600), resizer.getTargetSize(1600, 1200));
+        assertFalse(resizer.isUnchanged(1600, 1200));
+        
+        resizer.setNeverUpscale(false);
+        assertEquals(new Dimension(800, 600), resizer.getTargetSize(400, 300));
+    }
 }
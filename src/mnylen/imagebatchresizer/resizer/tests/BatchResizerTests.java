@@ -0,0 +1,680 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests that the <code>BatchResizer</code> class works as expected.
+ */
+public class BatchResizerTests {
+    private File dstDirectory;
+    private RecordingListener listener;
+    
+    /**
+     * Records the events received from the batch progress.
+     */
+    private static class RecordingListener implements BatchProgressListener {
+        final List<BatchState> states = Collections.synchronizedList(new ArrayList<BatchState>());
+        final List<File> started      = Collections.synchronizedList(new ArrayList<File>());
+        final List<File> saved        = Collections.synchronizedList(new ArrayList<File>());
+        final List<File> skipped      = Collections.synchronizedList(new ArrayList<File>());
+        final List<File> failed       = Collections.synchronizedList(new ArrayList<File>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        
+        public void stateChanged(BatchEvent evt) {
+            states.add(evt.getState());
+            
+            if (evt.getState() == BatchState.Finished)
+                finished.countDown();
+        }
+        
+        public void fileChanged(BatchEvent evt) {
+            started.add(evt.getCurrentFile());
+        }
+        
+        public void fileSaved(BatchSaveEvent evt) {
+            saved.add(evt.getCurrentFile());
+            
+            if (evt.isSkipped())
+                skipped.add(evt.getCurrentFile());
+        }
+        
+        public void errorOccured(BatchErrorEvent evt) {
+            failed.add(evt.getCurrentFile());
+        }
+    }
+    
+    /**
+     * Initializes the test case.
+     */
+    @Before
+    public void initialize() {
+        dstDirectory = new File("testimages/batchtest");
+        dstDirectory.mkdir();
+        
+        listener = new RecordingListener();
+    }
+    
+    /**
+     * Cleans up any created resources.
+     */
+    @After
+    public void cleanUp() {
+        for (File file : dstDirectory.listFiles())
+            file.delete();
+        
+        dstDirectory.delete();
+    }
+    
+    /**
+     * Adds all test images to the given batch.
+     * 
+     * @param batch the batch to add the files to
+     * @return the files added
+     */
+    private List<File> addTestImages(BatchResizer batch) {
+        List<File> files = new ArrayList<File>();
+        files.add(new File("testimages/example1.jpg"));
+        files.add(new File("testimages/example2.png"));
+        files.add(new File("testimages/example3.jpg"));
+        files.add(new File("testimages/example4.bmp"));
+        files.add(new File("testimages/example5.gif"));
+        files.add(new File("testimages/nonimage.txt"));
+        
+        for (File file : files)
+            assertTrue(batch.addFile(file));
+        
+        return files;
+    }
+    
+    /**
+     * Tests passing through files that already meet the target.
+     * 
+     * <p><em>example1.jpg</em> and <em>example2.png</em> are saved as JPEG
+     * images with a long side of 2000, which neither reaches, without scaling
+     * up. Expected is that the JPEG image is copied byte for byte, and hard
+     * linked when links are requested, while the PNG image is encoded as a
+     * JPEG image.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testPassThrough() throws Exception {
+        AspectKeepingImageResizer resizer = new AspectKeepingImageResizer(2000);
+        resizer.setNeverUpscale(true);
+        
+        File jpegFile = new File("testimages/example1.jpg");
+        File pngFile  = new File("testimages/example2.png");
+        File copied   = new File(dstDirectory, "example1.jpg");
+        File encoded  = new File(dstDirectory, "example2.jpg");
+        
+        for (PassThrough passThrough : new PassThrough[] { PassThrough.Copy, PassThrough.Link }) {
+            RecordingListener listener = new RecordingListener();
+            BatchResizer batch         = new BatchResizer(new JPEGImageSaver(dstDirectory, null), resizer);
+            
+            batch.setPassThrough(passThrough);
+            batch.setProgressListener(listener);
+            batch.addFile(jpegFile);
+            batch.addFile(pngFile);
+            batch.start();
+            
+            assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+            assertEquals(2, listener.saved.size());
+            
+            assertArrayEquals(Files.readAllBytes(jpegFile.toPath()), Files.readAllBytes(copied.toPath()));
+            assertEquals(passThrough == PassThrough.Link, Files.isSameFile(jpegFile.toPath(), copied.toPath()));
+            assertTrue(encoded.length() > 0);
+        }
+    }
+    
+    /**
+     * Tests serving files from the output cache.
+     * 
+     * <p><em>example1.jpg</em> and <em>example2.png</em> are resized to a long
+     * side of 200 three times with an output cache: twice with the same
+     * parameters, and once more with another JPEG quality. Expected is that
+     * the second run is served from the cache with byte for byte the same
+     * files as the first, and that the changed quality misses the cache.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testOutputCache() throws Exception {
+        File cacheDirectory = new File("testimages/outputcachetest");
+        cacheDirectory.mkdir();
+        
+        try {
+            OutputCache cache = new OutputCache(cacheDirectory, 64 * 1024 * 1024);
+            File[] files      = { new File("testimages/example1.jpg"), new File("testimages/example2.png") };
+            File[] results    = { new File(dstDirectory, "example1.jpg"), new File(dstDirectory, "example2.jpg") };
+            byte[][] written  = new byte[results.length][];
+            
+            for (int run = 0; run < 3; run++) {
+                RecordingListener listener = new RecordingListener();
+                JPEGImageSaver saver       = new JPEGImageSaver(dstDirectory, null);
+                BatchResizer batch         = new BatchResizer(saver, new AspectKeepingImageResizer(200));
+                
+                if (run == 2)
+                    saver.setQuality(0.5f);
+                
+                batch.setOutputCache(cache);
+                batch.setProgressListener(listener);
+                for (File file : files)
+                    batch.addFile(file);
+                
+                batch.start();
+                assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+                assertEquals(files.length, listener.saved.size());
+                
+                for (int i = 0; i < results.length; i++) {
+                    byte[] bytes = Files.readAllBytes(results[i].toPath());
+                    
+                    if (run == 0)
+                        written[i] = bytes;
+                    else if (run == 1)
+                        assertArrayEquals(written[i], bytes);
+                    
+                    results[i].delete();
+                }
+            }
+            
+            assertEquals(files.length, cache.getHits());
+            assertEquals(2 * files.length, cache.getMisses());
+            assertEquals(2 * files.length, cacheDirectory.listFiles().length);
+            
+            // Replace the results with what a crash or another program could
+            // leave behind under similar names
+            for (File file : cacheDirectory.listFiles()) {
+                Files.write(new File(cacheDirectory, ".ibr-" + file.getName() + "123456.tmp.98765.part").toPath(), new byte[3]);
+                Files.write(new File(cacheDirectory, file.getName() + ".old").toPath(), new byte[3]);
+                file.delete();
+            }
+            
+            cache                      = new OutputCache(cacheDirectory, 64 * 1024 * 1024);
+            RecordingListener listener = new RecordingListener();
+            BatchResizer batch         = new BatchResizer(new JPEGImageSaver(dstDirectory, null), new AspectKeepingImageResizer(200));
+            
+            assertEquals(2 * files.length, cacheDirectory.listFiles().length);
+            
+            batch.setOutputCache(cache);
+            batch.setProgressListener(listener);
+            for (File file : files)
+                batch.addFile(file);
+            
+            batch.start();
+            assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+            assertEquals(files.length, listener.saved.size());
+            assertEquals(0, cache.getHits());
+            
+            for (File result : results)
+                assertTrue(result.length() > 3);
+        } finally {
+            for (File file : cacheDirectory.listFiles())
+                file.delete();
+            
+            cacheDirectory.delete();
+        }
+    }
+    
+    /**
+     * Tests re-running a batch with a manifest.
+     * 
+     * <p>Copies of <em>example1.jpg</em> and <em>example2.png</em> are resized
+     * with a manifest, which is then loaded again for every run. Expected is
+     * that the second run skips both files, that the third run processes only
+     * the file whose output was deleted, and that the fourth run, after the
+     * other source was deleted, prunes its output.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testManifest() throws Exception {
+        File srcDirectory = new File("testimages/manifesttest");
+        srcDirectory.mkdir();
+        
+        try {
+            File manifestFile = new File(srcDirectory, "manifest.bin");
+            File[] files      = { new File(srcDirectory, "example1.jpg"), new File(srcDirectory, "example2.png") };
+            File[] results    = { new File(dstDirectory, "example1.jpg"), new File(dstDirectory, "example2.jpg") };
+            
+            for (File file : files)
+                Files.copy(new File("testimages", file.getName()).toPath(), file.toPath());
+            
+            long[] expectedSkipped = { 0, 2, 1, 1 };
+            
+            for (int run = 0; run < 4; run++) {
+                if (run == 2)
+                    results[1].delete();
+                
+                if (run == 3)
+                    files[0].delete();
+                
+                RecordingListener listener = new RecordingListener();
+                BatchManifest manifest     = new BatchManifest(manifestFile);
+                BatchResizer batch         = new BatchResizer(new JPEGImageSaver(dstDirectory, null), new AspectKeepingImageResizer(200));
+                
+                manifest.setPrune(true);
+                batch.setManifest(manifest);
+                batch.setProgressListener(listener);
+                
+                for (int i = (run == 3) ? 1 : 0; i < files.length; i++)
+                    batch.addFile(files[i]);
+                
+                batch.start();
+                assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+                assertTrue(listener.failed.isEmpty());
+                
+                assertEquals(expectedSkipped[run], manifest.getSkipped());
+                assertEquals(expectedSkipped[run], listener.skipped.size());
+                assertEquals((run == 3) ? 1 : 0, manifest.getPruned());
+            }
+            
+            assertFalse(results[0].exists());
+            assertTrue(results[1].exists());
+            assertEquals(1, new BatchManifest(manifestFile).size());
+        } finally {
+            for (File file : srcDirectory.listFiles())
+                file.delete();
+            
+            srcDirectory.delete();
+        }
+    }
+    
+    /**
+     * Tests that the manifest does not skip a file written elsewhere, nor
+     * prune an output another source has since written.
+     * 
+     * <p>The test image is resized once, then again with a file name prefix,
+     * and then replaced by an image of the same name in another format.
+     * Expected is that the second run does not skip the file, and that the
+     * output of the replaced image is kept as the new image wrote it.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testManifestDestination() throws Exception {
+        File srcDirectory = new File("testimages/manifesttest");
+        srcDirectory.mkdir();
+        
+        try {
+            File manifestFile = new File(srcDirectory, "manifest.bin");
+            File[] files      = { new File(srcDirectory, "example.jpg"), new File(srcDirectory, "example.png") };
+            String[] prefixes = { null, "small_", "small_" };
+            
+            Files.copy(new File("testimages/example1.jpg").toPath(), files[0].toPath());
+            
+            for (int run = 0; run < 3; run++) {
+                if (run == 2) {
+                    files[0].delete();
+                    Files.copy(new File("testimages/example2.png").toPath(), files[1].toPath());
+                }
+                
+                RecordingListener listener = new RecordingListener();
+                BatchManifest manifest     = new BatchManifest(manifestFile);
+                BatchResizer batch         = new BatchResizer(new JPEGImageSaver(dstDirectory, prefixes[run]), new AspectKeepingImageResizer(200));
+                
+                manifest.setPrune(true);
+                batch.setManifest(manifest);
+                batch.setProgressListener(listener);
+                batch.addFile(files[(run == 2) ? 1 : 0]);
+                
+                batch.start();
+                assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+                assertTrue(listener.failed.isEmpty());
+                
+                assertEquals(0, manifest.getSkipped());
+                assertEquals(0, manifest.getPruned());
+            }
+            
+            assertTrue(new File(dstDirectory, "example.jpg").exists());
+            assertTrue(new File(dstDirectory, "small_example.jpg").exists());
+            assertEquals(1, new BatchManifest(manifestFile).size());
+        } finally {
+            for (File file : srcDirectory.listFiles())
+                file.delete();
+            
+            srcDirectory.delete();
+        }
+    }
+    
+    /**
+     * Tests pausing and resuming a batch.
+     * 
+     * <p>Three test images are resized by one thread, and the batch is paused
+     * when the first file is saved. Expected is that no more files are saved
+     * while the batch is paused, and that the rest are saved once it is
+     * resumed.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testPause() throws Exception {
+        final BatchResizer batch = new BatchResizer(new JPEGImageSaver(dstDirectory, null), new AspectKeepingImageResizer(100));
+        final CountDownLatch paused = new CountDownLatch(1);
+        
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void fileSaved(BatchSaveEvent evt) {
+                super.fileSaved(evt);
+                
+                if (saved.size() == 1) {
+                    batch.pause();
+                    paused.countDown();
+                }
+            }
+        };
+        
+        batch.setThreadCount(1);
+        batch.setProgressListener(listener);
+        batch.addFile(new File("testimages/example1.jpg"));
+        batch.addFile(new File("testimages/example2.png"));
+        batch.addFile(new File("testimages/example5.gif"));
+        batch.start();
+        
+        assertTrue(paused.await(60, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        
+        assertEquals(BatchState.Paused, batch.getState());
+        assertEquals(1, listener.saved.size());
+        
+        batch.resume();
+        assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+        
+        assertEquals(3, listener.saved.size());
+        assertFalse(batch.isCancelled());
+    }
+    
+    /**
+     * Tests cancelling a batch and continuing it from its journal.
+     * 
+     * <p>Three test images are resized by one thread with a journal, and the
+     * batch is cancelled when the first file is saved. Expected is that the
+     * batch finishes with one file saved and the journal kept, and that the
+     * batch started again with the journal does not process that file again,
+     * saves the rest, and deletes the journal. No partly written files may be
+     * left behind.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testCancelAndContinue() throws Exception {
+        File journalFile = new File(dstDirectory, "batch.journal");
+        File[] files     = { new File("testimages/example1.jpg"), new File("testimages/example2.png"),
+                             new File("testimages/example5.gif") };
+        List<File> cancelled = null;
+        
+        for (int run = 0; run < 2; run++) {
+            final BatchResizer batch = new BatchResizer(new JPEGImageSaver(dstDirectory, null), new AspectKeepingImageResizer(100));
+            final boolean cancel     = (run == 0);
+            BatchJournal journal     = new BatchJournal(journalFile);
+            
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void fileSaved(BatchSaveEvent evt) {
+                    super.fileSaved(evt);
+                    
+                    if (cancel)
+                        batch.cancel();
+                }
+            };
+            
+            batch.setThreadCount(1);
+            batch.setJournal(journal);
+            batch.setProgressListener(listener);
+            for (File file : files)
+                batch.addFile(file);
+            
+            batch.start();
+            assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+            assertTrue(listener.failed.isEmpty());
+            
+            if (cancel) {
+                assertTrue(batch.isCancelled());
+                assertTrue(listener.states.contains(BatchState.Cancelling));
+                assertEquals(1, listener.saved.size());
+                assertTrue(journalFile.exists());
+                cancelled = new ArrayList<File>(listener.saved);
+            } else {
+                assertFalse(batch.isCancelled());
+                assertEquals(1, journal.getResumed());
+                assertEquals(files.length, listener.saved.size());
+                assertEquals(cancelled, listener.skipped);
+                assertFalse(journalFile.exists());
+            }
+        }
+        
+        assertEquals(files.length, dstDirectory.listFiles().length);
+        for (File file : dstDirectory.listFiles())
+            assertFalse(file.getName().endsWith(".part"));
+    }
+    
+    /**
+     * Tests producing several renditions of every image.
+     * 
+     * <p><em>example1.jpg</em> and <em>example2.png</em> are resized to long
+     * sides of 400 and 100 and to a 150x150 box. Expected is that every file
+     * is reported saved once, that every rendition is written with its own
+     * prefix and dimensions, and that the small rendition, cascaded from the
+     * large one, is close to the image resized directly from the source.</p>
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRenditions() throws Exception {
+        List<Rendition> renditions = new ArrayList<Rendition>();
+        renditions.add(new Rendition(new AspectKeepingImageResizer(100), new PNGImageSaver(dstDirectory, "small_")));
+        renditions.add(new Rendition(new AspectKeepingImageResizer(400), new PNGImageSaver(dstDirectory, "large_")));
+        renditions.add(new Rendition(new BoxFittingImageResizer(150, 150), new PNGImageSaver(dstDirectory, "box_")));
+        
+        MultiRenditionBatchResizer batch = new MultiRenditionBatchResizer(renditions);
+        batch.setProgressListener(listener);
+        
+        File[] files = { new File("testimages/example1.jpg"), new File("testimages/example2.png") };
+        for (File file : files)
+            batch.addFile(file);
+        
+        batch.start();
+        assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+        
+        assertEquals(files.length, listener.saved.size());
+        assertTrue(listener.failed.isEmpty());
+        assertEquals(3 * files.length, dstDirectory.listFiles().length);
+        
+        for (File file : files) {
+            String name            = file.getName().substring(0, file.getName().lastIndexOf('.')) + ".png";
+            BufferedImage srcImage = ImageUtil.loadImage(file.getPath());
+            BufferedImage small    = ImageUtil.loadImage(new File(dstDirectory, "small_" + name).getPath());
+            BufferedImage large    = ImageUtil.loadImage(new File(dstDirectory, "large_" + name).getPath());
+            BufferedImage box      = ImageUtil.loadImage(new File(dstDirectory, "box_" + name).getPath());
+            
+            assertEquals(100, Math.max(small.getWidth(), small.getHeight()));
+            assertEquals(400, Math.max(large.getWidth(), large.getHeight()));
+            assertEquals(150, box.getWidth());
+            assertEquals(150, box.getHeight());
+            
+            BufferedImage direct = new AspectKeepingImageResizer(100).resize(srcImage);
+            assertEquals(direct.getWidth(), small.getWidth());
+            assertEquals(direct.getHeight(), small.getHeight());
+            assertTrue(ImageRowSourceTests.meanDifference(ImageUtil.normalize(direct), ImageUtil.normalize(small)) < 8);
+        }
+    }
+    
+    /**
+     * Tests processing a batch using several worker threads.
+     * 
+     * <p>The test images are resized using four threads. Expected is that the
+     * state changes to <c>Processing</c> and <c>Finished</c> exactly once, that
+     * every file is reported as started once and as either saved or failed once,
+     * and that only <em>nonimage.txt</em> fails.</p>
+     * 
+     * @throws InterruptedException if the test fails
+     */
+    @Test
+    public void testParallelBatch() throws InterruptedException {
+        BatchResizer batch = new BatchResizer(new JPEGImageSaver(dstDirectory, null),
+                new AspectKeepingImageResizer(100));
+        batch.setThreadCount(4);
+        batch.setProgressListener(listener);
+        
+        List<File> files = addTestImages(batch);
+        batch.start();
+        
+        assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+        
+        assertEquals(2, listener.states.size());
+        assertEquals(BatchState.Processing, listener.states.get(0));
+        assertEquals(BatchState.Finished, listener.states.get(1));
+        
+        assertEquals(files.size(), listener.started.size());
+        assertTrue(listener.started.containsAll(files));
+        
+        assertEquals(files.size() - 1, listener.saved.size());
+        assertEquals(1, listener.failed.size());
+        assertEquals(new File("testimages/nonimage.txt"), listener.failed.get(0));
+        
+        assertNull(batch.getCurrentFile());
+        assertTrue(batch.getFilesInProgress().isEmpty());
+        assertEquals(files.size() - 1, dstDirectory.listFiles().length);
+    }
+    
+    /**
+     * Records the pools chosen for resizing the images.
+     */
+    private static class PoolRecordingBatchResizer extends BatchResizer {
+        final List<ForkJoinPool> pools = Collections.synchronizedList(new ArrayList<ForkJoinPool>());
+        
+        PoolRecordingBatchResizer(ImageSaver saver, ImageResizer resizer) {
+            super(saver, resizer);
+        }
+        
+        @Override
+        protected ForkJoinPool getResizePool(BufferedImage image) {
+            ForkJoinPool pool = super.getResizePool(image);
+            pools.add(pool);
+            
+            return pool;
+        }
+    }
+    
+    /**
+     * Tests resizing a single image on all the worker threads.
+     * 
+     * <p>A batch of one image is processed with four threads, first with a
+     * parallel resize threshold below the size of the image and then above it.
+     * Expected is that the image is split into bands only in the first case, and
+     * that it is saved in both cases.</p>
+     * 
+     * @throws InterruptedException if the test fails
+     */
+    @Test
+    public void testParallelResize() throws InterruptedException {
+        for (long threshold : new long[] { 1, Long.MAX_VALUE }) {
+            RecordingListener listener = new RecordingListener();
+            PoolRecordingBatchResizer batch = new PoolRecordingBatchResizer(
+                    new JPEGImageSaver(dstDirectory, null), new AspectKeepingImageResizer(100));
+            batch.setThreadCount(4);
+            batch.setParallelResizeThreshold(threshold);
+            batch.setProgressListener(listener);
+            batch.addFile(new File("testimages/example2.png"));
+            batch.start();
+            
+            assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+            assertEquals(1, listener.saved.size());
+            assertEquals(1, batch.pools.size());
+            assertEquals(threshold == 1, batch.pools.get(0) != null);
+        }
+    }
+    
+    /**
+     * Tests processing a batch with a memory budget smaller than any of the
+     * test images.
+     * 
+     * <p>Expected is that the images are streamed in strips and admitted one at
+     * a time instead of being rejected, so the outcome is the same as without a
+     * budget.</p>
+     * 
+     * @throws InterruptedException if the test fails
+     */
+    @Test
+    public void testTinyMemoryBudget() throws InterruptedException {
+        BatchResizer batch = new BatchResizer(new JPEGImageSaver(dstDirectory, null),
+                new AspectKeepingImageResizer(100));
+        batch.setThreadCount(4);
+        batch.setMemoryBudget(1024);
+        batch.setProgressListener(listener);
+        
+        List<File> files = addTestImages(batch);
+        batch.start();
+        
+        assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+        assertEquals(files.size() - 1, listener.saved.size());
+        assertEquals(1, listener.failed.size());
+    }
+    
+    /**
+     * Tests processing a batch using the pipelined engine.
+     * 
+     * <p>The test images are resized using two threads per stage and at most two
+     * images in flight, so the decoder threads have to wait for the encoder.
+     * Expected is the same outcome as with the worker pool, and that every stage
+     * has recorded the files that reached it.</p>
+     * 
+     * @throws InterruptedException if the test fails
+     */
+    @Test
+    public void testPipelinedBatch() throws InterruptedException {
+        PipelinedBatchResizer batch = new PipelinedBatchResizer(new PNGImageSaver(dstDirectory, null),
+                new AspectKeepingImageResizer(100));
+        for (PipelineStage stage : PipelineStage.values())
+            batch.setStageThreadCount(stage, 2);
+        
+        batch.setMaxImagesInFlight(2);
+        batch.setMemoryBudget(4 * 1024 * 1024);
+        batch.setProgressListener(listener);
+        
+        List<File> files = addTestImages(batch);
+        batch.start();
+        
+        assertTrue(listener.finished.await(60, TimeUnit.SECONDS));
+        
+        assertEquals(2, listener.states.size());
+        assertEquals(BatchState.Finished, listener.states.get(1));
+        assertEquals(files.size(), listener.started.size());
+        assertEquals(files.size() - 1, listener.saved.size());
+        assertEquals(1, listener.failed.size());
+        assertTrue(batch.getFilesInProgress().isEmpty());
+        
+        assertEquals(files.size(), batch.getStatistics(PipelineStage.Decode).getItemCount());
+        assertEquals(files.size() - 1, batch.getStatistics(PipelineStage.Resize).getItemCount());
+        assertEquals(files.size() - 1, batch.getStatistics(PipelineStage.Encode).getItemCount());
+        
+        for (PipelineStage stage : PipelineStage.values()) {
+            double utilization = batch.getStatistics(stage).getUtilization();
+            assertTrue(utilization > 0.0 && utilization <= 1.0);
+        }
+    }
+    
+    /**
+     * Tests setting the thread count to an illegal value (<c>0</c>).
+     * @throws IllegalArgumentException if the test succeeded
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testIllegalThreadCount() throws IllegalArgumentException {
+        BatchResizer batch = new BatchResizer(new JPEGImageSaver(dstDirectory, null),
+                new AspectKeepingImageResizer());
+        batch.setThreadCount(0);
+    }
+}
@@ -1,6 +1,9 @@
 package mnylen.imagebatchresizer.resizer.tests;
 
 import mnylen.imagebatchresizer.resizer.*;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -42,4 +45,149 @@ public class BoxFittingImageResizerTests {
         assertEquals(500, dstImage.getWidth());
         assertEquals(500, dstImage.getHeight());
     }
+    
+    /**
+     * Tests that the resized image is written into the box exactly like it
+     * would be drawn on a box filled with the background color, with and
+     * without a resample filter and an alignment.
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testMatchesDrawing() throws FileNotFoundException, IOException {
+        BufferedImage srcImage = ImageUtil.loadImage("testimages/example1.jpg");
+        AspectKeepingImageResizer reference = new AspectKeepingImageResizer(500);
+        
+        resizer.setBackground(Color.BLUE);
+        assertBox(reference.resize(srcImage), 0, 62, resizer.resize(srcImage));
+        
+        resizer.setAlignment(BoxFittingImageResizer.LEADING_ALIGNMENT, BoxFittingImageResizer.TRAILING_ALIGNMENT);
+        resizer.setResampleFilter(ResampleFilter.Lanczos3);
+        reference.setResampleFilter(ResampleFilter.Lanczos3);
+        assertBox(reference.resize(srcImage), 0, 125, resizer.resize(srcImage));
+    }
+    
+    /**
+     * Tests fitting images in boxes that are not square.
+     * 
+     * <p>Images of 300x400 and 400x300 pixels are fitted in boxes of 300x100
+     * and 100x300 pixels. Expected is that every image is scaled to the
+     * largest size that fits the box without being clipped, and centered in
+     * the box on the other axis.</p>
+     */
+    @Test
+    public void testNonSquareBoxes() {
+        BufferedImage tall = createGradient(300, 400);
+        BufferedImage wide = createGradient(400, 300);
+        
+        assertFitted(tall, 300, 100, 75, 100, 112, 0);
+        assertFitted(tall, 100, 300, 100, 133, 0, 83);
+        assertFitted(wide, 300, 100, 133, 100, 83, 0);
+        assertFitted(wide, 100, 300, 100, 75, 0, 112);
+    }
+    
+    /**
+     * Asserts that the given image is fitted in a box of the given dimensions
+     * at the given dimensions and position.
+     * 
+     * @param image the image to fit
+     * @param boxWidth the width of the box
+     * @param boxHeight the height of the box
+     * @param width the expected width of the scaled image
+     * @param height the expected height of the scaled image
+     * @param x the expected horizontal position of the scaled image
+     * @param y the expected vertical position of the scaled image
+     */
+    private static void assertFitted(BufferedImage image, int boxWidth, int boxHeight, int width, int height,
+      int x, int y) {
+        
+        BoxFittingImageResizer boxResizer = new BoxFittingImageResizer(boxWidth, boxHeight);
+        boxResizer.setBackground(Color.BLUE);
+        
+        assertEquals(new Dimension(width, height), boxResizer.getTargetSize(image.getWidth(), image.getHeight()));
+        
+        BufferedImage box = boxResizer.resize(image);
+        assertEquals(boxWidth, box.getWidth());
+        assertEquals(boxHeight, box.getHeight());
+        
+        assertBox(new DefaultImageResizer(width, height).resize(image), x, y, box);
+    }
+    
+    /**
+     * Creates an opaque image of a diagonal gradient, so every part of it looks
+     * different.
+     * 
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the image
+     */
+    private static BufferedImage createGradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) & 0xff));
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Tests that images with an alpha channel are composited over the
+     * background, and that a translucent background produces a translucent box.
+     */
+    @Test
+    public void testBackground() {
+        BufferedImage srcImage = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 100; x++) {
+            for (int y = 0; y < 100; y++)
+                srcImage.setRGB(x, y, 0xffff0000);
+        }
+        
+        resizer = new BoxFittingImageResizer(100, 100);
+        resizer.setBackground(Color.GREEN);
+        
+        for (ResampleFilter filter : new ResampleFilter[] { null, ResampleFilter.Triangle }) {
+            resizer.setResampleFilter(filter);
+            
+            BufferedImage box = resizer.resize(srcImage);
+            assertEquals(BufferedImage.TYPE_INT_RGB, box.getType());
+            assertEquals(0xff00ff00, box.getRGB(50, 10));
+            assertEquals(0xffff0000, box.getRGB(10, 50));
+            assertEquals(0xff00ff00, box.getRGB(90, 50));
+        }
+        
+        resizer.setBackground(new Color(0, 0, 0, 0));
+        BufferedImage box = resizer.resize(srcImage);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, box.getType());
+        assertEquals(0, box.getRGB(50, 10));
+        assertEquals(0xffff0000, box.getRGB(10, 50));
+    }
+    
+    /**
+     * Asserts that the given box equals a box filled with blue with the given
+     * image drawn on it at the given position.
+     * 
+     * @param image the image expected in the box
+     * @param x the horizontal position of the image
+     * @param y the vertical position of the image
+     * @param box the box to check
+     */
+    private static void assertBox(BufferedImage image, int x, int y, BufferedImage box) {
+        int width  = box.getWidth();
+        int height = box.getHeight();
+        
+        BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expected.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width, height);
+        g.drawImage(image, x, y, null);
+        g.dispose();
+        
+        for (int by = 0; by < height; by++) {
+            for (int bx = 0; bx < width; bx++)
+                assertEquals(expected.getRGB(bx, by), box.getRGB(bx, by));
+        }
+    }
 }
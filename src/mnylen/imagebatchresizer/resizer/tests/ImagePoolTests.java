@@ -0,0 +1,124 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the <code>ImagePool</code> class works as expected.
+ */
+public class ImagePoolTests {
+    private ImagePool pool;
+    
+    /**
+     * Initializes the test case.
+     */
+    @Before
+    public void initialize() {
+        pool = ImagePool.current();
+        pool.clear();
+    }
+    
+    /**
+     * Cleans up after the test case.
+     */
+    @After
+    public void cleanUp() {
+        pool.clear();
+    }
+    
+    /**
+     * Tests that released images are handed out again only for the same
+     * dimensions and type, and that subimages are not pooled.
+     */
+    @Test
+    public void testReuse() {
+        BufferedImage image = pool.acquire(10, 20, BufferedImage.TYPE_INT_RGB);
+        pool.release(image);
+        
+        assertNotSame(image, pool.acquire(10, 20, BufferedImage.TYPE_INT_ARGB));
+        assertNotSame(image, pool.acquire(20, 10, BufferedImage.TYPE_INT_RGB));
+        assertSame(image, pool.acquire(10, 20, BufferedImage.TYPE_INT_RGB));
+        assertNotSame(image, pool.acquire(10, 20, BufferedImage.TYPE_INT_RGB));
+        
+        BufferedImage subimage = image.getSubimage(0, 0, 10, 10);
+        pool.release(subimage);
+        assertNotSame(subimage, pool.acquire(10, 10, BufferedImage.TYPE_INT_RGB));
+        
+        BufferedImage bgr = pool.acquire(10, 20, BufferedImage.TYPE_3BYTE_BGR);
+        pool.release(bgr);
+        assertSame(bgr, pool.acquire(10, 20, BufferedImage.TYPE_3BYTE_BGR));
+        
+        BufferedImage bytes = new BufferedImage(10, 20, BufferedImage.TYPE_4BYTE_ABGR);
+        pool.release(bytes);
+        assertNotSame(bytes, pool.acquire(10, 20, BufferedImage.TYPE_INT_ARGB));
+        pool.release(null);
+    }
+    
+    /**
+     * Tests that the pool keeps at most <code>MAX_IMAGES</code> images and drops
+     * the least recently released ones first.
+     */
+    @Test
+    public void testLimit() {
+        BufferedImage[] images = new BufferedImage[ImagePool.MAX_IMAGES + 1];
+        for (int i = 0; i < images.length; i++)
+            images[i] = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        
+        for (BufferedImage image : images)
+            pool.release(image);
+        
+        for (int i = images.length - 1; i > 0; i--)
+            assertSame(images[i], pool.acquire(10, 10, BufferedImage.TYPE_INT_RGB));
+        
+        assertNotSame(images[0], pool.acquire(10, 10, BufferedImage.TYPE_INT_RGB));
+    }
+    
+    /**
+     * Tests that resizing into pooled images left full of garbage gives the same
+     * result as resizing into new images.
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testResizeIntoDirtyImages() throws FileNotFoundException, IOException {
+        BufferedImage srcImage = ImageUtil.loadImage("testimages/example1.jpg");
+        
+        AspectKeepingImageResizer aspectKeeping = new AspectKeepingImageResizer(300);
+        BoxFittingImageResizer boxFitting       = new BoxFittingImageResizer(300, 300);
+        ImageResizer[] resizers = { aspectKeeping, boxFitting };
+        
+        for (ResampleFilter filter : new ResampleFilter[] { null, ResampleFilter.Lanczos3 }) {
+            aspectKeeping.setResampleFilter(filter);
+            boxFitting.setResampleFilter(filter);
+            
+            for (ImageResizer resizer : resizers) {
+                pool.clear();
+                BufferedImage expected = resizer.resize(srcImage);
+                
+                int[] garbage = new int[expected.getWidth() * expected.getHeight()];
+                Arrays.fill(garbage, 0xffff00ff);
+                expected.getRaster().setDataElements(0, 0, expected.getWidth(), expected.getHeight(), garbage);
+                pool.release(expected);
+                
+                BufferedImage resized = resizer.resize(srcImage);
+                assertSame(expected, resized);
+                
+                pool.clear();
+                BufferedImage fresh = resizer.resize(srcImage);
+                
+                for (int y = 0; y < fresh.getHeight(); y++) {
+                    for (int x = 0; x < fresh.getWidth(); x++)
+                        assertEquals(fresh.getRGB(x, y), resized.getRGB(x, y));
+                }
+            }
+        }
+    }
+}
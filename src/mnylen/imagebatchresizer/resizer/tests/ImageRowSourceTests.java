@@ -0,0 +1,130 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests that the <code>ImageRowSource</code> implementations work as expected.
+ */
+public class ImageRowSourceTests {
+    /**
+     * Calculates the mean absolute difference of the color channels of two
+     * images of the same size.
+     * 
+     * @param a the first image
+     * @param b the second image
+     * @return the mean difference per channel
+     */
+    static double meanDifference(BufferedImage a, BufferedImage b) {
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                
+                for (int shift = 0; shift < 24; shift += 8)
+                    total += Math.abs(((p >> shift) & 0xff) - ((q >> shift) & 0xff));
+            }
+        }
+        
+        return (double)total / (3L * a.getWidth() * a.getHeight());
+    }
+    
+    /**
+     * Tests reading an image in strips.
+     * 
+     * <p>The test image <em>testimages/example2.png</em> is read in strips of 100
+     * rows. Expected is that every pixel matches the image decoded as a whole.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testStripSource() throws FileNotFoundException, IOException {
+        BufferedImage whole = ImageUtil.loadImage("testimages/example2.png");
+        StripImageRowSource source = new StripImageRowSource(new File("testimages/example2.png"), 1, 100);
+        
+        try {
+            BufferedImage strips = ImageUtil.toBufferedImage(source);
+            assertEquals(0.0, meanDifference(whole, strips), 0.0);
+        } finally {
+            source.close();
+        }
+    }
+    
+    /**
+     * Tests reading a subsampled image in strips.
+     * 
+     * <p>Expected is that the strips line up with the image decoded as a whole
+     * using the same subsampling factor.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testSubsampledStripSource() throws FileNotFoundException, IOException {
+        File file = new File("testimages/example1.jpg");
+        BufferedImage whole = ImageUtil.loadImage(file, new AspectKeepingImageResizer(100));
+        StripImageRowSource source = new StripImageRowSource(file, 4, 50);
+        
+        try {
+            // The example is gray and is loaded as a gray image, which getRGB
+            // would convert from linear gray, so it is compared in RGB
+            assertEquals(0.0, meanDifference(ImageUtil.normalize(whole), ImageUtil.toBufferedImage(source)), 0.0);
+        } finally {
+            source.close();
+        }
+    }
+    
+    /**
+     * Tests resizing an image row by row.
+     * 
+     * <p>The test image is resized both as a whole and as a stream of rows.
+     * Expected is that the dimensions match and that the pixels differ by a
+     * few levels at most, the streamed result being filtered differently.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testStreamedResize() throws FileNotFoundException, IOException {
+        BufferedImage srcImage = ImageUtil.loadImage("testimages/example1.jpg");
+        ImageResizer[] resizers = {
+            new DefaultImageResizer(300, 200),
+            new AspectKeepingImageResizer(400),
+            new BoxFittingImageResizer(500, 500)
+        };
+        
+        for (ImageResizer resizer : resizers) {
+            BufferedImage whole    = resizer.resize(srcImage);
+            BufferedImage streamed = ImageUtil.toBufferedImage(
+                    resizer.resize(new BufferedImageRowSource(srcImage)));
+            
+            assertTrue(meanDifference(whole, streamed) < 4.0);
+        }
+    }
+    
+    /**
+     * Tests that a row source refuses to go backwards.
+     * @throws IOException if the test fails
+     */
+    @Test(expected=IllegalStateException.class)
+    public void testReadBackwards() throws IOException {
+        BufferedImage srcImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        ImageRowSource source  = new ScaledRowSource(new BufferedImageRowSource(srcImage), 50, 50);
+        int[] row = new int[50];
+        
+        source.readRow(10, row);
+        source.readRow(5, row);
+    }
+}
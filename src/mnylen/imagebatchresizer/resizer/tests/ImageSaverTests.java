@@ -1,8 +1,15 @@
 package mnylen.imagebatchresizer.resizer.tests;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -11,6 +18,12 @@ import mnylen.imagebatchresizer.resizer.*;
 
 import java.awt.image.BufferedImage;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Element;
+
 /**
  * Tests that the <code>ImageSaver</code> class works as expected.
  */
@@ -109,4 +122,432 @@ public class ImageSaverTests {
         assertEquals(dstImage.getWidth(), srcImage.getWidth());
         assertEquals(dstImage.getHeight(), srcImage.getHeight());
     }
+    
+    /**
+     * Tests that saving over an existing, longer file, or over a longer part
+     * file left behind, leaves only the new image in the file.
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testOverwrite()
+      throws FileNotFoundException, IOException {
+        
+        File srcFile           = new File("testimages/example1.jpg");
+        BufferedImage srcImage = ImageUtil.loadImage(srcFile.getAbsolutePath());
+        
+        File dstFile           = pngSaver.save(srcImage, srcFile);
+        long length            = dstFile.length();
+        
+        RandomAccessFile raf   = new RandomAccessFile(dstFile, "rw");
+        try {
+            raf.setLength(length * 2);
+        } finally {
+            raf.close();
+        }
+        
+        pngSaver.save(srcImage, srcFile);
+        assertEquals(length, dstFile.length());
+        
+        // A longer part file left behind by a killed run
+        File staleDirectory    = new File("testimages/staletest");
+        staleDirectory.mkdir();
+        
+        try {
+            ImageSaver saver   = new JPEGImageSaver(staleDirectory, null);
+            File partFile      = new File(staleDirectory, ".ibr-example1.jpg.12345.part");
+            File download      = new File(staleDirectory, "example2.jpg.part");
+            
+            raf                = new RandomAccessFile(partFile, "rw");
+            try {
+                raf.setLength(1024 * 1024);
+            } finally {
+                raf.close();
+            }
+            
+            Files.write(download.toPath(), new byte[3]);
+            
+            partFile.setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000);
+            download.setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000);
+            
+            dstFile            = saver.save(srcImage, srcFile);
+            assertEquals(jpgSaver.save(srcImage, srcFile).length(), dstFile.length());
+            assertFalse(partFile.exists());
+            assertTrue(download.exists());
+            assertEquals(2, staleDirectory.list().length);
+        } finally {
+            for (File file : staleDirectory.listFiles())
+                file.delete();
+            
+            staleDirectory.delete();
+        }
+    }
+    
+    /**
+     * Tests that the JPEG saver writes the images with the quality, chroma
+     * subsampling and encoding it is set to use.
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testJPEGOptions()
+      throws FileNotFoundException, IOException {
+        
+        File srcFile           = new File("testimages/example1.jpg");
+        BufferedImage srcImage = ImageUtil.loadImage(srcFile.getAbsolutePath());
+        JPEGImageSaver saver   = (JPEGImageSaver)jpgSaver;
+        
+        Element sof = readFrameHeader(saver.save(srcImage, srcFile));
+        assertEquals("0", sof.getAttribute("process"));
+        assertEquals("2", ((Element)sof.getFirstChild()).getAttribute("HsamplingFactor"));
+        assertEquals("2", ((Element)sof.getFirstChild()).getAttribute("VsamplingFactor"));
+        
+        long length = saver.save(srcImage, srcFile).length();
+        saver.setQuality(0.5f);
+        assertTrue(saver.save(srcImage, srcFile).length() < length);
+        
+        saver.setChromaSubsampling(ChromaSubsampling.YCbCr444);
+        saver.setProgressive(true);
+        saver.setOptimizeHuffman(true);
+        
+        sof = readFrameHeader(saver.save(srcImage, srcFile));
+        assertEquals("2", sof.getAttribute("process"));
+        assertEquals("1", ((Element)sof.getFirstChild()).getAttribute("HsamplingFactor"));
+        assertEquals("1", ((Element)sof.getFirstChild()).getAttribute("VsamplingFactor"));
+    }
+    
+    /**
+     * Tests that the JPEG saver lowers the quality to fit the files in the
+     * maximum file size, that it writes the files at the minimum quality if they
+     * do not fit at all, and that encoding on a pool gives the same files.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testJPEGMaxFileSize() throws Exception {
+        File srcFile                 = new File("testimages/example1.jpg");
+        final BufferedImage srcImage = ImageUtil.loadImage(srcFile.getAbsolutePath());
+        final JPEGImageSaver saver   = (JPEGImageSaver)jpgSaver;
+        
+        saver.setQuality(0.9f);
+        saver.setMaxFileSize(40000);
+        
+        final File dstFile = saver.save(srcImage, srcFile);
+        byte[] expected    = readFile(dstFile);
+        assertTrue(expected.length <= 40000);
+        
+        saver.setMaxFileSize(0);
+        saver.setQuality(0.3f);
+        assertTrue(saver.save(srcImage, srcFile).length() < expected.length);
+        
+        saver.setQuality(0.9f);
+        saver.setMaxFileSize(40000);
+        
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            pool.submit(new Callable<File>() {
+                public File call() throws IOException {
+                    return saver.save(srcImage, dstFile);
+                }
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+        
+        assertArrayEquals(expected, readFile(dstFile));
+        
+        saver.setMaxFileSize(1000);
+        saver.setMinQuality(0.2f);
+        long length = saver.save(srcImage, srcFile).length();
+        
+        saver.setMaxFileSize(0);
+        saver.setQuality(0.2f);
+        assertEquals(saver.save(srcImage, srcFile).length(), length);
+    }
+    
+    /**
+     * Tests that the PNG saver writes the pixels of RGB and ARGB images
+     * unchanged at every compression level, and that compressing the blocks on a
+     * pool gives the same files.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testPNGEncoder() throws Exception {
+        File srcFile              = new File("testimages/example1.jpg");
+        BufferedImage srcImage    = ImageUtil.normalize(ImageUtil.loadImage(srcFile.getAbsolutePath()));
+        final PNGImageSaver saver = (PNGImageSaver)pngSaver;
+        
+        final BufferedImage argbImage = new BufferedImage(srcImage.getWidth(), srcImage.getHeight(),
+                                                          BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < srcImage.getHeight(); y++) {
+            for (int x = 0; x < srcImage.getWidth(); x++)
+                argbImage.setRGB(x, y, (srcImage.getRGB(x, y) & 0xffffff) | ((x + y) << 24));
+        }
+        
+        for (int level : new int[] { 0, 1, 6 }) {
+            saver.setCompressionLevel(level);
+            
+            assertSamePixels(srcImage, ImageUtil.loadImage(saver.save(srcImage, srcFile).getPath()));
+            assertSamePixels(argbImage, ImageUtil.loadImage(saver.save(argbImage, srcFile).getPath()));
+        }
+        
+        final File dstFile = saver.save(argbImage, srcFile);
+        byte[] expected    = readFile(dstFile);
+        
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            pool.submit(new Callable<File>() {
+                public File call() throws IOException {
+                    return saver.save(argbImage, dstFile);
+                }
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+        
+        assertArrayEquals(expected, readFile(dstFile));
+        
+        try {
+            saver.setCompressionLevel(10);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    /**
+     * Tests that the indexed PNG saver saves images with few colors, including
+     * translucent ones, without loss, and reduces the colors of other images to
+     * the palette.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testIndexedPNG() throws Exception {
+        File srcFile               = new File("testimages/example1.jpg");
+        IndexedPNGImageSaver saver = new IndexedPNGImageSaver(dstDirectory, "indexed_");
+        
+        BufferedImage flatImage = createFlatImage();
+        assertSamePixels(flatImage, ImageUtil.loadImage(saver.save(flatImage, srcFile).getPath()));
+        
+        BufferedImage srcImage = createGradient();
+        saver.setMaxColors(16);
+        saver.setDither(true);
+        
+        BufferedImage dstImage = ImageUtil.loadImage(saver.save(srcImage, srcFile).getPath());
+        assertEquals(srcImage.getWidth(), dstImage.getWidth());
+        assertTrue(countColors(dstImage) <= 16);
+    }
+    
+    /**
+     * Tests that the GIF saver saves images with few colors without loss, with
+     * the translucent pixels made either transparent or opaque.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testGIF() throws Exception {
+        File srcFile        = new File("testimages/example1.jpg");
+        GIFImageSaver saver = new GIFImageSaver(dstDirectory, null);
+        
+        BufferedImage flatImage = createFlatImage();
+        File dstFile            = saver.save(flatImage, srcFile);
+        assertEquals("example1.gif", dstFile.getName());
+        
+        BufferedImage dstImage = ImageUtil.loadImage(dstFile.getPath());
+        for (int y = 0; y < flatImage.getHeight(); y++) {
+            for (int x = 0; x < flatImage.getWidth(); x++) {
+                int argb = flatImage.getRGB(x, y);
+                
+                if (argb >>> 24 < 128)
+                    assertEquals(0, dstImage.getRGB(x, y) >>> 24);
+                else
+                    assertEquals(argb | 0xff000000, dstImage.getRGB(x, y));
+            }
+        }
+        
+        BufferedImage srcImage = createGradient();
+        assertTrue(countColors(ImageUtil.loadImage(saver.save(srcImage, srcFile).getPath())) <= 256);
+    }
+    
+    /**
+     * Tests that gray images are saved as single component JPEGs and as gray
+     * PNGs, and that the JPEG saver still applies its options to them.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testSaveGray() throws Exception {
+        File srcFile       = new File("testimages/example1.jpg");
+        BufferedImage gray = new BufferedImage(64, 48, BufferedImage.TYPE_BYTE_GRAY);
+        
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < gray.getWidth(); x++)
+                gray.getRaster().setSample(x, y, 0, x * 4 - y);
+        }
+        
+        JPEGImageSaver saver = (JPEGImageSaver)jpgSaver;
+        saver.setProgressive(true);
+        
+        File dstFile = saver.save(gray, srcFile);
+        Element sof  = readFrameHeader(dstFile);
+        assertEquals("2", sof.getAttribute("process"));
+        assertEquals(1, sof.getChildNodes().getLength());
+        assertEquals(1, ImageIO.read(dstFile).getRaster().getNumBands());
+        
+        ByteArrayOutputStream encoding = new ByteArrayOutputStream();
+        saver.encode(gray, encoding);
+        assertArrayEquals(readFile(dstFile), encoding.toByteArray());
+        
+        long maxFileSize = dstFile.length() - 1;
+        saver.setMaxFileSize(maxFileSize);
+        saver.setMinQuality(0.0f);
+        
+        dstFile = saver.save(gray, srcFile);
+        assertTrue(dstFile.length() <= maxFileSize);
+        assertEquals(1, ImageIO.read(dstFile).getRaster().getNumBands());
+        
+        BufferedImage png = ImageIO.read(pngSaver.save(gray, srcFile));
+        assertEquals(1, png.getRaster().getNumBands());
+        assertSamePixels(gray, png);
+    }
+    
+    /**
+     * Tests that the automatic saver saves graphics as PNG and photographs as
+     * JPEG images, giving every file the extension of its format, and that it
+     * keeps the smallest encoding when told to.
+     * 
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testAutoFormat() throws Exception {
+        File srcFile         = new File("testimages/example1.jpg");
+        AutoImageSaver saver = new AutoImageSaver(dstDirectory, "auto_");
+        
+        BufferedImage flatImage = createFlatImage();
+        File dstFile            = saver.save(flatImage, srcFile);
+        assertEquals("auto_example1.png", dstFile.getName());
+        assertSamePixels(flatImage, ImageUtil.loadImage(dstFile.getPath()));
+        
+        BufferedImage photo = ImageUtil.loadImage(srcFile.getAbsolutePath());
+        assertEquals("auto_example1.jpg", saver.save(photo, srcFile).getName());
+        
+        saver.setKeepSmallest(true);
+        dstFile = saver.save(flatImage, new File("flat.bmp"));
+        assertEquals("auto_flat.png", dstFile.getName());
+        
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        saver.getIndexedPNGSaver().encode(flatImage, png);
+        assertArrayEquals(png.toByteArray(), readFile(dstFile));
+    }
+    
+    /**
+     * Creates an image of a few flat colors, some of them translucent.
+     * 
+     * @return the image
+     */
+    private static BufferedImage createFlatImage() {
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_ARGB);
+        int[] colors        = { 0x00000000, 0x40ff0000, 0xc000ff00, 0xff0000ff, 0xffffffff };
+        
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++)
+                image.setRGB(x, y, colors[(x / 8 + y / 8) % colors.length]);
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Creates an image of smooth gradients with thousands of colors.
+     * 
+     * @return the image
+     */
+    private static BufferedImage createGradient() {
+        BufferedImage image = new BufferedImage(256, 128, BufferedImage.TYPE_INT_RGB);
+        
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++)
+                image.setRGB(x, y, (x << 16) | (2 * y << 8) | ((x + y) & 0xff));
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Counts the distinct colors of the given image.
+     * 
+     * @param image the image
+     * @return the number of colors
+     */
+    private static int countColors(BufferedImage image) {
+        Set<Integer> colors = new HashSet<Integer>();
+        
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++)
+                colors.add(image.getRGB(x, y));
+        }
+        
+        return colors.size();
+    }
+    
+    /**
+     * Asserts that the given images have the same pixels.
+     * 
+     * @param expected the expected image
+     * @param actual the actual image
+     */
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        int width  = expected.getWidth();
+        int height = expected.getHeight();
+        
+        assertEquals(width, actual.getWidth());
+        assertEquals(height, actual.getHeight());
+        assertArrayEquals(expected.getRGB(0, 0, width, height, null, 0, width),
+                          actual.getRGB(0, 0, width, height, null, 0, width));
+    }
+    
+    /**
+     * Reads the contents of the given file.
+     * 
+     * @param file the file to read
+     * @return the contents of the file
+     * @throws IOException if reading the file fails
+     */
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data          = new byte[(int)file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        
+        return data;
+    }
+    
+    /**
+     * Reads the start of frame marker of the given JPEG file.
+     * 
+     * @param file the file to read
+     * @return the <code>sof</code> node of the native metadata tree
+     * @throws IOException if reading the file fails
+     */
+    private static Element readFrameHeader(File file) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        try {
+            ImageReader reader = ImageIO.getImageReaders(stream).next();
+            reader.setInput(stream);
+            
+            Element tree = (Element)reader.getImageMetadata(0).getAsTree("javax_imageio_jpeg_image_1.0");
+            reader.dispose();
+            
+            return (Element)tree.getElementsByTagName("sof").item(0);
+        } finally {
+            stream.close();
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package mnylen.imagebatchresizer.resizer.tests;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -8,7 +9,9 @@ import mnylen.imagebatchresizer.resizer.*;
 import org.junit.*;
 import static org.junit.Assert.*;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 
 /**
  * Tests that the <code>ImageUtil</code> class works as expected.
@@ -99,4 +102,154 @@ public class ImageUtilTests {
          BufferedImage im = ImageUtil.loadImage("testimages/nonimage.txt");
          assertNull(im);
      }
+     
+     /**
+      * Tests that the dimensions read from the image headers match the dimensions
+      * of the decoded images.
+      * 
+      * @throws FileNotFoundException if the test fails
+      * @throws IOException if the test fails
+      */
+     @Test
+     public void testReadImageSize() throws FileNotFoundException, IOException {
+         String[] files = { "testimages/example1.jpg", "testimages/example2.png",
+                            "testimages/example4.bmp", "testimages/example5.gif" };
+         
+         for (String filename : files) {
+             BufferedImage im = ImageUtil.loadImage(filename);
+             Dimension size   = ImageUtil.readImageSize(new File(filename));
+             
+             assertEquals(im.getWidth(), size.width);
+             assertEquals(im.getHeight(), size.height);
+         }
+         
+         assertNull(ImageUtil.readImageSize(new File("testimages/nonimage.txt")));
+     }
+     
+     /**
+      * Tests loading an image for a large downscale.
+      * 
+      * <p>The 1024 x 768 px test image is going to be resized to 100 x 75 px, so
+      * expected is that it is decoded with a subsampling factor of 4, that is, at
+      * 256 x 192 px, which is still at least twice the target size.</p>
+      * 
+      * @throws FileNotFoundException if the test fails
+      * @throws IOException if the test fails
+      */
+     @Test
+     public void testLoadSubsampled() throws FileNotFoundException, IOException {
+         ImageResizer resizer = new AspectKeepingImageResizer(100);
+         BufferedImage im     = ImageUtil.loadImage(new File("testimages/example1.jpg"), resizer);
+         
+         assertEquals(256, im.getWidth());
+         assertEquals(192, im.getHeight());
+         
+         BufferedImage resized = resizer.resize(im);
+         assertEquals(100, resized.getWidth());
+         assertEquals(75,  resized.getHeight());
+         
+         // No subsampling when scaling up
+         im = ImageUtil.loadImage(new File("testimages/example1.jpg"), new AspectKeepingImageResizer(2000));
+         assertEquals(1024, im.getWidth());
+         assertEquals(768,  im.getHeight());
+         
+         assertEquals(1, ImageUtil.getSubsamplingFactor(1024, 768, 600, 450));
+         assertEquals(4, ImageUtil.getSubsamplingFactor(6000, 4000, 600, 400));
+     }
+     
+     /**
+      * Tests that images are converted to packed RGB or ARGB ints without
+      * changing their pixels, and that the loaded images are always packed or
+      * gray.
+      * 
+      * @throws FileNotFoundException if the test fails
+      * @throws IOException if the test fails
+      */
+     @Test
+     public void testNormalize() throws FileNotFoundException, IOException {
+         String[] files = { "testimages/example1.jpg", "testimages/example2.png",
+                            "testimages/example4.bmp", "testimages/example5.gif" };
+         
+         for (String filename : files) {
+             BufferedImage im         = ImageUtil.loadImage(filename);
+             BufferedImage normalized = ImageUtil.normalize(im);
+             
+             int expectedType = im.getColorModel().hasAlpha()
+                 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+             assertEquals(expectedType, normalized.getType());
+             
+             for (int y = 0; y < im.getHeight(); y += 7) {
+                 for (int x = 0; x < im.getWidth(); x += 5)
+                     assertEquals(im.getRGB(x, y), normalized.getRGB(x, y));
+             }
+             
+             assertSame(normalized, ImageUtil.normalize(normalized));
+             
+             int type = ImageUtil.loadImage(new File(filename), new AspectKeepingImageResizer(100)).getType();
+             assertTrue(type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                     || type == BufferedImage.TYPE_BYTE_GRAY);
+         }
+         
+         // Gray levels are copied to all three channels as they are
+         BufferedImage gray = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_GRAY);
+         gray.getRaster().setSample(0, 0, 0, 100);
+         gray.getRaster().setSample(1, 0, 0, 255);
+         
+         BufferedImage normalized = ImageUtil.normalize(gray);
+         assertEquals(0xff646464, normalized.getRGB(0, 0));
+         assertEquals(0xffffffff, normalized.getRGB(1, 0));
+         
+         assertNull(ImageUtil.normalize(null));
+     }
+     
+     /**
+      * Tests that images with only gray pixels are converted to gray images,
+      * and that images with color are not, even if the color is only on rows
+      * left out of the sampled check. Also tests that gray images, whether
+      * stored in gray or in color, are loaded as gray images.
+      * 
+      * @throws IOException if the test fails
+      */
+     @Test
+     public void testToGray() throws IOException {
+         BufferedImage image = new BufferedImage(50, 200, BufferedImage.TYPE_INT_RGB);
+         for (int y = 0; y < image.getHeight(); y++) {
+             for (int x = 0; x < image.getWidth(); x++)
+                 image.setRGB(x, y, (x + y) * 0x010101);
+         }
+         
+         // Noise within the tolerance is taken to be gray
+         image.setRGB(3, 4, 0x101011 + ImageUtil.GRAY_TOLERANCE * 0x0100);
+         
+         BufferedImage gray = ImageUtil.toGray(image);
+         assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.getType());
+         assertEquals(10, gray.getRaster().getSample(9, 1, 0));
+         
+         image.setRGB(0, 1, 0x102030);
+         assertSame(image, ImageUtil.toGray(image));
+         
+         BufferedImage argb = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+         assertSame(argb, ImageUtil.toGray(argb));
+         assertNull(ImageUtil.toGray(null));
+         
+         File dir = new File("testimages/test");
+         dir.mkdir();
+         
+         try {
+             File file = new File(dir, "gray.png");
+             
+             for (BufferedImage stored : new BufferedImage[] { gray, ImageUtil.normalize(gray) }) {
+                 ImageIO.write(stored, "png", file);
+                 
+                 BufferedImage loaded = ImageUtil.loadImage(file, new AspectKeepingImageResizer(500));
+                 assertEquals(BufferedImage.TYPE_BYTE_GRAY, loaded.getType());
+                 assertEquals(10, loaded.getRaster().getSample(9, 1, 0));
+             }
+         } finally {
+             for (File file : dir.listFiles())
+                 file.delete();
+             
+             dir.delete();
+         }
+     }
 }
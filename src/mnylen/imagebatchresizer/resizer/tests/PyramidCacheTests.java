@@ -0,0 +1,96 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the <code>PyramidCache</code> class works as expected.
+ */
+public class PyramidCacheTests {
+    private File cacheDirectory;
+    
+    /**
+     * Initializes the test case.
+     */
+    @Before
+    public void initialize() {
+        cacheDirectory = new File("testimages/pyramidtest");
+        cacheDirectory.mkdir();
+    }
+    
+    /**
+     * Cleans up any created resources.
+     */
+    @After
+    public void cleanUp() {
+        for (File file : cacheDirectory.listFiles())
+            file.delete();
+        
+        cacheDirectory.delete();
+    }
+    
+    /**
+     * Tests loading an image through the cache.
+     * 
+     * <p>The test image <em>testimages/example1.jpg</em> is loaded twice for a
+     * long side of 100. Expected is that the first load decodes the file and
+     * stores levels, and that the second one reads the smallest level that is
+     * at least as large as the target, which resizes to the same dimensions.</p>
+     * 
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testLoad() throws IOException {
+        PyramidCache cache                = new PyramidCache(cacheDirectory, 64 * 1024 * 1024);
+        AspectKeepingImageResizer resizer = new AspectKeepingImageResizer(100);
+        File file                         = new File("testimages/example1.jpg");
+        
+        BufferedImage decoded = ImageUtil.loadImage(file, resizer, cache);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(cacheDirectory.listFiles().length > 0);
+        assertTrue(cache.getSize() > 0);
+        
+        BufferedImage level = ImageUtil.loadImage(file, resizer, cache);
+        assertEquals(1, cache.getHits());
+        assertTrue(level.getWidth() >= 100);
+        assertTrue(level.getWidth() < decoded.getWidth());
+        
+        Dimension direct = resizer.getTargetSize(decoded.getWidth(), decoded.getHeight());
+        BufferedImage resized = resizer.resize(level);
+        assertEquals(direct, new Dimension(resized.getWidth(), resized.getHeight()));
+    }
+    
+    /**
+     * Tests that the cache is kept within its maximum size.
+     * 
+     * <p>Levels of two test images are stored in a cache too small for all of
+     * them. Expected is that the size of the cache stays within the limit, that
+     * it matches the files left in the cache directory, and that a new cache
+     * opened on the directory finds the same levels.</p>
+     * 
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testEviction() throws IOException {
+        PyramidCache cache = new PyramidCache(cacheDirectory, 40 * 1024);
+        
+        ImageUtil.loadImage(new File("testimages/example1.jpg"), new AspectKeepingImageResizer(100), cache);
+        ImageUtil.loadImage(new File("testimages/example2.png"), new AspectKeepingImageResizer(100), cache);
+        
+        long length = 0;
+        for (File file : cacheDirectory.listFiles())
+            length += file.length();
+        
+        assertTrue(cache.getSize() <= cache.getMaxBytes());
+        assertEquals(length, cache.getSize());
+        assertEquals(length, new PyramidCache(cacheDirectory, 40 * 1024).getSize());
+    }
+}
@@ -0,0 +1,88 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests that the <code>RowConvolver</code> implementations agree.
+ */
+public class RowConvolverTests {
+    /**
+     * Calculates the largest difference of any channel of two images of the
+     * same size.
+     * 
+     * @param a the first image
+     * @param b the second image
+     * @return the largest difference
+     */
+    static int maxDifference(BufferedImage a, BufferedImage b) {
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        
+        int max = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                
+                for (int shift = 0; shift < 32; shift += 8)
+                    max = Math.max(max, Math.abs(((p >>> shift) & 0xff) - ((q >>> shift) & 0xff)));
+            }
+        }
+        
+        return max;
+    }
+    
+    /**
+     * Tests that the vector convolver falls back to the scalar one.
+     * 
+     * <p>Expected is that a convolver is always returned, and that it is the
+     * scalar one exactly when the vector implementation is not available.</p>
+     */
+    @Test
+    public void testFallback() {
+        assertNotNull(RowConvolver.vector());
+        assertEquals(!RowConvolver.isVectorAvailable(), RowConvolver.vector() == RowConvolver.scalar());
+    }
+    
+    /**
+     * Tests that the vector convolver produces the same images as the scalar
+     * one.
+     * 
+     * <p>The test images <em>testimages/example1.jpg</em> and the transparent
+     * <em>testimages/example5.gif</em> are scaled down and up with every filter
+     * using both convolvers. Expected is that no channel differs by more than
+     * one. The test is skipped if the vector convolver is not available.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testVectorMatchesScalar() throws FileNotFoundException, IOException {
+        Assume.assumeTrue(RowConvolver.isVectorAvailable());
+        
+        for (String name : new String[] { "testimages/example1.jpg", "testimages/example5.gif" }) {
+            BufferedImage image = ImageUtil.loadImage(name);
+            
+            for (ResampleFilter filter : ResampleFilter.values()) {
+                for (double scale : new double[] { 0.13, 1.7 }) {
+                    int width  = (int)(image.getWidth() * scale);
+                    int height = (int)(image.getHeight() * scale);
+                    
+                    BufferedImage scalar = SeparableResampler.resample(image, width, height, filter,
+                            RowConvolver.scalar());
+                    BufferedImage vector = SeparableResampler.resample(image, width, height, filter,
+                            RowConvolver.vector());
+                    
+                    assertTrue(name + " " + filter + " " + scale, maxDifference(scalar, vector) <= 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package mnylen.imagebatchresizer.resizer.tests;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import mnylen.imagebatchresizer.resizer.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests that the <code>SeparableResampler</code> works as expected.
+ */
+public class SeparableResamplerTests {
+    /**
+     * Tests that every filter keeps a flat color intact.
+     * 
+     * <p>An image filled with a single color is resampled up and down with every
+     * filter. Expected is that every pixel of the result has the same color, as
+     * the weights of every filter must sum to one.</p>
+     */
+    @Test
+    public void testFlatColor() {
+        BufferedImage image = new BufferedImage(97, 61, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(200, 100, 50));
+        g.fillRect(0, 0, 97, 61);
+        g.dispose();
+        
+        for (ResampleFilter filter : ResampleFilter.values()) {
+            for (int size : new int[] { 13, 250 }) {
+                BufferedImage result = SeparableResampler.resample(image, size, size, filter);
+                
+                assertEquals(size, result.getWidth());
+                assertEquals(size, result.getHeight());
+                
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++)
+                        assertEquals(filter + " at " + x + "," + y, 0xffc86432, result.getRGB(x, y));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tests that the pixels are read the same from every kind of raster.
+     * 
+     * <p>The test image <em>testimages/example1.jpg</em> is copied to images of
+     * types <code>TYPE_INT_RGB</code>, <code>TYPE_3BYTE_BGR</code> and
+     * <code>TYPE_USHORT_565_RGB</code>, of which the first two are read straight
+     * from the raster and the last one pixel by pixel. Expected is that the
+     * resampled images are identical to the ones resampled from the same pixels
+     * in an image of type <code>TYPE_INT_RGB</code>.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testRasterLayouts() throws FileNotFoundException, IOException {
+        BufferedImage image = ImageUtil.loadImage("testimages/example1.jpg");
+        BufferedImage ints  = convert(image, BufferedImage.TYPE_INT_RGB);
+        BufferedImage bytes = convert(image, BufferedImage.TYPE_3BYTE_BGR);
+        
+        BufferedImage expected = SeparableResampler.resample(ints, 200, 150, ResampleFilter.Lanczos3);
+        
+        assertEquals(0.0, ImageRowSourceTests.meanDifference(expected,
+                SeparableResampler.resample(bytes, 200, 150, ResampleFilter.Lanczos3)), 0.0);
+        
+        BufferedImage shorts = convert(ints, BufferedImage.TYPE_USHORT_565_RGB);
+        BufferedImage packed = new BufferedImage(shorts.getWidth(), shorts.getHeight(), BufferedImage.TYPE_INT_RGB);
+        packed.setRGB(0, 0, shorts.getWidth(), shorts.getHeight(),
+                shorts.getRGB(0, 0, shorts.getWidth(), shorts.getHeight(), null, 0, shorts.getWidth()),
+                0, shorts.getWidth());
+        
+        assertEquals(0.0, ImageRowSourceTests.meanDifference(
+                SeparableResampler.resample(packed, 200, 150, ResampleFilter.Lanczos3),
+                SeparableResampler.resample(shorts, 200, 150, ResampleFilter.Lanczos3)), 0.0);
+    }
+    
+    /**
+     * Tests that transparent pixels do not bleed their color.
+     * 
+     * <p>The left half of an image is transparent red and the right half opaque
+     * blue. Expected is that no red shows in the opaque or half transparent
+     * pixels of the resampled image.</p>
+     */
+    @Test
+    public void testTransparency() {
+        BufferedImage image = new BufferedImage(100, 10, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 100; x++)
+                image.setRGB(x, y, (x < 50) ? 0x00ff0000 : 0xff0000ff);
+        }
+        
+        BufferedImage result = SeparableResampler.resample(image, 30, 3, ResampleFilter.Mitchell);
+        assertTrue(result.getColorModel().hasAlpha());
+        
+        for (int x = 0; x < 30; x++) {
+            int p = result.getRGB(x, 1);
+            
+            if ((p >>> 24) != 0)
+                assertEquals("red at " + x, 0, (p >> 16) & 0xff);
+        }
+    }
+    
+    /**
+     * Tests resampling gray images.
+     * 
+     * <p>A gray image is resampled and resized progressively as it is and
+     * after converting it to packed RGB ints. Expected is that the gray results
+     * are gray images with the same levels as the color results, and that a
+     * color image can not be resampled into a gray image.</p>
+     */
+    @Test
+    public void testGray() {
+        BufferedImage gray = new BufferedImage(123, 77, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < gray.getWidth(); x++)
+                gray.getRaster().setSample(x, y, 0, (x * 7 + y * y) & 0xff);
+        }
+        
+        BufferedImage color = ImageUtil.normalize(gray);
+        
+        for (ResampleFilter filter : new ResampleFilter[] { null, ResampleFilter.Lanczos3 }) {
+            DefaultImageResizer resizer = new DefaultImageResizer(40, 25);
+            resizer.setResampleFilter(filter);
+            resizer.setProgressive(true);
+            
+            BufferedImage grayResult  = resizer.resize(gray);
+            BufferedImage colorResult = resizer.resize(color);
+            assertEquals(BufferedImage.TYPE_BYTE_GRAY, grayResult.getType());
+            
+            for (int y = 0; y < 25; y++) {
+                for (int x = 0; x < 40; x++)
+                    assertEquals(colorResult.getRGB(x, y) & 0xff, grayResult.getRaster().getSample(x, y, 0));
+            }
+        }
+        
+        try {
+            SeparableResampler.resample(color, 40, 25, ResampleFilter.Box, RowConvolver.scalar(),
+                    new BufferedImage(40, 25, BufferedImage.TYPE_BYTE_GRAY), 0, 0, null);
+            fail("a color image was resampled into a gray image");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+    
+    /**
+     * Tests that the resizers use the filter set for them.
+     * 
+     * <p>Expected is that the result of a resizer with a filter set equals the
+     * result of the resampler with the same filter.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testResizerFilter() throws FileNotFoundException, IOException {
+        BufferedImage image = ImageUtil.loadImage("testimages/example2.png");
+        AspectKeepingImageResizer resizer = new AspectKeepingImageResizer(120);
+        resizer.setResampleFilter(ResampleFilter.Box);
+        
+        BufferedImage resized = resizer.resize(image);
+        BufferedImage expected = SeparableResampler.resample(image, resized.getWidth(), resized.getHeight(),
+                ResampleFilter.Box);
+        
+        assertEquals(0.0, ImageRowSourceTests.meanDifference(expected, resized), 0.0);
+    }
+    
+    /**
+     * Tests resizing an image in bands.
+     * 
+     * <p>The test image <em>testimages/example1.jpg</em> is resized with and
+     * without a resample filter, once in the calling thread and once in bands
+     * on a pool of four threads. Expected is that the bands line up exactly with
+     * the image resized in the calling thread.</p>
+     * 
+     * @throws FileNotFoundException if the test fails
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testBands() throws FileNotFoundException, IOException {
+        BufferedImage image = ImageUtil.loadImage("testimages/example1.jpg");
+        ForkJoinPool pool   = new ForkJoinPool(4);
+        
+        try {
+            for (ResampleFilter filter : new ResampleFilter[] { null, ResampleFilter.Lanczos3 }) {
+                DefaultImageResizer resizer = new DefaultImageResizer(301, 457);
+                resizer.setResampleFilter(filter);
+                
+                assertEquals(0.0, ImageRowSourceTests.meanDifference(resizer.resize(image),
+                        resizer.resize(image, pool)), 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Copies the given image to a new image of the given type.
+     * 
+     * @param image the image to copy
+     * @param type the type of the new image
+     * @return the new image
+     */
+    private static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = result.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        
+        return result;
+    }
+}